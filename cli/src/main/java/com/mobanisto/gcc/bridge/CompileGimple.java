@@ -21,8 +21,10 @@ public class CompileGimple {
             System.exit(1);
         }
 
+        // An output path ending in .jar is written as a single archive
         Path output = Paths.get(args[0]);
-        if (!Files.exists(output)) {
+        boolean outputJar = output.getFileName().toString().endsWith(".jar");
+        if (!outputJar && !Files.exists(output)) {
             Files.createDirectories(output);
         }
 
@@ -49,7 +51,11 @@ public class CompileGimple {
         compiler.setClassName(mainClass);
         compiler.setVerbose(true);
         compiler.addMathLibrary();
-        compiler.setOutputDirectory(output.toFile());
+        if (outputJar) {
+            compiler.setOutputJar(output.toFile());
+        } else {
+            compiler.setOutputDirectory(output.toFile());
+        }
         compiler.setLinkClassLoader(getLinkClassLoader());
         compiler.setLoggingDirectory(logDir.toFile());
 
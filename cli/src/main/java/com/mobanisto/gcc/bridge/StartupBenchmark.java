@@ -0,0 +1,130 @@
+package com.mobanisto.gcc.bridge;
+
+import org.renjin.gcc.cds.ClassDataArchiveBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the startup time of a program with and without an archive built by the
+ * {@link ClassDataArchiveBuilder}, as by the {@code cdsArchive} task.
+ *
+ * <p>The program is started alternately with and without {@code -XX:SharedArchiveFile} in a fresh JVM,
+ * and the wall-clock time until it exits is recorded. Both configurations still use the JDK's own default
+ * archive, if any, so that the difference is due to the archived application classes alone.</p>
+ */
+public class StartupBenchmark {
+
+    private final File javaExecutable;
+    private final File archiveFile;
+    private final String classpath;
+    private final List<String> command;
+
+    public StartupBenchmark(File javaExecutable, File archiveFile, String classpath, List<String> command) {
+        this.javaExecutable = javaExecutable;
+        this.archiveFile = archiveFile;
+        this.classpath = classpath;
+        this.command = command;
+    }
+
+    /**
+     * Runs the program {@code runs} times in each configuration, after one untimed warm-up run of each,
+     * and prints the median and minimum startup times.
+     */
+    public void run(int runs) throws IOException, InterruptedException {
+        long[] withoutArchive = new long[runs];
+        long[] withArchive = new long[runs];
+
+        // Warm up the file system cache
+        time(false);
+        time(true);
+
+        for (int i = 0; i < runs; i++) {
+            withoutArchive[i] = time(false);
+            withArchive[i] = time(true);
+        }
+
+        report("without archive", withoutArchive);
+        report("with archive", withArchive);
+    }
+
+    private long time(boolean useArchive) throws IOException, InterruptedException {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(javaExecutable.getAbsolutePath());
+        if (useArchive) {
+            commandLine.add("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath());
+            // Fail, rather than silently measure a run without the archive
+            commandLine.add("-Xshare:on");
+        }
+        commandLine.add("-cp");
+        commandLine.add(classpath);
+        commandLine.addAll(command);
+
+        ProcessBuilder processBuilder = new ProcessBuilder(commandLine);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(archiveFile.getPath() + ".benchmark.log")));
+
+        long start = System.nanoTime();
+        int exitCode = processBuilder.start().waitFor();
+        long time = System.nanoTime() - start;
+
+        if (exitCode != 0) {
+            throw new IOException("Command failed with exit code " + exitCode + ": " + String.join(" ", commandLine));
+        }
+        return time;
+    }
+
+    private static void report(String label, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-16s median %7.1f ms   min %7.1f ms   (%d runs)%n", label,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[0] / 1e6,
+                sorted.length);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File javaExecutable = new File(System.getProperty("java.home"), "bin/java");
+        File archiveFile = null;
+        String classpath = null;
+        int runs = 10;
+        List<String> command = new ArrayList<>();
+
+        for (String arg : args) {
+            if (command.isEmpty() && arg.startsWith("--")) {
+                String[] parts = arg.split("=", 2);
+                String option = parts[0];
+                String value = parts[1];
+                switch (option) {
+                    case "--archive":
+                        archiveFile = new File(value);
+                        break;
+                    case "--classpath":
+                        classpath = value;
+                        break;
+                    case "--java":
+                        javaExecutable = new File(value);
+                        break;
+                    case "--runs":
+                        runs = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown option " + arg);
+                }
+            } else {
+                command.add(arg);
+            }
+        }
+
+        if (archiveFile == null || classpath == null || command.isEmpty()) {
+            System.err.println("usage: StartupBenchmark --archive=<file.jsa> --classpath=<classpath> " +
+                    "[--java=<java>] [--runs=N] main-class [args...]");
+            System.exit(1);
+        }
+
+        new StartupBenchmark(javaExecutable, archiveFile, classpath, command).run(runs);
+    }
+}
@@ -3,12 +3,18 @@ package org.renjin.gcc;
 import org.renjin.gcc.annotations.GlobalVar;
 import org.renjin.gcc.link.LinkSymbol;
 import org.renjin.gcc.link.LinkSymbol.SymbolType;
+import org.renjin.gcc.link.LinkSymbolIndex;
+import org.renjin.gcc.output.DirectoryOutputSink;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Scans the provided list of classes for static methods and fields should be eligible for linking
@@ -27,6 +33,8 @@ public class BuildMetadata {
       outputDir.mkdirs();
     }
 
+    List<LinkSymbol> symbols = new ArrayList<>();
+
     for (String arg : args) {
       Class<?> clazz = Class.forName(arg);
       for (Method method : clazz.getMethods()) {
@@ -39,9 +47,9 @@ public class BuildMetadata {
 
           // Skip methods that are to be treated as global variables
           if(method.isAnnotationPresent(GlobalVar.class)) {
-            LinkSymbol.forMethod(method, SymbolType.GETTER).write(outputDir);
+            symbols.add(LinkSymbol.forMethod(method, SymbolType.GETTER));
           } else {
-            LinkSymbol.forMethod(method, SymbolType.METHOD).write(outputDir);
+            symbols.add(LinkSymbol.forMethod(method, SymbolType.METHOD));
           }
         }
       }
@@ -50,11 +58,18 @@ public class BuildMetadata {
         if(Modifier.isStatic(field.getModifiers()) && Modifier.isPublic(field.getModifiers()) &&
             field.getAnnotation(Deprecated.class) == null) {
 
-          LinkSymbol symbol = LinkSymbol.forField(field);
-          symbol.write(outputDir);
+          symbols.add(LinkSymbol.forField(field));
         }
       }
 
     }
+
+    // Overloaded methods share a name; as before, the last one written wins
+    Map<String, LinkSymbol> byName = new LinkedHashMap<>();
+    for (LinkSymbol symbol : symbols) {
+      symbol.write(outputDir);
+      byName.put(symbol.getName(), symbol);
+    }
+    LinkSymbolIndex.write(new DirectoryOutputSink(outputDir), byName.values());
   }
 }
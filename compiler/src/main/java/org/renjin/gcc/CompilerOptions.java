@@ -0,0 +1,250 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc;
+
+import org.renjin.gcc.analysis.FunctionInliner;
+
+/**
+ * Options which control code generation, shared by all the unit classes
+ * generated by a single {@link GimpleCompiler}.
+ */
+public class CompilerOptions {
+
+  private boolean profilingEnabled = false;
+
+  private boolean scalarReplacementEnabled = false;
+
+  private boolean recordClassesEnabled = false;
+
+  private boolean allocationTrackingEnabled = false;
+
+  private boolean loopVectorizationEnabled = false;
+
+  private boolean ptrDevirtualizationEnabled = false;
+
+  private boolean stackArenaEnabled = false;
+
+  private boolean localSlotSharingEnabled = false;
+
+  private boolean allocationSinkingEnabled = false;
+
+  private boolean inliningEnabled = false;
+
+  private int inlineSizeLimit = FunctionInliner.DEFAULT_SIZE_LIMIT;
+
+  private boolean treeShakingEnabled = false;
+
+  private int maxClassSize = 0;
+
+  private boolean complexReturnSlotEnabled = false;
+
+  private boolean cppStaticInitializersEnabled = false;
+
+  /**
+   * @return true if generated functions should record call counts, timings and basic block
+   * hits using {@link org.renjin.gcc.runtime.Profiler}
+   */
+  public boolean isProfilingEnabled() {
+    return profilingEnabled;
+  }
+
+  public void setProfilingEnabled(boolean profilingEnabled) {
+    this.profilingEnabled = profilingEnabled;
+  }
+
+  /**
+   * @return true if local records whose address is never taken should be split into one
+   * JVM local variable per field.
+   */
+  public boolean isScalarReplacementEnabled() {
+    return scalarReplacementEnabled;
+  }
+
+  public void setScalarReplacementEnabled(boolean scalarReplacementEnabled) {
+    this.scalarReplacementEnabled = scalarReplacementEnabled;
+  }
+
+  /**
+   * @return true if records which are never reinterpreted as another type should be stored in
+   * generated JVM classes with typed fields, rather than in memory.
+   */
+  public boolean isRecordClassesEnabled() {
+    return recordClassesEnabled;
+  }
+
+  public void setRecordClassesEnabled(boolean recordClassesEnabled) {
+    this.recordClassesEnabled = recordClassesEnabled;
+  }
+
+  /**
+   * @return true if calls to {@code malloc}, {@code calloc}, {@code realloc} and {@code free} should
+   * report to {@link org.renjin.gcc.runtime.AllocationTracker}, which accounts for memory per call site
+   * and enforces quotas.
+   */
+  public boolean isAllocationTrackingEnabled() {
+    return allocationTrackingEnabled;
+  }
+
+  public void setAllocationTrackingEnabled(boolean allocationTrackingEnabled) {
+    this.allocationTrackingEnabled = allocationTrackingEnabled;
+  }
+
+  /**
+   * @return true if counted loops over arrays of primitives should be given a second, array-specialized
+   * body that the JIT can vectorize.
+   *
+   * @see org.renjin.gcc.codegen.LoopVectorizer
+   */
+  public boolean isLoopVectorizationEnabled() {
+    return loopVectorizationEnabled;
+  }
+
+  public void setLoopVectorizationEnabled(boolean loopVectorizationEnabled) {
+    this.loopVectorizationEnabled = loopVectorizationEnabled;
+  }
+
+  /**
+   * @return true if loads and stores through pointers of statically unknown implementation should first
+   * test for the array-backed implementation suggested by the pointer's base type, and access its array directly.
+   */
+  public boolean isPtrDevirtualizationEnabled() {
+    return ptrDevirtualizationEnabled;
+  }
+
+  public void setPtrDevirtualizationEnabled(boolean ptrDevirtualizationEnabled) {
+    this.ptrDevirtualizationEnabled = ptrDevirtualizationEnabled;
+  }
+
+  /**
+   * @return true if {@code alloca()} buffers which do not outlive their function, and variadic argument blocks,
+   * should be allocated from the thread's {@link org.renjin.gcc.runtime.StackArena} rather than the heap.
+   */
+  public boolean isStackArenaEnabled() {
+    return stackArenaEnabled;
+  }
+
+  public void setStackArenaEnabled(boolean stackArenaEnabled) {
+    this.stackArenaEnabled = stackArenaEnabled;
+  }
+
+  /**
+   * @return true if local variables whose live ranges do not overlap should share JVM local variable slots.
+   *
+   * @see org.renjin.gcc.codegen.var.LocalSlotAllocator
+   */
+  public boolean isLocalSlotSharingEnabled() {
+    return localSlotSharingEnabled;
+  }
+
+  public void setLocalSlotSharingEnabled(boolean localSlotSharingEnabled) {
+    this.localSlotSharingEnabled = localSlotSharingEnabled;
+  }
+
+  /**
+   * @return true if the initialization of local variables, including the allocation of arrays and records,
+   * should be moved from the function's entry to the block which dominates their uses.
+   *
+   * @see org.renjin.gcc.codegen.AllocationSinker
+   */
+  public boolean isAllocationSinkingEnabled() {
+    return allocationSinkingEnabled;
+  }
+
+  public void setAllocationSinkingEnabled(boolean allocationSinkingEnabled) {
+    this.allocationSinkingEnabled = allocationSinkingEnabled;
+  }
+
+  /**
+   * @return true if calls to small functions should be replaced by a copy of the function's body.
+   *
+   * @see FunctionInliner
+   */
+  public boolean isInliningEnabled() {
+    return inliningEnabled;
+  }
+
+  public void setInliningEnabled(boolean inliningEnabled) {
+    this.inliningEnabled = inliningEnabled;
+  }
+
+  /**
+   * @return the largest estimated bytecode size of a function that will be inlined.
+   */
+  public int getInlineSizeLimit() {
+    return inlineSizeLimit;
+  }
+
+  public void setInlineSizeLimit(int inlineSizeLimit) {
+    this.inlineSizeLimit = inlineSizeLimit;
+  }
+
+  /**
+   * @return true if functions and global variables which cannot be reached from the entry points should be
+   * removed before code generation.
+   *
+   * @see org.renjin.gcc.analysis.TreeShaker
+   */
+  public boolean isTreeShakingEnabled() {
+    return treeShakingEnabled;
+  }
+
+  public void setTreeShakingEnabled(boolean treeShakingEnabled) {
+    this.treeShakingEnabled = treeShakingEnabled;
+  }
+
+  /**
+   * @return the largest estimated bytecode size of the functions generated into a single class, or zero
+   * if compilation units are never split.
+   *
+   * @see org.renjin.gcc.codegen.ClassPartitioner
+   */
+  public int getMaxClassSize() {
+    return maxClassSize;
+  }
+
+  public void setMaxClassSize(int maxClassSize) {
+    this.maxClassSize = maxClassSize;
+  }
+
+  /**
+   * @return true if functions returning a complex value should return the calling thread's
+   * {@link org.renjin.gcc.runtime.ComplexReturnSlot} rather than a newly allocated array.
+   */
+  public boolean isComplexReturnSlotEnabled() {
+    return complexReturnSlotEnabled;
+  }
+
+  public void setComplexReturnSlotEnabled(boolean complexReturnSlotEnabled) {
+    this.complexReturnSlotEnabled = complexReturnSlotEnabled;
+  }
+
+  /**
+   * @return true if the static initializer of each unit's class should invoke the unit's C++ static
+   * initializers.
+   *
+   * @see org.renjin.gcc.codegen.UnitClassGenerator#isCppStaticInitializer(String)
+   */
+  public boolean isCppStaticInitializersEnabled() {
+    return cppStaticInitializersEnabled;
+  }
+
+  public void setCppStaticInitializersEnabled(boolean cppStaticInitializersEnabled) {
+    this.cppStaticInitializersEnabled = cppStaticInitializersEnabled;
+  }
+}
@@ -25,30 +25,45 @@ import org.renjin.gcc.codegen.call.CallGenerator;
 import org.renjin.gcc.codegen.call.FunctionCallGenerator;
 import org.renjin.gcc.codegen.lib.SymbolLibrary;
 import org.renjin.gcc.codegen.type.TypeOracle;
+import org.renjin.gcc.codegen.type.record.RecordClassTypeStrategy;
 import org.renjin.gcc.gimple.GimpleCompilationUnit;
 import org.renjin.gcc.gimple.GimpleFunction;
 import org.renjin.gcc.gimple.GimpleParser;
+import org.renjin.gcc.gimple.GimpleVarDecl;
+import org.renjin.gcc.gimple.type.GimpleRecordTypeDef;
 import org.renjin.gcc.link.LinkSymbol;
+import org.renjin.gcc.link.LinkSymbolIndex;
+import org.renjin.gcc.link.ReferenceClassTable;
+import org.renjin.gcc.logging.CompilationMetrics;
 import org.renjin.gcc.logging.LogManager;
+import org.renjin.gcc.logging.Logger;
+import org.renjin.gcc.output.DirectoryOutputSink;
+import org.renjin.gcc.output.JarOutputSink;
+import org.renjin.gcc.output.OutputSink;
 import org.renjin.gcc.runtime.*;
 import org.renjin.gcc.symbols.GlobalSymbolTable;
 import org.renjin.gcc.symbols.SymbolTable;
 import org.renjin.repackaged.asm.Type;
 import org.renjin.repackaged.guava.annotations.VisibleForTesting;
+import org.renjin.repackaged.guava.base.Charsets;
 import org.renjin.repackaged.guava.base.Preconditions;
 import org.renjin.repackaged.guava.collect.Lists;
 import org.renjin.repackaged.guava.collect.Maps;
 import org.renjin.repackaged.guava.collect.Ordering;
 import org.renjin.repackaged.guava.collect.Sets;
-import org.renjin.repackaged.guava.io.Files;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Compiles a set of {@link GimpleCompilationUnit}s to bytecode
@@ -67,14 +82,28 @@ public class GimpleCompiler  {
 
   public static boolean TRACE = false;
 
+  /**
+   * The resource listing the internal names of all the classes written by the compiler, one per line,
+   * in the format expected by {@code -XX:SharedClassListFile}.
+   *
+   * @see org.renjin.gcc.cds.ClassDataArchiveBuilder
+   */
+  public static final String CLASS_LIST_NAME = "META-INF/org.renjin.gcc.classlist";
+
   private File outputDirectory;
 
+  private File outputJar;
+
+  private OutputSink outputSink;
+
   private File javadocOutputDirectory;
 
   private String packageName;
 
   private boolean verbose;
 
+  private int parseThreads = Runtime.getRuntime().availableProcessors();
+
   private ClassLoader linkClassLoader = getClass().getClassLoader();
 
   private GlobalSymbolTable globalSymbolTable;
@@ -92,6 +121,16 @@ public class GimpleCompiler  {
 
   private final LogManager logManager = new LogManager(System.err);
 
+  private final CompilerOptions options = new CompilerOptions();
+
+  private final CompilationMetrics metrics = new CompilationMetrics();
+
+  private File metricsFile;
+
+  private final Set<String> entryPoints = new HashSet<>();
+
+  private final List<String> writtenClasses = new ArrayList<>();
+
 
   public GimpleCompiler() {
     functionBodyTransformers.add(AddressableSimplifier.INSTANCE);
@@ -123,6 +162,21 @@ public class GimpleCompiler  {
     logManager.setLoggingDirectory(logDir);
   }
 
+  /**
+   * @return the time and memory spent so far in each phase of compilation and on each function.
+   */
+  public CompilationMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets the file to which compilation metrics are written after compilation. If the file name
+   * ends with ".csv", per-function metrics are written as CSV, otherwise a JSON report is written.
+   */
+  public void setMetricsFile(File metricsFile) {
+    this.metricsFile = metricsFile;
+  }
+
   /**
    * Sets the package name to use for the compiled JVM classes.
    *
@@ -144,6 +198,24 @@ public class GimpleCompiler  {
     this.outputDirectory = directory;
   }
 
+  /**
+   * Sets the jar file to which compiled class files and link metadata should be written, instead of
+   * writing each to a separate file in the output directory.
+   */
+  public void setOutputJar(File jarFile) {
+    this.outputJar = jarFile;
+  }
+
+  /**
+   * Sets the {@link OutputSink} to which all compiled class files and resources are written. This
+   * takes precedence over the output directory or jar.
+   *
+   * <p>The sink is not closed by the compiler.</p>
+   */
+  public void setOutputSink(OutputSink outputSink) {
+    this.outputSink = outputSink;
+  }
+
 
   /**
    * Sets the output directory for writing java source stubs for use by the javadoc tool.
@@ -166,24 +238,175 @@ public class GimpleCompiler  {
     IGNORE_ERRORS = ignoreErrors;
   }
 
+  public CompilerOptions getOptions() {
+    return options;
+  }
+
+  /**
+   * Enables instrumentation of the compiled functions with calls to {@link Profiler} to record
+   * call counts, timings and basic block hits. When disabled (the default), no probes are emitted.
+   */
+  public void setProfilingEnabled(boolean enabled) {
+    options.setProfilingEnabled(enabled);
+  }
+
+  /**
+   * Enables splitting local records whose address is never taken into one JVM local variable per field.
+   * Disabled by default.
+   */
+  public void setScalarReplacementEnabled(boolean enabled) {
+    options.setScalarReplacementEnabled(enabled);
+  }
+
+  /**
+   * Enables storing records in generated JVM classes, one per record type, with a typed field
+   * for each field of the record. Only records that are never reinterpreted as another type are
+   * stored this way; all others remain in memory.
+   *
+   * <p>Note that this changes the signatures of exported functions which take or return pointers
+   * to these records. The classes are named using the {@link #setRecordClassPrefix(String) record class prefix}.</p>
+   */
+  public void setRecordClassesEnabled(boolean enabled) {
+    options.setRecordClassesEnabled(enabled);
+  }
+
+  /**
+   * Enables instrumentation of calls to {@code malloc}, {@code calloc}, {@code realloc} and {@code free}
+   * with calls to {@link org.renjin.gcc.runtime.AllocationTracker}, which counts the bytes allocated, freed and
+   * leaked by each call site, and enforces per-thread quotas. When disabled (the default), allocations are
+   * not instrumented.
+   */
+  public void setAllocationTrackingEnabled(boolean enabled) {
+    options.setAllocationTrackingEnabled(enabled);
+  }
+
+  /**
+   * Enables the specialization of simple counted loops over arrays of {@code double}, {@code int}, and other
+   * primitives. Such loops are compiled twice: once as usual, and once with memory accessed directly through the
+   * arrays underlying the pointers, which HotSpot can auto-vectorize. The specialized loop is entered only if each
+   * pointer is backed by an array of the expected type at runtime. When disabled (the default), each loop is
+   * compiled once.
+   */
+  public void setLoopVectorizationEnabled(boolean enabled) {
+    options.setLoopVectorizationEnabled(enabled);
+  }
+
+  /**
+   * Enables guarded fast paths for loads and stores through pointers whose implementation is not known
+   * statically. Each access first checks whether the pointer is an instance of the array-backed class
+   * matching its base type, for example {@code DoublePtr} for {@code double*}, and if so reads or writes
+   * its array directly. Otherwise, the access falls back to the {@code Ptr} interface call, which can become
+   * megamorphic when many pointer implementations flow through the same code. When disabled (the default),
+   * all such accesses use the interface call.
+   */
+  public void setPtrDevirtualizationEnabled(boolean enabled) {
+    options.setPtrDevirtualizationEnabled(enabled);
+  }
+
+  /**
+   * Enables allocation from a per-thread stack arena. Functions which call {@code alloca()} or variadic functions
+   * mark the arena on entry and release it when they return or are unwound by an exception, so that these
+   * short-lived blocks are reused rather than allocated on the heap. Buffers whose pointer may outlive the function
+   * are still allocated on the heap. Disabled by default, as C code which wrongly uses such memory after its
+   * function has returned would find it reused.
+   */
+  public void setStackArenaEnabled(boolean enabled) {
+    options.setStackArenaEnabled(enabled);
+  }
+
+  /**
+   * Enables the reassignment of local variable slots after code generation, so that variables and temporaries
+   * whose live ranges do not overlap share a slot, and stores which are never read are dropped. This reduces
+   * the number of locals, and of wide load and store instructions, in large functions. Disabled by default.
+   */
+  public void setLocalSlotSharingEnabled(boolean enabled) {
+    options.setLocalSlotSharingEnabled(enabled);
+  }
+
+  /**
+   * Enables moving the initialization of local arrays, records and addressable variables from the function's
+   * entry to the block which dominates all of their uses, so that buffers only needed on rarely taken paths
+   * are not allocated on every call. Disabled by default.
+   */
+  public void setAllocationSinkingEnabled(boolean enabled) {
+    options.setAllocationSinkingEnabled(enabled);
+  }
+
+  /**
+   * Enables inlining calls to small functions, including functions defined in other compilation units,
+   * before code generation. Disabled by default.
+   */
+  public void setInliningEnabled(boolean enabled) {
+    options.setInliningEnabled(enabled);
+  }
+
+  /**
+   * Sets the largest estimated bytecode size of a function that will be inlined. Functions declared
+   * {@code inline} may be up to twice as large.
+   */
+  public void setInlineSizeLimit(int sizeLimit) {
+    options.setInlineSizeLimit(sizeLimit);
+  }
+
+  /**
+   * Enables the removal of functions and global variables which cannot be reached from the entry points,
+   * or, if a trampoline class is written, from the exported functions. Without entry points or a trampoline
+   * class, only unreachable static functions and variables are removed. Disabled by default.
+   */
+  public void setTreeShakingEnabled(boolean enabled) {
+    options.setTreeShakingEnabled(enabled);
+  }
+
+  /**
+   * Adds the (mangled) name of a public function or global variable which is used by JVM code, and from which
+   * the functions and variables to keep are found when tree shaking is enabled.
+   */
+  public void addEntryPoint(String name) {
+    entryPoints.add(name);
+  }
+
+  /**
+   * Sets the largest estimated bytecode size of the functions generated into a single class. Larger
+   * compilation units are split into several classes, grouping functions which call each other, and their
+   * global variables are moved to separately initialized holder classes. Zero, the default, disables splitting.
+   */
+  public void setMaxClassSize(int maxClassSize) {
+    options.setMaxClassSize(maxClassSize);
+  }
+
+  /**
+   * Enables returning complex values in a per-thread {@link org.renjin.gcc.runtime.ComplexReturnSlot} instead
+   * of a new array on every call. Compiled callers copy the result out immediately, but Java code calling the
+   * generated methods must also do so before making another complex-valued call on the same thread. Disabled
+   * by default.
+   */
+  public void setComplexReturnSlotEnabled(boolean enabled) {
+    options.setComplexReturnSlotEnabled(enabled);
+  }
+
+  /**
+   * Enables running the C++ static initializers of each compilation unit, such as the constructors of global
+   * objects, when the unit's class is initialized. If the unit is split into several classes, initializing any
+   * of them first initializes the unit's class. Disabled by default.
+   */
+  public void setCppStaticInitializersEnabled(boolean enabled) {
+    options.setCppStaticInitializersEnabled(enabled);
+  }
+
   public void addReferenceClass(Class<?> clazz) {
     globalSymbolTable.addMethods(clazz);
 
-    for (Method method : clazz.getMethods()) {
-      if(method.getAnnotation(GlobalVar.class) != null) {
-        if(method.getParameterTypes().length != 0) {
-          throw new IllegalStateException("Method " + method + " cannot be used as a " +
-              "@" + GlobalVar.class.getSimpleName() + ", it must have zero arguments");
-        }
-        providedVariables.put(method.getName(), new ProvidedGlobalVarGetter(method));
+    ReferenceClassTable table = ReferenceClassTable.of(clazz);
+    for (Method method : table.getGlobalVarGetters()) {
+      if(method.getParameterTypes().length != 0) {
+        throw new IllegalStateException("Method " + method + " cannot be used as a " +
+            "@" + GlobalVar.class.getSimpleName() + ", it must have zero arguments");
       }
+      providedVariables.put(method.getName(), new ProvidedGlobalVarGetter(method));
     }
 
-    for (Field field : clazz.getFields()) {
-      if(Modifier.isStatic(field.getModifiers()) && Modifier.isPublic(field.getModifiers()) &&
-          field.getAnnotation(Deprecated.class) == null) {
-        addVariable(field.getName(), field);
-      }
+    for (Field field : table.getFields()) {
+      addVariable(field.getName(), field);
     }
   }
 
@@ -211,15 +434,76 @@ public class GimpleCompiler  {
   public void compileSources(List<File> sourceFiles) throws Exception {
     GimpleParser parser = new GimpleParser();
 
-    List<GimpleCompilationUnit> units = new ArrayList<>();
-    for (File sourceFile : sourceFiles) {
-      try {
-        units.add(parser.parse(sourceFile));
-      } catch (Exception e) {
-        throw new IOException("Exception parsing gimple file " + sourceFile.getName(), e);
+    CompilationMetrics.Mark mark = CompilationMetrics.mark();
+    List<GimpleCompilationUnit> units = parse(parser, sourceFiles);
+    metrics.phase("parse", mark);
+
+    // Nothing else holds on to these units, so their bodies can be released as soon as they are compiled
+    compile(units, true);
+  }
+
+  /**
+   * Sets the number of threads used to parse Gimple files in {@link #compileSources(List)}. By default,
+   * one thread per available processor is used.
+   */
+  public void setParseThreads(int parseThreads) {
+    Preconditions.checkArgument(parseThreads >= 1, "parseThreads must be at least 1");
+    this.parseThreads = parseThreads;
+  }
+
+  /**
+   * Parses the given files in parallel, as units are independent of each other until they are linked.
+   * The memory allocated by the parser threads is added to the "parse" phase of the {@link #getMetrics() metrics}.
+   *
+   * @return the parsed units, in the same order as {@code sourceFiles}
+   */
+  List<GimpleCompilationUnit> parse(GimpleParser parser, List<File> sourceFiles) throws IOException {
+    int threads = Math.min(parseThreads, sourceFiles.size());
+    if(threads <= 1) {
+      List<GimpleCompilationUnit> units = new ArrayList<>();
+      for (File sourceFile : sourceFiles) {
+        try {
+          units.add(parser.parse(sourceFile));
+        } catch (Exception e) {
+          throw new IOException("Exception parsing gimple file " + sourceFile.getName(), e);
+        }
       }
+      return units;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "gcc-bridge-parser");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      // The caller's mark only measures its own thread, so the parser threads measure their own allocations
+      AtomicLong allocatedBytes = new AtomicLong();
+      List<Future<GimpleCompilationUnit>> parsed = new ArrayList<>();
+      for (File sourceFile : sourceFiles) {
+        parsed.add(executor.submit(() -> {
+          CompilationMetrics.Mark mark = CompilationMetrics.mark();
+          GimpleCompilationUnit unit = parser.parse(sourceFile);
+          allocatedBytes.accumulateAndGet(mark.allocatedBytesSince(), CompilationMetrics::sum);
+          return unit;
+        }));
+      }
+      List<GimpleCompilationUnit> units = new ArrayList<>();
+      for (int i = 0; i < sourceFiles.size(); i++) {
+        try {
+          units.add(parsed.get(i).get());
+        } catch (ExecutionException e) {
+          throw new IOException("Exception parsing gimple file " + sourceFiles.get(i).getName(), e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while parsing gimple files");
+        }
+      }
+      metrics.addAllocatedBytes("parse", allocatedBytes.get());
+      return units;
+    } finally {
+      executor.shutdownNow();
     }
-    compile(units);
   }
 
   
@@ -227,20 +511,90 @@ public class GimpleCompiler  {
    * Compiles the given {@link GimpleCompilationUnit}s to JVM class files.
    */
   public void compile(List<GimpleCompilationUnit> units) throws Exception {
+    compile(units, false);
+  }
+
+  /**
+   * Compiles the given {@link GimpleCompilationUnit}s to JVM class files.
+   *
+   * @param releaseBodies if true, the basic blocks and local variables of each unit's functions are discarded
+   *                      as soon as the unit's class has been written. Only the caller can know that the units
+   *                      are not used again.
+   */
+  void compile(List<GimpleCompilationUnit> units, boolean releaseBodies) throws Exception {
 
+    OutputSink providedSink = this.outputSink;
+    if(providedSink == null) {
+      if(outputJar != null) {
+        this.outputSink = new JarOutputSink(outputJar);
+      } else {
+        this.outputSink = new DirectoryOutputSink(outputDirectory);
+      }
+    }
+
+    writtenClasses.clear();
+
+    boolean closed = false;
     try {
 
+      CompilationMetrics.Mark mark = CompilationMetrics.mark();
       PmfRewriter.rewrite(units);
+      metrics.phase("pmfRewriter", mark);
+
+      mark = CompilationMetrics.mark();
       GlobalVarMerger.merge(units);
+      metrics.phase("globalVarMerger", mark);
 
+      mark = CompilationMetrics.mark();
       typeOracle.initRecords(units, linkClassLoader);
+      metrics.phase("initRecords", mark);
 
       // First apply any transformations needed by the code generation process
+      mark = CompilationMetrics.mark();
       transform(units);
+      metrics.phase("transform", mark);
+
+      // Inline small functions into their callers, and simplify the callers again
+      if(options.isInliningEnabled()) {
+        mark = CompilationMetrics.mark();
+        inline(units);
+        metrics.phase("inline", mark);
+      }
+
+      // Remove the functions and variables which cannot be reached from the entry points
+      if(options.isTreeShakingEnabled()) {
+        mark = CompilationMetrics.mark();
+        shake(units);
+        metrics.phase("treeShaking", mark);
+      }
 
       // Identify variables and fields that must be addressable
+      mark = CompilationMetrics.mark();
       AddressableFinder addressableFinder = new AddressableFinder(units);
       addressableFinder.mark();
+      metrics.phase("addressableFinder", mark);
+
+      // Identify local records that can be split into one local variable per field
+      typeOracle.getRecordTypes().setScalarReplacementEnabled(options.isScalarReplacementEnabled());
+      if(options.isScalarReplacementEnabled()) {
+        mark = CompilationMetrics.mark();
+        new ScalarReplacementFinder(units).mark();
+        metrics.phase("scalarReplacement", mark);
+      }
+
+      // Identify records that can be stored in their own JVM class
+      if(options.isRecordClassesEnabled()) {
+        mark = CompilationMetrics.mark();
+        Map<String, List<GimpleRecordTypeDef>> recordClasses = new RecordClassFinder(units).find();
+        for (Map.Entry<String, List<GimpleRecordTypeDef>> entry : recordClasses.entrySet()) {
+          Type className = Type.getObjectType(getInternalClassName(recordClassPrefix + "$" + entry.getKey()));
+          RecordClassTypeStrategy strategy = new RecordClassTypeStrategy(typeOracle, entry.getValue().get(0), className);
+          typeOracle.getRecordTypes().addRecordClass(strategy, entry.getValue());
+        }
+        metrics.phase("recordClasses", mark);
+      }
+
+      mark = CompilationMetrics.mark();
 
       // Queue up the global variable transforms
       List<GlobalVarTransformer> globalVarTransformers = new ArrayList<>();
@@ -261,24 +615,51 @@ public class GimpleCompiler  {
             globalVarTransformers,
             unit,
             this::writeResourcePrefix,
-            unitNames.get(unit));
+            unitNames.get(unit),
+            options);
         unitClassGenerators.add(generator);
       }
+      metrics.phase("symbolTables", mark);
 
       // Finally, run code generation
       Map<GimpleCompilationUnit, SymbolTable> symbolTableMap = new HashMap<>();
       for (UnitClassGenerator generator : unitClassGenerators) {
-        generator.emit(logManager);
-        writeClass(generator.getClassName(), generator.toByteArray());
+        mark = CompilationMetrics.mark();
+        generator.emit(logManager, metrics);
+        Map<String, byte[]> classFiles = generator.toClassFiles();
+        metrics.phase("codegen", mark);
+
+        mark = CompilationMetrics.mark();
+        for (Map.Entry<String, byte[]> classFile : classFiles.entrySet()) {
+          writeClass(classFile.getKey(), classFile.getValue());
+        }
 
         if(trampolineClassName == null && javadocOutputDirectory != null) {
           generator.emitJavaDoc(javadocOutputDirectory);
         }
+        metrics.phase("write", mark);
+
+        // Only the signatures of this unit's functions are needed from here on,
+        // to link calls from the remaining units and to write the trampolines
+        generator.release();
+        if(releaseBodies) {
+          for (GimpleFunction function : generator.getUnit().getFunctions()) {
+            function.releaseBody();
+          }
+        }
 
         symbolTableMap.put(generator.getUnit(), generator.getSymbolTable());
       }
 
+      mark = CompilationMetrics.mark();
+      for (RecordClassTypeStrategy recordClass : typeOracle.getRecordTypes().getRecordClasses()) {
+        RecordClassGenerator generator = new RecordClassGenerator(recordClass);
+        writeClass(generator.getClassName(), generator.generateClassFile());
+      }
+      metrics.phase("write", mark);
+
       // Write link metadata to META-INF/org.renjin.gcc.symbols
+      mark = CompilationMetrics.mark();
       writeLinkMetadata(unitClassGenerators);
 
       // If requested, generate a single class that wraps all exported functions
@@ -288,7 +669,32 @@ public class GimpleCompiler  {
 
       writePluginClasses(globalSymbolTable, symbolTableMap);
 
+      writeClassList();
+
+      if(providedSink == null) {
+        outputSink.close();
+      }
+      closed = true;
+      metrics.phase("link", mark);
+
+      if(verbose) {
+        metrics.printSummary(System.err, 10);
+      }
+      if(metricsFile != null) {
+        metrics.write(metricsFile);
+      }
+
     } finally {
+      if(providedSink == null && !closed) {
+        // Compilation failed: discard the partial output rather than leaving behind
+        // an archive that looks complete
+        try {
+          outputSink.abort();
+        } catch (Exception e) {
+          System.err.println("Failed to discard output: " + e.getMessage());
+        }
+      }
+      outputSink = providedSink;
       try {
         logManager.finish();
       } catch (Exception e) {
@@ -328,29 +734,50 @@ public class GimpleCompiler  {
 
   private void writeLinkMetadata(List<UnitClassGenerator> unitClassGenerators) throws IOException {
 
+    // Functions may be registered under several aliases, so collect
+    // the symbols first, and write them in a consistent order
+    Map<String, LinkSymbol> symbols = new TreeMap<>();
+
     for (Map.Entry<String, CallGenerator> entry : globalSymbolTable.getFunctions()) {
       if (entry.getValue() instanceof FunctionCallGenerator) {
         FunctionCallGenerator functionCallGenerator = (FunctionCallGenerator) entry.getValue();
         if (functionCallGenerator.getStrategy() instanceof FunctionGenerator) {
           FunctionGenerator functionGenerator = (FunctionGenerator) functionCallGenerator.getStrategy();
           for (String mangledName : functionGenerator.getMangledNames()) {
-            LinkSymbol symbol = LinkSymbol.forFunction(mangledName, functionGenerator.getMethodHandle());
-            try {
-              symbol.write(outputDirectory);
-            } catch (FileNotFoundException e) {
-              System.err.println("Exception writing link metadata for " + symbol.getName() + ": " + e.getMessage());
-            }
+            symbols.putIfAbsent(mangledName, LinkSymbol.forFunction(mangledName, functionGenerator.getMethodHandle()));
           }
         }
       }
     }
 
+    for (LinkSymbol symbol : symbols.values()) {
+      try {
+        symbol.write(outputSink);
+      } catch (FileNotFoundException e) {
+        System.err.println("Exception writing link metadata for " + symbol.getName() + ": " + e.getMessage());
+      }
+    }
+
     for (UnitClassGenerator unit : unitClassGenerators) {
       for (LinkSymbol symbol : unit.getGlobalVariableSymbols()) {
-        symbol.write(outputDirectory);
+        symbol.write(outputSink);
+        symbols.putIfAbsent(symbol.getName(), symbol);
       }
     }
 
+    // ...and all of them to a single index that can be read at startup
+    LinkSymbolIndex.write(outputSink, symbols.values());
+
+    // Earlier lookups of these names may have found nothing, or an older definition
+    globalSymbolTable.invalidateLinkSymbols(symbols.keySet());
+  }
+
+  private void writeClassList() throws IOException {
+    StringBuilder classList = new StringBuilder();
+    for (String internalName : writtenClasses) {
+      classList.append(internalName).append("\n");
+    }
+    writeResource(CLASS_LIST_NAME, classList.toString().getBytes(Charsets.UTF_8));
   }
 
 
@@ -418,9 +845,52 @@ public class GimpleCompiler  {
     }
   }
 
+  private void inline(List<GimpleCompilationUnit> units) {
+    FunctionInliner inliner = new FunctionInliner(units, options.getInlineSizeLimit());
+    for (GimpleFunction function : inliner.inline()) {
+      transformFunctionBody(logManager, function.getUnit(), function);
+    }
+    if(verbose) {
+      System.err.println("Inlined " + inliner.getInlinedCallCount() + " call sites");
+    }
+  }
+
+  private void shake(List<GimpleCompilationUnit> units) {
+    TreeShaker shaker = new TreeShaker(units);
+    shaker.addCppStaticInitializers();
+    for (String entryPoint : entryPoints) {
+      if(!shaker.addEntryPoint(entryPoint)) {
+        logManager.warning("Entry point " + entryPoint + " is not defined by any compilation unit");
+      }
+    }
+    if(trampolineClassName != null) {
+      shaker.addPublicFunctions();
+    }
+    if(entryPoints.isEmpty() && trampolineClassName == null) {
+      shaker.addPublicFunctions();
+      shaker.addPublicVariables();
+    }
+    shaker.shake();
+
+    Logger logger = logManager.getLogger("tree-shaking");
+    for (GimpleFunction function : shaker.getRemovedFunctions()) {
+      logger.log("Removed function " + function.getMangledName() + " from " + function.getUnit().getSourceName());
+    }
+    for (GimpleVarDecl decl : shaker.getRemovedVariables()) {
+      logger.log("Removed global variable " + decl.getMangledName() + " from " + decl.getUnit().getSourceName());
+    }
+    if(verbose) {
+      System.err.println("Removed " + shaker.getRemovedFunctions().size() + " unreachable functions and " +
+          shaker.getRemovedVariables().size() + " global variables");
+    }
+  }
+
   private void transformFunctionBody(LogManager logger, GimpleCompilationUnit unit, GimpleFunction function) {
+    CompilationMetrics.Mark mark = CompilationMetrics.mark();
+    int rounds = 0;
     boolean updated;
     do {
+      rounds++;
       updated = false;
       for(FunctionBodyTransformer transformer : functionBodyTransformers) {
         if(transformer.transform(logger, unit, function)) {
@@ -428,6 +898,7 @@ public class GimpleCompiler  {
         }
       }
     } while(updated);
+    metrics.functionTransformed(function, mark, rounds);
   }
 
 
@@ -493,18 +964,12 @@ public class GimpleCompiler  {
   }
 
   private void writeClass(String internalName, byte[] classByteArray) throws IOException {
-    writeResource(internalName + ".class", classByteArray);
+    writtenClasses.add(internalName);
+    outputSink.writeClass(internalName, classByteArray);
   }
 
   private void writeResource(String resourceName, byte[] content) throws IOException {
-    File classFile = new File(outputDirectory.getAbsolutePath() + File.separator + resourceName);
-    if(!classFile.getParentFile().exists()) {
-      boolean created = classFile.getParentFile().mkdirs();
-      if(!created) {
-        throw new IOException("Failed to create directory for class file: " + classFile.getParentFile());
-      }
-    }
-    Files.write(content, classFile);
+    outputSink.writeResource(resourceName, content);
   }
 
   public void addVariable(String globalVariableName, Class<?> declaringClass) {
@@ -550,9 +1015,68 @@ public class GimpleCompiler  {
           case "--output-dir":
             compiler.setOutputDirectory(new File(value));
             break;
+          case "--output-jar":
+            compiler.setOutputJar(new File(value));
+            break;
           case "--log-dir":
             compiler.setLoggingDirectory(new File(value));
             break;
+          case "--metrics":
+            compiler.setMetricsFile(new File(value));
+            break;
+          case "--profile":
+            compiler.setProfilingEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--scalar-replacement":
+            compiler.setScalarReplacementEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--record-classes":
+            compiler.setRecordClassesEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--track-allocations":
+            compiler.setAllocationTrackingEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--vectorize-loops":
+            compiler.setLoopVectorizationEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--devirtualize-ptr":
+            compiler.setPtrDevirtualizationEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--stack-arena":
+            compiler.setStackArenaEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--share-local-slots":
+            compiler.setLocalSlotSharingEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--sink-allocations":
+            compiler.setAllocationSinkingEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--inline-functions":
+            compiler.setInliningEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--inline-size-limit":
+            compiler.setInlineSizeLimit(Integer.parseInt(value));
+            break;
+          case "--tree-shake":
+            compiler.setTreeShakingEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--entry-points":
+            for (String entryPoint : value.split(",")) {
+              compiler.addEntryPoint(entryPoint.trim());
+            }
+            break;
+          case "--max-class-size":
+            compiler.setMaxClassSize(Integer.parseInt(value));
+            break;
+          case "--complex-return-slot":
+            compiler.setComplexReturnSlotEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--cpp-static-initializers":
+            compiler.setCppStaticInitializersEnabled(Boolean.parseBoolean(value));
+            break;
+          case "--parse-threads":
+            compiler.setParseThreads(Integer.parseInt(value));
+            break;
           default:
             throw new RuntimeException("Unknown option " + arg);
         }
@@ -41,6 +41,10 @@ public abstract class GimpleCompilerPlugin {
 
   /**
    * Override to write additional classfiles during the compilation process.
+   *
+   * <p>This is called after all unit classes have been written. When the units were parsed by
+   * {@link GimpleCompiler#compileSources(java.util.List)}, the bodies of the compiled functions have been
+   * released by then, and only their signatures remain available.</p>
    */
   public void writeClasses(CodeGenerationContext generationContext) throws IOException {
   }
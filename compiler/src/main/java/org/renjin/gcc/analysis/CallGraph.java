@@ -18,6 +18,7 @@
  */
 package org.renjin.gcc.analysis;
 
+import org.renjin.gcc.gimple.GimpleAlias;
 import org.renjin.gcc.gimple.GimpleBasicBlock;
 import org.renjin.gcc.gimple.GimpleCompilationUnit;
 import org.renjin.gcc.gimple.GimpleFunction;
@@ -34,7 +35,10 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Mapping between functions and their call sites
+ * Mapping between functions and their call sites.
+ *
+ * <p>Functions are identified by their mangled (assembler) names, which are the names used by
+ * {@link GimpleFunctionRef} and {@link GimpleAlias}.</p>
  */
 public class CallGraph {
 
@@ -48,10 +52,17 @@ public class CallGraph {
       this.function = function;
     }
 
+    public GimpleCompilationUnit getUnit() {
+      return unit;
+    }
+
     public GimpleFunction getFunction() {
       return function;
     }
 
+    /**
+     * @return the sites at which this function is called directly.
+     */
     public List<CallSite> getCallSites() {
       return callSites;
     }
@@ -61,6 +72,7 @@ public class CallGraph {
     private final FunctionNode callingFunction;
     private final GimpleBasicBlock basicBlock;
     private final GimpleCall statement;
+    private FunctionNode callee;
 
     public CallSite(FunctionNode callingFunction, GimpleBasicBlock basicBlock, GimpleCall statement) {
       this.callingFunction = callingFunction;
@@ -68,6 +80,14 @@ public class CallGraph {
       this.statement = statement;
     }
 
+    /**
+     * @return the function called at this site, or {@code null} if the call is indirect, or the function
+     * is not defined in any of the compilation units.
+     */
+    public FunctionNode getCallee() {
+      return callee;
+    }
+
     public GimpleCall getStatement() {
       return statement;
     }
@@ -85,11 +105,11 @@ public class CallGraph {
   private List<FunctionNode> functionNodes = Lists.newArrayList();
   private List<CallSite> callSites = Lists.newArrayList();
 
+  private final Map<String, FunctionNode> globalScope = Maps.newHashMap();
+  private final Map<GimpleCompilationUnit, Map<String, FunctionNode>> unitScopes = Maps.newHashMap();
 
-  public CallGraph(Collection<GimpleCompilationUnit> units) {
 
-    Map<String, FunctionNode> globalScope = Maps.newHashMap();
-    Map<GimpleCompilationUnit, Map<String, FunctionNode>> unitScopes = Maps.newHashMap();
+  public CallGraph(Collection<GimpleCompilationUnit> units) {
 
     // Do a first pass to create initial set of nodes
 
@@ -99,9 +119,9 @@ public class CallGraph {
 
       for (GimpleFunction function : unit.getFunctions()) {
         FunctionNode node = new FunctionNode(unit, function);
-        unitScope.put(function.getName(), node);
+        unitScope.put(function.getMangledName(), node);
         if(function.isPublic()) {
-          globalScope.put(function.getName(), node);
+          globalScope.put(function.getMangledName(), node);
         }
         functionNodes.add(node);
       }
@@ -109,6 +129,20 @@ public class CallGraph {
       unitScopes.put(unit, unitScope);
     }
 
+    // Aliases are resolved to the function they name
+    for (GimpleCompilationUnit unit : units) {
+      Map<String, FunctionNode> unitScope = unitScopes.get(unit);
+      for (GimpleAlias alias : unit.getAliases()) {
+        FunctionNode node = unitScope.get(alias.getDefinition());
+        if(node != null) {
+          unitScope.put(alias.getAlias(), node);
+          if(alias.isPublic()) {
+            globalScope.put(alias.getAlias(), node);
+          }
+        }
+      }
+    }
+
     // Now a second pass to link call sites to their functions
     for (FunctionNode callingNode : functionNodes) {
       Map<String, FunctionNode> unitScope = unitScopes.get(callingNode.unit);
@@ -117,9 +151,10 @@ public class CallGraph {
         for (GimpleStatement statement : basicBlock.getStatements()) {
           if(statement instanceof GimpleCall) {
             CallSite callSite = new CallSite(callingNode, basicBlock, ((GimpleCall) statement));
-            FunctionNode functionNode = findFunction(((GimpleCall) statement), unitScope, globalScope);
+            FunctionNode functionNode = findFunction(((GimpleCall) statement), unitScope);
             if(functionNode != null) {
               functionNode.callSites.add(callSite);
+              callSite.callee = functionNode;
             }
             callSites.add(callSite);
           }
@@ -136,7 +171,30 @@ public class CallGraph {
     return callSites;
   }
 
-  private FunctionNode findFunction(GimpleCall statement, Map<String, FunctionNode> unitScope, Map<String, FunctionNode> globalScope) {
+  /**
+   * Finds the function to which {@code name} refers from within {@code unit}.
+   *
+   * @return the function's node, or {@code null} if the function is not defined in any of the compilation units.
+   */
+  public FunctionNode findFunction(GimpleCompilationUnit unit, String name) {
+    FunctionNode node = unitScopes.get(unit).get(name);
+    if(node == null) {
+      return globalScope.get(name);
+    }
+    return node;
+  }
+
+  /**
+   * Finds the function exported under the mangled {@code name}, either as a public function
+   * or through a public alias.
+   *
+   * @return the function's node, or {@code null} if no compilation unit exports this name.
+   */
+  public FunctionNode findPublicFunction(String name) {
+    return globalScope.get(name);
+  }
+
+  private FunctionNode findFunction(GimpleCall statement, Map<String, FunctionNode> unitScope) {
     GimpleExpr functionExpr = statement.getFunction();
     if(functionExpr instanceof GimpleAddressOf) {
       GimpleAddressOf functionPtr = (GimpleAddressOf) functionExpr;
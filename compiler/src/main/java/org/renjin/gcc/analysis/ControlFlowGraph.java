@@ -100,6 +100,16 @@ public class ControlFlowGraph {
    * 
    */
   public ControlFlowGraph(GimpleFunction function) {
+    this(function, false);
+  }
+
+  /**
+   * Creates a new {@code ControlFlowGraph} from a {@code  GimpleFunction}.
+   *
+   * @param implicitEdges if true, also adds the edges which the generated bytecode can take, but which GCC omits
+   *                      after a call to a noreturn function.
+   */
+  public ControlFlowGraph(GimpleFunction function, boolean implicitEdges) {
     // Create nodes
     for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
       nodes.put(basicBlock.getIndex(), new Node(basicBlock));
@@ -135,6 +145,20 @@ public class ControlFlowGraph {
           addEdge(sourceNode, getNode(it.peek()));
         }
       }
+
+      // GCC omits the edges out of a block ending in a call to a noreturn function such as abort(),
+      // but the generated bytecode still falls through to the next block, or follows the block's jump
+      if(implicitEdges) {
+        Node blockNode = nodes.get(sourceBlock.getIndex());
+        if(!sourceBlock.isEmpty()) {
+          for (Integer target : sourceBlock.getLast().getJumpTargets()) {
+            addEdgeIfAbsent(blockNode, nodes.get(target));
+          }
+        }
+        if(sourceBlock.fallsThrough() && it.hasNext()) {
+          addEdgeIfAbsent(blockNode, getNode(it.peek()));
+        }
+      }
     }
   }
 
@@ -151,6 +175,14 @@ public class ControlFlowGraph {
     return nodes;
   }
   
+  public Node getEntryNode() {
+    return entryNode;
+  }
+
+  public Node getExitNode() {
+    return exitNode;
+  }
+
   public Node getNode(GimpleBasicBlock bb) {
     return nodes.get(bb.getIndex());
   }
@@ -159,6 +191,12 @@ public class ControlFlowGraph {
     from.outgoing.add(to);
     to.incoming.add(from);
   }
+
+  private void addEdgeIfAbsent(Node from, Node to) {
+    if(to != null && !from.outgoing.contains(to)) {
+      addEdge(from, to);
+    }
+  }
   
   public void dumpGraph(File file) throws IOException {
     try(PrintWriter writer = new PrintWriter(new FileWriter(file))) {
@@ -0,0 +1,122 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.expr.GimpleExpr;
+import org.renjin.gcc.gimple.expr.GimpleMemRef;
+import org.renjin.gcc.gimple.expr.GimpleVariableRef;
+
+import java.util.*;
+
+/**
+ * A loop made up of a single basic block, that steps an {@code int} induction variable by one
+ * on each iteration and otherwise only reads and writes memory through pointers that do not change
+ * within the loop.
+ *
+ * <p>Memory references whose offset from such a pointer is a linear function of the induction
+ * variable are recorded as {@link ArrayAccess}es.</p>
+ *
+ * @see CountedLoopFinder
+ */
+public class CountedLoop {
+
+  /**
+   * A memory reference of the form {@code array[i + offset]}, or {@code array[offset]} if it is not indexed
+   * by the induction variable {@code i}.
+   */
+  public static class ArrayAccess {
+    private final GimpleExpr array;
+    private final boolean indexed;
+    private final int offset;
+
+    ArrayAccess(GimpleExpr array, boolean indexed, int offset) {
+      this.array = array;
+      this.indexed = indexed;
+      this.offset = offset;
+    }
+
+    /**
+     * @return the reference to the loop-invariant pointer variable or parameter through which memory is accessed.
+     * This is always one of the expressions returned by {@link CountedLoop#getArrays()}.
+     */
+    public GimpleExpr getArray() {
+      return array;
+    }
+
+    /**
+     * @return true if the induction variable is added to the element offset.
+     */
+    public boolean isIndexed() {
+      return indexed;
+    }
+
+    /**
+     * @return the offset, in elements, from the start of the array, relative to the value of
+     * the induction variable at the point where memory is accessed.
+     */
+    public int getOffset() {
+      return offset;
+    }
+  }
+
+  private final GimpleBasicBlock body;
+  private final GimpleVariableRef inductionVariable;
+  private final List<GimpleExpr> arrays;
+  private final Map<GimpleMemRef, ArrayAccess> accesses;
+
+  CountedLoop(GimpleBasicBlock body, GimpleVariableRef inductionVariable,
+              List<GimpleExpr> arrays, Map<GimpleMemRef, ArrayAccess> accesses) {
+    this.body = body;
+    this.inductionVariable = inductionVariable;
+    this.arrays = arrays;
+    this.accesses = accesses;
+  }
+
+  /**
+   * @return the basic block that makes up the loop, and which jumps back to itself.
+   */
+  public GimpleBasicBlock getBody() {
+    return body;
+  }
+
+  public GimpleVariableRef getInductionVariable() {
+    return inductionVariable;
+  }
+
+  /**
+   * @return the loop-invariant pointers through which the loop accesses memory, in order of first access.
+   */
+  public List<GimpleExpr> getArrays() {
+    return Collections.unmodifiableList(arrays);
+  }
+
+  /**
+   * @return the memory references within the loop body that can be made directly against the underlying arrays,
+   * keyed by identity.
+   */
+  public Map<GimpleMemRef, ArrayAccess> getAccesses() {
+    return Collections.unmodifiableMap(accesses);
+  }
+
+  @Override
+  public String toString() {
+    return "CountedLoop{BB" + body.getIndex() + ", i = " + inductionVariable + ", arrays = " + arrays + "}";
+  }
+}
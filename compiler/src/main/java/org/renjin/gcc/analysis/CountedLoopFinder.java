@@ -0,0 +1,464 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import org.renjin.gcc.codegen.vptr.PointerType;
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.GimpleOp;
+import org.renjin.gcc.gimple.GimpleParameter;
+import org.renjin.gcc.gimple.GimpleVarDecl;
+import org.renjin.gcc.gimple.expr.*;
+import org.renjin.gcc.gimple.statement.GimpleAssignment;
+import org.renjin.gcc.gimple.statement.GimpleConditional;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+import org.renjin.gcc.gimple.type.GimpleIndirectType;
+import org.renjin.gcc.gimple.type.GimpleIntegerType;
+import org.renjin.gcc.gimple.type.GimplePrimitiveType;
+import org.renjin.gcc.gimple.type.GimpleType;
+
+import java.util.*;
+
+/**
+ * Finds {@link CountedLoop}s in a function.
+ *
+ * <p>The only loops considered are basic blocks which jump back to themselves, contain nothing but
+ * assignments and the final conditional jump, and compare an {@code int} variable, which is incremented by
+ * one exactly once within the block, against a constant or a variable that is not assigned within the
+ * block. This is the shape GCC gives to simple {@code for} loops over arrays at {@code -O2}.</p>
+ *
+ * <p>Offsets are tracked as linear functions of the value of the induction variable on entry to the
+ * block, through integer and pointer arithmetic on local variables assigned earlier in the same block.</p>
+ *
+ * <p>Must run after {@link AddressableFinder}.</p>
+ */
+public class CountedLoopFinder {
+
+  /**
+   * A value of the form {@code coefficient * i + constant}, where {@code i} is the value of the
+   * induction variable on entry to the loop body.
+   */
+  private static class Linear {
+    private static final Linear ZERO = new Linear(0, 0);
+
+    private final long coefficient;
+    private final long constant;
+
+    private Linear(long coefficient, long constant) {
+      this.coefficient = coefficient;
+      this.constant = constant;
+    }
+
+    private Linear plus(Linear other) {
+      return new Linear(coefficient + other.coefficient, constant + other.constant);
+    }
+
+    private Linear minus(Linear other) {
+      return new Linear(coefficient - other.coefficient, constant - other.constant);
+    }
+
+    private Linear times(long factor) {
+      return new Linear(coefficient * factor, constant * factor);
+    }
+  }
+
+  /**
+   * A pointer of the form {@code array + offset}, where {@code array} is invariant in the loop and
+   * {@code offset} is in bytes.
+   */
+  private static class ArrayPointer {
+    private final GimpleExpr array;
+    private final Linear offset;
+
+    private ArrayPointer(GimpleExpr array, Linear offset) {
+      this.array = array;
+      this.offset = offset;
+    }
+  }
+
+  private final GimpleFunction function;
+  private final Map<Long, GimpleVarDecl> localVariables = new HashMap<>();
+  private final Map<Long, GimpleParameter> parameters = new HashMap<>();
+
+  public CountedLoopFinder(GimpleFunction function) {
+    this.function = function;
+    for (GimpleVarDecl decl : function.getVariableDeclarations()) {
+      if(!decl.isStatic() && !decl.isAddressable()) {
+        localVariables.put(decl.getId(), decl);
+      }
+    }
+    for (GimpleParameter parameter : function.getParameters()) {
+      if(!parameter.isAddressable()) {
+        parameters.put(parameter.getId(), parameter);
+      }
+    }
+  }
+
+  public List<CountedLoop> find() {
+    List<CountedLoop> loops = new ArrayList<>();
+    ControlFlowGraph cfg = new ControlFlowGraph(function);
+    for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+      ControlFlowGraph.Node node = cfg.getNode(basicBlock);
+      if(node.getOutgoing().contains(node)) {
+        CountedLoop loop = match(basicBlock);
+        if(loop != null) {
+          loops.add(loop);
+        }
+      }
+    }
+    return loops;
+  }
+
+  private CountedLoop match(GimpleBasicBlock block) {
+    List<GimpleStatement> statements = block.getStatements();
+    if(statements.isEmpty() || !(block.getLast() instanceof GimpleConditional)) {
+      return null;
+    }
+    GimpleConditional conditional = (GimpleConditional) block.getLast();
+    List<GimpleStatement> assignments = statements.subList(0, statements.size() - 1);
+
+    // Count the assignments to each local variable within the loop
+    Map<Object, Integer> definitions = new HashMap<>();
+    for (GimpleStatement statement : assignments) {
+      if(!(statement instanceof GimpleAssignment)) {
+        return null;
+      }
+      Object key = keyOf(((GimpleAssignment) statement).getLHS());
+      if(key != null) {
+        definitions.merge(key, 1, Integer::sum);
+      }
+    }
+
+    GimpleVariableRef inductionVariable = findInductionVariable(conditional, assignments, definitions);
+    if(inductionVariable == null) {
+      return null;
+    }
+    Object inductionKey = keyOf(inductionVariable);
+
+    Map<Object, Linear> integers = new HashMap<>();
+    Map<Object, ArrayPointer> pointers = new HashMap<>();
+    Map<Object, GimpleExpr> arrays = new LinkedHashMap<>();
+    Map<GimpleMemRef, CountedLoop.ArrayAccess> accesses = new IdentityHashMap<>();
+
+    integers.put(inductionKey, new Linear(1, 0));
+
+    for (GimpleStatement statement : assignments) {
+      GimpleAssignment assignment = (GimpleAssignment) statement;
+
+      for (GimpleExpr operand : assignment.getOperands()) {
+        if(operand instanceof GimpleMemRef) {
+          matchAccess((GimpleMemRef) operand, integers.get(inductionKey), definitions, integers, pointers, arrays, accesses);
+        }
+      }
+      if(assignment.getLHS() instanceof GimpleMemRef) {
+        matchAccess((GimpleMemRef) assignment.getLHS(), integers.get(inductionKey), definitions, integers, pointers, arrays, accesses);
+      }
+
+      Object key = keyOf(assignment.getLHS());
+      if(key != null) {
+        GimpleType type = assignment.getLHS().getType();
+        ArrayPointer pointerValue = null;
+        Linear integerValue = null;
+        if(isArrayPointer(type)) {
+          pointerValue = pointerValue(assignment, definitions, integers, pointers, arrays);
+        } else if(type instanceof GimpleIntegerType && ((GimpleIntegerType) type).getPrecision() >= 32) {
+          integerValue = integerValue(assignment, integers);
+        }
+
+        pointers.remove(key);
+        integers.remove(key);
+        if(pointerValue != null) {
+          pointers.put(key, pointerValue);
+        }
+        if(integerValue != null) {
+          integers.put(key, integerValue);
+        }
+      }
+    }
+
+    boolean indexed = false;
+    for (CountedLoop.ArrayAccess access : accesses.values()) {
+      if(access.isIndexed()) {
+        indexed = true;
+      }
+    }
+    if(!indexed) {
+      return null;
+    }
+
+    return new CountedLoop(block, inductionVariable, new ArrayList<>(arrays.values()), accesses);
+  }
+
+  /**
+   * Finds the variable compared against a loop-invariant bound in the loop's exit condition, which
+   * must be an {@code int} assigned exactly once within the loop, by adding one to itself.
+   */
+  private GimpleVariableRef findInductionVariable(GimpleConditional conditional,
+                                                  List<GimpleStatement> assignments,
+                                                  Map<Object, Integer> definitions) {
+    List<GimpleExpr> operands = conditional.getOperands();
+    if(operands.size() != 2) {
+      return null;
+    }
+    for (int i = 0; i < 2; i++) {
+      GimpleExpr candidate = operands.get(i);
+      GimpleExpr bound = operands.get(1 - i);
+      if(candidate instanceof GimpleVariableRef &&
+          isInt(candidate.getType()) &&
+          isInvariant(bound, definitions) &&
+          isIncrement(candidate, assignments, definitions)) {
+        return (GimpleVariableRef) candidate;
+      }
+    }
+    return null;
+  }
+
+  private boolean isInt(GimpleType type) {
+    return type instanceof GimpleIntegerType && ((GimpleIntegerType) type).getPrecision() == 32;
+  }
+
+  private boolean isInvariant(GimpleExpr expr, Map<Object, Integer> definitions) {
+    if(expr instanceof GimpleIntegerConstant) {
+      return true;
+    }
+    Object key = keyOf(expr);
+    return key != null && !definitions.containsKey(key);
+  }
+
+  private boolean isIncrement(GimpleExpr variable, List<GimpleStatement> assignments, Map<Object, Integer> definitions) {
+    Object key = keyOf(variable);
+    if(key == null || !Integer.valueOf(1).equals(definitions.get(key))) {
+      return false;
+    }
+    for (GimpleStatement statement : assignments) {
+      GimpleAssignment assignment = (GimpleAssignment) statement;
+      if(key.equals(keyOf(assignment.getLHS()))) {
+        if(assignment.getOperator() != GimpleOp.PLUS_EXPR) {
+          return false;
+        }
+        GimpleExpr x = assignment.getOperands().get(0);
+        GimpleExpr y = assignment.getOperands().get(1);
+        return (key.equals(keyOf(x)) && isOne(y)) ||
+               (key.equals(keyOf(y)) && isOne(x));
+      }
+    }
+    return false;
+  }
+
+  private boolean isOne(GimpleExpr expr) {
+    return expr instanceof GimpleIntegerConstant && ((GimpleIntegerConstant) expr).getValue() == 1L;
+  }
+
+  private void matchAccess(GimpleMemRef memRef, Linear inductionVariable,
+                           Map<Object, Integer> definitions,
+                           Map<Object, Linear> integers,
+                           Map<Object, ArrayPointer> pointers,
+                           Map<Object, GimpleExpr> arrays,
+                           Map<GimpleMemRef, CountedLoop.ArrayAccess> accesses) {
+
+    if(!(memRef.getType() instanceof GimplePrimitiveType)) {
+      return;
+    }
+    ArrayPointer pointer = pointerOperand(memRef.getPointer(), definitions, pointers, arrays);
+    if(pointer == null) {
+      return;
+    }
+    PointerType elementType = elementType(pointer.array.getType());
+    if(supportedElementType((GimplePrimitiveType) memRef.getType()) != elementType) {
+      return;
+    }
+    Linear offset = pointer.offset;
+    if(!memRef.isOffsetZero()) {
+      if(!(memRef.getOffset() instanceof GimpleIntegerConstant)) {
+        return;
+      }
+      offset = offset.plus(new Linear(0, ((GimpleIntegerConstant) memRef.getOffset()).getValue()));
+    }
+
+    int size = elementType.getSize();
+    if(offset.coefficient != 0 && offset.coefficient != size) {
+      return;
+    }
+    if(offset.constant % size != 0) {
+      return;
+    }
+    boolean indexed = offset.coefficient != 0;
+
+    // Express the offset relative to the current value of the induction variable, which
+    // may already have been incremented at this point
+    long elementOffset = offset.constant / size;
+    if(indexed) {
+      elementOffset -= inductionVariable.constant;
+    }
+    if(elementOffset < Integer.MIN_VALUE || elementOffset > Integer.MAX_VALUE) {
+      return;
+    }
+    accesses.put(memRef, new CountedLoop.ArrayAccess(pointer.array, indexed, (int) elementOffset));
+  }
+
+  private Linear integerValue(GimpleAssignment assignment, Map<Object, Linear> integers) {
+    List<GimpleExpr> operands = assignment.getOperands();
+    switch (assignment.getOperator()) {
+      case INTEGER_CST:
+      case VAR_DECL:
+      case PARM_DECL:
+      case SSA_NAME:
+      case NOP_EXPR:
+      case CONVERT_EXPR:
+        return integerOperand(operands.get(0), integers);
+
+      case PLUS_EXPR:
+      case MINUS_EXPR:
+      case MULT_EXPR:
+        Linear x = integerOperand(operands.get(0), integers);
+        Linear y = integerOperand(operands.get(1), integers);
+        if(x == null || y == null) {
+          return null;
+        }
+        if(assignment.getOperator() == GimpleOp.PLUS_EXPR) {
+          return x.plus(y);
+        } else if(assignment.getOperator() == GimpleOp.MINUS_EXPR) {
+          return x.minus(y);
+        } else if(x.coefficient == 0) {
+          return y.times(x.constant);
+        } else if(y.coefficient == 0) {
+          return x.times(y.constant);
+        } else {
+          return null;
+        }
+
+      default:
+        return null;
+    }
+  }
+
+  private Linear integerOperand(GimpleExpr operand, Map<Object, Linear> integers) {
+    if(operand instanceof GimpleIntegerConstant) {
+      return new Linear(0, ((GimpleIntegerConstant) operand).getValue());
+    }
+    Object key = keyOf(operand);
+    if(key == null) {
+      return null;
+    }
+    return integers.get(key);
+  }
+
+  private ArrayPointer pointerValue(GimpleAssignment assignment,
+                                    Map<Object, Integer> definitions,
+                                    Map<Object, Linear> integers,
+                                    Map<Object, ArrayPointer> pointers,
+                                    Map<Object, GimpleExpr> arrays) {
+    List<GimpleExpr> operands = assignment.getOperands();
+    switch (assignment.getOperator()) {
+      case VAR_DECL:
+      case PARM_DECL:
+      case SSA_NAME:
+      case NOP_EXPR:
+      case CONVERT_EXPR:
+        if(elementType(operands.get(0).getType()) != elementType(assignment.getLHS().getType())) {
+          return null;
+        }
+        return pointerOperand(operands.get(0), definitions, pointers, arrays);
+
+      case POINTER_PLUS_EXPR:
+        ArrayPointer pointer = pointerOperand(operands.get(0), definitions, pointers, arrays);
+        Linear offset = integerOperand(operands.get(1), integers);
+        if(pointer == null || offset == null) {
+          return null;
+        }
+        return new ArrayPointer(pointer.array, pointer.offset.plus(offset));
+
+      default:
+        return null;
+    }
+  }
+
+  private ArrayPointer pointerOperand(GimpleExpr operand,
+                                      Map<Object, Integer> definitions,
+                                      Map<Object, ArrayPointer> pointers,
+                                      Map<Object, GimpleExpr> arrays) {
+    Object key = keyOf(operand);
+    if(key == null) {
+      return null;
+    }
+    ArrayPointer pointer = pointers.get(key);
+    if(pointer != null) {
+      return pointer;
+    }
+    if(!definitions.containsKey(key) && isArrayPointer(operand.getType())) {
+      GimpleExpr array = arrays.computeIfAbsent(key, k -> operand);
+      return new ArrayPointer(array, Linear.ZERO);
+    }
+    return null;
+  }
+
+  private static boolean isArrayPointer(GimpleType type) {
+    return elementType(type) != null;
+  }
+
+  /**
+   * @return the type of the elements of arrays that we can access directly through a pointer of
+   * the given type, or {@code null} if there are none.
+   */
+  private static PointerType elementType(GimpleType type) {
+    if(!(type instanceof GimpleIndirectType)) {
+      return null;
+    }
+    GimpleType baseType = type.getBaseType();
+    if(!(baseType instanceof GimplePrimitiveType)) {
+      return null;
+    }
+    return supportedElementType((GimplePrimitiveType) baseType);
+  }
+
+  private static PointerType supportedElementType(GimplePrimitiveType type) {
+    PointerType pointerType;
+    try {
+      pointerType = PointerType.ofPrimitiveType(type);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    switch (pointerType) {
+      case BYTE:
+      case SHORT:
+      case CHAR:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        return pointerType;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return the declaration of the non-addressable local variable or parameter referenced by {@code expr},
+   * or {@code null} if {@code expr} is anything else.
+   */
+  private Object keyOf(GimpleExpr expr) {
+    if(expr instanceof GimpleVariableRef) {
+      return localVariables.get(((GimpleVariableRef) expr).getId());
+    } else if(expr instanceof GimpleParamRef) {
+      return parameters.get(((GimpleParamRef) expr).getId());
+    } else {
+      return null;
+    }
+  }
+}
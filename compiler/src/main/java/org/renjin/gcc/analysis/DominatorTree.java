@@ -0,0 +1,149 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import java.util.*;
+
+/**
+ * Computes the dominators of the nodes in a {@link ControlFlowGraph}.
+ *
+ * <p>A node {@code a} dominates a node {@code b} if every path from the entry node to {@code b}
+ * passes through {@code a}. Only nodes reachable from the entry node have dominators.</p>
+ *
+ * @see <a href="https://www.cs.rice.edu/~keith/EMBED/dom.pdf">A Simple, Fast Dominance Algorithm</a>
+ */
+public class DominatorTree {
+
+  private final ControlFlowGraph.Node entryNode;
+
+  /**
+   * The reachable nodes, in reverse postorder.
+   */
+  private final List<ControlFlowGraph.Node> order = new ArrayList<>();
+  private final Map<ControlFlowGraph.Node, Integer> orderIndex = new HashMap<>();
+  private final Map<ControlFlowGraph.Node, ControlFlowGraph.Node> immediateDominators = new HashMap<>();
+
+  public DominatorTree(ControlFlowGraph cfg) {
+    this.entryNode = cfg.getEntryNode();
+
+    computeReversePostorder();
+
+    immediateDominators.put(entryNode, entryNode);
+
+    boolean changed;
+    do {
+      changed = false;
+      for (ControlFlowGraph.Node node : order) {
+        if(node == entryNode) {
+          continue;
+        }
+        ControlFlowGraph.Node newDominator = null;
+        for (ControlFlowGraph.Node predecessor : node.getIncoming()) {
+          if(immediateDominators.containsKey(predecessor)) {
+            newDominator = newDominator == null ? predecessor : intersect(predecessor, newDominator);
+          }
+        }
+        if(newDominator != immediateDominators.get(node)) {
+          immediateDominators.put(node, newDominator);
+          changed = true;
+        }
+      }
+    } while(changed);
+  }
+
+  private void computeReversePostorder() {
+    Set<ControlFlowGraph.Node> visited = new HashSet<>();
+    Deque<ControlFlowGraph.Node> stack = new ArrayDeque<>();
+    Deque<Iterator<ControlFlowGraph.Node>> successors = new ArrayDeque<>();
+
+    visited.add(entryNode);
+    stack.push(entryNode);
+    successors.push(entryNode.getOutgoing().iterator());
+
+    while(!stack.isEmpty()) {
+      Iterator<ControlFlowGraph.Node> it = successors.peek();
+      if(it.hasNext()) {
+        ControlFlowGraph.Node next = it.next();
+        if(visited.add(next)) {
+          stack.push(next);
+          successors.push(next.getOutgoing().iterator());
+        }
+      } else {
+        order.add(stack.pop());
+        successors.pop();
+      }
+    }
+    Collections.reverse(order);
+
+    for (int i = 0; i < order.size(); i++) {
+      orderIndex.put(order.get(i), i);
+    }
+  }
+
+  private ControlFlowGraph.Node intersect(ControlFlowGraph.Node a, ControlFlowGraph.Node b) {
+    while(a != b) {
+      while(orderIndex.get(a) > orderIndex.get(b)) {
+        a = immediateDominators.get(a);
+      }
+      while(orderIndex.get(b) > orderIndex.get(a)) {
+        b = immediateDominators.get(b);
+      }
+    }
+    return a;
+  }
+
+  /**
+   * @return true if {@code node} can be reached from the entry node.
+   */
+  public boolean isReachable(ControlFlowGraph.Node node) {
+    return orderIndex.containsKey(node);
+  }
+
+  /**
+   * @return the immediate dominator of {@code node}, or {@code null} if {@code node} is the entry node
+   * or is unreachable.
+   */
+  public ControlFlowGraph.Node getImmediateDominator(ControlFlowGraph.Node node) {
+    if(node == entryNode) {
+      return null;
+    }
+    return immediateDominators.get(node);
+  }
+
+  /**
+   * @return true if {@code a} dominates {@code b}. Every reachable node dominates itself.
+   */
+  public boolean dominates(ControlFlowGraph.Node a, ControlFlowGraph.Node b) {
+    if(!isReachable(a) || !isReachable(b)) {
+      return false;
+    }
+    return intersect(a, b) == a;
+  }
+
+  /**
+   * @return the closest node which dominates both {@code a} and {@code b}
+   * @throws IllegalArgumentException if either node is unreachable
+   */
+  public ControlFlowGraph.Node getCommonDominator(ControlFlowGraph.Node a, ControlFlowGraph.Node b) {
+    if(!isReachable(a) || !isReachable(b)) {
+      throw new IllegalArgumentException("Unreachable node: " + (isReachable(a) ? b : a));
+    }
+    return intersect(a, b);
+  }
+}
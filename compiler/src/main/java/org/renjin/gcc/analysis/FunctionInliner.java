@@ -0,0 +1,720 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import org.renjin.gcc.codegen.BytecodeSizeEstimator;
+import org.renjin.gcc.gimple.*;
+import org.renjin.gcc.gimple.expr.*;
+import org.renjin.gcc.gimple.statement.*;
+import org.renjin.gcc.gimple.type.GimpleRealType;
+import org.renjin.gcc.gimple.type.GimpleType;
+import org.renjin.gcc.gimple.type.GimpleVoidType;
+
+import java.util.*;
+
+/**
+ * Replaces calls to small functions with a copy of the function's body.
+ *
+ * <p>Each C function is compiled to its own static method, and the bytecode we generate for even a trivial
+ * accessor can be too large for the JIT to inline it at a call site that is not yet hot. Inlining the
+ * smallest functions at the Gimple level, before code generation, leaves the JIT's budget for the rest.</p>
+ *
+ * <p>Functions are visited callees-first, using the {@link CallGraph}, so that a function's calls have already
+ * been inlined when it is itself considered for inlining. A call is inlined if the callee's estimated bytecode
+ * size is within the limit (twice the limit for functions declared {@code inline}), and does not push the caller
+ * past the size at which HotSpot no longer compiles a method at all.</p>
+ *
+ * <p>The call's block is split in two: the arguments are assigned to fresh local variables standing in for the
+ * callee's parameters, followed by a jump to a copy of the callee's blocks. The callee's local variables are
+ * renamed to fresh variables of the caller, and their initial values are assigned along with the arguments, as
+ * the caller only initializes its locals once on entry. The callee's blocks are renumbered after the caller's, and
+ * each {@code return} becomes an assignment to a result variable and a jump to the continuation block, which
+ * holds the rest of the original block.</p>
+ *
+ * <p>Functions which are variadic or weak, which declare static local variables, or which depend on their own
+ * stack frame, through {@code alloca}, {@code setjmp} or {@code va_start}, are never inlined. A function defined
+ * in another compilation unit is only inlined if all of the global variables and functions it refers to
+ * resolve to the same symbols from the caller's unit.</p>
+ */
+public class FunctionInliner {
+
+  /**
+   * The default limit on the estimated bytecode size of the functions to inline, which matches the
+   * size below which HotSpot inlines methods regardless of how often they are called.
+   */
+  public static final int DEFAULT_SIZE_LIMIT = 35;
+
+  /**
+   * HotSpot does not compile methods larger than this, so functions are not grown beyond it.
+   */
+  private static final int CALLER_SIZE_LIMIT = 8000;
+
+  private static final Set<String> FRAME_DEPENDENT_FUNCTIONS = new HashSet<>(Arrays.asList(
+      "alloca",
+      "__builtin_alloca",
+      "__builtin_alloca_with_align",
+      "__builtin_va_start",
+      "__builtin_va_copy",
+      "__builtin_va_end",
+      "__builtin_apply_args",
+      "__builtin_return_address",
+      "__builtin_frame_address",
+      "setjmp",
+      "_setjmp",
+      "__builtin_setjmp"));
+
+  private final List<GimpleCompilationUnit> units;
+  private final int sizeLimit;
+
+  private final Map<GimpleFunction, Integer> sizes = new IdentityHashMap<>();
+  private final Map<GimpleFunction, Boolean> inlinable = new IdentityHashMap<>();
+  private final Map<GimpleCompilationUnit, Long> nextIds = new IdentityHashMap<>();
+  private final Set<GimpleFunction> updated = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private CallGraph callGraph;
+
+  private int inlinedCallCount = 0;
+
+  public FunctionInliner(List<GimpleCompilationUnit> units, int sizeLimit) {
+    this.units = units;
+    this.sizeLimit = sizeLimit;
+  }
+
+  /**
+   * Inlines eligible calls in all compilation units.
+   *
+   * @return the functions into which calls were inlined.
+   */
+  public Set<GimpleFunction> inline() {
+    callGraph = new CallGraph(units);
+
+    Map<CallGraph.FunctionNode, List<CallGraph.CallSite>> callSites = new HashMap<>();
+    for (CallGraph.CallSite callSite : callGraph.getCallSites()) {
+      callSites.computeIfAbsent(callSite.getCallingFunction(), node -> new ArrayList<>()).add(callSite);
+    }
+
+    for (CallGraph.FunctionNode caller : calleesFirst(callGraph, callSites)) {
+      for (CallGraph.CallSite callSite : callSites.getOrDefault(caller, Collections.emptyList())) {
+        CallGraph.FunctionNode callee = callSite.getCallee();
+        if(callee != null && shouldInline(caller, callee, callSite.getStatement())) {
+          if(inline(caller, callee, callSite.getStatement())) {
+            inlinedCallCount++;
+            updated.add(caller.getFunction());
+            sizes.remove(caller.getFunction());
+          }
+        }
+      }
+    }
+    return updated;
+  }
+
+  public int getInlinedCallCount() {
+    return inlinedCallCount;
+  }
+
+  /**
+   * Orders the functions so that each function follows the functions it calls, except where
+   * they are mutually recursive.
+   */
+  private static List<CallGraph.FunctionNode> calleesFirst(CallGraph callGraph,
+                                                           Map<CallGraph.FunctionNode, List<CallGraph.CallSite>> callSites) {
+    List<CallGraph.FunctionNode> order = new ArrayList<>();
+    Set<CallGraph.FunctionNode> visited = new HashSet<>();
+    Deque<CallGraph.FunctionNode> stack = new ArrayDeque<>();
+    Deque<Iterator<CallGraph.CallSite>> pending = new ArrayDeque<>();
+
+    for (CallGraph.FunctionNode root : callGraph.getFunctionNodes()) {
+      if(!visited.add(root)) {
+        continue;
+      }
+      stack.push(root);
+      pending.push(callSites.getOrDefault(root, Collections.emptyList()).iterator());
+      while(!stack.isEmpty()) {
+        Iterator<CallGraph.CallSite> it = pending.peek();
+        if(it.hasNext()) {
+          CallGraph.FunctionNode callee = it.next().getCallee();
+          if(callee != null && visited.add(callee)) {
+            stack.push(callee);
+            pending.push(callSites.getOrDefault(callee, Collections.emptyList()).iterator());
+          }
+        } else {
+          order.add(stack.pop());
+          pending.pop();
+        }
+      }
+    }
+    return order;
+  }
+
+  private boolean shouldInline(CallGraph.FunctionNode caller, CallGraph.FunctionNode callee, GimpleCall call) {
+    GimpleFunction function = callee.getFunction();
+    if(function == caller.getFunction() ||
+        function.isEmpty() ||
+        function.isVariadic() ||
+        function.isWeak()) {
+      return false;
+    }
+    if(call.getOperands().size() != function.getParameters().size()) {
+      return false;
+    }
+    if(call.getLhs() != null && function.getReturnType() instanceof GimpleVoidType) {
+      return false;
+    }
+    int limit = function.isInline() ? sizeLimit * 2 : sizeLimit;
+    int calleeSize = sizeOf(function);
+    if(calleeSize > limit || sizeOf(caller.getFunction()) + calleeSize > CALLER_SIZE_LIMIT) {
+      return false;
+    }
+    return inlinable.computeIfAbsent(function, FunctionInliner::isInlinable);
+  }
+
+  private int sizeOf(GimpleFunction function) {
+    return sizes.computeIfAbsent(function, BytecodeSizeEstimator::estimateSize);
+  }
+
+  private static boolean isInlinable(GimpleFunction function) {
+    for (GimpleVarDecl decl : function.getVariableDeclarations()) {
+      if(decl.isStatic()) {
+        return false;
+      }
+    }
+    for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        if(statement instanceof GimpleCall) {
+          String name = calledFunctionName((GimpleCall) statement);
+          if(name != null && (FRAME_DEPENDENT_FUNCTIONS.contains(name) || name.equals(function.getName()))) {
+            return false;
+          }
+        } else if(!(statement instanceof GimpleAssignment ||
+            statement instanceof GimpleConditional ||
+            statement instanceof GimpleGoto ||
+            statement instanceof GimpleReturn ||
+            statement instanceof GimpleSwitch)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static String calledFunctionName(GimpleCall call) {
+    if(call.getFunction() instanceof GimpleAddressOf) {
+      GimpleExpr value = ((GimpleAddressOf) call.getFunction()).getValue();
+      if(value instanceof GimpleFunctionRef) {
+        return ((GimpleFunctionRef) value).getName();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Replaces {@code call} in the body of {@code caller} with a copy of the body of {@code callee}.
+   *
+   * @return false if the callee's body could not be copied into the caller.
+   */
+  private boolean inline(CallGraph.FunctionNode caller, CallGraph.FunctionNode callee, GimpleCall call) {
+    GimpleFunction function = caller.getFunction();
+    GimpleFunction target = callee.getFunction();
+
+    // Locate the call, which will have moved if an earlier call in the same block was inlined
+    int blockIndex = -1;
+    int callIndex = -1;
+    for (int i = 0; i < function.getBasicBlocks().size() && callIndex == -1; i++) {
+      List<GimpleStatement> statements = function.getBasicBlocks().get(i).getStatements();
+      for (int j = 0; j < statements.size(); j++) {
+        if(statements.get(j) == call) {
+          blockIndex = i;
+          callIndex = j;
+          break;
+        }
+      }
+    }
+    if(callIndex == -1) {
+      return false;
+    }
+    GimpleBasicBlock callBlock = function.getBasicBlocks().get(blockIndex);
+
+    BodyCopier copier = new BodyCopier(caller.getUnit(), callee.getUnit(), function);
+    List<GimpleVarDecl> decls = new ArrayList<>();
+    List<GimpleStatement> argumentAssignments = new ArrayList<>();
+    List<GimpleBasicBlock> blocks = new ArrayList<>();
+    GimpleVariableRef result = null;
+
+    try {
+      for (int i = 0; i < target.getParameters().size(); i++) {
+        GimpleParameter parameter = target.getParameters().get(i);
+        GimpleVarDecl decl = copier.newLocal(parameter.getId(), parameter.getName(), parameter.getType());
+        decl.setAddressable(parameter.isAddressable());
+        decls.add(decl);
+        argumentAssignments.add(assignment(decl.newRef(), call.getOperand(i)));
+      }
+      for (GimpleVarDecl calleeDecl : target.getVariableDeclarations()) {
+        GimpleVarDecl decl = copier.newLocal(calleeDecl.getId(), calleeDecl.getName(), calleeDecl.getType());
+        decl.setAddressable(calleeDecl.isAddressable());
+        decls.add(decl);
+      }
+      // Initial values may refer to other locals, so they can only be copied once all have been renamed.
+      // The caller only initializes its own locals on entry, so they must be assigned on every inlined call.
+      for (int i = 0; i < target.getVariableDeclarations().size(); i++) {
+        GimpleVarDecl calleeDecl = target.getVariableDeclarations().get(i);
+        if(calleeDecl.getValue() != null) {
+          GimpleVarDecl decl = decls.get(target.getParameters().size() + i);
+          argumentAssignments.add(assignment(decl.newRef(), copier.copy(calleeDecl.getValue())));
+        }
+      }
+      if(call.getLhs() != null) {
+        GimpleVarDecl resultDecl = copier.newLocal(-1, null, target.getReturnType());
+        decls.add(resultDecl);
+        result = resultDecl.newRef();
+      }
+
+      for (GimpleBasicBlock basicBlock : target.getBasicBlocks()) {
+        blocks.add(copier.copy(basicBlock, result));
+      }
+    } catch (CannotInlineException e) {
+      return false;
+    }
+
+    GimpleBasicBlock entry = blocks.get(0);
+    GimpleBasicBlock continuation = new GimpleBasicBlock();
+    continuation.setIndex(copier.continuationIndex);
+
+    List<GimpleStatement> statements = callBlock.getStatements();
+    if(call.getLhs() != null) {
+      GimpleAssignment resultAssignment = assignment(call.getLhs(), result);
+      resultAssignment.setLineNumber(call.getLineNumber());
+      continuation.getStatements().add(resultAssignment);
+    }
+    continuation.getStatements().addAll(statements.subList(callIndex + 1, statements.size()));
+    for (GimpleEdge edge : callBlock.getEdges()) {
+      edge.setSource(continuation.getIndex());
+      continuation.getEdges().add(edge);
+    }
+
+    GimpleGoto jumpToEntry = new GimpleGoto();
+    jumpToEntry.setTarget(entry.getIndex());
+    jumpToEntry.setLineNumber(call.getLineNumber());
+
+    List<GimpleStatement> head = new ArrayList<>(statements.subList(0, callIndex));
+    for (GimpleStatement assignment : argumentAssignments) {
+      assignment.setLineNumber(call.getLineNumber());
+      head.add(assignment);
+    }
+    head.add(jumpToEntry);
+    callBlock.setStatements(head);
+    callBlock.setEdges(new ArrayList<>(Collections.singletonList(edge(callBlock.getIndex(), entry.getIndex()))));
+
+    function.getVariableDeclarations().addAll(decls);
+
+    List<GimpleBasicBlock> inserted = new ArrayList<>(blocks);
+    inserted.add(continuation);
+    function.getBasicBlocks().addAll(blockIndex + 1, inserted);
+
+    return true;
+  }
+
+  private static GimpleAssignment assignment(GimpleLValue lhs, GimpleExpr value) {
+    return new GimpleAssignment(operatorFor(value, lhs.getType()), lhs, value);
+  }
+
+  /**
+   * @return the operator GCC would use to assign {@code value} to a variable of type {@code type}
+   */
+  private static GimpleOp operatorFor(GimpleExpr value, GimpleType type) {
+    if(!Objects.equals(value.getType(), type)) {
+      return GimpleOp.NOP_EXPR;
+    } else if(value instanceof GimpleVariableRef) {
+      return GimpleOp.VAR_DECL;
+    } else if(value instanceof GimpleParamRef) {
+      return GimpleOp.PARM_DECL;
+    } else if(value instanceof GimpleIntegerConstant) {
+      return GimpleOp.INTEGER_CST;
+    } else if(value instanceof GimpleRealConstant) {
+      return GimpleOp.REAL_CST;
+    } else if(value instanceof GimpleComplexConstant) {
+      return GimpleOp.COMPLEX_CST;
+    } else if(value instanceof GimpleStringConstant) {
+      return GimpleOp.STRING_CST;
+    } else if(value instanceof GimpleAddressOf) {
+      return GimpleOp.ADDR_EXPR;
+    } else if(value instanceof GimpleMemRef) {
+      return GimpleOp.MEM_REF;
+    } else if(value instanceof GimpleComponentRef) {
+      return GimpleOp.COMPONENT_REF;
+    } else if(value instanceof GimpleArrayRef) {
+      return GimpleOp.ARRAY_REF;
+    } else if(value instanceof GimpleConstructor) {
+      return GimpleOp.CONSTRUCTOR;
+    } else if(value instanceof GimpleRealPartExpr) {
+      return GimpleOp.REALPART_EXPR;
+    } else if(value instanceof GimpleImPartExpr) {
+      return GimpleOp.IMAGPART_EXPR;
+    } else if(value instanceof GimpleBitFieldRefExpr) {
+      return GimpleOp.BIT_FIELD_REF;
+    } else {
+      return GimpleOp.NOP_EXPR;
+    }
+  }
+
+  private static GimpleEdge edge(int source, int target) {
+    GimpleEdge edge = new GimpleEdge();
+    edge.setSource(source);
+    edge.setTarget(target);
+    return edge;
+  }
+
+  /**
+   * Allocates variable ids which are not used by any global or local variable of the unit, so that
+   * the new locals can never shadow a global.
+   */
+  private long nextId(GimpleCompilationUnit unit) {
+    Long id = nextIds.get(unit);
+    if(id == null) {
+      long max = 0;
+      for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+        max = Math.max(max, decl.getId());
+      }
+      for (GimpleFunction function : unit.getFunctions()) {
+        for (GimpleParameter parameter : function.getParameters()) {
+          max = Math.max(max, parameter.getId());
+        }
+        for (GimpleVarDecl decl : function.getVariableDeclarations()) {
+          max = Math.max(max, decl.getId());
+        }
+      }
+      id = max + 1;
+    }
+    nextIds.put(unit, id + 1);
+    return id;
+  }
+
+  private static class CannotInlineException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    CannotInlineException(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /**
+   * Copies the body of the callee, renaming its parameters and local variables and renumbering its blocks.
+   */
+  private class BodyCopier {
+    private final GimpleCompilationUnit callerUnit;
+    private final GimpleCompilationUnit calleeUnit;
+
+    private final Map<Long, GimpleVarDecl> locals = new HashMap<>();
+    private final Map<Integer, Integer> blockIndices = new HashMap<>();
+    private final int continuationIndex;
+
+    BodyCopier(GimpleCompilationUnit callerUnit, GimpleCompilationUnit calleeUnit, GimpleFunction caller) {
+      this.callerUnit = callerUnit;
+      this.calleeUnit = calleeUnit;
+      this.nextBlockIndex = 2;
+      for (GimpleBasicBlock basicBlock : caller.getBasicBlocks()) {
+        nextBlockIndex = Math.max(nextBlockIndex, basicBlock.getIndex() + 1);
+      }
+      this.continuationIndex = nextBlockIndex++;
+    }
+
+    private int nextBlockIndex;
+
+    GimpleVarDecl newLocal(long calleeId, String name, GimpleType type) {
+      GimpleVarDecl decl = new GimpleVarDecl();
+      decl.setId(nextId(callerUnit));
+      decl.setName(name);
+      decl.setType(type);
+      decl.setUnit(callerUnit);
+      if(calleeId != -1) {
+        locals.put(calleeId, decl);
+      }
+      return decl;
+    }
+
+    private int blockIndex(int calleeIndex) {
+      return blockIndices.computeIfAbsent(calleeIndex, index -> nextBlockIndex++);
+    }
+
+    GimpleBasicBlock copy(GimpleBasicBlock basicBlock, GimpleVariableRef result) {
+      GimpleBasicBlock copy = new GimpleBasicBlock();
+      copy.setIndex(blockIndex(basicBlock.getIndex()));
+
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        if(statement instanceof GimpleReturn) {
+          GimpleExpr value = ((GimpleReturn) statement).getValue();
+          if(value != null && result != null) {
+            copy.getStatements().add(withLocation(statement, assignment(resultRef(result), copy(value))));
+          }
+          GimpleGoto jump = new GimpleGoto();
+          jump.setTarget(continuationIndex);
+          copy.getStatements().add(withLocation(statement, jump));
+        } else {
+          copy.getStatements().add(withLocation(statement, copy(statement)));
+        }
+      }
+      for (GimpleEdge edge : basicBlock.getEdges()) {
+        GimpleEdge edgeCopy = edge(copy.getIndex(),
+            edge.getTarget() == 1 ? continuationIndex : blockIndex(edge.getTarget()));
+        edgeCopy.setFlags(edge.getFlags());
+        copy.getEdges().add(edgeCopy);
+      }
+      return copy;
+    }
+
+    private GimpleVariableRef resultRef(GimpleVariableRef result) {
+      GimpleVariableRef ref = new GimpleVariableRef(result.getId(), result.getType());
+      ref.setName(result.getName());
+      return ref;
+    }
+
+    private GimpleStatement withLocation(GimpleStatement original, GimpleStatement copy) {
+      copy.setLineNumber(original.getLineNumber());
+      copy.setSourceFile(original.getSourceFile());
+      return copy;
+    }
+
+    private GimpleStatement copy(GimpleStatement statement) {
+      if(statement instanceof GimpleAssignment) {
+        GimpleAssignment assignment = (GimpleAssignment) statement;
+        GimpleAssignment copy = new GimpleAssignment(assignment.getOperator(), copy(assignment.getLHS()));
+        copy.getOperands().addAll(copy(assignment.getOperands()));
+        return copy;
+
+      } else if(statement instanceof GimpleCall) {
+        GimpleCall call = (GimpleCall) statement;
+        GimpleCall copy = new GimpleCall();
+        copy.setFunction(copy(call.getFunction()));
+        copy.getOperands().addAll(copy(call.getOperands()));
+        if(call.getLhs() != null) {
+          copy.setLhs(copy(call.getLhs()));
+        }
+        return copy;
+
+      } else if(statement instanceof GimpleConditional) {
+        GimpleConditional conditional = (GimpleConditional) statement;
+        return new GimpleConditional(conditional.getOperator(), copy(conditional.getOperands()),
+            blockIndex(conditional.getTrueLabel()),
+            blockIndex(conditional.getFalseLabel()));
+
+      } else if(statement instanceof GimpleGoto) {
+        GimpleGoto copy = new GimpleGoto();
+        copy.setTarget(blockIndex(((GimpleGoto) statement).getTarget()));
+        return copy;
+
+      } else if(statement instanceof GimpleSwitch) {
+        GimpleSwitch gimpleSwitch = (GimpleSwitch) statement;
+        GimpleSwitch copy = new GimpleSwitch();
+        copy.setValue(copy(gimpleSwitch.getValue()));
+        for (GimpleSwitch.Case aCase : gimpleSwitch.getCases()) {
+          copy.getCases().add(copy(aCase));
+        }
+        if(gimpleSwitch.getDefaultCase() != null) {
+          copy.setDefaultCase(copy(gimpleSwitch.getDefaultCase()));
+        }
+        return copy;
+
+      } else {
+        throw new CannotInlineException(statement.getClass().getSimpleName());
+      }
+    }
+
+    private GimpleSwitch.Case copy(GimpleSwitch.Case aCase) {
+      GimpleSwitch.Case copy = new GimpleSwitch.Case();
+      copy.setLow(aCase.getLow());
+      copy.setHigh(aCase.getHigh());
+      copy.setBasicBlockIndex(blockIndex(aCase.getBasicBlockIndex()));
+      return copy;
+    }
+
+    private List<GimpleExpr> copy(List<GimpleExpr> exprs) {
+      List<GimpleExpr> copies = new ArrayList<>();
+      for (GimpleExpr expr : exprs) {
+        copies.add(copy(expr));
+      }
+      return copies;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends GimpleExpr> T copy(T expr) {
+      GimpleExpr copy = copyExpr(expr);
+      copy.setType(expr.getType());
+      copy.setLine(expr.getLine());
+      return (T) copy;
+    }
+
+    private GimpleExpr copyExpr(GimpleExpr expr) {
+      if(expr instanceof GimpleParamRef) {
+        return localRef(((GimpleParamRef) expr).getId(), expr);
+
+      } else if(expr instanceof GimpleVariableRef) {
+        GimpleVariableRef ref = (GimpleVariableRef) expr;
+        if(locals.containsKey(ref.getId())) {
+          return localRef(ref.getId(), expr);
+        }
+        GimpleVariableRef copy = new GimpleVariableRef(globalId(ref), ref.getType());
+        copy.setName(ref.getName());
+        copy.setMangledName(ref.getMangledName());
+        return copy;
+
+      } else if(expr instanceof GimpleAddressOf) {
+        return new GimpleAddressOf(copy(((GimpleAddressOf) expr).getValue()));
+
+      } else if(expr instanceof GimpleMemRef) {
+        GimpleMemRef memRef = (GimpleMemRef) expr;
+        GimpleMemRef copy = new GimpleMemRef(copy(memRef.getPointer()));
+        copy.setOffset(memRef.getOffset() == null ? null : copy(memRef.getOffset()));
+        return copy;
+
+      } else if(expr instanceof GimpleArrayRef) {
+        GimpleArrayRef arrayRef = (GimpleArrayRef) expr;
+        return new GimpleArrayRef(copy(arrayRef.getArray()), copy(arrayRef.getIndex()));
+
+      } else if(expr instanceof GimpleComponentRef) {
+        GimpleComponentRef componentRef = (GimpleComponentRef) expr;
+        return new GimpleComponentRef(copy(componentRef.getValue()), copy(componentRef.getMember()));
+
+      } else if(expr instanceof GimplePointerPlus) {
+        GimplePointerPlus pointerPlus = (GimplePointerPlus) expr;
+        return new GimplePointerPlus(copy(pointerPlus.getPointer()), copy(pointerPlus.getOffset()));
+
+      } else if(expr instanceof GimpleNopExpr) {
+        GimpleNopExpr copy = new GimpleNopExpr();
+        copy.setValue(copy(((GimpleNopExpr) expr).getValue()));
+        return copy;
+
+      } else if(expr instanceof GimpleBitFieldRefExpr) {
+        GimpleBitFieldRefExpr bitFieldRef = (GimpleBitFieldRefExpr) expr;
+        GimpleBitFieldRefExpr copy = new GimpleBitFieldRefExpr();
+        copy.setValue(copy(bitFieldRef.getValue()));
+        copy.setOffset(bitFieldRef.getOffset());
+        copy.setSize(bitFieldRef.getSize());
+        return copy;
+
+      } else if(expr instanceof GimpleComplexPartExpr) {
+        GimpleComplexPartExpr copy = expr instanceof GimpleRealPartExpr ? new GimpleRealPartExpr() : new GimpleImPartExpr();
+        copy.setComplexValue(copy(((GimpleComplexPartExpr) expr).getComplexValue()));
+        return copy;
+
+      } else if(expr instanceof GimpleConstantRef) {
+        GimpleConstantRef copy = new GimpleConstantRef();
+        copy.setValue(copy(((GimpleConstantRef) expr).getValue()));
+        return copy;
+
+      } else if(expr instanceof GimpleConstructor) {
+        GimpleConstructor constructor = (GimpleConstructor) expr;
+        GimpleConstructor copy = new GimpleConstructor();
+        copy.setClobber(constructor.isClobber());
+        for (GimpleConstructor.Element element : constructor.getElements()) {
+          GimpleConstructor.Element elementCopy = new GimpleConstructor.Element();
+          elementCopy.setField(element.getField() == null ? null : copy(element.getField()));
+          elementCopy.setValue(copy(element.getValue()));
+          copy.getElements().add(elementCopy);
+        }
+        return copy;
+
+      } else if(expr instanceof GimpleFieldRef) {
+        GimpleFieldRef fieldRef = (GimpleFieldRef) expr;
+        GimpleFieldRef copy = new GimpleFieldRef();
+        copy.setId(fieldRef.getId());
+        copy.setName(fieldRef.getName());
+        copy.setOffset(fieldRef.getOffset());
+        copy.setSize(fieldRef.getSize());
+        return copy;
+
+      } else if(expr instanceof GimpleFunctionRef) {
+        GimpleFunctionRef functionRef = (GimpleFunctionRef) expr;
+        checkFunctionVisible(functionRef.getName());
+        GimpleFunctionRef copy = new GimpleFunctionRef(functionRef.getName());
+        copy.setId(functionRef.getId());
+        return copy;
+
+      } else if(expr instanceof GimpleIntegerConstant) {
+        GimpleIntegerConstant copy = new GimpleIntegerConstant();
+        copy.setValue(((GimpleIntegerConstant) expr).getValue());
+        return copy;
+
+      } else if(expr instanceof GimpleRealConstant) {
+        GimpleRealConstant constant = (GimpleRealConstant) expr;
+        return new GimpleRealConstant((GimpleRealType) constant.getType(), constant.getValue());
+
+      } else if(expr instanceof GimpleComplexConstant) {
+        GimpleComplexConstant constant = (GimpleComplexConstant) expr;
+        return new GimpleComplexConstant(copy(constant.getReal()), copy(constant.getIm()));
+
+      } else if(expr instanceof GimpleStringConstant) {
+        GimpleStringConstant copy = new GimpleStringConstant();
+        copy.setValue(((GimpleStringConstant) expr).getValue());
+        return copy;
+
+      } else {
+        throw new CannotInlineException(expr.getClass().getSimpleName());
+      }
+    }
+
+    private GimpleVariableRef localRef(long calleeId, GimpleExpr expr) {
+      GimpleVarDecl decl = locals.get(calleeId);
+      if(decl == null) {
+        throw new CannotInlineException("Undeclared local " + expr);
+      }
+      GimpleVariableRef ref = new GimpleVariableRef(decl.getId(), expr.getType());
+      ref.setName(decl.getName());
+      return ref;
+    }
+
+    /**
+     * @return the id by which the caller's unit refers to the global variable referenced by {@code ref}
+     */
+    private long globalId(GimpleVariableRef ref) {
+      if(calleeUnit == callerUnit) {
+        return ref.getId();
+      }
+      GimpleVarDecl calleeDecl = findGlobal(calleeUnit, ref.getId());
+      if(calleeDecl == null || !(calleeDecl.isPublic() || calleeDecl.isExtern())) {
+        throw new CannotInlineException("Global " + ref + " is not visible from " + callerUnit.getName());
+      }
+      for (GimpleVarDecl callerDecl : callerUnit.getGlobalVariables()) {
+        if((callerDecl.isPublic() || callerDecl.isExtern()) &&
+            Objects.equals(callerDecl.getMangledName(), calleeDecl.getMangledName())) {
+          return callerDecl.getId();
+        }
+      }
+      throw new CannotInlineException("Global " + ref + " is not declared in " + callerUnit.getName());
+    }
+
+    /**
+     * Ensures that {@code name} resolves to the same function from the caller's unit as it does from
+     * the callee's unit.
+     */
+    private void checkFunctionVisible(String name) {
+      if(calleeUnit != callerUnit &&
+          callGraph.findFunction(callerUnit, name) != callGraph.findFunction(calleeUnit, name)) {
+        throw new CannotInlineException("Function " + name + " is not visible from " + callerUnit.getName());
+      }
+    }
+  }
+
+  private static GimpleVarDecl findGlobal(GimpleCompilationUnit unit, long id) {
+    for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+      if(decl.getId() == id) {
+        return decl;
+      }
+    }
+    return null;
+  }
+}
@@ -95,7 +95,11 @@ public class PmfRewriter {
 
     // Update any PMF structs to include an extra flag field
     for (GimpleRecordTypeDef recordTypeDef : unit.getRecordTypes()) {
-      if(isPmfRecord(recordTypeDef)) {
+      if(recordTypeDef.getFields().contains(FLAG_FIELD)) {
+        // Record definitions are shared between units, and this one was updated for an earlier unit
+        pmfUsed = true;
+
+      } else if(isPmfRecord(recordTypeDef)) {
         recordTypeDef.getFields().add(FLAG_FIELD);
         recordTypeDef.setSize(recordTypeDef.getSize() + FLAG_FIELD.getSize());
         pmfUsed = true;
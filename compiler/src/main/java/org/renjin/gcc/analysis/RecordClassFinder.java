@@ -0,0 +1,542 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import org.renjin.gcc.gimple.*;
+import org.renjin.gcc.gimple.expr.*;
+import org.renjin.gcc.gimple.statement.GimpleAssignment;
+import org.renjin.gcc.gimple.statement.GimpleCall;
+import org.renjin.gcc.gimple.statement.GimpleConditional;
+import org.renjin.gcc.gimple.statement.GimpleReturn;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+import org.renjin.gcc.gimple.type.*;
+import org.renjin.repackaged.guava.collect.Sets;
+
+import java.util.*;
+
+/**
+ * Identifies records that can be stored in instances of a generated JVM class with one typed
+ * field per record field, rather than in byte-addressed memory.
+ *
+ * <p>A record qualifies if it has only primitive and pointer fields, none of which have their
+ * address taken, and if neither its values nor pointers to it are ever reinterpreted as another type:
+ * they are not converted to other pointer types or integers, not used in pointer arithmetic, not
+ * stored in arrays or nested in other records, not passed to functions outside of the compilation
+ * units (except {@code free()}), and only allocated, copied or cleared as a single, whole record.</p>
+ *
+ * <p>Records are matched between compilation units by name, so definitions of a record in different
+ * units must have identical layouts. Anonymous records are never stored in classes.</p>
+ *
+ * <p>Must run after {@link AddressableFinder}.</p>
+ */
+public class RecordClassFinder {
+
+  private static final Set<String> ALLOCATORS = Sets.newHashSet("malloc", "__builtin_malloc__", "calloc");
+
+  private static final Set<String> DEALLOCATORS = Sets.newHashSet("free", "__builtin_free__");
+
+  private static final Set<String> MEMCPY = Sets.newHashSet("memcpy", "__builtin_memcpy", "__builtin_memcpy__");
+
+  private static final Set<String> MEMSET = Sets.newHashSet("memset", "__builtin_memset__");
+
+  private static final Set<GimpleOp> EQUALITY = EnumSet.of(GimpleOp.EQ_EXPR, GimpleOp.NE_EXPR);
+
+  private final Collection<GimpleCompilationUnit> units;
+
+  private final Map<String, GimpleFunction> functions = new HashMap<>();
+
+  private final Map<String, GimpleRecordTypeDef> recordTypeDefs = new HashMap<>();
+
+  /**
+   * Names of records that must remain in memory.
+   */
+  private final Set<String> excluded = new HashSet<>();
+
+  public RecordClassFinder(Collection<GimpleCompilationUnit> units) {
+    this.units = units;
+    for (GimpleCompilationUnit unit : units) {
+      for (GimpleFunction fn : unit.getFunctions()) {
+        functions.put(fn.getMangledName(), fn);
+      }
+      for (GimpleRecordTypeDef recordTypeDef : unit.getRecordTypes()) {
+        recordTypeDefs.put(recordTypeDef.getId(), recordTypeDef);
+      }
+    }
+  }
+
+  /**
+   * @return the definitions of each qualifying record, by record name.
+   */
+  public Map<String, List<GimpleRecordTypeDef>> find() {
+
+    Map<String, List<GimpleRecordTypeDef>> candidates = new TreeMap<>();
+    for (GimpleCompilationUnit unit : units) {
+      for (GimpleRecordTypeDef recordTypeDef : unit.getRecordTypes()) {
+        if(recordTypeDef.getName() != null) {
+          candidates.computeIfAbsent(recordTypeDef.getName(), name -> new ArrayList<>()).add(recordTypeDef);
+        }
+      }
+    }
+    for (List<GimpleRecordTypeDef> definitions : candidates.values()) {
+      for (GimpleRecordTypeDef definition : definitions) {
+        if(!hasClassLayout(definition) || !sameLayout(definitions.get(0), definition)) {
+          excluded.add(definition.getName());
+        }
+      }
+    }
+
+    for (GimpleCompilationUnit unit : units) {
+      for (GimpleRecordTypeDef recordTypeDef : unit.getRecordTypes()) {
+        for (GimpleField field : recordTypeDef.getFields()) {
+          // Records nested by value in other records must share their memory
+          checkNested(field.getType(), true);
+        }
+      }
+      for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+        checkNested(decl.getType(), false);
+        if(decl.getValue() != null && !isNullConstant(decl.getValue())) {
+          exclude(decl.getType());
+        }
+      }
+      for (GimpleFunction fn : unit.getFunctions()) {
+        visitFunction(fn);
+      }
+    }
+
+    candidates.keySet().removeAll(excluded);
+
+    return candidates;
+  }
+
+  private static boolean hasClassLayout(GimpleRecordTypeDef recordTypeDef) {
+    if(recordTypeDef.isUnion() || recordTypeDef.getFields().isEmpty()) {
+      return false;
+    }
+    int end = 0;
+    for (GimpleField field : recordTypeDef.getFields()) {
+      GimpleType type = field.getType();
+      if(!(type instanceof GimplePrimitiveType) && !(type instanceof GimpleIndirectType)) {
+        return false;
+      }
+      // Exclude bit fields, overlapping fields, and fields whose address is taken
+      if(field.getOffset() % 8 != 0 || field.getOffset() < end || field.getSize() != type.getSize() ||
+          field.isAddressed()) {
+        return false;
+      }
+      end = field.getOffset() + type.getSize();
+    }
+    return true;
+  }
+
+  private static boolean sameLayout(GimpleRecordTypeDef x, GimpleRecordTypeDef y) {
+    if(x.getFields().size() != y.getFields().size()) {
+      return false;
+    }
+    for (int i = 0; i < x.getFields().size(); i++) {
+      GimpleField fx = x.getFields().get(i);
+      GimpleField fy = y.getFields().get(i);
+      if(fx.getOffset() != fy.getOffset() || !Objects.equals(fx.getName(), fy.getName()) ||
+          !sameType(fx.getType(), fy.getType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameType(GimpleType x, GimpleType y) {
+    if(x instanceof GimpleRecordType && y instanceof GimpleRecordType) {
+      return Objects.equals(((GimpleRecordType) x).getName(), ((GimpleRecordType) y).getName());
+    }
+    if(x instanceof GimpleIndirectType && y instanceof GimpleIndirectType) {
+      return sameType(x.getBaseType(), y.getBaseType());
+    }
+    return x.equals(y);
+  }
+
+  /**
+   * @return the name of the record if {@code type} is a record or a pointer to a record, or
+   * {@code null} otherwise.
+   */
+  private static String recordName(GimpleType type) {
+    if(type instanceof GimpleIndirectType) {
+      type = type.getBaseType();
+    }
+    if(type instanceof GimpleRecordType) {
+      return ((GimpleRecordType) type).getName();
+    }
+    return null;
+  }
+
+  private void exclude(GimpleType type) {
+    String name = recordName(type);
+    if(name != null) {
+      excluded.add(name);
+    }
+  }
+
+  /**
+   * Excludes records stored in arrays, or nested in another record if {@code nested} is true.
+   */
+  private void checkNested(GimpleType type, boolean nested) {
+    if(type instanceof GimpleRecordType) {
+      if(nested) {
+        excluded.add(((GimpleRecordType) type).getName());
+      }
+    } else if(type instanceof GimpleArrayType) {
+      checkNested(((GimpleArrayType) type).getComponentType(), true);
+    } else if(type instanceof GimpleIndirectType) {
+      checkNested(type.getBaseType(), false);
+    }
+  }
+
+  private static boolean isNullConstant(GimpleExpr expr) {
+    return expr instanceof GimpleIntegerConstant && ((GimpleIntegerConstant) expr).isNull();
+  }
+
+  /**
+   * Excludes the records involved if a value of {@code sourceType} is converted to {@code targetType}.
+   */
+  private void checkConversion(GimpleType targetType, GimpleType sourceType) {
+    String target = recordName(targetType);
+    String source = recordName(sourceType);
+    if(target == null && source == null) {
+      return;
+    }
+    if(Objects.equals(target, source) &&
+        (targetType instanceof GimpleIndirectType) == (sourceType instanceof GimpleIndirectType)) {
+      return;
+    }
+    exclude(targetType);
+    exclude(sourceType);
+  }
+
+  private void checkAssignment(GimpleType targetType, GimpleExpr source) {
+    if(targetType instanceof GimpleIndirectType && isNullConstant(source)) {
+      return;
+    }
+    checkConversion(targetType, source.getType());
+  }
+
+  private void visitFunction(GimpleFunction fn) {
+    UseVisitor visitor = new UseVisitor();
+
+    checkNested(fn.getReturnType(), false);
+    for (GimpleParameter parameter : fn.getParameters()) {
+      checkNested(parameter.getType(), false);
+    }
+    for (GimpleVarDecl decl : fn.getVariableDeclarations()) {
+      checkNested(decl.getType(), false);
+      if(decl.getValue() != null) {
+        checkAssignment(decl.getType(), decl.getValue());
+        decl.getValue().accept(visitor);
+      }
+    }
+
+    for (GimpleBasicBlock basicBlock : fn.getBasicBlocks()) {
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        if(statement instanceof GimpleAssignment) {
+          visitAssignment((GimpleAssignment) statement);
+        } else if(statement instanceof GimpleCall) {
+          visitCall((GimpleCall) statement, visitor);
+          continue;
+        } else if(statement instanceof GimpleReturn) {
+          GimpleReturn returnStatement = (GimpleReturn) statement;
+          if(returnStatement.getValue() != null) {
+            checkAssignment(fn.getReturnType(), returnStatement.getValue());
+          }
+        } else if(statement instanceof GimpleConditional) {
+          GimpleConditional conditional = (GimpleConditional) statement;
+          checkComparison(conditional.getOperator(), conditional.getOperands());
+        }
+        statement.accept(visitor);
+      }
+    }
+  }
+
+  private void visitAssignment(GimpleAssignment assignment) {
+    GimpleType lhsType = assignment.getLHS().getType();
+    List<GimpleExpr> operands = assignment.getOperands();
+
+    if(operands.size() == 1) {
+      checkAssignment(lhsType, operands.get(0));
+
+    } else if(!checkComparison(assignment.getOperator(), operands)) {
+      // Pointer arithmetic, pointer differences, conditional expressions, ...
+      exclude(lhsType);
+      for (GimpleExpr operand : operands) {
+        exclude(operand.getType());
+      }
+    }
+  }
+
+  /**
+   * Excludes records whose pointers are compared with anything other than pointers to the same
+   * record or null.
+   *
+   * @return true if {@code op} is a comparison.
+   */
+  private boolean checkComparison(GimpleOp op, List<GimpleExpr> operands) {
+    switch (op) {
+      case EQ_EXPR:
+      case NE_EXPR:
+      case LT_EXPR:
+      case LE_EXPR:
+      case GT_EXPR:
+      case GE_EXPR:
+        GimpleExpr x = operands.get(0);
+        GimpleExpr y = operands.get(1);
+        if(!EQUALITY.contains(op)) {
+          exclude(x.getType());
+          exclude(y.getType());
+        } else if(!isNullConstant(x) && !isNullConstant(y)) {
+          checkConversion(x.getType(), y.getType());
+        }
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void visitCall(GimpleCall call, UseVisitor visitor) {
+    for (GimpleExpr operand : call.getOperands()) {
+      operand.accept(visitor);
+    }
+    if(call.getLhs() != null) {
+      call.getLhs().accept(visitor);
+    }
+
+    GimpleExpr callee = call.getFunction();
+    if(callee instanceof GimpleAddressOf) {
+      // Direct calls are checked against the function's declaration below
+      callee = ((GimpleAddressOf) callee).getValue();
+    } else {
+      callee.accept(visitor);
+    }
+
+    if(callee instanceof GimpleFunctionRef) {
+      String name = ((GimpleFunctionRef) callee).getName();
+      if(ALLOCATORS.contains(name)) {
+        checkAllocation(call);
+      } else if(DEALLOCATORS.contains(name)) {
+        // Nothing to do: the garbage collector will take care of this
+      } else if(MEMCPY.contains(name) || MEMSET.contains(name)) {
+        checkMemoryOperation(call, MEMCPY.contains(name));
+      } else if(functions.containsKey(name)) {
+        GimpleFunction target = functions.get(name);
+        List<GimpleType> parameterTypes = new ArrayList<>();
+        for (GimpleParameter parameter : target.getParameters()) {
+          parameterTypes.add(parameter.getType());
+        }
+        checkCall(call, parameterTypes, target.getReturnType());
+      } else {
+        // External functions only know about records in memory
+        for (GimpleExpr operand : call.getOperands()) {
+          exclude(operand.getType());
+        }
+        if(call.getLhs() != null) {
+          exclude(call.getLhs().getType());
+        }
+      }
+    } else if(callee.getType() instanceof GimpleIndirectType &&
+        callee.getType().getBaseType() instanceof GimpleFunctionType) {
+      GimpleFunctionType functionType = callee.getType().getBaseType();
+      checkCall(call, functionType.getArgumentTypes(), functionType.getReturnType());
+
+    } else {
+      for (GimpleExpr operand : call.getOperands()) {
+        exclude(operand.getType());
+      }
+      if(call.getLhs() != null) {
+        exclude(call.getLhs().getType());
+      }
+    }
+  }
+
+  private void checkCall(GimpleCall call, List<GimpleType> parameterTypes, GimpleType returnType) {
+    for (int i = 0; i < call.getOperands().size(); i++) {
+      GimpleExpr argument = call.getOperand(i);
+      if(i < parameterTypes.size()) {
+        checkAssignment(parameterTypes.get(i), argument);
+      } else {
+        // Variadic arguments
+        exclude(argument.getType());
+      }
+    }
+    if(call.getLhs() != null) {
+      checkConversion(call.getLhs().getType(), returnType);
+    }
+  }
+
+  /**
+   * Records may be allocated, but only one at a time.
+   */
+  private void checkAllocation(GimpleCall call) {
+    if(call.getLhs() == null) {
+      return;
+    }
+    GimpleType pointerType = call.getLhs().getType();
+    if(recordName(pointerType) == null || !(pointerType instanceof GimpleIndirectType)) {
+      return;
+    }
+    long size = 1;
+    for (GimpleExpr operand : call.getOperands()) {
+      if(!(operand instanceof GimpleIntegerConstant)) {
+        exclude(pointerType);
+        return;
+      }
+      size *= ((GimpleIntegerConstant) operand).getValue();
+    }
+    if(size != pointerType.getBaseType().sizeOf()) {
+      exclude(pointerType);
+    }
+  }
+
+  /**
+   * Records may be copied and cleared, but only as a whole.
+   */
+  private void checkMemoryOperation(GimpleCall call, boolean copy) {
+    List<GimpleExpr> operands = call.getOperands();
+    GimpleExpr destination = operands.get(0);
+    GimpleExpr length = operands.get(operands.size() - 1);
+    String name = recordName(destination.getType());
+
+    if(copy) {
+      checkConversion(destination.getType(), operands.get(1).getType());
+    }
+    if(name != null) {
+      if(!(destination.getType() instanceof GimpleIndirectType) ||
+          !(length instanceof GimpleIntegerConstant) ||
+          ((GimpleIntegerConstant) length).getValue() != destination.getType().getBaseType().sizeOf()) {
+        excluded.add(name);
+      }
+    }
+    if(call.getLhs() != null) {
+      checkConversion(call.getLhs().getType(), destination.getType());
+    }
+  }
+
+  /**
+   * Checks the use of records within expressions.
+   */
+  private class UseVisitor extends GimpleExprVisitor {
+
+    @Override
+    public void visit(GimpleExpr expr) {
+      if(expr.getType() != null) {
+        checkNested(expr.getType(), false);
+      }
+    }
+
+    @Override
+    public void visitMemRef(GimpleMemRef memRef) {
+      GimpleType pointerType = memRef.getPointer().getType();
+      GimpleType valueType = memRef.getType();
+      if(recordName(pointerType) != null || valueType instanceof GimpleRecordType) {
+        if(!memRef.isOffsetZero()) {
+          exclude(pointerType);
+          exclude(valueType);
+        } else {
+          checkConversion(valueType, pointerType.getBaseType());
+        }
+      }
+      visit(memRef);
+      super.visitMemRef(memRef);
+    }
+
+    @Override
+    public void visitNop(GimpleNopExpr expr) {
+      checkAssignment(expr.getType(), expr.getValue());
+      super.visitNop(expr);
+    }
+
+    @Override
+    public void visitComponentRef(GimpleComponentRef componentRef) {
+      GimpleType recordType = componentRef.getValue().getType();
+      if(!matchesField(recordType, componentRef)) {
+        exclude(recordType);
+      }
+      super.visitComponentRef(componentRef);
+    }
+
+    @Override
+    public void visitBitFieldRef(GimpleBitFieldRefExpr bitFieldRef) {
+      exclude(bitFieldRef.getValue().getType());
+      super.visitBitFieldRef(bitFieldRef);
+      bitFieldRef.getValue().accept(this);
+    }
+
+    @Override
+    public void visitAddressOf(GimpleAddressOf addressOf) {
+      GimpleExpr value = addressOf.getValue();
+      if(value instanceof GimpleComponentRef) {
+        // Fields of records in classes are not addressable
+        exclude(((GimpleComponentRef) value).getValue().getType());
+      } else if(value instanceof GimpleFunctionRef) {
+        checkFunctionPointer(addressOf);
+      }
+      super.visitAddressOf(addressOf);
+    }
+
+    /**
+     * Excludes records in the signature of a function whose address is converted to a
+     * different function pointer type.
+     */
+    private void checkFunctionPointer(GimpleAddressOf addressOf) {
+      GimpleFunction target = functions.get(((GimpleFunctionRef) addressOf.getValue()).getName());
+      if(target == null) {
+        return;
+      }
+      GimpleType pointerType = addressOf.getType();
+      if(pointerType instanceof GimpleIndirectType && pointerType.getBaseType() instanceof GimpleFunctionType) {
+        GimpleFunctionType functionType = pointerType.getBaseType();
+        if(functionType.getArgumentTypes().size() == target.getParameters().size()) {
+          checkConversion(functionType.getReturnType(), target.getReturnType());
+          for (int i = 0; i < target.getParameters().size(); i++) {
+            checkConversion(functionType.getArgumentTypes().get(i), target.getParameters().get(i).getType());
+          }
+          return;
+        }
+      }
+      exclude(target.getReturnType());
+      for (GimpleParameter parameter : target.getParameters()) {
+        exclude(parameter.getType());
+      }
+    }
+
+    private boolean matchesField(GimpleType recordType, GimpleComponentRef ref) {
+      if(!(recordType instanceof GimpleRecordType)) {
+        return true;
+      }
+      GimpleRecordTypeDef recordTypeDef = recordTypeDefs.get(((GimpleRecordType) recordType).getId());
+      if(recordTypeDef == null) {
+        return false;
+      }
+      for (GimpleField field : recordTypeDef.getFields()) {
+        if(field.getOffset() == ref.getMember().getOffset()) {
+          if(field.getType() instanceof GimpleIndirectType) {
+            return sameType(field.getType(), ref.getType());
+          } else {
+            return field.getType().equals(ref.getType());
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import org.renjin.gcc.gimple.*;
+import org.renjin.gcc.gimple.expr.*;
+import org.renjin.gcc.gimple.statement.GimpleAssignment;
+import org.renjin.gcc.gimple.statement.GimpleCall;
+import org.renjin.gcc.gimple.statement.GimpleReturn;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+import org.renjin.gcc.gimple.type.*;
+import org.renjin.repackaged.guava.collect.Maps;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Identifies local record variables that can be split into one JVM local variable per field,
+ * rather than being backed by a heap-allocated {@code MixedPtr}.
+ *
+ * <p>A variable qualifies if it is not addressable, its record type has only primitive and
+ * pointer fields, and it is only used through exact field references, or as a whole
+ * in assignments, call arguments, call results and return values.</p>
+ *
+ * <p>Must run after {@link AddressableFinder}.</p>
+ */
+public class ScalarReplacementFinder {
+
+  /**
+   * Records with more fields than this are left in memory: copying them field by field
+   * costs more than a single {@code memcpy}, and each field costs a local variable slot.
+   */
+  public static final int MAX_FIELDS = 16;
+
+  private final Map<String, GimpleRecordTypeDef> recordTypeDefs = Maps.newHashMap();
+  private Collection<GimpleCompilationUnit> units;
+
+  public ScalarReplacementFinder(Collection<GimpleCompilationUnit> units) {
+    this.units = units;
+    for (GimpleCompilationUnit unit : units) {
+      for (GimpleRecordTypeDef unitRecordType : unit.getRecordTypes()) {
+        recordTypeDefs.put(unitRecordType.getId(), unitRecordType);
+      }
+    }
+  }
+
+  public void mark() {
+    for (GimpleCompilationUnit unit : units) {
+      for (GimpleFunction fn : unit.getFunctions()) {
+        mark(fn);
+      }
+    }
+  }
+
+  /**
+   * @return true if variables of the given record type can be represented as one
+   * local per field.
+   */
+  public static boolean isSplittable(GimpleRecordTypeDef recordTypeDef) {
+    if(recordTypeDef.isUnion()) {
+      return false;
+    }
+    if(recordTypeDef.getFields().isEmpty() || recordTypeDef.getFields().size() > MAX_FIELDS) {
+      return false;
+    }
+    int end = 0;
+    for (GimpleField field : recordTypeDef.getFields()) {
+      GimpleType type = field.getType();
+      if(!(type instanceof GimplePrimitiveType) && !(type instanceof GimpleIndirectType)) {
+        return false;
+      }
+      // Exclude bit fields and overlapping fields
+      if(field.getOffset() % 8 != 0 || field.getOffset() < end || field.getSize() != type.getSize()) {
+        return false;
+      }
+      end = field.getOffset() + type.getSize();
+    }
+    return true;
+  }
+
+  private void mark(GimpleFunction fn) {
+    Map<Long, GimpleRecordTypeDef> candidates = Maps.newHashMap();
+    for (GimpleVarDecl decl : fn.getVariableDeclarations()) {
+      if(!decl.isAddressable() && !decl.isStatic() && decl.getType() instanceof GimpleRecordType) {
+        GimpleRecordTypeDef recordTypeDef = recordTypeDefs.get(((GimpleRecordType) decl.getType()).getId());
+        if(recordTypeDef != null && isSplittable(recordTypeDef)) {
+          candidates.put(decl.getId(), recordTypeDef);
+        }
+      }
+    }
+    if(candidates.isEmpty()) {
+      return;
+    }
+
+    UseVisitor visitor = new UseVisitor(candidates);
+
+    for (GimpleVarDecl decl : fn.getVariableDeclarations()) {
+      if(decl.getValue() != null) {
+        visitor.visitWholeValue(decl.getValue());
+      }
+    }
+
+    for (GimpleBasicBlock basicBlock : fn.getBasicBlocks()) {
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        visitStatement(visitor, statement);
+      }
+    }
+
+    for (GimpleVarDecl decl : fn.getVariableDeclarations()) {
+      if(candidates.containsKey(decl.getId()) && !visitor.disqualified.contains(decl.getId())) {
+        decl.setScalarReplaceable(true);
+      }
+    }
+  }
+
+  private void visitStatement(UseVisitor visitor, GimpleStatement statement) {
+    if(statement instanceof GimpleAssignment) {
+      GimpleAssignment assignment = (GimpleAssignment) statement;
+      boolean recordCopy = assignment.getLHS().getType() instanceof GimpleRecordType;
+      visitor.visitWholeValue(assignment.getLHS());
+      for (GimpleExpr operand : assignment.getOperands()) {
+        if(recordCopy) {
+          visitor.visitWholeValue(operand);
+        } else {
+          operand.accept(visitor);
+        }
+      }
+
+    } else if(statement instanceof GimpleCall) {
+      GimpleCall call = (GimpleCall) statement;
+      call.getFunction().accept(visitor);
+      if(call.getLhs() != null) {
+        visitor.visitWholeValue(call.getLhs());
+      }
+      for (GimpleExpr operand : call.getOperands()) {
+        visitor.visitWholeValue(operand);
+      }
+
+    } else if(statement instanceof GimpleReturn) {
+      GimpleReturn returnStatement = (GimpleReturn) statement;
+      if(returnStatement.getValue() != null) {
+        visitor.visitWholeValue(returnStatement.getValue());
+      }
+
+    } else {
+      statement.accept(visitor);
+    }
+  }
+
+  /**
+   * Disqualifies any candidate variable referenced other than through an exact field reference,
+   * or as a whole value in a position approved by the caller.
+   */
+  private static class UseVisitor extends GimpleExprVisitor {
+
+    private final Map<Long, GimpleRecordTypeDef> candidates;
+    private final Set<Long> disqualified = new HashSet<>();
+
+    UseVisitor(Map<Long, GimpleRecordTypeDef> candidates) {
+      this.candidates = candidates;
+    }
+
+    void visitWholeValue(GimpleExpr expr) {
+      if(!isCandidate(expr)) {
+        expr.accept(this);
+      }
+    }
+
+    @Override
+    public void visitVariableRef(GimpleVariableRef variableRef) {
+      if(candidates.containsKey(variableRef.getId())) {
+        disqualified.add(variableRef.getId());
+      }
+    }
+
+    @Override
+    public void visitComponentRef(GimpleComponentRef componentRef) {
+      if(isCandidate(componentRef.getValue())) {
+        long id = ((GimpleVariableRef) componentRef.getValue()).getId();
+        if(!matchesField(candidates.get(id), componentRef)) {
+          disqualified.add(id);
+        }
+      } else {
+        super.visitComponentRef(componentRef);
+      }
+    }
+
+    @Override
+    public void visitAddressOf(GimpleAddressOf addressOf) {
+      GimpleExpr value = addressOf.getValue();
+      if(value instanceof GimpleComponentRef && isCandidate(((GimpleComponentRef) value).getValue())) {
+        disqualified.add(((GimpleVariableRef) ((GimpleComponentRef) value).getValue()).getId());
+      }
+      super.visitAddressOf(addressOf);
+    }
+
+    @Override
+    public void visitBitFieldRef(GimpleBitFieldRefExpr bitFieldRef) {
+      super.visitBitFieldRef(bitFieldRef);
+      bitFieldRef.getValue().accept(this);
+    }
+
+    private boolean isCandidate(GimpleExpr expr) {
+      return expr instanceof GimpleVariableRef && candidates.containsKey(((GimpleVariableRef) expr).getId());
+    }
+
+    private static boolean matchesField(GimpleRecordTypeDef recordTypeDef, GimpleComponentRef ref) {
+      for (GimpleField field : recordTypeDef.getFields()) {
+        if(field.getOffset() == ref.getMember().getOffset()) {
+          if(field.getType() instanceof GimpleIndirectType) {
+            return ref.getType() instanceof GimpleIndirectType;
+          } else {
+            return field.getType().equals(ref.getType());
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
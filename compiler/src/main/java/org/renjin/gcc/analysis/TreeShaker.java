@@ -0,0 +1,241 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.analysis;
+
+import org.renjin.gcc.codegen.UnitClassGenerator;
+import org.renjin.gcc.gimple.*;
+import org.renjin.gcc.gimple.expr.GimpleFunctionRef;
+import org.renjin.gcc.gimple.expr.GimpleVariableRef;
+
+import java.util.*;
+
+/**
+ * Removes the functions and global variables which cannot be reached from a set of roots.
+ *
+ * <p>The roots are the functions and global variables named as entry points, and, when a trampoline class is
+ * written, every public function, as the trampoline exports them all. A public alias exports the function
+ * it names, so the target of a public alias is treated as public, even if the function itself is static. Without either, every public function and
+ * variable is a root, and only the unreachable static functions and variables are removed. C++ static initializers
+ * are always roots, as they are only invoked by the static initializer of the unit's class. From the roots, the analysis follows
+ * every reference to a function, whether it is called directly or its address is taken, and every reference
+ * to a global variable, including references from the initial values of global and static local variables.
+ * A function whose address is taken by reachable code is therefore kept, even if it is only ever called
+ * through a pointer.</p>
+ *
+ * <p>Global variables provided by {@code @GlobalVar} methods of the reference classes are declared, but not
+ * defined, by the compilation units, so are not affected.</p>
+ */
+public class TreeShaker {
+
+  private final List<GimpleCompilationUnit> units;
+  private final CallGraph callGraph;
+
+  private final Set<CallGraph.FunctionNode> reachableFunctions = new HashSet<>();
+  private final Set<GimpleVarDecl> reachableVariables = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Deque<Object> worklist = new ArrayDeque<>();
+
+  private final Map<String, List<GimpleVarDecl>> publicVariables = new HashMap<>();
+  private final Map<GimpleCompilationUnit, Map<Long, GimpleVarDecl>> unitVariables = new IdentityHashMap<>();
+  private final Map<GimpleVarDecl, GimpleCompilationUnit> variableUnits = new IdentityHashMap<>();
+
+  private final List<GimpleFunction> removedFunctions = new ArrayList<>();
+  private final List<GimpleVarDecl> removedVariables = new ArrayList<>();
+
+  public TreeShaker(List<GimpleCompilationUnit> units) {
+    this.units = units;
+    this.callGraph = new CallGraph(units);
+
+    for (GimpleCompilationUnit unit : units) {
+      Map<Long, GimpleVarDecl> variables = new HashMap<>();
+      for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+        variables.put(decl.getId(), decl);
+        variableUnits.put(decl, unit);
+        if(decl.isPublic() && !decl.isExtern()) {
+          publicVariables.computeIfAbsent(decl.getMangledName(), name -> new ArrayList<>()).add(decl);
+        }
+      }
+      unitVariables.put(unit, variables);
+    }
+  }
+
+  /**
+   * Marks the public function or global variable with the given (mangled) name as a root.
+   *
+   * @return false if no compilation unit defines a public function, public alias or variable with this name.
+   */
+  public boolean addEntryPoint(String name) {
+    boolean found = false;
+    CallGraph.FunctionNode node = callGraph.findPublicFunction(name);
+    if(node != null) {
+      markFunction(node);
+      found = true;
+    }
+    for (GimpleVarDecl decl : publicVariables.getOrDefault(name, Collections.emptyList())) {
+      markVariable(decl);
+      found = true;
+    }
+    return found;
+  }
+
+  /**
+   * Marks every public function, and the target of every public alias, as a root.
+   */
+  public void addPublicFunctions() {
+    for (CallGraph.FunctionNode node : callGraph.getFunctionNodes()) {
+      if(node.getFunction().isPublic()) {
+        markFunction(node);
+      }
+    }
+    for (GimpleCompilationUnit unit : units) {
+      for (GimpleAlias alias : unit.getAliases()) {
+        if(alias.isPublic()) {
+          CallGraph.FunctionNode node = callGraph.findFunction(unit, alias.getDefinition());
+          if(node != null) {
+            markFunction(node);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks every public global variable as a root.
+   */
+  public void addPublicVariables() {
+    for (List<GimpleVarDecl> decls : publicVariables.values()) {
+      for (GimpleVarDecl decl : decls) {
+        markVariable(decl);
+      }
+    }
+  }
+
+  /**
+   * Marks every C++ static initializer wrapper as a root. These are only referenced from the
+   * {@code .init_array} section of the object file, so never appear to be called.
+   *
+   * @see UnitClassGenerator#isCppStaticInitializer(String)
+   */
+  public void addCppStaticInitializers() {
+    for (CallGraph.FunctionNode node : callGraph.getFunctionNodes()) {
+      if(UnitClassGenerator.isCppStaticInitializer(node.getFunction().getMangledName())) {
+        markFunction(node);
+      }
+    }
+  }
+
+  /**
+   * Removes the functions and global variables which are not reachable from the roots.
+   */
+  public void shake() {
+    while(!worklist.isEmpty()) {
+      Object next = worklist.pop();
+      if(next instanceof CallGraph.FunctionNode) {
+        CallGraph.FunctionNode node = (CallGraph.FunctionNode) next;
+        node.getFunction().accept(new ReferenceVisitor(node.getUnit()));
+      } else {
+        GimpleVarDecl decl = (GimpleVarDecl) next;
+        decl.accept(new ReferenceVisitor(variableUnits.get(decl)));
+      }
+    }
+
+    Set<GimpleFunction> keep = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (CallGraph.FunctionNode node : reachableFunctions) {
+      keep.add(node.getFunction());
+    }
+
+    for (GimpleCompilationUnit unit : units) {
+      Iterator<GimpleFunction> functionIt = unit.getFunctions().iterator();
+      while(functionIt.hasNext()) {
+        GimpleFunction function = functionIt.next();
+        if(!keep.contains(function)) {
+          removedFunctions.add(function);
+          functionIt.remove();
+        }
+      }
+      Iterator<GimpleVarDecl> variableIt = unit.getGlobalVariables().iterator();
+      while(variableIt.hasNext()) {
+        GimpleVarDecl decl = variableIt.next();
+        if(!reachableVariables.contains(decl)) {
+          if(!decl.isExtern()) {
+            removedVariables.add(decl);
+          }
+          variableIt.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the functions removed by {@link #shake()}
+   */
+  public List<GimpleFunction> getRemovedFunctions() {
+    return removedFunctions;
+  }
+
+  /**
+   * @return the global variables, excluding {@code extern} declarations, removed by {@link #shake()}
+   */
+  public List<GimpleVarDecl> getRemovedVariables() {
+    return removedVariables;
+  }
+
+  private void markFunction(CallGraph.FunctionNode node) {
+    if(reachableFunctions.add(node)) {
+      worklist.push(node);
+    }
+  }
+
+  private void markVariable(GimpleVarDecl decl) {
+    if(reachableVariables.add(decl)) {
+      worklist.push(decl);
+    }
+  }
+
+  private class ReferenceVisitor extends GimpleExprVisitor {
+    private final GimpleCompilationUnit unit;
+
+    ReferenceVisitor(GimpleCompilationUnit unit) {
+      this.unit = unit;
+    }
+
+    @Override
+    public void visitFunctionRef(GimpleFunctionRef functionRef) {
+      CallGraph.FunctionNode node = callGraph.findFunction(unit, functionRef.getName());
+      if(node != null) {
+        markFunction(node);
+      }
+    }
+
+    @Override
+    public void visitVariableRef(GimpleVariableRef variableRef) {
+      GimpleVarDecl decl = unitVariables.get(unit).get(variableRef.getId());
+      if(decl == null) {
+        // A local variable
+        return;
+      }
+      markVariable(decl);
+      if(decl.isExtern() || decl.isPublic()) {
+        // Also keep the definition of the variable in other units, which are linked by name
+        for (GimpleVarDecl definition : publicVariables.getOrDefault(decl.getMangledName(), Collections.emptyList())) {
+          markVariable(definition);
+        }
+      }
+    }
+  }
+}
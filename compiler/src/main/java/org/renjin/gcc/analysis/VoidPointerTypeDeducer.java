@@ -79,7 +79,7 @@ public class VoidPointerTypeDeducer implements FunctionBodyTransformer {
     fn.accept(new AssignmentFinder(decl, possibleTypes));
     fn.accept(new MemRefVisitor(decl, possibleTypes));
 
-    logger.log("Possible type set of " + decl + " = "  + possibleTypes);
+    logger.log(() -> "Possible type set of " + decl + " = "  + possibleTypes);
 
     if (possibleTypes.size() == 1 && !possibleTypes.contains(UNKNOWN_TYPE)) {
       GimpleType deducedType = possibleTypes.iterator().next();
@@ -0,0 +1,331 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.cds;
+
+import org.renjin.gcc.GimpleCompiler;
+import org.renjin.gcc.output.JarOutputSink;
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.ByteStreams;
+import org.renjin.repackaged.guava.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds an AppCDS archive for the classes written by the {@link GimpleCompiler} and the
+ * {@code org.renjin.gcc.runtime} library.
+ *
+ * <p>The archive is dumped by a JVM of the version that will later use it, which need not be the
+ * JVM running the build: the {@code java} executable can be set with {@link #setJavaExecutable(File)}.
+ * Static archives ({@code -Xshare:dump}) require JDK 10 or later, dynamic archives
+ * ({@code -XX:ArchiveClassesAtExit}) JDK 13 or later.</p>
+ *
+ * <p>For a static archive, the classes to archive are taken from the {@link GimpleCompiler#CLASS_LIST_NAME}
+ * resources and the runtime classes found on the classpath. If a training class is set, its
+ * {@code main} method is first run with {@code -XX:DumpLoadedClassList}, so that the JDK and
+ * application classes used by the workload are archived as well. A dynamic archive contains exactly the
+ * classes loaded by the training workload, which is required.</p>
+ *
+ * <p>The JVM can only use classes from an archive if they were loaded from JAR files, so
+ * {@link GimpleCompiler} output directories on the classpath are first packaged into JAR files in the working
+ * directory. The archive may be used by any JVM whose classpath starts with the classpath returned by
+ * {@link #build()}.</p>
+ */
+public class ClassDataArchiveBuilder {
+
+  private static final String RUNTIME_PACKAGE = "org/renjin/gcc/runtime/";
+
+  private final List<File> classpath = new ArrayList<>();
+  private File archiveFile;
+  private File workingDirectory;
+  private File javaExecutable = new File(System.getProperty("java.home"), "bin/java");
+  private String trainingClass;
+  private final List<String> trainingArguments = new ArrayList<>();
+  private boolean dynamic;
+  private boolean verbose;
+
+  public ClassDataArchiveBuilder(File archiveFile) {
+    this.archiveFile = archiveFile;
+    this.workingDirectory = new File(archiveFile.getAbsoluteFile().getParentFile(), "cds");
+  }
+
+  /**
+   * Adds a JAR file, or a directory written by the {@link GimpleCompiler}, to the classpath of the archive.
+   */
+  public void addClasspathEntry(File entry) {
+    classpath.add(entry);
+  }
+
+  /**
+   * Sets the directory in which the class lists, and the JAR files packaged from output directories, are written.
+   */
+  public void setWorkingDirectory(File workingDirectory) {
+    this.workingDirectory = workingDirectory;
+  }
+
+  /**
+   * Sets the {@code java} executable of the JVM which will use the archive.
+   */
+  public void setJavaExecutable(File javaExecutable) {
+    this.javaExecutable = javaExecutable;
+  }
+
+  /**
+   * Sets the class whose {@code main} method runs a short, representative workload.
+   */
+  public void setTrainingClass(String trainingClass, List<String> arguments) {
+    this.trainingClass = trainingClass;
+    this.trainingArguments.clear();
+    this.trainingArguments.addAll(arguments);
+  }
+
+  /**
+   * Dumps a dynamic archive of the classes loaded by the training workload, rather than a static archive.
+   */
+  public void setDynamic(boolean dynamic) {
+    this.dynamic = dynamic;
+  }
+
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /**
+   * Builds the archive.
+   *
+   * @return the classpath with which the archive must be used.
+   */
+  public String build() throws IOException, InterruptedException {
+    if(!workingDirectory.exists() && !workingDirectory.mkdirs()) {
+      throw new IOException("Could not create working directory " + workingDirectory);
+    }
+
+    List<File> jars = new ArrayList<>();
+    for (File entry : classpath) {
+      if(entry.isDirectory()) {
+        jars.add(packageDirectory(entry));
+      } else {
+        jars.add(entry.getAbsoluteFile());
+      }
+    }
+    String classpathString = toClasspath(jars);
+
+    if(dynamic) {
+      if(trainingClass == null) {
+        throw new IllegalStateException("A training class is required for a dynamic archive");
+      }
+      runTraining(classpathString, "-XX:ArchiveClassesAtExit=" + archiveFile.getAbsolutePath());
+
+    } else {
+      Set<String> classList = new LinkedHashSet<>();
+      for (File jar : jars) {
+        readClassList(jar, classList);
+      }
+
+      if(trainingClass != null) {
+        File trainingList = new File(workingDirectory, "training.classlist");
+        runTraining(classpathString, "-XX:DumpLoadedClassList=" + trainingList.getAbsolutePath());
+        classList.addAll(Files.readLines(trainingList, Charsets.UTF_8));
+      }
+
+      File classListFile = new File(workingDirectory, "archive.classlist");
+      Files.asCharSink(classListFile, Charsets.UTF_8).write(String.join("\n", classList) + "\n");
+      if(verbose) {
+        System.err.println("Archiving " + classList.size() + " classes");
+      }
+
+      run(Arrays.asList(javaExecutable.getAbsolutePath(),
+          "-Xshare:dump",
+          "-XX:SharedClassListFile=" + classListFile.getAbsolutePath(),
+          "-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath(),
+          "-cp", classpathString));
+    }
+
+    return classpathString;
+  }
+
+  /**
+   * Packages the contents of a {@link GimpleCompiler} output directory into a JAR file of the same name.
+   */
+  private File packageDirectory(File directory) throws IOException {
+    File jarFile = new File(workingDirectory, directory.getName() + ".jar");
+    List<String> resourceNames = new ArrayList<>();
+    findResources(directory, "", resourceNames);
+    Collections.sort(resourceNames);
+
+    JarOutputSink sink = new JarOutputSink(jarFile);
+    try {
+      sink.setStoreLinkMetadataUncompressed(true);
+      for (String resourceName : resourceNames) {
+        sink.writeResource(resourceName, Files.toByteArray(new File(directory, resourceName)));
+      }
+    } catch (Exception e) {
+      sink.abort();
+      throw e;
+    }
+    sink.close();
+    return jarFile;
+  }
+
+  private static void findResources(File directory, String prefix, List<String> resourceNames) {
+    File[] files = directory.listFiles();
+    if(files != null) {
+      for (File file : files) {
+        if(file.isDirectory()) {
+          findResources(file, prefix + file.getName() + "/", resourceNames);
+        } else {
+          resourceNames.add(prefix + file.getName());
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the classes listed by the {@link GimpleCompiler}, and the runtime classes, contained in the given JAR.
+   */
+  static void readClassList(File jar, Set<String> classList) throws IOException {
+    try(ZipFile zipFile = new ZipFile(jar)) {
+      ZipEntry listEntry = zipFile.getEntry(GimpleCompiler.CLASS_LIST_NAME);
+      if(listEntry != null) {
+        try(InputStream in = zipFile.getInputStream(listEntry)) {
+          for (String line : new String(ByteStreams.toByteArray(in), Charsets.UTF_8).split("\n")) {
+            if(!line.isEmpty()) {
+              classList.add(line);
+            }
+          }
+        }
+      }
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if(name.startsWith(RUNTIME_PACKAGE) && name.endsWith(".class")) {
+          classList.add(name.substring(0, name.length() - ".class".length()));
+        }
+      }
+    }
+  }
+
+  private void runTraining(String classpathString, String dumpOption) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(javaExecutable.getAbsolutePath());
+    command.add(dumpOption);
+    command.add("-cp");
+    command.add(classpathString);
+    command.add(trainingClass);
+    command.addAll(trainingArguments);
+    run(command);
+  }
+
+  private void run(List<String> command) throws IOException, InterruptedException {
+    if(verbose) {
+      System.err.println(String.join(" ", command));
+    }
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    processBuilder.inheritIO();
+    int exitCode = processBuilder.start().waitFor();
+    if(exitCode != 0) {
+      throw new IOException("Command failed with exit code " + exitCode + ": " + String.join(" ", command));
+    }
+  }
+
+  static String toClasspath(List<File> files) {
+    StringBuilder classpath = new StringBuilder();
+    for (File file : files) {
+      if(classpath.length() > 0) {
+        classpath.append(File.pathSeparator);
+      }
+      classpath.append(file.getAbsolutePath());
+    }
+    return classpath.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    File archiveFile = null;
+    File workingDirectory = null;
+    File javaExecutable = null;
+    boolean dynamic = false;
+    boolean verbose = false;
+    List<File> classpath = new ArrayList<>();
+    List<String> training = new ArrayList<>();
+
+    for (String arg : args) {
+      if(training.isEmpty() && arg.startsWith("--")) {
+        String[] parts = arg.split("=", 2);
+        String option = parts[0];
+        String value = parts[1];
+        switch (option) {
+          case "--archive":
+            archiveFile = new File(value);
+            break;
+          case "--classpath":
+            for (String entry : value.split(File.pathSeparator)) {
+              classpath.add(new File(entry));
+            }
+            break;
+          case "--work-dir":
+            workingDirectory = new File(value);
+            break;
+          case "--java":
+            javaExecutable = new File(value);
+            break;
+          case "--dynamic":
+            dynamic = Boolean.parseBoolean(value);
+            break;
+          case "--verbose":
+            verbose = Boolean.parseBoolean(value);
+            break;
+          default:
+            throw new RuntimeException("Unknown option " + arg);
+        }
+      } else {
+        training.add(arg);
+      }
+    }
+
+    if(archiveFile == null || classpath.isEmpty()) {
+      System.err.println("usage: ClassDataArchiveBuilder --archive=<file.jsa> --classpath=<jars and output dirs> " +
+          "[--work-dir=<dir>] [--java=<java>] [--dynamic=true] [training-class [args...]]");
+      System.exit(1);
+    }
+
+    ClassDataArchiveBuilder builder = new ClassDataArchiveBuilder(archiveFile);
+    classpath.forEach(builder::addClasspathEntry);
+    if(workingDirectory != null) {
+      builder.setWorkingDirectory(workingDirectory);
+    }
+    if(javaExecutable != null) {
+      builder.setJavaExecutable(javaExecutable);
+    }
+    if(!training.isEmpty()) {
+      builder.setTrainingClass(training.get(0), training.subList(1, training.size()));
+    }
+    builder.setDynamic(dynamic);
+    builder.setVerbose(verbose);
+
+    String runtimeClasspath = builder.build();
+
+    System.out.println("Wrote " + archiveFile + ". Run with:");
+    System.out.println("  -XX:SharedArchiveFile=" + archiveFile.getAbsolutePath() + " -cp " + runtimeClasspath);
+  }
+}
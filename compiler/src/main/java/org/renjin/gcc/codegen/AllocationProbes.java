@@ -0,0 +1,189 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.codegen.call.*;
+import org.renjin.gcc.codegen.expr.ExprFactory;
+import org.renjin.gcc.codegen.expr.Expressions;
+import org.renjin.gcc.codegen.expr.GExpr;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.var.GlobalVarAllocator;
+import org.renjin.gcc.codegen.var.LocalVarAllocator;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.statement.GimpleCall;
+import org.renjin.gcc.runtime.AllocationSite;
+import org.renjin.gcc.runtime.AllocationTracker;
+import org.renjin.repackaged.asm.Label;
+import org.renjin.repackaged.asm.Type;
+
+/**
+ * Emits calls to the {@link AllocationTracker} around the allocations and frees in a function compiled with
+ * allocation tracking enabled.
+ *
+ * <p>Each call to {@code malloc}, {@code calloc}, {@code realloc} or the C++ {@code new} operators is registered
+ * as an {@link AllocationSite} in the unit class's static initializer, and the site is stored in a static field.
+ * The requested size is charged to the current thread's quota before the allocation, and the new block is recorded
+ * afterwards. If the allocation itself throws, the charge is returned to the quota before the exception propagates.
+ * Calls to {@code alloca} are not tracked, as their memory is released when the function returns.</p>
+ */
+public class AllocationProbes {
+
+  private static final Type OBJECT_TYPE = Type.getType(Object.class);
+  private static final Type SITE_TYPE = Type.getType(AllocationSite.class);
+
+  private final GimpleFunction function;
+  private final GlobalVarAllocator globalVarAllocator;
+  private int siteCount = 0;
+
+  public AllocationProbes(GimpleFunction function, GlobalVarAllocator globalVarAllocator) {
+    this.function = function;
+    this.globalVarAllocator = globalVarAllocator;
+  }
+
+  /**
+   * Emits the given call, instrumented if it allocates or frees memory.
+   */
+  public void emitCall(MethodGenerator mv, ExprFactory exprFactory, CallGenerator callGenerator, GimpleCall call) {
+    if(callGenerator instanceof FreeCallGenerator) {
+      callGenerator.emitCall(mv, exprFactory, call);
+      emitFree(mv, exprFactory, call);
+
+    } else if(call.getLhs() == null || isStackAllocation(call)) {
+      callGenerator.emitCall(mv, exprFactory, call);
+
+    } else if(callGenerator instanceof MallocCallGenerator) {
+      emitAllocation(mv, exprFactory, callGenerator, call,
+          exprFactory.findPrimitiveGenerator(call.getOperand(0)));
+
+    } else if(callGenerator instanceof CallocGenerator) {
+      emitAllocation(mv, exprFactory, callGenerator, call,
+          Expressions.product(
+              toInt(exprFactory.findPrimitiveGenerator(call.getOperand(0))),
+              toInt(exprFactory.findPrimitiveGenerator(call.getOperand(1)))));
+
+    } else if(callGenerator instanceof ReallocCallGenerator) {
+      emitReallocation(mv, exprFactory, callGenerator, call);
+
+    } else {
+      callGenerator.emitCall(mv, exprFactory, call);
+    }
+  }
+
+  private static boolean isStackAllocation(GimpleCall call) {
+    return call.isFunctionNamed("alloca") || call.isFunctionNamed("__builtin_alloca");
+  }
+
+  private void emitAllocation(MethodGenerator mv, ExprFactory exprFactory, CallGenerator callGenerator,
+                              GimpleCall call, JExpr size) {
+    LocalVarAllocator.LocalVar bytes = reserve(mv, size);
+    emitReservedCall(mv, exprFactory, callGenerator, call, bytes);
+
+    pointer(exprFactory.findGenerator(call.getLhs())).load(mv);
+    bytes.load(mv);
+    site(call).load(mv);
+    mv.invokestatic(AllocationTracker.class, "allocated",
+        Type.getMethodDescriptor(Type.VOID_TYPE, OBJECT_TYPE, Type.INT_TYPE, SITE_TYPE));
+  }
+
+  private void emitReallocation(MethodGenerator mv, ExprFactory exprFactory, CallGenerator callGenerator,
+                                GimpleCall call) {
+
+    // The lhs may be the same variable as the pointer being reallocated, so keep the original.
+    LocalVarAllocator.LocalVar original = mv.getLocalVarAllocator().reserve(OBJECT_TYPE);
+    original.store(mv, pointer(exprFactory.findGenerator(call.getOperand(0))));
+
+    LocalVarAllocator.LocalVar bytes = reserve(mv, exprFactory.findPrimitiveGenerator(call.getOperand(1)));
+    emitReservedCall(mv, exprFactory, callGenerator, call, bytes);
+
+    original.load(mv);
+    pointer(exprFactory.findGenerator(call.getLhs())).load(mv);
+    bytes.load(mv);
+    site(call).load(mv);
+    mv.invokestatic(AllocationTracker.class, "reallocated",
+        Type.getMethodDescriptor(Type.VOID_TYPE, OBJECT_TYPE, OBJECT_TYPE, Type.INT_TYPE, SITE_TYPE));
+  }
+
+  private void emitFree(MethodGenerator mv, ExprFactory exprFactory, GimpleCall call) {
+    if(call.getOperands().isEmpty()) {
+      return;
+    }
+    pointer(exprFactory.findGenerator(call.getOperand(0))).load(mv);
+    mv.invokestatic(AllocationTracker.class, "freed", Type.getMethodDescriptor(Type.VOID_TYPE, OBJECT_TYPE));
+  }
+
+  /**
+   * Evaluates the requested size once, and charges it to the current thread's quota.
+   */
+  private LocalVarAllocator.LocalVar reserve(MethodGenerator mv, JExpr size) {
+    LocalVarAllocator.LocalVar bytes = mv.getLocalVarAllocator().reserve(Type.INT_TYPE);
+    bytes.store(mv, toInt(size));
+    bytes.load(mv);
+    mv.invokestatic(AllocationTracker.class, "reserve", Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE));
+    return bytes;
+  }
+
+  /**
+   * Emits the allocating call within a handler which returns the reserved bytes to the quota and rethrows.
+   *
+   * <p>The handler is registered while the function body is being emitted, ahead of the function-wide handlers
+   * of the stack arena and profiler, so it is tried first.</p>
+   */
+  private void emitReservedCall(MethodGenerator mv, ExprFactory exprFactory, CallGenerator callGenerator,
+                                GimpleCall call, LocalVarAllocator.LocalVar bytes) {
+    Label tryStart = new Label();
+    Label tryEnd = new Label();
+    Label handler = new Label();
+    Label done = new Label();
+
+    mv.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+    mv.visitLabel(tryStart);
+    callGenerator.emitCall(mv, exprFactory, call);
+    mv.visitLabel(tryEnd);
+    mv.goTo(done);
+
+    mv.visitLabel(handler);
+    bytes.load(mv);
+    mv.invokestatic(AllocationTracker.class, "unreserve", Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE));
+    mv.athrow();
+
+    mv.visitLabel(done);
+  }
+
+  private static JExpr toInt(JExpr size) {
+    if(size.getType().equals(Type.INT_TYPE)) {
+      return size;
+    }
+    return Expressions.castPrimitive(size, Type.INT_TYPE);
+  }
+
+  private static JExpr pointer(GExpr expr) {
+    return expr.toVoidPtrExpr().jexpr();
+  }
+
+  private GlobalVarAllocator.StaticField site(GimpleCall call) {
+    JExpr registration = Expressions.staticMethodCall(AllocationTracker.class, "site",
+        Type.getMethodDescriptor(SITE_TYPE, Type.getType(String.class), Type.getType(String.class), Type.INT_TYPE),
+        Expressions.constantString(function.getUnit().getSourceName()),
+        Expressions.constantString(function.getName()),
+        Expressions.constantInt(call.getLineNumber() == null ? 0 : call.getLineNumber()));
+
+    return globalVarAllocator.reserve("$alloc$" + function.getSafeMangledName() + "$" + (siteCount++),
+        SITE_TYPE, registration);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.analysis.ControlFlowGraph;
+import org.renjin.gcc.analysis.DominatorTree;
+import org.renjin.gcc.codegen.var.LocalVarAllocator;
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.GimpleExprVisitor;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.GimpleVarDecl;
+import org.renjin.gcc.gimple.expr.GimpleVariableRef;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+
+import java.util.*;
+
+/**
+ * Moves the initialization of local variables from the function's entry to the basic block which
+ * dominates all of their uses.
+ *
+ * <p>Arrays, records and addressable scalars are allocated on the heap when they are initialized, so a
+ * scratch buffer which is only used on an error path would otherwise be allocated on every call. Here, its
+ * allocation is emitted at the start of the nearest block that dominates every reference to the variable,
+ * so that paths which never touch the variable never pay for it.</p>
+ *
+ * <p>An initialization is only moved if that block can be executed at most once per call, that is, if it does
+ * not lie on a cycle: otherwise a loop iteration would discard the contents of, and any pointers to, the
+ * previous iteration's allocation. Variables with an explicit initial value, or whose address is taken by the
+ * initial value of another variable, are always initialized on entry.</p>
+ */
+public class AllocationSinker {
+
+  /**
+   * Maps the ids of the variables to sink to the index of the basic block into which they are sunk.
+   */
+  private final Map<Long, Integer> targetBlocks;
+
+  private final Map<Integer, List<LocalVarAllocator.LocalVar>> sunkVariables = new HashMap<>();
+
+  private AllocationSinker(Map<Long, Integer> targetBlocks) {
+    this.targetBlocks = targetBlocks;
+  }
+
+  /**
+   * Finds the local variables of {@code function} whose initialization can be sunk.
+   *
+   * @return a new sinker, or {@code null} if no initialization can be moved.
+   */
+  public static AllocationSinker plan(GimpleFunction function) {
+    if(function.getBasicBlocks().isEmpty()) {
+      return null;
+    }
+
+    Set<Long> candidates = new HashSet<>();
+    for (GimpleVarDecl decl : function.getVariableDeclarations()) {
+      if(!decl.isStatic() && decl.getValue() == null) {
+        candidates.add(decl.getId());
+      }
+    }
+
+    // Initial values are stored on entry, so anything they refer to must also be ready on entry
+    for (GimpleVarDecl decl : function.getVariableDeclarations()) {
+      if(decl.getValue() != null) {
+        decl.getValue().accept(new GimpleExprVisitor() {
+          @Override
+          public void visitVariableRef(GimpleVariableRef variableRef) {
+            candidates.remove(variableRef.getId());
+          }
+        });
+      }
+    }
+    if(candidates.isEmpty()) {
+      return null;
+    }
+
+    ControlFlowGraph cfg = new ControlFlowGraph(function, true);
+    DominatorTree dominators = new DominatorTree(cfg);
+
+    // Find the nearest common dominator of each candidate's references
+    Map<Long, ControlFlowGraph.Node> dominatingNodes = new HashMap<>();
+    Set<Long> unsinkable = new HashSet<>();
+    for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+      ControlFlowGraph.Node node = cfg.getNode(basicBlock);
+      GimpleExprVisitor visitor = new GimpleExprVisitor() {
+        @Override
+        public void visitVariableRef(GimpleVariableRef variableRef) {
+          long id = variableRef.getId();
+          if(!candidates.contains(id) || unsinkable.contains(id)) {
+            return;
+          }
+          if(!dominators.isReachable(node)) {
+            unsinkable.add(id);
+            return;
+          }
+          ControlFlowGraph.Node dominator = dominatingNodes.get(id);
+          if(dominator == null) {
+            dominatingNodes.put(id, node);
+          } else {
+            dominatingNodes.put(id, dominators.getCommonDominator(dominator, node));
+          }
+        }
+      };
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        statement.accept(visitor);
+      }
+    }
+
+    ControlFlowGraph.Node firstNode = cfg.getNode(function.getBasicBlocks().get(0));
+    Map<ControlFlowGraph.Node, Boolean> onCycle = new HashMap<>();
+    Map<Long, Integer> targetBlocks = new HashMap<>();
+
+    for (Map.Entry<Long, ControlFlowGraph.Node> entry : dominatingNodes.entrySet()) {
+      ControlFlowGraph.Node node = entry.getValue();
+      if(unsinkable.contains(entry.getKey()) || node == firstNode) {
+        continue;
+      }
+      if(onCycle.computeIfAbsent(node, AllocationSinker::isOnCycle)) {
+        continue;
+      }
+      targetBlocks.put(entry.getKey(), node.getBasicBlock().getIndex());
+    }
+
+    if(targetBlocks.isEmpty()) {
+      return null;
+    }
+    return new AllocationSinker(targetBlocks);
+  }
+
+  /**
+   * @return true if {@code node} can be reached from itself.
+   */
+  private static boolean isOnCycle(ControlFlowGraph.Node node) {
+    Set<ControlFlowGraph.Node> visited = new HashSet<>();
+    Deque<ControlFlowGraph.Node> worklist = new ArrayDeque<>(node.getOutgoing());
+    while(!worklist.isEmpty()) {
+      ControlFlowGraph.Node next = worklist.pop();
+      if(next == node) {
+        return true;
+      }
+      if(visited.add(next)) {
+        worklist.addAll(next.getOutgoing());
+      }
+    }
+    return false;
+  }
+
+  public boolean isSinkable(GimpleVarDecl decl) {
+    return targetBlocks.containsKey(decl.getId());
+  }
+
+  /**
+   * Records the local variables allocated for {@code decl}, whose initialization is to be
+   * emitted by {@link #emitInitialization(MethodGenerator, GimpleBasicBlock)} rather than on entry.
+   */
+  public void sink(GimpleVarDecl decl, List<LocalVarAllocator.LocalVar> variables) {
+    sunkVariables.computeIfAbsent(targetBlocks.get(decl.getId()), index -> new ArrayList<>())
+        .addAll(variables);
+  }
+
+  /**
+   * Initializes the variables which have been sunk into {@code basicBlock}.
+   */
+  public void emitInitialization(MethodGenerator mv, GimpleBasicBlock basicBlock) {
+    List<LocalVarAllocator.LocalVar> variables = sunkVariables.get(basicBlock.getIndex());
+    if(variables != null) {
+      for (LocalVarAllocator.LocalVar variable : variables) {
+        variable.initialize(mv);
+      }
+    }
+  }
+}
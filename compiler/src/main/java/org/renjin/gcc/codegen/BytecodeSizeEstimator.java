@@ -18,6 +18,15 @@
  */
 package org.renjin.gcc.codegen;
 
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.GimpleExprVisitor;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.expr.GimpleExpr;
+import org.renjin.gcc.gimple.expr.GimpleMemRef;
+import org.renjin.gcc.gimple.expr.GimpleNopExpr;
+import org.renjin.gcc.gimple.statement.GimpleCall;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+import org.renjin.gcc.gimple.statement.GimpleSwitch;
 import org.renjin.repackaged.asm.Handle;
 import org.renjin.repackaged.asm.Label;
 import org.renjin.repackaged.asm.MethodVisitor;
@@ -196,4 +205,58 @@ public class BytecodeSizeEstimator extends MethodVisitor {
     methodNode.accept(estimator);
     return estimator.bytes;
   }
+
+  /**
+   * Bytes generated on average for each Gimple statement, in addition to its operands:
+   * a store or a jump.
+   */
+  private static final int STATEMENT_BYTES = 2;
+
+  /**
+   * Bytes generated on average for each expression node: a load, a constant or an arithmetic
+   * instruction, and for memory references and casts, an invocation of a {@code Ptr} method.
+   */
+  private static final int EXPR_BYTES = 1;
+  private static final int MEMORY_REF_BYTES = 4;
+  private static final int CALL_BYTES = 3;
+  private static final int SWITCH_CASE_BYTES = 8;
+
+  /**
+   * Estimates the size of the bytecode which will be generated for a function, before code generation,
+   * from the number of statements and expression nodes in its body. The weights approximate the size, as
+   * measured by {@link #estimateSize(MethodNode)}, of the code generated for each kind of node.
+   */
+  public static int estimateSize(GimpleFunction function) {
+    int[] bytes = new int[1];
+    GimpleExprVisitor visitor = new GimpleExprVisitor() {
+      @Override
+      public void visit(GimpleExpr expr) {
+        bytes[0] += EXPR_BYTES;
+      }
+
+      @Override
+      public void visitMemRef(GimpleMemRef memRef) {
+        bytes[0] += MEMORY_REF_BYTES;
+        super.visitMemRef(memRef);
+      }
+
+      @Override
+      public void visitNop(GimpleNopExpr expr) {
+        bytes[0] += MEMORY_REF_BYTES;
+        super.visitNop(expr);
+      }
+    };
+    for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        bytes[0] += STATEMENT_BYTES;
+        if(statement instanceof GimpleCall) {
+          bytes[0] += CALL_BYTES;
+        } else if(statement instanceof GimpleSwitch) {
+          bytes[0] += SWITCH_CASE_BYTES * ((GimpleSwitch) statement).getCases().size();
+        }
+        statement.accept(visitor);
+      }
+    }
+    return bytes[0];
+  }
 }
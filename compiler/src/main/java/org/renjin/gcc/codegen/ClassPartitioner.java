@@ -0,0 +1,200 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.analysis.CallGraph;
+import org.renjin.gcc.gimple.GimpleCompilationUnit;
+import org.renjin.gcc.gimple.GimpleExprVisitor;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.GimpleVarDecl;
+import org.renjin.gcc.gimple.expr.GimpleVariableRef;
+
+import java.util.*;
+
+/**
+ * Partitions the functions of a large compilation unit into several classes, and its global variables
+ * into separate holder classes.
+ *
+ * <p>Functions which call each other are kept in the same class where possible, so that a call rarely
+ * loads another class: each function starts in its own cluster, and clusters are merged along the
+ * call graph's edges, most frequent calls first, for as long as the merged cluster's estimated bytecode
+ * size stays within the limit. The clusters are then packed into as few classes as the limit allows.</p>
+ *
+ * <p>A global variable used by the functions of only one class is assigned to that class's holder, so that
+ * it is initialized only when that class first needs it. All other global variables are assigned to a holder
+ * shared by the whole unit.</p>
+ */
+public class ClassPartitioner {
+
+  /**
+   * The holder index of the global variables which are shared between classes.
+   */
+  public static final int SHARED_HOLDER = -1;
+
+  private final List<List<GimpleFunction>> classes = new ArrayList<>();
+  private final Map<GimpleVarDecl, Integer> holders = new IdentityHashMap<>();
+
+  public ClassPartitioner(GimpleCompilationUnit unit, List<GimpleFunction> functions, int sizeLimit) {
+
+    Map<GimpleFunction, Cluster> clusters = new IdentityHashMap<>();
+    for (GimpleFunction function : functions) {
+      clusters.put(function, new Cluster(function, BytecodeSizeEstimator.estimateSize(function)));
+    }
+
+    // Count the calls between each pair of functions
+    Map<List<GimpleFunction>, Integer> callCounts = new HashMap<>();
+    CallGraph callGraph = new CallGraph(Collections.singletonList(unit));
+    for (CallGraph.CallSite callSite : callGraph.getCallSites()) {
+      if(callSite.getCallee() != null) {
+        GimpleFunction caller = callSite.getCallingFunction().getFunction();
+        GimpleFunction callee = callSite.getCallee().getFunction();
+        if(caller != callee && clusters.containsKey(caller) && clusters.containsKey(callee)) {
+          callCounts.merge(Arrays.asList(caller, callee), 1, Integer::sum);
+        }
+      }
+    }
+    List<Map.Entry<List<GimpleFunction>, Integer>> edges = new ArrayList<>(callCounts.entrySet());
+    edges.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+    for (Map.Entry<List<GimpleFunction>, Integer> edge : edges) {
+      Cluster a = clusters.get(edge.getKey().get(0)).find();
+      Cluster b = clusters.get(edge.getKey().get(1)).find();
+      if(a != b && a.size + b.size <= sizeLimit) {
+        b.parent = a;
+        a.size += b.size;
+        a.functions.addAll(b.functions);
+      }
+    }
+
+    // Pack the clusters, largest first, into classes
+    List<Cluster> roots = new ArrayList<>();
+    for (GimpleFunction function : functions) {
+      Cluster cluster = clusters.get(function);
+      if(cluster.parent == null) {
+        roots.add(cluster);
+      }
+    }
+    roots.sort((a, b) -> Integer.compare(b.size, a.size));
+
+    List<Integer> classSizes = new ArrayList<>();
+    for (Cluster cluster : roots) {
+      int classIndex = 0;
+      while(classIndex < classes.size() && classSizes.get(classIndex) + cluster.size > sizeLimit) {
+        classIndex++;
+      }
+      if(classIndex == classes.size()) {
+        classes.add(new ArrayList<>());
+        classSizes.add(0);
+      }
+      classes.get(classIndex).addAll(cluster.functions);
+      classSizes.set(classIndex, classSizes.get(classIndex) + cluster.size);
+    }
+
+    // Keep the functions of each class in the order in which they were declared
+    Map<GimpleFunction, Integer> order = new IdentityHashMap<>();
+    for (int i = 0; i < functions.size(); i++) {
+      order.put(functions.get(i), i);
+    }
+    for (List<GimpleFunction> classFunctions : classes) {
+      classFunctions.sort(Comparator.comparing(order::get));
+    }
+
+    assignHolders(unit);
+  }
+
+  private void assignHolders(GimpleCompilationUnit unit) {
+    Map<Long, GimpleVarDecl> globals = new HashMap<>();
+    for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+      globals.put(decl.getId(), decl);
+    }
+
+    Map<GimpleVarDecl, Integer> users = new IdentityHashMap<>();
+    for (int classIndex = 0; classIndex < classes.size(); classIndex++) {
+      int user = classIndex;
+      GimpleExprVisitor visitor = new GimpleExprVisitor() {
+        @Override
+        public void visitVariableRef(GimpleVariableRef variableRef) {
+          GimpleVarDecl decl = globals.get(variableRef.getId());
+          if(decl != null) {
+            users.merge(decl, user, (a, b) -> a.equals(b) ? a : SHARED_HOLDER);
+          }
+        }
+      };
+      for (GimpleFunction function : classes.get(classIndex)) {
+        function.accept(visitor);
+      }
+    }
+
+    GimpleExprVisitor initializerVisitor = new GimpleExprVisitor() {
+      @Override
+      public void visitVariableRef(GimpleVariableRef variableRef) {
+        GimpleVarDecl decl = globals.get(variableRef.getId());
+        if(decl != null) {
+          users.put(decl, SHARED_HOLDER);
+        }
+      }
+    };
+    for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+      decl.accept(initializerVisitor);
+    }
+
+    // Variables with initial values are kept together, so that initializers which refer to each
+    // other are evaluated by a single class initializer
+    for (GimpleVarDecl decl : unit.getGlobalVariables()) {
+      if(users.containsKey(decl) && decl.getValue() == null) {
+        holders.put(decl, users.get(decl));
+      } else {
+        holders.put(decl, SHARED_HOLDER);
+      }
+    }
+  }
+
+  /**
+   * @return the functions of each class, in declaration order.
+   */
+  public List<List<GimpleFunction>> getClasses() {
+    return classes;
+  }
+
+  /**
+   * @return the index of the class whose holder should declare {@code decl}, or {@link #SHARED_HOLDER}
+   */
+  public int getHolder(GimpleVarDecl decl) {
+    return holders.getOrDefault(decl, SHARED_HOLDER);
+  }
+
+  private static class Cluster {
+    private Cluster parent;
+    private int size;
+    private final List<GimpleFunction> functions = new ArrayList<>();
+
+    Cluster(GimpleFunction function, int size) {
+      this.functions.add(function);
+      this.size = size;
+    }
+
+    Cluster find() {
+      Cluster cluster = this;
+      while(cluster.parent != null) {
+        cluster = cluster.parent;
+      }
+      return cluster;
+    }
+  }
+}
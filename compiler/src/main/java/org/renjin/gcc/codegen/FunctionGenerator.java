@@ -18,6 +18,7 @@
  */
 package org.renjin.gcc.codegen;
 
+import org.renjin.gcc.CompilerOptions;
 import org.renjin.gcc.GimpleCompiler;
 import org.renjin.gcc.InternalCompilerException;
 import org.renjin.gcc.analysis.FunctionOracle;
@@ -26,7 +27,9 @@ import org.renjin.gcc.codegen.call.InvocationStrategy;
 import org.renjin.gcc.codegen.condition.ConditionGenerator;
 import org.renjin.gcc.codegen.expr.*;
 import org.renjin.gcc.codegen.type.*;
+import org.renjin.gcc.codegen.type.complex.ComplexReturnStrategy;
 import org.renjin.gcc.codegen.var.GlobalVarAllocator;
+import org.renjin.gcc.codegen.var.LocalSlotAllocator;
 import org.renjin.gcc.codegen.var.LocalStaticVarAllocator;
 import org.renjin.gcc.codegen.vptr.VPtrExpr;
 import org.renjin.gcc.codegen.vptr.VPtrVariadicStrategy;
@@ -34,6 +37,7 @@ import org.renjin.gcc.gimple.*;
 import org.renjin.gcc.gimple.expr.GimpleConstructor;
 import org.renjin.gcc.gimple.statement.*;
 import org.renjin.gcc.gimple.type.GimpleVoidType;
+import org.renjin.gcc.logging.CompilationMetrics;
 import org.renjin.gcc.logging.LogManager;
 import org.renjin.gcc.peephole.PeepholeOptimizer;
 import org.renjin.gcc.runtime.Ptr;
@@ -82,10 +86,52 @@ public class FunctionGenerator implements InvocationStrategy {
 
   private MethodGenerator mv;
 
+  /**
+   * Emits profiling probes, or {@code null} if profiling is not enabled.
+   */
+  private ProfilingProbes probes;
+
+  /**
+   * Instruments allocations, or {@code null} if allocation tracking is not enabled.
+   */
+  private AllocationProbes allocationProbes;
+
+  /**
+   * Specializes counted loops over arrays, or {@code null} if loop vectorization is not enabled.
+   */
+  private LoopVectorizer loopVectorizer;
+
+  private final boolean ptrDevirtualizationEnabled;
+
+  private final boolean stackArenaEnabled;
+
+  private final boolean localSlotSharingEnabled;
+
+  private final boolean allocationSinkingEnabled;
+
+  /**
+   * Moves the initialization of local variables into the blocks which use them, or {@code null} if
+   * allocation sinking is not enabled or no initialization can be moved.
+   */
+  private AllocationSinker allocationSinker;
+
+  /**
+   * Allocates from the thread's stack arena, or {@code null} if the stack arena is not enabled or
+   * the function makes no allocations which could use it.
+   */
+  private StackArenaFrame stackArenaFrame;
+
   private boolean compilationFailed = false;
 
+  private long peepholeNanos;
+  private long peepholeBytes;
+  private int peepholeIterations;
+  private int bytecodeSize;
+  private int maxLocals;
+
   public FunctionGenerator(String className, GimpleFunction function, TypeOracle typeOracle,
-                           GlobalVarAllocator globalVarAllocator, UnitSymbolTable symbolTable, ResourceWriter writer) {
+                           GlobalVarAllocator globalVarAllocator, UnitSymbolTable symbolTable, ResourceWriter writer,
+                           CompilerOptions options) {
     this.className = className;
     this.function = function;
     this.typeOracle = typeOracle;
@@ -100,11 +146,28 @@ public class FunctionGenerator implements InvocationStrategy {
       this.variadicStrategy = new NullVariadicStrategy();
     }
 
-    this.returnStrategy = this.typeOracle.returnStrategyFor(function.getReturnType());
+    ReturnStrategy returnStrategy = this.typeOracle.returnStrategyFor(function.getReturnType());
+    if(options.isComplexReturnSlotEnabled() && returnStrategy instanceof ComplexReturnStrategy) {
+      returnStrategy = ((ComplexReturnStrategy) returnStrategy).withReturnSlot();
+    }
+    this.returnStrategy = returnStrategy;
     this.staticVarAllocator = new LocalStaticVarAllocator("$" + function.getSafeMangledName() + "$", globalVarAllocator);
     this.localSymbolTable = new LocalVariableTable(symbolTable);
     this.localStaticSymbolTable = new LocalVariableTable(symbolTable);
 
+    if(options.isProfilingEnabled()) {
+      this.probes = new ProfilingProbes(function, globalVarAllocator);
+    }
+    if(options.isAllocationTrackingEnabled()) {
+      this.allocationProbes = new AllocationProbes(function, globalVarAllocator);
+    }
+    if(options.isLoopVectorizationEnabled()) {
+      this.loopVectorizer = new LoopVectorizer(function);
+    }
+    this.ptrDevirtualizationEnabled = options.isPtrDevirtualizationEnabled();
+    this.stackArenaEnabled = options.isStackArenaEnabled();
+    this.localSlotSharingEnabled = options.isLocalSlotSharingEnabled();
+    this.allocationSinkingEnabled = options.isAllocationSinkingEnabled();
   }
 
   public String getMangledName() {
@@ -130,6 +193,23 @@ public class FunctionGenerator implements InvocationStrategy {
     return function;
   }
 
+  /**
+   * Releases all state used to generate the function's bytecode once the unit class has been written.
+   * Only the function's signature and strategies, which are needed to link calls from other units and to
+   * write trampolines, are retained. The Gimple function itself is left untouched.
+   */
+  public void release() {
+    mv = null;
+    exprFactory = null;
+    labels = null;
+    loopVectorizer = null;
+    stackArenaFrame = null;
+    allocationSinker = null;
+    functionOracle = null;
+    localSymbolTable = null;
+    localStaticSymbolTable = null;
+  }
+
   public void emit(LogManager logger, ClassVisitor cw) {
 
     try {
@@ -155,25 +235,63 @@ public class FunctionGenerator implements InvocationStrategy {
 
 
       mv = new MethodGenerator(className, methodNode);
+      mv.setPtrDevirtualizationEnabled(ptrDevirtualizationEnabled);
       this.exprFactory = new ExprFactory(typeOracle, this.localSymbolTable, mv, varArgsPtr, resourceWriter);
 
+      if(stackArenaEnabled) {
+        stackArenaFrame = StackArenaFrame.plan(function, exprFactory);
+        mv.setStackArenaFrame(stackArenaFrame);
+      }
+
       mv.visitCode();
       mv.visitLabel(beginLabel);
 
       emitParamInitialization();
+
+      if(probes != null) {
+        probes.emitEntry(mv);
+      }
+
+      if(stackArenaFrame != null) {
+        stackArenaFrame.emitEntry(mv);
+      }
+
+      if(allocationSinkingEnabled) {
+        allocationSinker = AllocationSinker.plan(function);
+      }
+
       scheduleLocalVariables();
 
       emitLocalVarInitialization();
 
-      for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
-        emitBasicBlock(basicBlock);
+      List<GimpleBasicBlock> basicBlocks = function.getBasicBlocks();
+      for (int blockIndex = 0; blockIndex < basicBlocks.size(); blockIndex++) {
+        GimpleBasicBlock basicBlock = basicBlocks.get(blockIndex);
+        if(loopVectorizer != null && loopVectorizer.isCountedLoop(basicBlock)) {
+          emitCountedLoop(basicBlock, blockIndex);
+        } else {
+          emitBasicBlock(basicBlock, blockIndex);
+        }
       }
 
       // Verify that GCC is not letting us fall through with out a return statement
       if (function.isEmpty() || function.getLastBasicBlock().fallsThrough()) {
         JExpr defaultReturnValue = returnStrategy.getDefaultReturnValue();
         defaultReturnValue.load(mv);
-        mv.areturn(defaultReturnValue.getType());
+        emitReturnInstruction(defaultReturnValue.getType());
+      }
+
+      // The function-wide handlers are registered only now, after any handlers nested within the body, as the
+      // JVM tries handlers in the order in which they are registered. The arena's region is nested within the
+      // profiler's, so its handler must also be registered first: it releases the arena and rethrows into the
+      // profiler's handler, which records the exit
+      if(stackArenaFrame != null) {
+        stackArenaFrame.declareExceptionHandler(mv);
+        stackArenaFrame.emitExceptionHandler(mv);
+      }
+
+      if(probes != null) {
+        probes.emitExceptionHandler(mv);
       }
 
       mv.visitLabel(endLabel);
@@ -188,18 +306,28 @@ public class FunctionGenerator implements InvocationStrategy {
       mv.visitMaxs(1, 1);
       mv.visitEnd();
 
-      logger.log(function, "j", toString(methodNode));
+      logger.log(function, "j", () -> toString(methodNode));
 
       // Reduce the size of the bytecode by applying simple optimizations
-      PeepholeOptimizer.INSTANCE.optimize(methodNode);
+      CompilationMetrics.Mark peepholeStart = CompilationMetrics.mark();
+      peepholeIterations = PeepholeOptimizer.INSTANCE.optimize(methodNode);
+      peepholeNanos = peepholeStart.elapsedNanos();
+      peepholeBytes = peepholeStart.allocatedBytesSince();
+
+      if(localSlotSharingEnabled) {
+        maxLocals = LocalSlotAllocator.allocate(methodNode);
+      } else {
+        maxLocals = LocalSlotAllocator.countSlots(methodNode);
+      }
 
       int estimatedSize = BytecodeSizeEstimator.estimateSize(methodNode);
+      bytecodeSize = estimatedSize;
       if (estimatedSize > 40_000) {
         System.err.println("WARNING: Method size of " + className + "." + function.getMangledName() +
             " may be exceeded. (Estimate: " + estimatedSize + ")");
       }
 
-      logger.log(function, "opt.j", toString(methodNode));
+      logger.log(function, "opt.j", () -> toString(methodNode));
       logger.logTriView(function, localSymbolTable, methodNode);
 
       try {
@@ -220,7 +348,7 @@ public class FunctionGenerator implements InvocationStrategy {
             getCompilationUnit().getSourceName());
         e.printStackTrace(System.err);
 
-        logger.log(function, "error", Throwables.getStackTraceAsString(e));
+        logger.log(function, "error", () -> Throwables.getStackTraceAsString(e));
 
         writeRuntimeStub(cw);
 
@@ -385,6 +513,8 @@ public class FunctionGenerator implements InvocationStrategy {
       }
 
       try {
+        int reservedCount = mv.getLocalVarAllocator().getReservedCount();
+
         GExpr generator = functionOracle.variable(varDecl,
             varDecl.isStatic() ?
                 staticVarAllocator :
@@ -392,6 +522,10 @@ public class FunctionGenerator implements InvocationStrategy {
 
         localSymbolTable.addVariable(varDecl.getId(), generator);
 
+        if(allocationSinker != null && allocationSinker.isSinkable(varDecl)) {
+          allocationSinker.sink(varDecl, mv.getLocalVarAllocator().deferInitialization(reservedCount));
+        }
+
         if(varDecl.isStatic()) {
           localStaticSymbolTable.addVariable(varDecl.getId(), generator);
         }
@@ -402,9 +536,17 @@ public class FunctionGenerator implements InvocationStrategy {
     }
   }
 
-  private void emitBasicBlock(GimpleBasicBlock basicBlock) {
+  private void emitBasicBlock(GimpleBasicBlock basicBlock, int blockIndex) {
     mv.visitLabel(labels.of(basicBlock));
 
+    if(probes != null) {
+      probes.emitBlock(mv, blockIndex);
+    }
+
+    if(allocationSinker != null) {
+      allocationSinker.emitInitialization(mv, basicBlock);
+    }
+
     Integer currentLineNumber = null;
 
     for (GimpleStatement ins : basicBlock.getStatements()) {
@@ -438,6 +580,35 @@ public class FunctionGenerator implements InvocationStrategy {
     }
   }
 
+  /**
+   * Emits a counted loop twice: first with memory accessed directly through the arrays underlying
+   * its pointers, then as usual. Jumps from outside the loop arrive at a guard that selects between the two.
+   */
+  private void emitCountedLoop(GimpleBasicBlock basicBlock, int blockIndex) {
+    LoopVectorizer.Specialization specialization = loopVectorizer.specialize(mv, exprFactory, basicBlock);
+    if(specialization == null) {
+      emitBasicBlock(basicBlock, blockIndex);
+      return;
+    }
+
+    Label entryLabel = labels.of(basicBlock);
+    Label vectorLabel = new Label();
+    Label scalarLabel = new Label();
+
+    mv.visitLabel(entryLabel);
+    specialization.emitGuard(mv, scalarLabel);
+
+    labels.set(basicBlock, vectorLabel);
+    exprFactory.setArrayAccesses(specialization.getArrayAccesses());
+    emitBasicBlock(basicBlock, blockIndex);
+    exprFactory.setArrayAccesses(Collections.emptyMap());
+
+    labels.set(basicBlock, scalarLabel);
+    emitBasicBlock(basicBlock, blockIndex);
+
+    labels.set(basicBlock, entryLabel);
+  }
+
   private void emitAsm(GimpleStatement ins) {
     mv.invokestatic(Stdlib.class, "inlineAssembly", "()V");
   }
@@ -506,12 +677,16 @@ public class FunctionGenerator implements InvocationStrategy {
 
   private void emitCall(GimpleCall ins) {
     CallGenerator callGenerator = exprFactory.findCallGenerator(ins.getFunction());
-    callGenerator.emitCall(mv, exprFactory, ins);
+    if(allocationProbes != null) {
+      allocationProbes.emitCall(mv, exprFactory, callGenerator, ins);
+    } else {
+      callGenerator.emitCall(mv, exprFactory, ins);
+    }
   }
 
   private void emitReturn(GimpleReturn ins) {
     if(function.getReturnType() instanceof GimpleVoidType) {
-      mv.areturn(Type.VOID_TYPE);
+      emitReturnInstruction(Type.VOID_TYPE);
     } else {
       JExpr returnValue;
       if(ins.getValue() == null) {
@@ -521,10 +696,20 @@ public class FunctionGenerator implements InvocationStrategy {
         returnValue = returnStrategy.marshall(returnExpr);
       }
       returnValue.load(mv);
-      mv.areturn(returnValue.getType());
+      emitReturnInstruction(returnValue.getType());
     }
   }
 
+  private void emitReturnInstruction(Type returnType) {
+    if(stackArenaFrame != null) {
+      stackArenaFrame.emitExit(mv);
+    }
+    if(probes != null) {
+      probes.emitExit(mv);
+    }
+    mv.areturn(returnType);
+  }
+
   public String getFunctionDescriptor() {
     return TypeOracle.getMethodDescriptor(returnStrategy, getParamStrategies(), getVariadicStrategy());
   }
@@ -578,6 +763,32 @@ public class FunctionGenerator implements InvocationStrategy {
     return className;
   }
 
+  public long getPeepholeNanos() {
+    return peepholeNanos;
+  }
+
+  public long getPeepholeBytes() {
+    return peepholeBytes;
+  }
+
+  public int getPeepholeIterations() {
+    return peepholeIterations;
+  }
+
+  /**
+   * @return the estimated size of the optimized bytecode, or zero if the function has not yet been emitted
+   */
+  public int getBytecodeSize() {
+    return bytecodeSize;
+  }
+
+  /**
+   * @return the number of local variable slots, including parameters, used by the generated method.
+   */
+  public int getMaxLocals() {
+    return maxLocals;
+  }
+
   @Override
   public String toString() {
     return className + "." + getMangledName() + "()";
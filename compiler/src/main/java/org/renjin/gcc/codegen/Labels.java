@@ -35,6 +35,13 @@ public class Labels {
     return of(block.getIndex());
   }
   
+  /**
+   * Replaces the label of the given basic block, so that subsequent jumps to the block target {@code label}.
+   */
+  public void set(GimpleBasicBlock block, Label label) {
+    map.put(block.getIndex(), label);
+  }
+
   public Label of(int index) {
     Label label = map.get(index);
     if(label == null) {
@@ -0,0 +1,211 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.analysis.CountedLoop;
+import org.renjin.gcc.analysis.CountedLoopFinder;
+import org.renjin.gcc.codegen.expr.*;
+import org.renjin.gcc.codegen.type.primitive.PrimitiveType;
+import org.renjin.gcc.codegen.vptr.PointerType;
+import org.renjin.gcc.codegen.vptr.VPtrExpr;
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.expr.GimpleExpr;
+import org.renjin.gcc.gimple.expr.GimpleMemRef;
+import org.renjin.gcc.gimple.type.GimplePrimitiveType;
+import org.renjin.gcc.gimple.type.GimpleType;
+import org.renjin.gcc.runtime.DoublePtr;
+import org.renjin.gcc.runtime.Ptr;
+import org.renjin.repackaged.asm.Label;
+import org.renjin.repackaged.asm.Type;
+
+import java.util.*;
+
+/**
+ * Specializes {@link CountedLoop}s over arrays of primitives so that HotSpot's SuperWord optimization
+ * can vectorize them.
+ *
+ * <p>Pointers to primitives are compiled to {@link Ptr} references, so a loop such as {@code y[i] += a * x[i]}
+ * reads and writes memory through calls to the {@code Ptr} interface, which the JIT will not vectorize.
+ * For each counted loop, the function generator emits a second copy of the loop body in which these accesses
+ * are made directly against the arrays underlying the pointers, at {@code start + i}. This copy is
+ * preceded by a guard which checks that each pointer is an instance of the array-backed implementation for its
+ * element type, such as {@link DoublePtr}, and is aligned on an element boundary. If any check fails, the
+ * original loop body is executed instead.</p>
+ */
+public class LoopVectorizer {
+
+  /**
+   * The array-specialized version of a single loop.
+   */
+  public static class Specialization {
+    private final List<ArrayView> views;
+    private final Map<GimpleMemRef, GExpr> arrayAccesses;
+
+    private Specialization(List<ArrayView> views, Map<GimpleMemRef, GExpr> arrayAccesses) {
+      this.views = views;
+      this.arrayAccesses = arrayAccesses;
+    }
+
+    /**
+     * @return the expressions to use in place of memory references within the specialized loop body.
+     * @see ExprFactory#setArrayAccesses(Map)
+     */
+    public Map<GimpleMemRef, GExpr> getArrayAccesses() {
+      return arrayAccesses;
+    }
+
+    /**
+     * Emits the checks that must pass before entering the specialized loop, and loads the arrays and
+     * start offsets of each pointer into local variables.
+     *
+     * @param fallback the label of the original loop body, to which control is transferred if any
+     *                 pointer is not backed by an array of the expected type.
+     */
+    public void emitGuard(MethodGenerator mv, Label fallback) {
+      for (ArrayView view : views) {
+        view.emitGuard(mv, fallback);
+      }
+      for (ArrayView view : views) {
+        view.emitLoad(mv);
+      }
+    }
+  }
+
+  /**
+   * The array and start offset underlying a pointer that is invariant in the loop.
+   */
+  private static class ArrayView {
+    private final PointerType elementType;
+    private final VPtrExpr pointer;
+    private final JLValue array;
+    private final JLValue start;
+
+    private ArrayView(PointerType elementType, VPtrExpr pointer, JLValue array, JLValue start) {
+      this.elementType = elementType;
+      this.pointer = pointer;
+      this.array = array;
+      this.start = start;
+    }
+
+    private void emitGuard(MethodGenerator mv, Label fallback) {
+      pointer.getBaseRef().load(mv);
+      mv.instanceOf(elementType.alignedImpl());
+      mv.ifeq(fallback);
+
+      JExpr offset = pointer.getOffset();
+      if(elementType.getSize() > 1 && !ConstantValue.isZero(offset)) {
+        offset.load(mv);
+        mv.iconst(elementType.getSize() - 1);
+        mv.and(Type.INT_TYPE);
+        mv.ifne(fallback);
+      }
+    }
+
+    private void emitLoad(MethodGenerator mv) {
+      JExpr base = Expressions.cast(pointer.getBaseRef(), elementType.alignedImpl());
+      JExpr offset = pointer.getOffset();
+      if(elementType.getSize() > 1) {
+        offset = Expressions.divide(offset, elementType.getSize());
+      }
+      array.store(mv, Expressions.field(base, array.getType(), "array"));
+      start.store(mv, Expressions.sum(Expressions.field(base, Type.INT_TYPE, "offset"), offset));
+    }
+  }
+
+  private final Map<Integer, CountedLoop> loops = new HashMap<>();
+
+  public LoopVectorizer(GimpleFunction function) {
+    for (CountedLoop loop : new CountedLoopFinder(function).find()) {
+      loops.put(loop.getBody().getIndex(), loop);
+    }
+  }
+
+  /**
+   * @return true if the given basic block is a {@link CountedLoop} that may be specialized.
+   */
+  public boolean isCountedLoop(GimpleBasicBlock block) {
+    return loops.containsKey(block.getIndex());
+  }
+
+  /**
+   * Prepares the array-specialized version of the given loop, reserving local variables for the
+   * underlying arrays and their start offsets.
+   *
+   * @return the specialization, or {@code null} if none of the loop's pointers are compiled to
+   * {@link Ptr} references.
+   */
+  public Specialization specialize(MethodGenerator mv, ExprFactory exprFactory, GimpleBasicBlock block) {
+    CountedLoop loop = loops.get(block.getIndex());
+
+    JExpr inductionVariable = exprFactory.findPrimitiveGenerator(loop.getInductionVariable());
+    if(!inductionVariable.getType().equals(Type.INT_TYPE)) {
+      return null;
+    }
+
+    Map<GimpleExpr, ArrayView> views = new IdentityHashMap<>();
+    List<ArrayView> orderedViews = new ArrayList<>();
+    for (GimpleExpr array : loop.getArrays()) {
+      GExpr pointer = exprFactory.findGenerator(array);
+      if(pointer instanceof VPtrExpr) {
+        GimpleType baseType = array.getType().getBaseType();
+        PointerType elementType = PointerType.ofType(baseType);
+        Type arrayType = Type.getType("[" + elementType.getJvmType().getDescriptor());
+        ArrayView view = new ArrayView(elementType, (VPtrExpr) pointer,
+            mv.getLocalVarAllocator().reserve(arrayType),
+            mv.getLocalVarAllocator().reserve(Type.INT_TYPE));
+        views.put(array, view);
+        orderedViews.add(view);
+      }
+    }
+    if(views.isEmpty()) {
+      return null;
+    }
+
+    Map<GimpleMemRef, GExpr> arrayAccesses = new IdentityHashMap<>();
+    for (Map.Entry<GimpleMemRef, CountedLoop.ArrayAccess> entry : loop.getAccesses().entrySet()) {
+      GimpleMemRef memRef = entry.getKey();
+      CountedLoop.ArrayAccess access = entry.getValue();
+      ArrayView view = views.get(access.getArray());
+      if(view != null) {
+        JExpr index = view.start;
+        if(access.isIndexed()) {
+          index = Expressions.sum(index, inductionVariable);
+        }
+        index = Expressions.sum(index, access.getOffset());
+
+        PrimitiveType type = PrimitiveType.of((GimplePrimitiveType) memRef.getType());
+        arrayAccesses.put(memRef, type.fromNonStackValue(Expressions.elementAt(view.array, index), address(mv, exprFactory, memRef)));
+      }
+    }
+
+    return new Specialization(orderedViews, arrayAccesses);
+  }
+
+  private PtrExpr address(MethodGenerator mv, ExprFactory exprFactory, GimpleMemRef memRef) {
+    GExpr pointer = exprFactory.findGenerator(memRef.getPointer());
+    if(!(pointer instanceof PtrExpr)) {
+      return null;
+    }
+    if(memRef.isOffsetZero()) {
+      return (PtrExpr) pointer;
+    }
+    return ((PtrExpr) pointer).pointerPlus(mv, exprFactory.findPrimitiveGenerator(memRef.getOffset()));
+  }
+}
@@ -33,6 +33,8 @@ public class MethodGenerator extends InstructionAdapter {
 
   private final LocalVarAllocator localVarAllocator = new LocalVarAllocator();
   private final Type ownerClass;
+  private boolean ptrDevirtualizationEnabled = false;
+  private StackArenaFrame stackArenaFrame;
 
   public MethodGenerator(Type ownerClass, MethodVisitor mv) {
     super(Opcodes.ASM5, mv);
@@ -51,6 +53,30 @@ public class MethodGenerator extends InstructionAdapter {
     return localVarAllocator;
   }
 
+  /**
+   * @return true if loads and stores through pointers of unknown implementation should be preceded by
+   * a guarded fast path for the pointer's most likely implementation.
+   */
+  public boolean isPtrDevirtualizationEnabled() {
+    return ptrDevirtualizationEnabled;
+  }
+
+  public void setPtrDevirtualizationEnabled(boolean ptrDevirtualizationEnabled) {
+    this.ptrDevirtualizationEnabled = ptrDevirtualizationEnabled;
+  }
+
+  /**
+   * @return the frame through which this method allocates from the thread's stack arena, or {@code null}
+   * if all allocations should be made on the heap.
+   */
+  public StackArenaFrame getStackArenaFrame() {
+    return stackArenaFrame;
+  }
+
+  public void setStackArenaFrame(StackArenaFrame stackArenaFrame) {
+    this.stackArenaFrame = stackArenaFrame;
+  }
+
   public void invokestatic(Class<?> ownerClass, String methodName, String descriptor) {
     invokestatic(Type.getInternalName(ownerClass), methodName, descriptor, false);
   }
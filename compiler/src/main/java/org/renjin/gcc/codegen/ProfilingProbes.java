@@ -0,0 +1,122 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.codegen.expr.Expressions;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.var.GlobalVarAllocator;
+import org.renjin.gcc.codegen.var.LocalVarAllocator;
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+import org.renjin.gcc.runtime.ProfileBuffer;
+import org.renjin.gcc.runtime.Profiler;
+import org.renjin.repackaged.asm.Label;
+import org.renjin.repackaged.asm.Type;
+
+/**
+ * Emits the entry, exit and basic block probes for a function compiled with profiling enabled.
+ *
+ * <p>Each function is registered with the {@link Profiler} in the unit class's static initializer, and
+ * the resulting id is stored in a static field. On entry, the function obtains the current thread's
+ * {@link ProfileBuffer} and keeps it in a local variable. The whole body is wrapped in a catch-all
+ * handler so that the exit is also recorded when an exception (including a {@code longjmp}) unwinds
+ * the function.</p>
+ */
+public class ProfilingProbes {
+
+  private static final Type BUFFER_TYPE = Type.getType(ProfileBuffer.class);
+
+  private final GlobalVarAllocator.StaticField functionId;
+
+  private LocalVarAllocator.LocalVar buffer;
+  private final Label tryStart = new Label();
+  private final Label tryEnd = new Label();
+  private final Label handler = new Label();
+
+  public ProfilingProbes(GimpleFunction function, GlobalVarAllocator globalVarAllocator) {
+    JExpr registration = Expressions.staticMethodCall(Profiler.class, "register",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.getType(String.class), Type.getType(String.class),
+            Type.getType(String.class)),
+        Expressions.constantString(function.getUnit().getSourceName()),
+        Expressions.constantString(function.getName()),
+        Expressions.constantString(blockLines(function)));
+
+    this.functionId = globalVarAllocator.reserve("$profile$" + function.getSafeMangledName(),
+        Type.INT_TYPE, registration);
+  }
+
+  private static String blockLines(GimpleFunction function) {
+    StringBuilder lines = new StringBuilder();
+    for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+      if(lines.length() > 0) {
+        lines.append(',');
+      }
+      lines.append(firstLine(basicBlock));
+    }
+    return lines.toString();
+  }
+
+  private static int firstLine(GimpleBasicBlock basicBlock) {
+    for (GimpleStatement statement : basicBlock.getStatements()) {
+      if(statement.getLineNumber() != null) {
+        return statement.getLineNumber();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Emits the call to {@link Profiler#enter(int)} and opens the region covered by the exit handler.
+   */
+  public void emitEntry(MethodGenerator mv) {
+    buffer = mv.getLocalVarAllocator().reserve(BUFFER_TYPE);
+    functionId.load(mv);
+    mv.invokestatic(Profiler.class, "enter", Type.getMethodDescriptor(BUFFER_TYPE, Type.INT_TYPE));
+    buffer.store(mv);
+    mv.visitLabel(tryStart);
+  }
+
+  public void emitBlock(MethodGenerator mv, int blockIndex) {
+    buffer.load(mv);
+    mv.iconst(blockIndex);
+    mv.invokevirtual(BUFFER_TYPE, "block", "(I)V", false);
+  }
+
+  /**
+   * Emits the call to {@link ProfileBuffer#exit()}, which must precede each return instruction.
+   */
+  public void emitExit(MethodGenerator mv) {
+    buffer.load(mv);
+    mv.invokevirtual(BUFFER_TYPE, "exit", "()V", false);
+  }
+
+  /**
+   * Closes the protected region and emits the handler which records the exit before
+   * rethrowing the exception. The handler is registered here, after any handlers nested
+   * within the function body, so that those are tried first.
+   */
+  public void emitExceptionHandler(MethodGenerator mv) {
+    mv.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+    mv.visitLabel(tryEnd);
+    mv.visitLabel(handler);
+    emitExit(mv);
+    mv.athrow();
+  }
+}
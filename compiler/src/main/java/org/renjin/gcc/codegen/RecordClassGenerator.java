@@ -0,0 +1,154 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.GimpleCompiler;
+import org.renjin.gcc.codegen.expr.Expressions;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.type.FieldStrategy;
+import org.renjin.gcc.codegen.type.record.RecordClassTypeStrategy;
+import org.renjin.gcc.gimple.type.GimpleField;
+import org.renjin.repackaged.asm.ClassVisitor;
+import org.renjin.repackaged.asm.ClassWriter;
+import org.renjin.repackaged.asm.Type;
+import org.renjin.repackaged.asm.util.TraceClassVisitor;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import static org.renjin.repackaged.asm.Opcodes.*;
+
+/**
+ * Generates the JVM class for a record stored using the {@link RecordClassTypeStrategy}.
+ *
+ * <p>Besides one public field per record field, the class has a no-arg constructor creating a zeroed record,
+ * and the {@code set(T)}, {@code copy()} and {@code memset(int, int)} methods used by compiled code for
+ * assignment, pass-by-value and {@code memset()}.</p>
+ */
+public class RecordClassGenerator {
+
+  private final Type className;
+  private final Map<GimpleField, FieldStrategy> fields;
+
+  private ClassWriter cw;
+  private ClassVisitor cv;
+
+  public RecordClassGenerator(RecordClassTypeStrategy strategy) {
+    this.className = strategy.getJvmType();
+    this.fields = strategy.getFieldStrategies();
+  }
+
+  public String getClassName() {
+    return className.getInternalName();
+  }
+
+  public byte[] generateClassFile() {
+    cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+      @Override
+      protected String getCommonSuperClass(String type1, String type2) {
+        try {
+          return super.getCommonSuperClass(type1, type2);
+        } catch (Exception e) {
+          return Type.getInternalName(Object.class);
+        }
+      }
+    };
+    if(GimpleCompiler.TRACE) {
+      cv = new TraceClassVisitor(cw, new PrintWriter(System.out));
+    } else {
+      cv = cw;
+    }
+    cv.visit(V1_7, ACC_PUBLIC + ACC_SUPER, className.getInternalName(), null, "java/lang/Object", new String[0]);
+    for (FieldStrategy field : fields.values()) {
+      field.writeFields(cv);
+    }
+    emitConstructor();
+    emitSet();
+    emitCopy();
+    emitMemset();
+    cv.visitEnd();
+
+    return cw.toByteArray();
+  }
+
+  private void emitConstructor() {
+    MethodGenerator mv = new MethodGenerator(className, cv.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null));
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    for (FieldStrategy field : fields.values()) {
+      field.emitInstanceInit(mv);
+    }
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Emits {@code void set(T source)}, which copies all fields from {@code source} to this record.
+   */
+  private void emitSet() {
+    MethodGenerator mv = new MethodGenerator(className, cv.visitMethod(ACC_PUBLIC, "set",
+        Type.getMethodDescriptor(Type.VOID_TYPE, className), null, null));
+    mv.visitCode();
+    JExpr thisValue = Expressions.thisValue(className);
+    JExpr source = Expressions.localVariable(className, 1);
+    for (FieldStrategy field : fields.values()) {
+      field.copy(mv, source, thisValue);
+    }
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Emits {@code T copy()}, which returns a new instance with the same field values.
+   */
+  private void emitCopy() {
+    MethodGenerator mv = new MethodGenerator(className, cv.visitMethod(ACC_PUBLIC, "copy",
+        Type.getMethodDescriptor(className), null, null));
+    mv.visitCode();
+    Expressions.newObject(className).load(mv);
+    mv.dup();
+    mv.visitVarInsn(ALOAD, 0);
+    mv.invokevirtual(className, "set", Type.getMethodDescriptor(Type.VOID_TYPE, className), false);
+    mv.areturn(className);
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+  }
+
+  /**
+   * Emits {@code void memset(int byteValue, int length)}, which sets each of the fields
+   * as if the bytes of the whole record were set to {@code byteValue}.
+   */
+  private void emitMemset() {
+    MethodGenerator mv = new MethodGenerator(className, cv.visitMethod(ACC_PUBLIC, "memset",
+        Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, Type.INT_TYPE), null, null));
+    mv.visitCode();
+    JExpr thisValue = Expressions.thisValue(className);
+    JExpr byteValue = Expressions.localVariable(Type.INT_TYPE, 1);
+    for (Map.Entry<GimpleField, FieldStrategy> field : fields.entrySet()) {
+      field.getValue().memset(mv, thisValue, byteValue,
+          Expressions.constantInt(field.getKey().getType().sizeOf()));
+    }
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen;
+
+import org.renjin.gcc.codegen.call.AllocaCallGenerator;
+import org.renjin.gcc.codegen.call.CallGenerator;
+import org.renjin.gcc.codegen.call.FunctionCallGenerator;
+import org.renjin.gcc.codegen.expr.ExprFactory;
+import org.renjin.gcc.codegen.expr.Expressions;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.var.LocalVarAllocator;
+import org.renjin.gcc.codegen.vptr.VPtrStrategy;
+import org.renjin.gcc.codegen.vptr.VPtrVariadicStrategy;
+import org.renjin.gcc.gimple.GimpleBasicBlock;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.GimpleVarDecl;
+import org.renjin.gcc.gimple.expr.*;
+import org.renjin.gcc.gimple.statement.GimpleAssignment;
+import org.renjin.gcc.gimple.statement.GimpleCall;
+import org.renjin.gcc.gimple.statement.GimpleReturn;
+import org.renjin.gcc.gimple.statement.GimpleStatement;
+import org.renjin.gcc.runtime.StackArena;
+import org.renjin.repackaged.asm.Label;
+import org.renjin.repackaged.asm.Type;
+
+import java.util.*;
+
+/**
+ * Allocates a function's {@code alloca()} buffers and variadic argument blocks from the thread's
+ * {@link StackArena} rather than the heap.
+ *
+ * <p>On entry, the function obtains the current thread's arena, keeps it in a local variable and marks it. The
+ * mark is released before each return, and by a catch-all handler when an exception (including a
+ * {@code longjmp}) unwinds the function. Variadic argument blocks are released as soon as the call returns.</p>
+ *
+ * <p>An {@code alloca()} buffer is only served from the arena if its address provably does not outlive the
+ * function: the pointer, and any local variable it is copied into, may be passed to other functions, but must
+ * not be returned or stored to memory or to a global variable. Otherwise the buffer is allocated on the heap.</p>
+ */
+public class StackArenaFrame {
+
+  private static final Type ARENA_TYPE = Type.getType(StackArena.class);
+
+  private final Set<GimpleCall> arenaAllocas;
+
+  private LocalVarAllocator.LocalVar arena;
+  private LocalVarAllocator.LocalVar mark;
+  private LocalVarAllocator.LocalVar callMark;
+  private final Label tryStart = new Label();
+  private final Label tryEnd = new Label();
+  private final Label handler = new Label();
+
+  private StackArenaFrame(Set<GimpleCall> arenaAllocas) {
+    this.arenaAllocas = arenaAllocas;
+  }
+
+  /**
+   * Finds the allocations in {@code function} which can be served from the arena.
+   *
+   * @return a new frame, or {@code null} if the function makes no such allocations.
+   */
+  public static StackArenaFrame plan(GimpleFunction function, ExprFactory exprFactory) {
+    Set<GimpleCall> arenaAllocas = Collections.newSetFromMap(new IdentityHashMap<>());
+    boolean variadicCalls = false;
+
+    for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+      for (GimpleStatement statement : basicBlock.getStatements()) {
+        if(statement instanceof GimpleCall && isDirectCall((GimpleCall) statement)) {
+          GimpleCall call = (GimpleCall) statement;
+          CallGenerator generator = exprFactory.findCallGenerator(call.getFunction());
+          if(generator instanceof AllocaCallGenerator) {
+            if(isScopedToFunction(function, exprFactory, call)) {
+              arenaAllocas.add(call);
+            }
+          } else if(generator instanceof FunctionCallGenerator) {
+            if(((FunctionCallGenerator) generator).getStrategy().getVariadicStrategy() instanceof VPtrVariadicStrategy) {
+              variadicCalls = true;
+            }
+          }
+        }
+      }
+    }
+    if(arenaAllocas.isEmpty() && !variadicCalls) {
+      return null;
+    }
+    return new StackArenaFrame(arenaAllocas);
+  }
+
+  private static boolean isDirectCall(GimpleCall call) {
+    return call.getFunction() instanceof GimpleAddressOf &&
+        ((GimpleAddressOf) call.getFunction()).getValue() instanceof GimpleFunctionRef;
+  }
+
+  /**
+   * Determines whether the pointer returned by the given {@code alloca()} call is certain not to be used
+   * after the function returns. Pointers passed as arguments are assumed not to be retained by the callee,
+   * as the C standard leaves such use undefined.
+   */
+  private static boolean isScopedToFunction(GimpleFunction function, ExprFactory exprFactory, GimpleCall alloca) {
+    if(!(alloca.getLhs() instanceof GimpleVariableRef) ||
+       !(exprFactory.strategyFor(alloca.getLhs().getType()) instanceof VPtrStrategy)) {
+      return false;
+    }
+
+    Map<Long, GimpleVarDecl> locals = new HashMap<>();
+    for (GimpleVarDecl decl : function.getVariableDeclarations()) {
+      if(!decl.isStatic()) {
+        locals.put(decl.getId(), decl);
+      }
+    }
+
+    // Find all the local variables to which the pointer flows
+    Long allocaVar = localVariable(alloca.getLhs(), locals);
+    if(allocaVar == null) {
+      return false;
+    }
+    Set<Long> aliases = new HashSet<>();
+    aliases.add(allocaVar);
+
+    boolean changed = true;
+    while(changed) {
+      changed = false;
+      for (GimpleBasicBlock basicBlock : function.getBasicBlocks()) {
+        for (GimpleStatement statement : basicBlock.getStatements()) {
+          GimpleLValue target = null;
+          if(statement instanceof GimpleAssignment) {
+            GimpleAssignment assignment = (GimpleAssignment) statement;
+            if(carriesPointer(assignment.getOperands(), aliases)) {
+              target = assignment.getLHS();
+            }
+          } else if(statement instanceof GimpleCall && statement != alloca) {
+            GimpleCall call = (GimpleCall) statement;
+            if(call.getLhs() != null && carriesPointer(call.getOperands(), aliases)) {
+              target = call.getLhs();
+            }
+          } else if(statement instanceof GimpleReturn) {
+            GimpleExpr value = ((GimpleReturn) statement).getValue();
+            if(value != null && carriesPointer(Collections.singletonList(value), aliases)) {
+              return false;
+            }
+          }
+          if(target != null) {
+            Long alias = localVariable(target, locals);
+            if(alias == null) {
+              return false;
+            }
+            if(aliases.add(alias)) {
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the id of the local variable {@code lhs}, or {@code null} if {@code lhs} is not a local variable
+   * whose address is never taken.
+   */
+  private static Long localVariable(GimpleLValue lhs, Map<Long, GimpleVarDecl> locals) {
+    if(!(lhs instanceof GimpleVariableRef)) {
+      return null;
+    }
+    GimpleVarDecl decl = locals.get(((GimpleVariableRef) lhs).getId());
+    if(decl == null || decl.isAddressable()) {
+      return null;
+    }
+    return decl.getId();
+  }
+
+  /**
+   * @return true if the value of any of the given expressions may be derived from one of the {@code aliases}.
+   * Loads through the pointer read memory rather than the pointer itself, and are not counted.
+   */
+  private static boolean carriesPointer(List<GimpleExpr> operands, Set<Long> aliases) {
+    for (GimpleExpr operand : operands) {
+      if(operand instanceof GimpleMemRef ||
+         operand instanceof GimpleComponentRef ||
+         operand instanceof GimpleArrayRef) {
+        continue;
+      }
+      List<GimpleExpr> references = new ArrayList<>();
+      operand.findOrDescend(expr -> expr instanceof GimpleVariableRef &&
+          aliases.contains(((GimpleVariableRef) expr).getId()), references);
+      if(!references.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean isArenaAllocated(GimpleCall call) {
+    return arenaAllocas.contains(call);
+  }
+
+  /**
+   * Registers the release handler. This must be called after any handlers nested within the function body have been
+   * registered, but before the handlers of regions enclosing the arena's, so that the handlers are tried innermost
+   * first.
+   */
+  public void declareExceptionHandler(MethodGenerator mv) {
+    mv.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+  }
+
+  /**
+   * Obtains the current thread's arena, marks it, and opens the region covered by the release handler.
+   */
+  public void emitEntry(MethodGenerator mv) {
+    arena = mv.getLocalVarAllocator().reserve(ARENA_TYPE);
+    mark = mv.getLocalVarAllocator().reserve(Type.INT_TYPE);
+    mv.invokestatic(StackArena.class, "current", Type.getMethodDescriptor(ARENA_TYPE));
+    mv.dup();
+    arena.store(mv);
+    mv.invokevirtual(ARENA_TYPE, "mark", "()I", false);
+    mark.store(mv);
+    mv.visitLabel(tryStart);
+  }
+
+  /**
+   * Marks the arena before the arguments to a variadic call are marshalled.
+   */
+  public void emitCallMark(MethodGenerator mv) {
+    if(callMark == null) {
+      callMark = mv.getLocalVarAllocator().reserve(Type.INT_TYPE);
+    }
+    arena.load(mv);
+    mv.invokevirtual(ARENA_TYPE, "mark", "()I", false);
+    callMark.store(mv);
+  }
+
+  /**
+   * Releases the variadic argument block once the call has returned.
+   */
+  public void emitCallRelease(MethodGenerator mv) {
+    arena.load(mv);
+    callMark.load(mv);
+    mv.invokevirtual(ARENA_TYPE, "release", "(I)V", false);
+  }
+
+  /**
+   * @param implType the {@link org.renjin.gcc.runtime.Ptr} implementation to allocate
+   * @return an expression which allocates {@code sizeInBytes} from the arena.
+   */
+  public JExpr alloca(Type implType, JExpr sizeInBytes) {
+    String className = implType.getClassName();
+    String kind = className.substring(className.lastIndexOf('.') + 1, className.length() - "Ptr".length());
+
+    return Expressions.methodCall(arena, StackArena.class, "alloca" + kind,
+        Type.getMethodDescriptor(implType, Type.INT_TYPE), sizeInBytes);
+  }
+
+  /**
+   * Emits the release of the function's mark, which must precede each return instruction.
+   */
+  public void emitExit(MethodGenerator mv) {
+    arena.load(mv);
+    mark.load(mv);
+    mv.invokevirtual(ARENA_TYPE, "release", "(I)V", false);
+  }
+
+  /**
+   * Closes the protected region and emits the handler which releases the function's mark before
+   * rethrowing the exception.
+   */
+  public void emitExceptionHandler(MethodGenerator mv) {
+    mv.visitLabel(tryEnd);
+    mv.visitLabel(handler);
+    emitExit(mv);
+    mv.athrow();
+  }
+}
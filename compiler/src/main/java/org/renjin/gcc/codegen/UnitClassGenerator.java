@@ -18,6 +18,7 @@
  */
 package org.renjin.gcc.codegen;
 
+import org.renjin.gcc.CompilerOptions;
 import org.renjin.gcc.GimpleCompiler;
 import org.renjin.gcc.InternalCompilerException;
 import org.renjin.gcc.codegen.expr.ExprFactory;
@@ -35,6 +36,7 @@ import org.renjin.gcc.gimple.type.GimpleIndirectType;
 import org.renjin.gcc.gimple.type.GimplePrimitiveType;
 import org.renjin.gcc.gimple.type.GimpleType;
 import org.renjin.gcc.link.LinkSymbol;
+import org.renjin.gcc.logging.CompilationMetrics;
 import org.renjin.gcc.logging.LogManager;
 import org.renjin.gcc.symbols.GlobalSymbolTable;
 import org.renjin.gcc.symbols.UnitSymbolTable;
@@ -49,7 +51,6 @@ import org.renjin.repackaged.guava.collect.Sets;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.*;
 
 import static org.renjin.repackaged.asm.Opcodes.*;
@@ -57,10 +58,18 @@ import static org.renjin.repackaged.asm.Opcodes.*;
 
 /**
  * Generates a JVM class for a given Gimple compilation unit
+ *
+ * <p>If {@link CompilerOptions#getMaxClassSize()} is set and the unit's functions are larger, they are split
+ * between the unit's class and additional {@code $Functions} classes, and its global variables are moved to
+ * {@code $Globals} holder classes, as determined by the {@link ClassPartitioner}.</p>
  */
 public class UnitClassGenerator {
 
-  private static final boolean INVOKE_CXX_INITIALIZERS = false;
+  /**
+   * The name of an empty static method of a split unit's class, which the other classes of the unit invoke to
+   * ensure that the unit's C++ static initializers have run.
+   */
+  private static final String ENSURE_INITIALIZED = "$$ensureInitialized";
 
   private final GimpleCompilationUnit unit;
   private final String className;
@@ -68,32 +77,81 @@ public class UnitClassGenerator {
   private final UnitSymbolTable symbolTable;
   private final TypeOracle typeOracle;
   
-  private final GlobalVarAllocator globalVarAllocator;
-
   private final ResourceWriter resourceWriter;
-
-  private final List<GimpleVarDecl> varToGenerate = Lists.newArrayList();
+  private final CompilerOptions options;
 
   private final List<LinkSymbol> globalVariableSymbols = new ArrayList<>();
 
+  /**
+   * The classes generated for this unit, starting with the unit's own class.
+   */
+  private final List<ClassPart> parts = new ArrayList<>();
+
+  private ClassPartitioner partitioner;
+  private final Map<Integer, ClassPart> holders = new HashMap<>();
+
   private ClassWriter cw;
   private ClassVisitor cv;
-  private StringWriter sw;
-  private PrintWriter pw;
+
+  /**
+   * A class generated for this unit, which declares some or all of its functions and global variables.
+   */
+  private class ClassPart {
+    private final String className;
+    private final GlobalVarAllocator globalVarAllocator;
+    private final List<FunctionGenerator> functions = new ArrayList<>();
+    private final List<GimpleVarDecl> varToGenerate = Lists.newArrayList();
+    private byte[] classFile;
+
+    ClassPart(String className) {
+      this.className = className;
+      this.globalVarAllocator = new GlobalVarAllocator(className);
+    }
+  }
 
   public UnitClassGenerator(TypeOracle typeOracle,
                             GlobalSymbolTable globalSymbolTable,
                             List<GlobalVarTransformer> globalVarTransformers,
                             GimpleCompilationUnit unit,
                             ResourceWriter resourceWriter,
-                            String className) {
+                            String className,
+                            CompilerOptions options) {
     this.unit = unit;
     this.resourceWriter = resourceWriter;
+    this.options = options;
     this.className = className;
     this.typeOracle = typeOracle;
-    this.globalVarAllocator = new GlobalVarAllocator(className);
     this.symbolTable = new UnitSymbolTable(globalSymbolTable, unit);
 
+    List<GimpleFunction> functions = new ArrayList<>();
+    for (GimpleFunction function : unit.getFunctions()) {
+      if (!isExcluded(function)) {
+        functions.add(function);
+      }
+    }
+
+    ClassPart unitClass = new ClassPart(className);
+    parts.add(unitClass);
+
+    Map<GimpleFunction, ClassPart> functionClasses = new IdentityHashMap<>();
+    if(options.getMaxClassSize() > 0) {
+      partitioner = new ClassPartitioner(unit, functions, options.getMaxClassSize());
+      if(partitioner.getClasses().size() > 1) {
+        for (int i = 0; i < partitioner.getClasses().size(); i++) {
+          ClassPart part = unitClass;
+          if(i > 0) {
+            part = new ClassPart(className + "$Functions" + i);
+            parts.add(part);
+          }
+          for (GimpleFunction function : partitioner.getClasses().get(i)) {
+            functionClasses.put(function, part);
+          }
+        }
+      } else {
+        partitioner = null;
+      }
+    }
+
     // Setup global variables that have global scoping
     Set<String> visited = new HashSet<>();
     for (GimpleVarDecl decl : unit.getGlobalVariables()) {
@@ -104,21 +162,22 @@ public class UnitClassGenerator {
         continue;
       }
       symbolTable.addGlobalVariable(decl,
-            generatorForGlobalVar(globalVarTransformers, decl));
+            generatorForGlobalVar(globalVarTransformers, decl, holderFor(decl)));
     }
 
-    for (GimpleFunction function : unit.getFunctions()) {
-      if (!isExcluded(function)) {
-        try {
-          symbolTable.addFunction(function,
-              new FunctionGenerator(className, function, typeOracle, globalVarAllocator, symbolTable, resourceWriter));
-        } catch (Exception e) {
-          throw new InternalCompilerException(String.format("Exception creating %s for %s in %s: %s",
-              FunctionGenerator.class.getSimpleName(),
-              function.getName(),
-              unit.getSourceName(),
-              e.getMessage()), e);
-        }
+    for (GimpleFunction function : functions) {
+      ClassPart part = functionClasses.getOrDefault(function, unitClass);
+      try {
+        FunctionGenerator generator = new FunctionGenerator(part.className, function, typeOracle,
+            part.globalVarAllocator, symbolTable, resourceWriter, options);
+        symbolTable.addFunction(function, generator);
+        part.functions.add(generator);
+      } catch (Exception e) {
+        throw new InternalCompilerException(String.format("Exception creating %s for %s in %s: %s",
+            FunctionGenerator.class.getSimpleName(),
+            function.getName(),
+            unit.getSourceName(),
+            e.getMessage()), e);
       }
     }
 
@@ -135,8 +194,25 @@ public class UnitClassGenerator {
     return unit;
   }
 
+  /**
+   * @return the class which declares the global variable {@code decl}: the unit's class, or if the unit
+   * is split, the holder chosen by the partitioner.
+   */
+  private ClassPart holderFor(GimpleVarDecl decl) {
+    if(partitioner == null) {
+      return parts.get(0);
+    }
+    int holder = partitioner.getHolder(decl);
+    return holders.computeIfAbsent(holder, index -> {
+      ClassPart part = new ClassPart(className + "$Globals" + (index == ClassPartitioner.SHARED_HOLDER ? "" : index));
+      parts.add(part);
+      return part;
+    });
+  }
+
   private GExpr generatorForGlobalVar(List<GlobalVarTransformer> globalVarTransformers,
-                                      GimpleVarDecl decl) {
+                                      GimpleVarDecl decl,
+                                      ClassPart holder) {
 
     for (GlobalVarTransformer transformer : globalVarTransformers) {
       if(transformer.accept(decl)) {
@@ -147,15 +223,15 @@ public class UnitClassGenerator {
     GExpr varGenerator;
     try {
       TypeStrategy typeStrategy = this.typeOracle.forType(decl.getType());
-      varGenerator = typeStrategy.globalVariable(decl, globalVarAllocator);
+      varGenerator = typeStrategy.globalVariable(decl, holder.globalVarAllocator);
 
     } catch (Exception e) {
       throw new InternalCompilerException("Global variable " + decl.getName() + " in " + this.unit.getSourceName(), e);
     }
-    varToGenerate.add(decl);
+    holder.varToGenerate.add(decl);
 
     if(!decl.isStatic()) {
-      globalVariableSymbols.add(LinkSymbol.forGlobalVariable(decl.getMangledName(), Type.getType(this.className)));
+      globalVariableSymbols.add(LinkSymbol.forGlobalVariable(decl.getMangledName(), Type.getType(holder.className)));
     }
     return varGenerator;
   }
@@ -176,35 +252,49 @@ public class UnitClassGenerator {
     return className;
   }
 
-  public void emit(LogManager parentLogger) {
+  public void emit(LogManager parentLogger, CompilationMetrics metrics) {
 
     parentLogger.logRecords(unit, symbolTable);
 
-    sw = new StringWriter();
-    pw = new PrintWriter(sw);
-    cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
-      @Override
-      protected String getCommonSuperClass(String type1, String type2) {
-        try {
-          return super.getCommonSuperClass(type1, type2);
-        } catch (Exception e) {
-          return Type.getInternalName(Object.class);
+    checkFunctionNames();
+
+    for (ClassPart part : parts) {
+      cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+          try {
+            return super.getCommonSuperClass(type1, type2);
+          } catch (Exception e) {
+            return Type.getInternalName(Object.class);
+          }
         }
+      };
+      //cw = new ClassWriter(0);
+
+      if(GimpleCompiler.TRACE) {
+        cv = new TraceClassVisitor(cw, new PrintWriter(System.out));
+      } else {
+        cv = cw;
       }
-    };
-    //cw = new ClassWriter(0);
+      cv.visit(V1_7, ACC_PUBLIC + ACC_SUPER, part.className, null, "java/lang/Object", new String[0]);
+      cv.visitSource(unit.getSourceName(), null);
+      emitDefaultConstructor();
+      emitFunctions(part, parentLogger, metrics);
+      if(part == parts.get(0)) {
+        emitForwardingMethods();
+        if(parts.size() > 1 && findCppStaticInitializer().isPresent()) {
+          emitEnsureInitializedMethod();
+        }
+      }
+      emitGlobalVariables(part);
+      cv.visitEnd();
 
-    if(GimpleCompiler.TRACE) {
-      cv = new TraceClassVisitor(cw, new PrintWriter(System.out));
-    } else {
-      cv = cw;
+      try {
+        part.classFile = cw.toByteArray();
+      } catch (Exception e) {
+        throw new InternalCompilerException("Failed to write class " + part.className + ": " + e.getMessage());
+      }
     }
-    cv.visit(V1_7, ACC_PUBLIC + ACC_SUPER, className, null, "java/lang/Object", new String[0]);
-    cv.visitSource(unit.getSourceName(), null);
-    emitDefaultConstructor();
-    emitFunctions(parentLogger, unit);
-    emitGlobalVariables();
-    cv.visitEnd();
   }
 
   private void emitDefaultConstructor() {
@@ -217,20 +307,20 @@ public class UnitClassGenerator {
     mv.visitEnd();
   }
 
-  private void emitGlobalVariables() {
+  private void emitGlobalVariables(ClassPart part) {
     
     // write actual field declarations
-    globalVarAllocator.writeFields(cv);
+    part.globalVarAllocator.writeFields(cv);
     
     // and any static initialization that is required
-    MethodGenerator mv = new MethodGenerator(className, cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null));
+    MethodGenerator mv = new MethodGenerator(part.className, cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null));
     mv.visitCode();
 
     ExprFactory exprFactory = new ExprFactory(typeOracle, symbolTable, resourceWriter, mv);
     
-    globalVarAllocator.writeFieldInitialization(mv);
+    part.globalVarAllocator.writeFieldInitialization(mv);
   
-    for (GimpleVarDecl decl : varToGenerate) {
+    for (GimpleVarDecl decl : part.varToGenerate) {
       try {
         GExpr varGenerator = symbolTable.getGlobalVariable(decl);
         GimpleExpr initialValue = decl.getValue();
@@ -240,7 +330,7 @@ public class UnitClassGenerator {
         if(initialValue != null) {
 
           if(initialValue instanceof GimpleConstructor) {
-            writeInitMethodCall(mv, decl, varGenerator, initialValue);
+            writeInitMethodCall(mv, part.className, decl, varGenerator, initialValue);
           } else {
             tryWriteInitCode(mv, exprFactory, decl, varGenerator, initialValue);
           }
@@ -255,11 +345,17 @@ public class UnitClassGenerator {
       }
     }
 
-    for (FunctionGenerator function : symbolTable.getFunctions()) {
+    for (FunctionGenerator function : part.functions) {
       function.emitLocalStaticVarInitialization(mv);
     }
 
-    emitCppStaticInitialization(mv);
+    if(part == parts.get(0)) {
+      emitCppStaticInitialization(mv);
+    } else if(findCppStaticInitializer().isPresent()) {
+      // Other units link directly to the functions and global variables of this class, so the unit's
+      // class might not otherwise be initialized before they are used
+      mv.invokestatic(className, ENSURE_INITIALIZED, "()V", false);
+    }
 
     mv.visitInsn(RETURN);
     mv.visitMaxs(1, 1);
@@ -279,37 +375,57 @@ public class UnitClassGenerator {
    * the .init_array and all of those functions will be called by the operating system before main() is called.
    *
    * <p>We mimic this behavior by pattern matching on {@code _GLOBAL__sub.*} and invoking this function
-   * in the unit classes' static initializer.
+   * in the unit classes' static initializer, if {@link CompilerOptions#isCppStaticInitializersEnabled()}.
+   * When the unit is split into several classes, the static initializer of each of the other classes first
+   * initializes the unit's class, so the initializers have run before any of the unit's functions is called.
    *
    * @see <a href="https://stackoverflow.com/questions/37108163/purpose-of-static-initialization-and-destruction-and-global-sub-i-main-functio">Stackoverflow #37108163</a>
    *
    */
   private void emitCppStaticInitialization(MethodGenerator mv) {
+    findCppStaticInitializer().ifPresent(f -> {
+      mv.invokestatic(f.getClassName(), f.getSafeMangledName(), "()V", false);
+    });
+  }
 
-    if(!INVOKE_CXX_INITIALIZERS) {
-      return;
+  private Optional<FunctionGenerator> findCppStaticInitializer() {
+    if(!options.isCppStaticInitializersEnabled()) {
+      return Optional.empty();
     }
-
-    Optional<FunctionGenerator> initializer = symbolTable.getFunctions()
+    return symbolTable.getFunctions()
         .stream()
-        .filter(f -> f.getMangledName().startsWith("_GLOBAL__sub_"))
+        .filter(f -> isCppStaticInitializer(f.getMangledName()))
         .findAny();
+  }
 
-    initializer.ifPresent(f -> {
-      mv.invokestatic(className, f.getSafeMangledName(), "()V", false);
-    });
+  private void emitEnsureInitializedMethod() {
+    MethodVisitor mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, ENSURE_INITIALIZED, "()V", null, null);
+    mv.visitCode();
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  /**
+   * @return true if the function with the given mangled name is a C++ static initializer wrapper, which is
+   * invoked by the unit classes' static initializer rather than called from other functions.
+   */
+  public static boolean isCppStaticInitializer(String mangledName) {
+    return mangledName.startsWith("_GLOBAL__sub_");
   }
 
   private void writeInitMethodCall(MethodGenerator mv,
+                                   String className,
                                    GimpleVarDecl decl,
                                    GExpr varGenerator,
                                    GimpleExpr initialValue) {
 
-    String initMethodName = writeInitMethod(decl, varGenerator, initialValue);
+    String initMethodName = writeInitMethod(className, decl, varGenerator, initialValue);
     mv.invokestatic(className, initMethodName, "()V", false);
   }
 
-  private String writeInitMethod(GimpleVarDecl decl,
+  private String writeInitMethod(String className,
+                                 GimpleVarDecl decl,
                                  GExpr varGenerator,
                                  GimpleExpr initialValue) {
 
@@ -351,8 +467,7 @@ public class UnitClassGenerator {
     return null;
   }
 
-  private void emitFunctions(LogManager parentLogger, GimpleCompilationUnit unit) {
-
+  private void checkFunctionNames() {
     // Check for duplicate names...
     Set<String> names = Sets.newHashSet();
     for (FunctionGenerator functionGenerator : symbolTable.getFunctions()) {
@@ -361,23 +476,87 @@ public class UnitClassGenerator {
       }
       names.add(functionGenerator.getSafeMangledName());
     }
-    
-    // Now actually emit the function bodies
-    for (FunctionGenerator functionGenerator : symbolTable.getFunctions()) {
+  }
+
+  private void emitFunctions(ClassPart part, LogManager parentLogger, CompilationMetrics metrics) {
+    for (FunctionGenerator functionGenerator : part.functions) {
+      CompilationMetrics.Mark start = CompilationMetrics.mark();
       try {
         functionGenerator.emit(parentLogger, cv);
       } catch (Exception e) {
         throw new InternalCompilerException(functionGenerator, e);
       }
+      metrics.functionGenerated(functionGenerator.getFunction(), start,
+          functionGenerator.getPeepholeNanos(),
+          functionGenerator.getPeepholeBytes(),
+          functionGenerator.getPeepholeIterations(),
+          functionGenerator.getBytecodeSize(),
+          functionGenerator.getMaxLocals());
     }
   }
 
-  public byte[] toByteArray() {
-    cv.visitEnd();
-    try {
-      return cw.toByteArray();
-    } catch (Exception e) {
-      throw new InternalCompilerException("Failed to write class " + getClassName() + ": " + e.getMessage());
+  /**
+   * Writes a method to the unit's class for each public function that has been moved to one of the
+   * {@code $Functions} classes, so that JVM code can continue to call all of the unit's exported functions
+   * through the unit's class. Calls between compiled functions invoke the moved method directly.
+   */
+  private void emitForwardingMethods() {
+    for (int i = 1; i < parts.size(); i++) {
+      for (FunctionGenerator functionGenerator : parts.get(i).functions) {
+        if(functionGenerator.getFunction().isPublic()) {
+          emitForwardingMethod(functionGenerator);
+        }
+      }
+    }
+  }
+
+  private void emitForwardingMethod(FunctionGenerator functionGenerator) {
+    MethodVisitor mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC,
+        functionGenerator.getSafeMangledName(),
+        functionGenerator.getFunctionDescriptor(),
+        null, null);
+    mv.visitCode();
+
+    int varIndex = 0;
+    for (Type type : Type.getArgumentTypes(functionGenerator.getFunctionDescriptor())) {
+      mv.visitVarInsn(type.getOpcode(ILOAD), varIndex);
+      varIndex += type.getSize();
+    }
+    mv.visitMethodInsn(INVOKESTATIC, functionGenerator.getClassName(),
+        functionGenerator.getSafeMangledName(),
+        functionGenerator.getFunctionDescriptor(),
+        false);
+    mv.visitInsn(Type.getReturnType(functionGenerator.getFunctionDescriptor()).getOpcode(IRETURN));
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+  }
+
+  /**
+   * @return the class files generated by {@link #emit(LogManager, CompilationMetrics)}, keyed by their
+   * internal names, starting with the unit's own class.
+   */
+  public Map<String, byte[]> toClassFiles() {
+    Map<String, byte[]> classFiles = new LinkedHashMap<>();
+    for (ClassPart part : parts) {
+      classFiles.put(part.className, part.classFile);
+    }
+    return classFiles;
+  }
+
+  /**
+   * Releases the class writer and the code generation state of this unit's functions once the class file
+   * has been written.
+   */
+  public void release() {
+    cw = null;
+    cv = null;
+    for (ClassPart part : parts) {
+      part.varToGenerate.clear();
+      part.classFile = null;
+    }
+    partitioner = null;
+    for (FunctionGenerator functionGenerator : symbolTable.getFunctions()) {
+      functionGenerator.release();
     }
   }
 
@@ -0,0 +1,64 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen.call;
+
+import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.StackArenaFrame;
+import org.renjin.gcc.codegen.expr.ExprFactory;
+import org.renjin.gcc.codegen.expr.GExpr;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.type.TypeOracle;
+import org.renjin.gcc.codegen.vptr.VPtrStrategy;
+import org.renjin.gcc.gimple.statement.GimpleCall;
+
+/**
+ * Generates function calls to {@code alloca()}.
+ *
+ * <p>If the function has a {@link StackArenaFrame}, and the buffer does not outlive the function, the memory
+ * is allocated from the thread's {@link org.renjin.gcc.runtime.StackArena}. Otherwise it is allocated on the heap,
+ * like {@code malloc()}.</p>
+ */
+public class AllocaCallGenerator implements CallGenerator, MethodHandleGenerator {
+
+  private final MallocCallGenerator heap;
+
+  public AllocaCallGenerator(TypeOracle typeOracle) {
+    this.heap = new MallocCallGenerator(typeOracle);
+  }
+
+  @Override
+  public void emitCall(MethodGenerator mv, ExprFactory exprFactory, GimpleCall call) {
+    StackArenaFrame frame = mv.getStackArenaFrame();
+    if(frame == null || !frame.isArenaAllocated(call)) {
+      heap.emitCall(mv, exprFactory, call);
+      return;
+    }
+
+    VPtrStrategy strategy = (VPtrStrategy) exprFactory.strategyFor(call.getLhs().getType());
+    JExpr size = exprFactory.findPrimitiveGenerator(call.getOperands().get(0));
+
+    GExpr lhs = exprFactory.findGenerator(call.getLhs());
+    lhs.store(mv, strategy.alloca(frame, size));
+  }
+
+  @Override
+  public JExpr getMethodHandle() {
+    return heap.getMethodHandle();
+  }
+}
@@ -19,12 +19,14 @@
 package org.renjin.gcc.codegen.call;
 
 import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.StackArenaFrame;
 import org.renjin.gcc.codegen.expr.ExprFactory;
 import org.renjin.gcc.codegen.expr.GExpr;
 import org.renjin.gcc.codegen.expr.JExpr;
 import org.renjin.gcc.codegen.type.ParamStrategy;
 import org.renjin.gcc.codegen.type.TypeStrategy;
 import org.renjin.gcc.codegen.type.fun.FunctionRefGenerator;
+import org.renjin.gcc.codegen.vptr.VPtrVariadicStrategy;
 import org.renjin.gcc.gimple.expr.GimpleExpr;
 import org.renjin.gcc.gimple.statement.GimpleCall;
 import org.renjin.repackaged.asm.Type;
@@ -66,6 +68,13 @@ public class FunctionCallGenerator implements CallGenerator, MethodHandleGenerat
       }
     }
 
+    // Variadic argument blocks allocated from the stack arena are released once the call returns
+    StackArenaFrame arenaFrame = mv.getStackArenaFrame();
+    boolean arenaScoped = arenaFrame != null && strategy.getVariadicStrategy() instanceof VPtrVariadicStrategy;
+    if(arenaScoped) {
+      arenaFrame.emitCallMark(mv);
+    }
+
     // Delegate handling of additional arguments to the VariadicStrategy
 
     List<GimpleExpr> additionalArgs = extraArguments(call, fixedArgCount);
@@ -87,6 +96,10 @@ public class FunctionCallGenerator implements CallGenerator, MethodHandleGenerat
 
       lhs.store(mv, rhs);
     }
+
+    if(arenaScoped) {
+      arenaFrame.emitCallRelease(mv);
+    }
   }
 
   private List<GimpleExpr> extraArguments(GimpleCall call, int fixedArgCount) {
@@ -21,6 +21,7 @@ package org.renjin.gcc.codegen.call;
 import org.renjin.gcc.codegen.MethodGenerator;
 import org.renjin.gcc.codegen.type.*;
 import org.renjin.gcc.codegen.vptr.VPtrVariadicStrategy;
+import org.renjin.gcc.link.ReferenceClassTable;
 import org.renjin.repackaged.asm.Handle;
 import org.renjin.repackaged.asm.Opcodes;
 import org.renjin.repackaged.asm.Type;
@@ -35,6 +36,7 @@ public class StaticMethodStrategy implements InvocationStrategy {
 
   private final TypeOracle typeOracle;
   private Method method;
+  private ReferenceClassTable.FunctionEntry function;
 
   /**
    * List of ParamStrategies, constructed lazily.
@@ -51,10 +53,27 @@ public class StaticMethodStrategy implements InvocationStrategy {
     this.method = method;
   }
 
+  /**
+   * Creates a strategy for a method of a reference class, whose descriptor is computed only once
+   * for all compilations.
+   */
+  public StaticMethodStrategy(TypeOracle typeOracle, ReferenceClassTable.FunctionEntry function) {
+    this.typeOracle = typeOracle;
+    this.method = function.getMethod();
+    this.function = function;
+  }
+
+  private String getDescriptor() {
+    if(function != null) {
+      return function.getDescriptor();
+    }
+    return Type.getMethodDescriptor(method);
+  }
+
   @Override
   public Handle getMethodHandle() {
     return new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(method.getDeclaringClass()), 
-        method.getName(), Type.getMethodDescriptor(method));
+        method.getName(), getDescriptor());
   }
 
   @Override
@@ -87,6 +106,6 @@ public class StaticMethodStrategy implements InvocationStrategy {
   
   @Override
   public void invoke(MethodGenerator mv) {
-    mv.invokestatic(method.getDeclaringClass(), method.getName(), Type.getMethodDescriptor(method));
+    mv.invokestatic(method.getDeclaringClass(), method.getName(), getDescriptor());
   }
 }
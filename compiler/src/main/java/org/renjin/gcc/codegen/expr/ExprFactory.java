@@ -36,7 +36,9 @@ import org.renjin.gcc.codegen.type.complex.ComplexCmpGenerator;
 import org.renjin.gcc.codegen.type.complex.ComplexExpr;
 import org.renjin.gcc.codegen.type.fun.FunPtrExpr;
 import org.renjin.gcc.codegen.type.primitive.*;
+import org.renjin.gcc.codegen.type.record.RecordClassExpr;
 import org.renjin.gcc.codegen.type.record.RecordExpr;
+import org.renjin.gcc.codegen.vptr.ScalarRecordExpr;
 import org.renjin.gcc.codegen.vptr.VPtrExpr;
 import org.renjin.gcc.gimple.GimpleOp;
 import org.renjin.gcc.gimple.expr.*;
@@ -48,6 +50,7 @@ import org.renjin.repackaged.asm.Type;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
@@ -60,6 +63,7 @@ public class ExprFactory {
   private MethodGenerator mv;
   private Optional<VPtrExpr> varArgsPtr;
   private ResourceWriter resourceWriter;
+  private Map<GimpleMemRef, GExpr> arrayAccesses = Collections.emptyMap();
 
   public ExprFactory(TypeOracle typeOracle, SymbolTable symbolTable, MethodGenerator mv, Optional<VPtrExpr> varArgsPtr, ResourceWriter resourceWriter) {
     this.typeOracle = typeOracle;
@@ -77,6 +81,18 @@ public class ExprFactory {
     return varArgsPtr;
   }
 
+  /**
+   * Sets the expressions to use in place of memory references that are made directly against the
+   * arrays underlying their pointers, while generating the body of an array-specialized loop.
+   *
+   * @param arrayAccesses the expressions, keyed by the identity of the {@code GimpleMemRef}, or an empty
+   *                      map to generate memory references normally.
+   * @see org.renjin.gcc.codegen.LoopVectorizer
+   */
+  public void setArrayAccesses(Map<GimpleMemRef, GExpr> arrayAccesses) {
+    this.arrayAccesses = arrayAccesses;
+  }
+
   public GExpr findGenerator(GimpleExpr expr, GimpleType expectedType) {
     return maybeCast(findGenerator(expr), expectedType, expr.getType());
   }
@@ -195,8 +211,13 @@ public class ExprFactory {
       }
     } else if (expr instanceof GimpleComponentRef) {
       GimpleComponentRef ref = (GimpleComponentRef) expr;
-      RecordExpr record = findGenerator(((GimpleComponentRef) expr).getValue())
-          .toVPtrRecord((GimpleRecordType) ref.getValue().getType());
+      GExpr value = findGenerator(ref.getValue());
+      RecordExpr record;
+      if(value instanceof ScalarRecordExpr || value instanceof RecordClassExpr) {
+        record = (RecordExpr) value;
+      } else {
+        record = value.toVPtrRecord((GimpleRecordType) ref.getValue().getType());
+      }
 
       return record.memberOf(mv, ref.getMember().getOffset(), ref.getMember().getSize(), expr.getType());
 
@@ -328,7 +349,9 @@ public class ExprFactory {
         return findGenerator(operands.get(0)).toPrimitiveExpr().toIntExpr().bitwiseNot();
 
       case COMPLEX_EXPR:
-        return new ComplexExpr(findPrimitiveGenerator(operands.get(0)));
+        return new ComplexExpr(
+            findPrimitiveGenerator(operands.get(0)),
+            findPrimitiveGenerator(operands.get(1)));
 
       case PLUS_EXPR:
       case MINUS_EXPR:
@@ -483,6 +506,11 @@ public class ExprFactory {
   }
 
   private GExpr memRef(GimpleMemRef gimpleExpr, GimpleType expectedType) {
+    GExpr arrayAccess = arrayAccesses.get(gimpleExpr);
+    if(arrayAccess != null && expectedType.equals(gimpleExpr.getType())) {
+      return arrayAccess;
+    }
+
     GimpleExpr pointer = gimpleExpr.getPointer();
 
     // Case of *&x, which can be simplified to x
@@ -53,7 +53,7 @@ public class FatPtrReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     // Store the returned Ptr wrapper to a local variable
     JLValue wrapper = mv.getLocalVarAllocator().reserve(callExpr.getType());
     wrapper.store(mv, callExpr);
@@ -35,7 +35,7 @@ public class OffsetReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     throw new UnsupportedOperationException("TODO");
   }
 
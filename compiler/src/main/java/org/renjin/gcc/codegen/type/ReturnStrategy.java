@@ -51,7 +51,7 @@ public interface ReturnStrategy {
   /**
    * Converts a function call return value to an expression if necessary.
    */
-  GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy);
+  GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy);
 
   /**
    * Sometimes C code doesn't return a value despite having a non-void return type. In this case, 
@@ -50,7 +50,7 @@ public final class SimpleReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     GExpr result = strategy.wrap(Expressions.cast(callExpr, type));
     try {
       return lhsTypeStrategy.cast(mv, result);
@@ -27,17 +27,35 @@ import org.renjin.gcc.codegen.expr.JLValue;
 import org.renjin.gcc.codegen.type.ReturnStrategy;
 import org.renjin.gcc.codegen.type.TypeStrategy;
 import org.renjin.gcc.gimple.type.GimpleComplexType;
+import org.renjin.gcc.runtime.ComplexReturnSlot;
 import org.renjin.repackaged.asm.Type;
 
 /**
  * Strategy for returning a complex value as a {@code double[2]} or {@code float[2]}
+ *
+ * <p>If {@link org.renjin.gcc.CompilerOptions#isComplexReturnSlotEnabled()}, the returned array is the calling
+ * thread's {@link ComplexReturnSlot} rather than a new array. Callers always copy both parts out of the returned
+ * array immediately after the call, so that either kind of function can be called.</p>
  */
 public class ComplexReturnStrategy implements ReturnStrategy {
   
   private GimpleComplexType type;
+  private final boolean returnSlot;
 
   public ComplexReturnStrategy(GimpleComplexType type) {
+    this(type, false);
+  }
+
+  private ComplexReturnStrategy(GimpleComplexType type, boolean returnSlot) {
     this.type = type;
+    this.returnSlot = returnSlot;
+  }
+
+  /**
+   * @return a strategy that returns values in the calling thread's {@link ComplexReturnSlot}
+   */
+  public ComplexReturnStrategy withReturnSlot() {
+    return new ComplexReturnStrategy(type, true);
   }
 
   @Override
@@ -48,20 +66,21 @@ public class ComplexReturnStrategy implements ReturnStrategy {
   @Override
   public JExpr marshall(GExpr expr) {
     ComplexExpr complexExpr = (ComplexExpr) expr;
-    return Expressions.newArray(
-        complexExpr.getRealJExpr(),
-        complexExpr.getImaginaryJExpr());
+    return returnSlot(complexExpr.getRealJExpr(), complexExpr.getImaginaryJExpr());
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
-    // Allocate a temporary variable for the array so that it's 
-    // components can be accessed
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
+    // The returned array may be reused by the next call on this thread, so
+    // copy both parts out before anything else is evaluated
     JLValue array = mv.getLocalVarAllocator().reserve("retval", callExpr.getType());
     array.store(mv, callExpr);
-    JExpr realValue = Expressions.elementAt(array, 0);
-    JExpr imaginaryValue = Expressions.elementAt(array, 1);
-    
+
+    JLValue realValue = mv.getLocalVarAllocator().reserve("retval$real", type.getJvmPartType());
+    JLValue imaginaryValue = mv.getLocalVarAllocator().reserve("retval$im", type.getJvmPartType());
+    realValue.store(mv, Expressions.elementAt(array, 0));
+    imaginaryValue.store(mv, Expressions.elementAt(array, 1));
+
     return new ComplexExpr(realValue, imaginaryValue);
   }
 
@@ -69,7 +88,17 @@ public class ComplexReturnStrategy implements ReturnStrategy {
   public JExpr getDefaultReturnValue() {
     JExpr zero = Expressions.zero(type.getJvmPartType());
     
-    return Expressions.newArray(zero, zero);
+    return returnSlot(zero, zero);
+  }
+
+  private JExpr returnSlot(JExpr realValue, JExpr imaginaryValue) {
+    if(!returnSlot) {
+      return Expressions.newArray(realValue, imaginaryValue);
+    }
+    Type partType = type.getJvmPartType();
+    return Expressions.staticMethodCall(ComplexReturnSlot.class, "of",
+        Type.getMethodDescriptor(type.getJvmPartArrayType(), partType, partType),
+        realValue, imaginaryValue);
   }
 
 }
@@ -21,9 +21,8 @@ package org.renjin.gcc.codegen.type.complex;
 import org.renjin.gcc.codegen.MethodGenerator;
 import org.renjin.gcc.codegen.ResourceWriter;
 import org.renjin.gcc.codegen.array.ArrayTypeStrategy;
-import org.renjin.gcc.codegen.expr.ExprFactory;
-import org.renjin.gcc.codegen.expr.GExpr;
-import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.expr.*;
+import org.renjin.gcc.codegen.fatptr.FatPtrPair;
 import org.renjin.gcc.codegen.fatptr.ValueFunction;
 import org.renjin.gcc.codegen.type.*;
 import org.renjin.gcc.codegen.var.VarAllocator;
@@ -44,11 +43,13 @@ import org.renjin.repackaged.asm.Type;
  * values as two {@code double} values on the stack, which should be perfectly equivalent
  * to how GCC treats them.</p>
  * 
- * <p>If we need their address, however, then they need to be allocated on the heap as a double array.</p>
+ * <p>If we need their address, however, then they need to be allocated on the heap as a
+ * {@code double[2]} array, which can be pointed to by a {@code DoublePtr}.</p>
  * 
- * <p>We also can't return double values, so we map functions return a complex value to one
- * returning a double array. This does require the extra step of allocating a double[] array in order
- * to return a complex value. This is something we could eliminate with aggressive inlining.</p>
+ * <p>We also can't return two double values, so we map functions returning a complex value to
+ * ones returning a double array. To avoid allocating an array on every call, functions
+ * return a per-thread {@link org.renjin.gcc.runtime.ComplexReturnSlot} which the caller
+ * copies immediately.</p>
  * 
  */
 public class ComplexTypeStrategy implements TypeStrategy<ComplexExpr> {
@@ -62,9 +63,12 @@ public class ComplexTypeStrategy implements TypeStrategy<ComplexExpr> {
   @Override
   public ComplexExpr variable(GimpleVarDecl decl, VarAllocator allocator) {
     if(decl.isAddressable()) {
-//      return new AddressableComplexVarGenerator(type,
-//          allocator.reserveArrayRef(decl.getName(), type.getJvmPartType()));
-      throw new UnsupportedOperationException("TODO");
+      JLValue array = allocator.reserve(decl.getNameIfPresent(), type.getJvmPartArrayType(),
+          Expressions.newArray(type.getJvmPartType(), 2));
+      FatPtrPair address = new FatPtrPair(new ComplexValueFunction(type), array);
+      return new ComplexExpr(address,
+          Expressions.elementAt(array, 0),
+          Expressions.elementAt(array, 1));
     } else {
       return new ComplexExpr(
           allocator.reserve(decl.getName() + "$real", type.getJvmPartType()),
@@ -26,6 +26,8 @@ import org.renjin.gcc.codegen.fatptr.*;
 import org.renjin.gcc.codegen.vptr.VPtrExpr;
 import org.renjin.gcc.gimple.type.GimpleComplexType;
 import org.renjin.gcc.gimple.type.GimpleType;
+import org.renjin.gcc.runtime.DoublePtr;
+import org.renjin.gcc.runtime.FloatPtr;
 import org.renjin.repackaged.asm.Type;
 import org.renjin.repackaged.guava.collect.Lists;
 
@@ -113,7 +115,13 @@ public class ComplexValueFunction implements ValueFunction {
 
   @Override
   public VPtrExpr toVPtr(JExpr array, JExpr offset) {
-    throw new UnsupportedOperationException("TODO");
+    Class<?> ptrClass;
+    if(valueType.getJvmPartType().equals(Type.DOUBLE_TYPE)) {
+      ptrClass = DoublePtr.class;
+    } else {
+      ptrClass = FloatPtr.class;
+    }
+    return new VPtrExpr(Expressions.newObject(ptrClass, array, offset));
   }
 
 
@@ -45,7 +45,7 @@ public class PrimitiveReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     return type.fromNonStackValue(Expressions.castPrimitive(callExpr, type.jvmType()));
   }
 
@@ -48,6 +48,11 @@ public class ProvidedPtrExpr implements RefPtrExpr {
   private JExpr ref;
   private FatPtr address;
 
+  /**
+   * The strategy of the record type pointed to, or {@code null} if unknown.
+   */
+  private ProvidedTypeStrategy strategy;
+
   public ProvidedPtrExpr(JExpr ref) {
     this.ref = ref;
   }
@@ -57,6 +62,12 @@ public class ProvidedPtrExpr implements RefPtrExpr {
     this.address = address;
   }
 
+  public ProvidedPtrExpr(ProvidedTypeStrategy strategy, JExpr ref, FatPtr address) {
+    this.strategy = strategy;
+    this.ref = ref;
+    this.address = address;
+  }
+
   public Type getJvmType() {
     return ref.getType();
   }
@@ -129,13 +140,16 @@ public class ProvidedPtrExpr implements RefPtrExpr {
       }
     };
 
-    return new ProvidedPtrExpr(expr);
+    return new ProvidedPtrExpr(strategy, expr, null);
   }
 
   @Override
   public GExpr valueOf(GimpleType expectedType) {
-    throw new UnsupportedOperationException(
-        String.format("Provided type '%s' is opaque and may not be dereferenced.", getJvmType()));
+    if(strategy == null) {
+      throw new UnsupportedOperationException(
+          String.format("Provided type '%s' is opaque and may not be dereferenced.", getJvmType()));
+    }
+    return strategy.dereference(ref);
   }
 
   @Override
@@ -171,9 +185,22 @@ public class ProvidedPtrExpr implements RefPtrExpr {
 
   @Override
   public ProvidedPtrExpr toProvidedPtrExpr(Type jvmType) {
+    if(jvmType.equals(getJvmType())) {
+      return this;
+    }
     return new ProvidedPtrExpr(Expressions.cast(jexpr(), jvmType));
   }
 
+  /**
+   * @return a pointer to the same record that can be dereferenced using the given {@code strategy}.
+   */
+  ProvidedPtrExpr withStrategy(ProvidedTypeStrategy strategy) {
+    if(this.strategy == strategy) {
+      return this;
+    }
+    return new ProvidedPtrExpr(strategy, ref, address);
+  }
+
   @Override
   public FatPtr toFatPtrExpr(ValueFunction valueFunction) {
     throw new UnsupportedCastException();
@@ -29,8 +29,11 @@ import org.renjin.repackaged.asm.Type;
 
 public class ProvidedPtrField extends SingleFieldStrategy {
 
-  public ProvidedPtrField(Type ownerClass, String fieldName, Type jvmType) {
-    super(ownerClass, fieldName, jvmType);
+  private final ProvidedTypeStrategy strategy;
+
+  public ProvidedPtrField(Type ownerClass, String fieldName, ProvidedTypeStrategy strategy) {
+    super(ownerClass, fieldName, strategy.getJvmType());
+    this.strategy = strategy;
   }
 
   @Override
@@ -38,7 +41,7 @@ public class ProvidedPtrField extends SingleFieldStrategy {
     if(offset != 0) {
       throw new IllegalStateException("offset = " + offset);
     }
-    return new ProvidedPtrExpr(Expressions.field(instance, fieldType, fieldName));
+    return new ProvidedPtrExpr(strategy, Expressions.field(instance, fieldType, fieldName), null);
   }
 
   @Override
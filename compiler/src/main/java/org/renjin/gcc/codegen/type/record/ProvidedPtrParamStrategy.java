@@ -64,9 +64,9 @@ class ProvidedPtrParamStrategy implements ParamStrategy {
 
       JExpr value = Expressions.elementAt(address.getArray(), 0);
 
-      return new ProvidedPtrExpr(value, address);
+      return new ProvidedPtrExpr(strategy.getRecordStrategy(), value, address);
     }
-    return new ProvidedPtrExpr(unitPtr);
+    return new ProvidedPtrExpr(strategy.getRecordStrategy(), unitPtr, null);
   }
 
   @Override
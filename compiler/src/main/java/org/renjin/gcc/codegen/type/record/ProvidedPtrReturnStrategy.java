@@ -45,7 +45,7 @@ public class ProvidedPtrReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     return lhsTypeStrategy.cast(mv, new ProvidedPtrExpr(callExpr));
   }
 
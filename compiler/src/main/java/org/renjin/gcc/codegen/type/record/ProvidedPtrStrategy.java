@@ -59,7 +59,7 @@ public class ProvidedPtrStrategy implements PointerTypeStrategy<ProvidedPtrExpr>
 
   @Override
   public FieldStrategy fieldGenerator(Type className, String fieldName) {
-    return new ProvidedPtrField(className, fieldName, strategy.getJvmType());
+    return new ProvidedPtrField(className, fieldName, strategy);
   }
 
   @Override
@@ -84,7 +84,7 @@ public class ProvidedPtrStrategy implements PointerTypeStrategy<ProvidedPtrExpr>
 
   @Override
   public ProvidedPtrExpr cast(MethodGenerator mv, GExpr value) throws UnsupportedCastException {
-    return value.toProvidedPtrExpr(getJvmType());
+    return value.toProvidedPtrExpr(getJvmType()).withStrategy(strategy);
   }
 
   @Override
@@ -107,10 +107,10 @@ public class ProvidedPtrStrategy implements PointerTypeStrategy<ProvidedPtrExpr>
       FatPtrPair address = new FatPtrPair(valueFunction, unitArray);
       ArrayElement instance = Expressions.elementAt(unitArray, 0);
       
-      return new ProvidedPtrExpr(instance, address);
+      return new ProvidedPtrExpr(strategy, instance, address);
       
     } else {
-      return new ProvidedPtrExpr(allocator.reserve(decl.getNameIfPresent(), strategy.getJvmType()));
+      return new ProvidedPtrExpr(strategy, allocator.reserve(decl.getNameIfPresent(), strategy.getJvmType()), null);
     }
   }
 
@@ -126,21 +126,20 @@ public class ProvidedPtrStrategy implements PointerTypeStrategy<ProvidedPtrExpr>
       // If it's final, then we can make this variable addressable by creating an array on
       // demand. Changes to the pointer's value by C code will have no effect, but that's a good thing??
       FatPtrPair fakeAddress = new FatPtrPair(valueFunction, Expressions.newArray(expr));
-      return new ProvidedPtrExpr(expr, fakeAddress);
+      return new ProvidedPtrExpr(strategy, expr, fakeAddress);
     }
 
-    return new ProvidedPtrExpr(expr);
+    return new ProvidedPtrExpr(strategy, expr, null);
   }
 
   @Override
   public ProvidedPtrExpr malloc(MethodGenerator mv, JExpr sizeInBytes) {
-    throw new UnsupportedOperationException(
-        String.format("Type '%s' is provided and may not be allocated by compiled code.", getJvmType()));
+    return new ProvidedPtrExpr(strategy, strategy.newInstance(), null);
   }
 
   @Override
   public ProvidedPtrExpr nullPointer() {
-    return new ProvidedPtrExpr(Expressions.nullRef(strategy.getJvmType()));
+    return new ProvidedPtrExpr(strategy, Expressions.nullRef(strategy.getJvmType()), null);
   }
 
   public Type getJvmType() {
@@ -152,6 +151,10 @@ public class ProvidedPtrStrategy implements PointerTypeStrategy<ProvidedPtrExpr>
     return "RecordUnitPtrStrategy[" + strategy.getRecordTypeDef().getName() + "]";
   }
 
+  ProvidedTypeStrategy getRecordStrategy() {
+    return strategy;
+  }
+
   public GimpleRecordType getGimpleType() {
     return strategy.getRecordType();
   }
@@ -38,11 +38,13 @@ import java.util.Optional;
 
 public class ProvidedPtrValueFunction implements ValueFunction {
 
+  private ProvidedTypeStrategy strategy;
   private GimpleRecordType gimpleType;
   private Type jvmType;
 
 
   public ProvidedPtrValueFunction(ProvidedTypeStrategy strategy) {
+    this.strategy = strategy;
     this.gimpleType = strategy.getGimpleType();
     this.jvmType = strategy.getJvmType();
   }
@@ -86,12 +88,12 @@ public class ProvidedPtrValueFunction implements ValueFunction {
     JExpr castedPointerValue = Expressions.cast(pointerValue, jvmType);
     FatPtrPair pointerAddress = new FatPtrPair(this, array, offset);
     
-    return new ProvidedPtrExpr(castedPointerValue, pointerAddress);
+    return new ProvidedPtrExpr(strategy, castedPointerValue, pointerAddress);
   }
 
   @Override
   public GExpr dereference(WrappedFatPtrExpr wrapperInstance) {
-    return new ProvidedPtrExpr(wrapperInstance.valueExpr(), wrapperInstance);
+    return new ProvidedPtrExpr(strategy, wrapperInstance.valueExpr(), wrapperInstance);
   }
 
   @Override
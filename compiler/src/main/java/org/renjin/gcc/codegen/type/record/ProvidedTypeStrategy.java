@@ -105,4 +105,20 @@ public class ProvidedTypeStrategy extends RecordTypeStrategy<GExpr> {
     throw new UnsupportedOperationException(unsupportedMessage());
   }
 
+  /**
+   * @return an expression which creates a new, zero-initialized instance of this record.
+   */
+  public JExpr newInstance() {
+    throw new UnsupportedOperationException(
+        String.format("Type '%s' is provided and may not be allocated by compiled code.", jvmType));
+  }
+
+  /**
+   * @return the record value referenced by the given {@code instance}
+   */
+  public GExpr dereference(JExpr instance) {
+    throw new UnsupportedOperationException(
+        String.format("Provided type '%s' is opaque and may not be dereferenced.", jvmType));
+  }
+
 }
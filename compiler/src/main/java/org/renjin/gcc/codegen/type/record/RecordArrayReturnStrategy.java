@@ -69,7 +69,7 @@ public class RecordArrayReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     return new RecordArrayExpr(valueFunction, callExpr, arrayLength);
   }
 
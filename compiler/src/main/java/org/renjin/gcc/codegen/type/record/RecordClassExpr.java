@@ -0,0 +1,132 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen.type.record;
+
+import org.renjin.gcc.InternalCompilerException;
+import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.array.FatArrayExpr;
+import org.renjin.gcc.codegen.expr.GExpr;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.expr.PtrExpr;
+import org.renjin.gcc.codegen.fatptr.FatPtr;
+import org.renjin.gcc.codegen.fatptr.ValueFunction;
+import org.renjin.gcc.codegen.type.NumericExpr;
+import org.renjin.gcc.codegen.type.UnsupportedCastException;
+import org.renjin.gcc.codegen.type.fun.FunPtrExpr;
+import org.renjin.gcc.codegen.type.primitive.PrimitiveExpr;
+import org.renjin.gcc.codegen.type.voidt.VoidPtrExpr;
+import org.renjin.gcc.codegen.vptr.VArrayExpr;
+import org.renjin.gcc.codegen.vptr.VPtrExpr;
+import org.renjin.gcc.codegen.vptr.VPtrRecordExpr;
+import org.renjin.gcc.gimple.type.GimpleArrayType;
+import org.renjin.gcc.gimple.type.GimpleRecordType;
+import org.renjin.gcc.gimple.type.GimpleType;
+import org.renjin.repackaged.asm.Type;
+
+/**
+ * Record value stored in an instance of the record's generated JVM class.
+ *
+ * <p>The instance is the storage of the record: assignment copies the fields into it, and its
+ * address is simply a reference to the instance.</p>
+ */
+public class RecordClassExpr implements RecordExpr {
+
+  private final RecordClassTypeStrategy strategy;
+  private final JExpr ref;
+
+  public RecordClassExpr(RecordClassTypeStrategy strategy, JExpr ref) {
+    this.strategy = strategy;
+    this.ref = ref;
+  }
+
+  public JExpr getRef() {
+    return ref;
+  }
+
+  @Override
+  public GExpr memberOf(MethodGenerator mv, int fieldOffsetBits, int size, GimpleType type) {
+    return strategy.memberOf(mv, ref, fieldOffsetBits, size, type);
+  }
+
+  @Override
+  public void store(MethodGenerator mv, GExpr rhs) {
+    if(!(rhs instanceof RecordClassExpr)) {
+      throw new InternalCompilerException("Cannot assign " + rhs + " to record " + strategy.getJvmType());
+    }
+    Type jvmType = strategy.getJvmType();
+    ref.load(mv);
+    ((RecordClassExpr) rhs).ref.load(mv);
+    mv.invokevirtual(jvmType, "set", Type.getMethodDescriptor(Type.VOID_TYPE, jvmType), false);
+  }
+
+  @Override
+  public PtrExpr addressOf() {
+    return new ProvidedPtrExpr(strategy, ref, null);
+  }
+
+  @Override
+  public FunPtrExpr toFunPtr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public FatArrayExpr toArrayExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public PrimitiveExpr toPrimitiveExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public VoidPtrExpr toVoidPtrExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public VPtrExpr toVPtrExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public ProvidedPtrExpr toProvidedPtrExpr(Type jvmType) {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public FatPtr toFatPtrExpr(ValueFunction valueFunction) {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public VPtrRecordExpr toVPtrRecord(GimpleRecordType recordType) {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public VArrayExpr toVArray(GimpleArrayType arrayType) {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public NumericExpr toNumericExpr() {
+    throw new UnsupportedCastException();
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen.type.record;
+
+import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.expr.GExpr;
+import org.renjin.gcc.codegen.expr.JLValue;
+import org.renjin.gcc.codegen.type.ParamStrategy;
+import org.renjin.gcc.codegen.var.VarAllocator;
+import org.renjin.gcc.gimple.GimpleParameter;
+import org.renjin.repackaged.asm.Type;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Passes records by value as a fresh copy of the record instance.
+ */
+class RecordClassParamStrategy implements ParamStrategy {
+
+  private final RecordClassTypeStrategy strategy;
+
+  public RecordClassParamStrategy(RecordClassTypeStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  @Override
+  public List<Type> getParameterTypes() {
+    return Collections.singletonList(strategy.getJvmType());
+  }
+
+  @Override
+  public List<String> getParameterNames(String name) {
+    return Collections.singletonList(name);
+  }
+
+  @Override
+  public GExpr emitInitialization(MethodGenerator methodVisitor, GimpleParameter parameter,
+                                  List<JLValue> paramVars, VarAllocator localVars) {
+    return new RecordClassExpr(strategy, paramVars.get(0));
+  }
+
+  @Override
+  public void loadParameter(MethodGenerator mv, Optional<GExpr> argument) {
+    if(!argument.isPresent()) {
+      // The callee may still read or write its copy, so pass a zeroed instance rather than null
+      strategy.newInstance().load(mv);
+      return;
+    }
+    Type jvmType = strategy.getJvmType();
+    RecordClassExpr record = (RecordClassExpr) strategy.cast(mv, argument.get());
+    record.getRef().load(mv);
+    mv.invokevirtual(jvmType, "copy", Type.getMethodDescriptor(jvmType), false);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen.type.record;
+
+import org.renjin.gcc.InternalCompilerException;
+import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.ResourceWriter;
+import org.renjin.gcc.codegen.expr.ExprFactory;
+import org.renjin.gcc.codegen.expr.Expressions;
+import org.renjin.gcc.codegen.expr.GExpr;
+import org.renjin.gcc.codegen.expr.JExpr;
+import org.renjin.gcc.codegen.expr.JLValue;
+import org.renjin.gcc.codegen.type.FieldStrategy;
+import org.renjin.gcc.codegen.type.ParamStrategy;
+import org.renjin.gcc.codegen.type.ReturnStrategy;
+import org.renjin.gcc.codegen.type.TypeOracle;
+import org.renjin.gcc.codegen.type.UnsupportedCastException;
+import org.renjin.gcc.codegen.var.VarAllocator;
+import org.renjin.gcc.gimple.GimpleVarDecl;
+import org.renjin.gcc.gimple.expr.GimpleConstructor;
+import org.renjin.gcc.gimple.expr.GimpleFieldRef;
+import org.renjin.gcc.gimple.type.GimpleField;
+import org.renjin.gcc.gimple.type.GimpleRecordTypeDef;
+import org.renjin.gcc.gimple.type.GimpleType;
+import org.renjin.repackaged.asm.Type;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Strategy for records stored in instances of a JVM class generated for the record type, with
+ * one public, typed field for each field of the record.
+ *
+ * <p>Like provided types, pointers to these records are simply references to the instance, but
+ * compiled code may allocate and dereference them. This strategy is only used for records that are
+ * never reinterpreted as another type; see {@link org.renjin.gcc.analysis.RecordClassFinder}.</p>
+ */
+public class RecordClassTypeStrategy extends ProvidedTypeStrategy {
+
+  private final TypeOracle typeOracle;
+
+  /**
+   * Field strategies, by offset in bits. Created lazily, as the strategies for pointer fields depend on
+   * whether the records they point to also have their own class.
+   */
+  private Map<Integer, FieldStrategy> fields;
+
+  public RecordClassTypeStrategy(TypeOracle typeOracle, GimpleRecordTypeDef recordTypeDef, Type jvmType) {
+    super(recordTypeDef, jvmType);
+    this.typeOracle = typeOracle;
+  }
+
+  public Map<GimpleField, FieldStrategy> getFieldStrategies() {
+    Map<GimpleField, FieldStrategy> map = new LinkedHashMap<>();
+    for (GimpleField field : recordTypeDef.getFields()) {
+      map.put(field, fieldAt(field.getOffset()));
+    }
+    return map;
+  }
+
+  private FieldStrategy fieldAt(int offset) {
+    if(fields == null) {
+      fields = new LinkedHashMap<>();
+      for (GimpleField field : recordTypeDef.getFields()) {
+        fields.put(field.getOffset(), typeOracle.forField(getJvmType(), field));
+      }
+    }
+    FieldStrategy field = fields.get(offset);
+    if(field == null) {
+      throw new InternalCompilerException(String.format("Record %s has no field at offset %d",
+          recordTypeDef.getName(), offset));
+    }
+    return field;
+  }
+
+  GExpr memberOf(MethodGenerator mv, JExpr instance, int offset, int size, GimpleType type) {
+    return fieldAt(offset).memberExpr(mv, instance, 0, size, type);
+  }
+
+  @Override
+  public ParamStrategy getParamStrategy() {
+    return new RecordClassParamStrategy(this);
+  }
+
+  @Override
+  public ReturnStrategy getReturnStrategy() {
+    return new RecordClassReturnStrategy(this);
+  }
+
+  @Override
+  public RecordClassExpr variable(GimpleVarDecl decl, VarAllocator allocator) {
+    return new RecordClassExpr(this, allocator.reserve(decl.getNameIfPresent(), getJvmType(), newInstance()));
+  }
+
+  @Override
+  public RecordClassExpr constructorExpr(ExprFactory exprFactory, MethodGenerator mv, ResourceWriter resourceWriter,
+                                         GimpleConstructor value) {
+
+    // Construct a new instance each time, so that fields not in the constructor are zero
+    JLValue temp = mv.getLocalVarAllocator().reserve(getJvmType());
+    temp.store(mv, newInstance());
+
+    RecordClassExpr record = new RecordClassExpr(this, temp);
+    for (GimpleConstructor.Element element : value.getElements()) {
+      GimpleFieldRef field = (GimpleFieldRef) element.getField();
+      GExpr fieldValue = exprFactory.findGenerator(element.getValue(), field.getType());
+      record.memberOf(mv, field.getOffset(), field.getSize(), field.getType()).store(mv, fieldValue);
+    }
+    return record;
+  }
+
+  @Override
+  public GExpr cast(MethodGenerator mv, GExpr value) throws UnsupportedCastException {
+    if(value instanceof RecordClassExpr) {
+      return value;
+    }
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public JExpr newInstance() {
+    return Expressions.newObject(getJvmType());
+  }
+
+  @Override
+  public RecordClassExpr dereference(JExpr instance) {
+    return new RecordClassExpr(this, instance);
+  }
+
+  @Override
+  public String toString() {
+    return "RecordClassTypeStrategy[" + getJvmType().getInternalName() + "]";
+  }
+}
@@ -27,6 +27,8 @@ import org.renjin.gcc.link.RecordSymbol;
 import org.renjin.repackaged.asm.Type;
 import org.renjin.repackaged.guava.base.Preconditions;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +48,15 @@ public class RecordTypeDefMap {
    */
   private Map<Type, ProvidedTypeStrategy> providedTypeMap = new HashMap<>();
 
+  /**
+   * Map from record type ids to the strategy for records stored in generated classes.
+   */
+  private Map<String, RecordClassTypeStrategy> recordClassMap = new HashMap<>();
+
+  private List<RecordClassTypeStrategy> recordClasses = new ArrayList<>();
+
+  private boolean scalarReplacementEnabled = false;
+
   public void init(List<GimpleCompilationUnit> units, ClassLoader classLoader) {
     for (GimpleCompilationUnit unit : units) {
       for (GimpleRecordTypeDef recordTypeDef : unit.getRecordTypes()) {
@@ -61,6 +72,32 @@ public class RecordTypeDefMap {
     }
   }
 
+  /**
+   * Sets whether the strategies for records backed by memory may build constructed records in one
+   * temporary local per field.
+   */
+  public void setScalarReplacementEnabled(boolean scalarReplacementEnabled) {
+    this.scalarReplacementEnabled = scalarReplacementEnabled;
+  }
+
+  /**
+   * Stores the given record types, which must be layout-compatible definitions of the same record
+   * from different compilation units, in a single generated class.
+   */
+  public void addRecordClass(RecordClassTypeStrategy strategy, Collection<GimpleRecordTypeDef> recordTypeDefs) {
+    for (GimpleRecordTypeDef recordTypeDef : recordTypeDefs) {
+      recordClassMap.put(recordTypeDef.getId(), strategy);
+    }
+    recordClasses.add(strategy);
+  }
+
+  /**
+   * @return the strategies of all records stored in generated classes.
+   */
+  public List<RecordClassTypeStrategy> getRecordClasses() {
+    return recordClasses;
+  }
+
   public GimpleRecordTypeDef getRecordTypeDef(GimpleRecordType type) {
     return getRecordTypeDef(type.getId());
   }
@@ -73,7 +110,12 @@ public class RecordTypeDefMap {
       return recordNameMap.get(def.getName());
     }
 
-    return new VPtrRecordTypeStrategy(def);
+    RecordClassTypeStrategy recordClass = recordClassMap.get(recordTypeId);
+    if(recordClass != null) {
+      return recordClass;
+    }
+
+    return new VPtrRecordTypeStrategy(def, scalarReplacementEnabled);
   }
 
   private GimpleRecordTypeDef getRecordTypeDef(String recordTypeId) {
@@ -45,7 +45,7 @@ public class VoidReturnStrategy implements ReturnStrategy {
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     if(lhsTypeStrategy instanceof PointerTypeStrategy) {
       return ((PointerTypeStrategy) lhsTypeStrategy).nullPointer();
     } else if(lhsTypeStrategy instanceof PrimitiveTypeStrategy) {
@@ -0,0 +1,510 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen.var;
+
+import org.renjin.repackaged.asm.Opcodes;
+import org.renjin.repackaged.asm.Type;
+import org.renjin.repackaged.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * Reassigns the local variable slots of a generated method, so that variables whose live ranges do
+ * not overlap share a slot.
+ *
+ * <p>{@link LocalVarAllocator} gives every variable and temporary its own slot. Once the method has been
+ * generated and optimized, this pass computes the liveness of each local over the method's control flow graph,
+ * including the edges to exception handlers, and reduces each variable's live range to an interval of
+ * instruction indices. The intervals are then coloured greedily in order of their start, which uses the
+ * smallest number of slots for an interval graph.</p>
+ *
+ * <p>Stores to a variable which is not subsequently read are replaced by a {@code pop}, so that, for example,
+ * the initialization of a variable at method entry does not extend its range if the variable is always
+ * assigned before it is read. Slots may be shared by variables of different types, as the verifier infers
+ * the type of a slot from the most recent store. Parameters keep their slots.</p>
+ */
+public final class LocalSlotAllocator {
+
+  private final MethodNode methodNode;
+  private final AbstractInsnNode[] instructions;
+  private final int firstLocal;
+
+  /**
+   * Maps original slots to the index of the variable which starts there, or -1.
+   */
+  private int[] variableAt;
+  private int[] variableSlot;
+  private int[] variableSize;
+  private int variableCount;
+
+  private LocalSlotAllocator(MethodNode methodNode) {
+    this.methodNode = methodNode;
+    this.instructions = methodNode.instructions.toArray();
+    int argumentSize = Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2;
+    if((methodNode.access & Opcodes.ACC_STATIC) != 0) {
+      argumentSize--;
+    }
+    this.firstLocal = argumentSize;
+  }
+
+  /**
+   * Reassigns the slots of the local variables of {@code methodNode}.
+   *
+   * @return the number of local variable slots used by the method.
+   */
+  public static int allocate(MethodNode methodNode) {
+    LocalSlotAllocator allocator = new LocalSlotAllocator(methodNode);
+    if(allocator.findVariables()) {
+      allocator.reassign();
+    }
+    methodNode.maxLocals = countSlots(methodNode);
+    return methodNode.maxLocals;
+  }
+
+  /**
+   * @return the number of local variable slots, including parameters, used by {@code methodNode}.
+   */
+  public static int countSlots(MethodNode methodNode) {
+    return new LocalSlotAllocator(methodNode).countSlots();
+  }
+
+  /**
+   * Finds the variables accessed by the method.
+   *
+   * @return false if a slot is accessed both as part of a wide and a narrow variable, in which
+   * case the slots are left unchanged.
+   */
+  private boolean findVariables() {
+    int maxSlot = firstLocal;
+    for (AbstractInsnNode node : instructions) {
+      int var = var(node);
+      if(var >= 0) {
+        maxSlot = Math.max(maxSlot, var + size(node));
+      }
+    }
+    variableAt = new int[maxSlot + 1];
+    Arrays.fill(variableAt, -1);
+    int[] sizeAt = new int[maxSlot + 1];
+
+    for (AbstractInsnNode node : instructions) {
+      int var = var(node);
+      if(var >= firstLocal) {
+        int size = size(node);
+        if(sizeAt[var] == 0) {
+          sizeAt[var] = size;
+        } else if(sizeAt[var] != size) {
+          return false;
+        }
+      }
+    }
+    variableSize = new int[maxSlot];
+    for (int slot = firstLocal; slot < maxSlot; slot++) {
+      if(sizeAt[slot] != 0) {
+        if(sizeAt[slot] == 2 && sizeAt[slot + 1] != 0) {
+          return false;
+        }
+        variableAt[slot] = variableCount;
+        variableSize[variableCount] = sizeAt[slot];
+        variableCount++;
+      }
+    }
+    return true;
+  }
+
+  private void reassign() {
+    ControlFlow flow = new ControlFlow();
+    BitSet[] liveIn = flow.solve();
+
+    // Walk backwards through each block to find the live interval of each variable,
+    // and to drop stores whose value is never read
+    int[] start = new int[variableCount];
+    int[] end = new int[variableCount];
+    Arrays.fill(start, Integer.MAX_VALUE);
+    Arrays.fill(end, -1);
+
+    for (int block = 0; block < flow.blockCount; block++) {
+      BitSet live = flow.liveOut(block, liveIn);
+      BitSet throwing = flow.handlerLiveIn(block, liveIn);
+      live.or(throwing);
+
+      for (int i = flow.blockEnd(block) - 1; i >= flow.blockStart[block]; i--) {
+        AbstractInsnNode node = instructions[i];
+        int variable = variable(node);
+        if(variable >= 0) {
+          if(!live.get(variable) && (isStore(node) || node instanceof IincInsnNode)) {
+            removeDeadStore(node);
+          } else if(isStore(node)) {
+            live.clear(variable);
+            extend(start, end, variable, i);
+          } else {
+            live.set(variable);
+          }
+        }
+        for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+          extend(start, end, v, i);
+        }
+        live.or(throwing);
+      }
+    }
+
+    colour(start, end);
+
+    for (AbstractInsnNode node : instructions) {
+      if(node instanceof VarInsnNode) {
+        VarInsnNode varNode = (VarInsnNode) node;
+        varNode.var = newSlot(varNode.var);
+      } else if(node instanceof IincInsnNode) {
+        IincInsnNode iinc = (IincInsnNode) node;
+        iinc.var = newSlot(iinc.var);
+      }
+    }
+    remapDebuggingInfo();
+  }
+
+  private static void extend(int[] start, int[] end, int variable, int index) {
+    start[variable] = Math.min(start[variable], index);
+    end[variable] = Math.max(end[variable], index);
+  }
+
+  /**
+   * Assigns slots to the variables in order of the start of their intervals, reusing the lowest slots
+   * freed by intervals which have ended.
+   */
+  private void colour(int[] start, int[] end) {
+    variableSlot = new int[variableCount];
+    Arrays.fill(variableSlot, -1);
+
+    Integer[] order = new Integer[variableCount];
+    for (int i = 0; i < variableCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingInt(v -> start[v]));
+
+    PriorityQueue<Integer> active = new PriorityQueue<>(Comparator.comparingInt(v -> end[v]));
+    BitSet used = new BitSet();
+
+    for (int variable : order) {
+      if(end[variable] < 0) {
+        // Never live
+        continue;
+      }
+      while(!active.isEmpty() && end[active.peek()] < start[variable]) {
+        int expired = active.poll();
+        used.clear(variableSlot[expired], variableSlot[expired] + variableSize[expired]);
+      }
+      int slot = used.nextClearBit(firstLocal);
+      while(variableSize[variable] == 2 && used.get(slot + 1)) {
+        slot = used.nextClearBit(slot + 1);
+      }
+      variableSlot[variable] = slot;
+      used.set(slot, slot + variableSize[variable]);
+      active.add(variable);
+    }
+  }
+
+  private int newSlot(int slot) {
+    if(slot < firstLocal) {
+      return slot;
+    }
+    return variableSlot[variableAt[slot]];
+  }
+
+  /**
+   * Updates the local variable table, dropping variables which are never live, and entries which would
+   * be duplicated now that variables share slots.
+   */
+  private void remapDebuggingInfo() {
+    if(methodNode.localVariables == null) {
+      return;
+    }
+    Set<String> entries = new HashSet<>();
+    Iterator<?> it = methodNode.localVariables.iterator();
+    while(it.hasNext()) {
+      LocalVariableNode local = (LocalVariableNode) it.next();
+      if(local.index >= firstLocal) {
+        int variable = local.index < variableAt.length ? variableAt[local.index] : -1;
+        if(variable < 0 || variableSlot[variable] < 0) {
+          it.remove();
+          continue;
+        }
+        local.index = variableSlot[variable];
+      }
+      if(!entries.add(local.name + ":" + local.index)) {
+        it.remove();
+      }
+    }
+  }
+
+  private void removeDeadStore(AbstractInsnNode node) {
+    if(node instanceof IincInsnNode) {
+      methodNode.instructions.remove(node);
+    } else {
+      methodNode.instructions.set(node, new InsnNode(size(node) == 2 ? Opcodes.POP2 : Opcodes.POP));
+    }
+  }
+
+  private int countSlots() {
+    int slots = firstLocal;
+    for (AbstractInsnNode node : instructions) {
+      int var = var(node);
+      if(var >= 0) {
+        slots = Math.max(slots, var + size(node));
+      }
+    }
+    return slots;
+  }
+
+  private int variable(AbstractInsnNode node) {
+    int var = var(node);
+    if(var < firstLocal) {
+      return -1;
+    }
+    return variableAt[var];
+  }
+
+  private static int var(AbstractInsnNode node) {
+    if(node instanceof VarInsnNode) {
+      return ((VarInsnNode) node).var;
+    } else if(node instanceof IincInsnNode) {
+      return ((IincInsnNode) node).var;
+    } else {
+      return -1;
+    }
+  }
+
+  private static int size(AbstractInsnNode node) {
+    switch (node.getOpcode()) {
+      case Opcodes.LLOAD:
+      case Opcodes.DLOAD:
+      case Opcodes.LSTORE:
+      case Opcodes.DSTORE:
+        return 2;
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * @return true if {@code node} writes a variable without reading it.
+   */
+  private static boolean isStore(AbstractInsnNode node) {
+    return node.getOpcode() >= Opcodes.ISTORE && node.getOpcode() <= Opcodes.ASTORE;
+  }
+
+  /**
+   * The method's basic blocks, and the liveness of variables at their entries.
+   */
+  private class ControlFlow {
+    private final List<TryCatchBlockNode> tryCatchBlocks = new ArrayList<>();
+    private int blockCount;
+    private int[] blockStart;
+    private int[] blockOf;
+    private List<List<Integer>> successors = new ArrayList<>();
+    private List<List<Integer>> handlers = new ArrayList<>();
+
+    ControlFlow() {
+      for (Object tryCatch : methodNode.tryCatchBlocks) {
+        tryCatchBlocks.add((TryCatchBlockNode) tryCatch);
+      }
+      boolean[] leader = new boolean[instructions.length + 1];
+      leader[0] = true;
+      for (int i = 0; i < instructions.length; i++) {
+        AbstractInsnNode node = instructions[i];
+        if(node instanceof JumpInsnNode) {
+          leader[indexOf(((JumpInsnNode) node).label)] = true;
+          leader[i + 1] = true;
+        } else if(node instanceof TableSwitchInsnNode || node instanceof LookupSwitchInsnNode) {
+          for (LabelNode label : switchTargets(node)) {
+            leader[indexOf(label)] = true;
+          }
+          leader[i + 1] = true;
+        } else if(isExit(node)) {
+          leader[i + 1] = true;
+        }
+      }
+      for (TryCatchBlockNode tryCatch : tryCatchBlocks) {
+        leader[indexOf(tryCatch.start)] = true;
+        leader[indexOf(tryCatch.end)] = true;
+        leader[indexOf(tryCatch.handler)] = true;
+      }
+
+      blockOf = new int[instructions.length + 1];
+      blockStart = new int[instructions.length + 1];
+      for (int i = 0; i < instructions.length; i++) {
+        if(leader[i]) {
+          blockStart[blockCount++] = i;
+        }
+        blockOf[i] = blockCount - 1;
+      }
+      blockOf[instructions.length] = blockCount;
+      blockStart[blockCount] = instructions.length;
+
+      for (int block = 0; block < blockCount; block++) {
+        List<Integer> next = new ArrayList<>();
+        AbstractInsnNode last = instructions[blockEnd(block) - 1];
+        if(last instanceof JumpInsnNode) {
+          next.add(blockOf[indexOf(((JumpInsnNode) last).label)]);
+          if(last.getOpcode() != Opcodes.GOTO) {
+            addFallThrough(next, block);
+          }
+        } else if(last instanceof TableSwitchInsnNode || last instanceof LookupSwitchInsnNode) {
+          for (LabelNode label : switchTargets(last)) {
+            next.add(blockOf[indexOf(label)]);
+          }
+        } else if(!isExit(last)) {
+          addFallThrough(next, block);
+        }
+        successors.add(next);
+
+        List<Integer> catchers = new ArrayList<>();
+        for (TryCatchBlockNode tryCatch : tryCatchBlocks) {
+          int first = blockStart[block];
+          if(first >= indexOf(tryCatch.start) && first < indexOf(tryCatch.end)) {
+            catchers.add(blockOf[indexOf(tryCatch.handler)]);
+          }
+        }
+        handlers.add(catchers);
+      }
+    }
+
+    private void addFallThrough(List<Integer> next, int block) {
+      if(block + 1 < blockCount) {
+        next.add(block + 1);
+      }
+    }
+
+    int blockEnd(int block) {
+      return blockStart[block + 1];
+    }
+
+    /**
+     * Solves the backwards dataflow equations for the variables live on entry to each block.
+     */
+    BitSet[] solve() {
+      BitSet[] use = new BitSet[blockCount];
+      BitSet[] def = new BitSet[blockCount];
+      BitSet[] liveIn = new BitSet[blockCount];
+      for (int block = 0; block < blockCount; block++) {
+        use[block] = new BitSet();
+        def[block] = new BitSet();
+        liveIn[block] = new BitSet();
+        for (int i = blockStart[block]; i < blockEnd(block); i++) {
+          int variable = variable(instructions[i]);
+          if(variable >= 0) {
+            if(isStore(instructions[i])) {
+              def[block].set(variable);
+            } else if(!def[block].get(variable)) {
+              use[block].set(variable);
+            }
+          }
+        }
+      }
+
+      Deque<Integer> worklist = new ArrayDeque<>();
+      boolean[] queued = new boolean[blockCount];
+      for (int block = blockCount - 1; block >= 0; block--) {
+        worklist.add(block);
+        queued[block] = true;
+      }
+      List<List<Integer>> predecessors = predecessors();
+
+      while(!worklist.isEmpty()) {
+        int block = worklist.poll();
+        queued[block] = false;
+
+        BitSet in = liveOut(block, liveIn);
+        in.andNot(def[block]);
+        in.or(use[block]);
+        in.or(handlerLiveIn(block, liveIn));
+
+        if(!in.equals(liveIn[block])) {
+          liveIn[block] = in;
+          for (int predecessor : predecessors.get(block)) {
+            if(!queued[predecessor]) {
+              worklist.add(predecessor);
+              queued[predecessor] = true;
+            }
+          }
+        }
+      }
+      return liveIn;
+    }
+
+    private List<List<Integer>> predecessors() {
+      List<List<Integer>> predecessors = new ArrayList<>();
+      for (int block = 0; block < blockCount; block++) {
+        predecessors.add(new ArrayList<>());
+      }
+      for (int block = 0; block < blockCount; block++) {
+        for (int successor : successors.get(block)) {
+          predecessors.get(successor).add(block);
+        }
+        for (int handler : handlers.get(block)) {
+          predecessors.get(handler).add(block);
+        }
+      }
+      return predecessors;
+    }
+
+    BitSet liveOut(int block, BitSet[] liveIn) {
+      BitSet out = new BitSet();
+      for (int successor : successors.get(block)) {
+        out.or(liveIn[successor]);
+      }
+      return out;
+    }
+
+    /**
+     * @return the variables live on entry to the handlers covering {@code block}. As an exception may be thrown
+     * by any instruction in the block, these are live throughout the block.
+     */
+    BitSet handlerLiveIn(int block, BitSet[] liveIn) {
+      BitSet live = new BitSet();
+      for (int handler : handlers.get(block)) {
+        live.or(liveIn[handler]);
+      }
+      return live;
+    }
+
+    private int indexOf(LabelNode label) {
+      return methodNode.instructions.indexOf(label);
+    }
+  }
+
+  private static List<LabelNode> switchTargets(AbstractInsnNode node) {
+    List<LabelNode> targets = new ArrayList<>();
+    if(node instanceof TableSwitchInsnNode) {
+      targets.add(((TableSwitchInsnNode) node).dflt);
+      for (Object label : ((TableSwitchInsnNode) node).labels) {
+        targets.add((LabelNode) label);
+      }
+    } else {
+      targets.add(((LookupSwitchInsnNode) node).dflt);
+      for (Object label : ((LookupSwitchInsnNode) node).labels) {
+        targets.add((LabelNode) label);
+      }
+    }
+    return targets;
+  }
+
+  private static boolean isExit(AbstractInsnNode node) {
+    int opcode = node.getOpcode();
+    return (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW;
+  }
+}
@@ -43,6 +43,7 @@ public class LocalVarAllocator extends VarAllocator {
     private int index;
     private Type type;
     private Optional<JExpr> initialValue;
+    private boolean initializationDeferred;
 
     public LocalVar(String name, int index, Type type, Optional<JExpr> value) {
       this.name = name;
@@ -79,6 +80,15 @@ public class LocalVarAllocator extends VarAllocator {
       mv.visitVarInsn(type.getOpcode(Opcodes.ISTORE), index);
     }
 
+    /**
+     * Stores this variable's initial value, if it has one.
+     */
+    public void initialize(MethodGenerator mv) {
+      if(initialValue.isPresent()) {
+        store(mv, initialValue.get());
+      }
+    }
+
     @Override
     public String toString() {
       return "LocalVar[" + name + ":" + type + "]";
@@ -110,11 +120,35 @@ public class LocalVarAllocator extends VarAllocator {
     return var;
   }
   
+  /**
+   * @return the number of variables reserved so far.
+   */
+  public int getReservedCount() {
+    return names.size();
+  }
+
+  /**
+   * Excludes the variables reserved since {@code fromCount} from {@link #initializeVariables(MethodGenerator)}:
+   * the caller becomes responsible for initializing them before they are used.
+   *
+   * @return those variables which have an initial value
+   */
+  public List<LocalVar> deferInitialization(int fromCount) {
+    List<LocalVar> deferred = Lists.newArrayList();
+    for (LocalVar var : names.subList(fromCount, names.size())) {
+      if(var.initialValue.isPresent()) {
+        var.initializationDeferred = true;
+        deferred.add(var);
+      }
+    }
+    return deferred;
+  }
+
   public void initializeVariables(MethodGenerator mv) {
     List<LocalVar> toInitialize = Lists.newArrayList(names);
     for (LocalVar name : toInitialize) {
-      if(name.initialValue.isPresent()) {
-        name.store(mv, name.initialValue.get());
+      if(!name.initializationDeferred) {
+        name.initialize(mv);
       }
     }
   }
@@ -21,13 +21,23 @@ package org.renjin.gcc.codegen.vptr;
 import org.renjin.gcc.codegen.MethodGenerator;
 import org.renjin.gcc.codegen.expr.*;
 import org.renjin.gcc.runtime.Ptr;
+import org.renjin.repackaged.asm.Label;
 import org.renjin.repackaged.asm.Opcodes;
 import org.renjin.repackaged.asm.Type;
 
 import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
 
 class DerefExpr implements JLValue {
 
+  /**
+   * Pointer types whose aligned implementations are backed by an array of the same JVM type.
+   */
+  private static final Set<PointerType> DEVIRTUALIZED_TYPES = EnumSet.of(
+      PointerType.BYTE, PointerType.SHORT, PointerType.CHAR,
+      PointerType.INT, PointerType.LONG, PointerType.FLOAT, PointerType.DOUBLE);
+
   private final JExpr pointer;
   private final JExpr offsetBytes;
   private final PointerType pointerType;
@@ -49,18 +59,37 @@ class DerefExpr implements JLValue {
     pointer.load(mv);
 
     if(isConstantEqualTo(offsetBytes, 0)) {
-      mv.invokeinterface(Type.getInternalName(Ptr.class), "get" + pointerType.titleCasedName(),
-          Type.getMethodDescriptor(pointerType.getJvmType()));
+      if(isDevirtualized(mv)) {
+        Label slowPath = new Label();
+        Label exit = new Label();
+        emitGuard(mv, slowPath);
+        mv.aload(pointerType.getJvmType());
+        mv.goTo(exit);
+        mv.visitLabel(slowPath);
+        invokeGet(mv, false);
+        mv.visitLabel(exit);
+      } else {
+        invokeGet(mv, false);
+      }
     } else {
       JExpr index = isAligned();
-      if(index != null) {
-        index.load(mv);
-        mv.invokeinterface(Type.getInternalName(Ptr.class), "getAligned" + pointerType.titleCasedName(),
-            Type.getMethodDescriptor(pointerType.getJvmType(), Type.INT_TYPE));
+      boolean aligned = index != null;
+      if(!aligned) {
+        index = offsetBytes;
+      }
+      index.load(mv);
+
+      if(isDevirtualized(mv)) {
+        Label slowPath = new Label();
+        Label exit = new Label();
+        emitIndexedGuard(mv, slowPath, aligned);
+        mv.aload(pointerType.getJvmType());
+        mv.goTo(exit);
+        mv.visitLabel(slowPath);
+        invokeGet(mv, aligned);
+        mv.visitLabel(exit);
       } else {
-        offsetBytes.load(mv);
-        mv.invokeinterface(Type.getInternalName(Ptr.class), "get" + pointerType.titleCasedName(),
-            Type.getMethodDescriptor(pointerType.getJvmType(), Type.INT_TYPE));
+        invokeGet(mv, aligned);
       }
     }
   }
@@ -70,27 +99,147 @@ class DerefExpr implements JLValue {
     pointer.load(mv);
     if(isConstantEqualTo(offsetBytes, 0)) {
       // store at offset zero
-      expr.load(mv);
-      mv.invokeinterface(Type.getInternalName(Ptr.class), "set" + pointerType.titleCasedName(),
-          Type.getMethodDescriptor(Type.VOID_TYPE, pointerType.getJvmType()));
+      if(isDevirtualized(mv)) {
+        Label slowPath = new Label();
+        Label exit = new Label();
+        emitGuard(mv, slowPath);
+        expr.load(mv);
+        mv.astore(pointerType.getJvmType());
+        mv.goTo(exit);
+        mv.visitLabel(slowPath);
+        expr.load(mv);
+        invokeSet(mv, false);
+        mv.visitLabel(exit);
+      } else {
+        expr.load(mv);
+        invokeSet(mv, false);
+      }
 
     } else {
       JExpr index = isAligned();
-      if (index != null) {
-        index.load(mv);
-        expr.load(mv);
-        mv.invokeinterface(Type.getInternalName(Ptr.class), "setAligned" + pointerType.titleCasedName(),
-            Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, pointerType.getJvmType()));
+      boolean aligned = index != null;
+      if(!aligned) {
+        index = offsetBytes;
+      }
+      index.load(mv);
 
+      if(isDevirtualized(mv)) {
+        Label slowPath = new Label();
+        Label exit = new Label();
+        emitIndexedGuard(mv, slowPath, aligned);
+        expr.load(mv);
+        mv.astore(pointerType.getJvmType());
+        mv.goTo(exit);
+        mv.visitLabel(slowPath);
+        expr.load(mv);
+        invokeSet(mv, aligned);
+        mv.visitLabel(exit);
       } else {
-        offsetBytes.load(mv);
         expr.load(mv);
-        mv.invokeinterface(Type.getInternalName(Ptr.class), "set" + pointerType.titleCasedName(),
-            Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, pointerType.getJvmType()));
+        invokeSet(mv, aligned);
       }
     }
   }
 
+  private void invokeGet(MethodGenerator mv, boolean aligned) {
+    if(isConstantEqualTo(offsetBytes, 0)) {
+      mv.invokeinterface(Type.getInternalName(Ptr.class), "get" + pointerType.titleCasedName(),
+          Type.getMethodDescriptor(pointerType.getJvmType()));
+    } else {
+      mv.invokeinterface(Type.getInternalName(Ptr.class),
+          (aligned ? "getAligned" : "get") + pointerType.titleCasedName(),
+          Type.getMethodDescriptor(pointerType.getJvmType(), Type.INT_TYPE));
+    }
+  }
+
+  private void invokeSet(MethodGenerator mv, boolean aligned) {
+    if(isConstantEqualTo(offsetBytes, 0)) {
+      mv.invokeinterface(Type.getInternalName(Ptr.class), "set" + pointerType.titleCasedName(),
+          Type.getMethodDescriptor(Type.VOID_TYPE, pointerType.getJvmType()));
+    } else {
+      mv.invokeinterface(Type.getInternalName(Ptr.class),
+          (aligned ? "setAligned" : "set") + pointerType.titleCasedName(),
+          Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, pointerType.getJvmType()));
+    }
+  }
+
+  /**
+   * Returns true if accesses through this pointer should first check whether the pointer is an instance
+   * of the array-backed implementation for its type, for example {@code DoublePtr} for {@code double*},
+   * and if so, access the array directly rather than through a (possibly megamorphic) interface call.
+   */
+  private boolean isDevirtualized(MethodGenerator mv) {
+    return mv.isPtrDevirtualizationEnabled() && DEVIRTUALIZED_TYPES.contains(pointerType);
+  }
+
+  /**
+   * Given the pointer on the stack, jumps to {@code slowPath} with the pointer still on the stack if the
+   * pointer is not an instance of the aligned implementation, or otherwise leaves the pointer's
+   * array and offset on the stack.
+   */
+  private void emitGuard(MethodGenerator mv, Label slowPath) {
+    Type implType = pointerType.alignedImpl();
+
+    // [ptr]
+    mv.dup();
+    mv.instanceOf(implType);
+    mv.ifeq(slowPath);
+
+    // [ptr] -> [array, offset]
+    mv.checkcast(implType);
+    mv.dup();
+    mv.getfield(implType, "array", arrayType());
+    mv.swap();
+    mv.getfield(implType, "offset", Type.INT_TYPE);
+  }
+
+  /**
+   * Given the pointer and an index on the stack, jumps to {@code slowPath} with both still on
+   * the stack if the pointer is not an instance of the aligned implementation, or otherwise leaves the
+   * pointer's array and the index into that array on the stack.
+   *
+   * @param aligned true if the index is an element index, or false if it is an offset in bytes,
+   *                in which case unaligned offsets also take the slow path.
+   */
+  private void emitIndexedGuard(MethodGenerator mv, Label slowPath, boolean aligned) {
+    Type implType = pointerType.alignedImpl();
+
+    // [ptr, index]
+    mv.swap();
+    mv.dupX1();
+    mv.instanceOf(implType);
+    mv.ifeq(slowPath);
+
+    if(!aligned && pointerType.getSize() > 1) {
+      mv.dup();
+      mv.iconst(pointerType.getSize() - 1);
+      mv.and(Type.INT_TYPE);
+      mv.ifne(slowPath);
+
+      // Convert the byte offset to an element index
+      mv.iconst(Integer.numberOfTrailingZeros(pointerType.getSize()));
+      mv.shr(Type.INT_TYPE);
+    }
+
+    // [ptr, index] -> [index, array, offset]
+    mv.swap();
+    mv.checkcast(implType);
+    mv.dup();
+    mv.getfield(implType, "array", arrayType());
+    mv.swap();
+    mv.getfield(implType, "offset", Type.INT_TYPE);
+
+    // [index, array, offset] -> [array, offset + index]
+    mv.swap();
+    mv.dupX2();
+    mv.pop();
+    mv.add(Type.INT_TYPE);
+  }
+
+  private Type arrayType() {
+    return Type.getType("[" + pointerType.getJvmType().getDescriptor());
+  }
+
   private JExpr isAligned() {
     // Byte and boolean accessors/setters do not have aligned versions.
     if(pointerType.getSize() < 2) {
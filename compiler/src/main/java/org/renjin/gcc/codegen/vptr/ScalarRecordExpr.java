@@ -0,0 +1,323 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.codegen.vptr;
+
+import org.renjin.gcc.InternalCompilerException;
+import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.array.FatArrayExpr;
+import org.renjin.gcc.codegen.expr.*;
+import org.renjin.gcc.codegen.fatptr.FatPtr;
+import org.renjin.gcc.codegen.fatptr.ValueFunction;
+import org.renjin.gcc.codegen.type.NumericExpr;
+import org.renjin.gcc.codegen.type.UnsupportedCastException;
+import org.renjin.gcc.codegen.type.fun.FunPtrExpr;
+import org.renjin.gcc.codegen.type.primitive.PrimitiveExpr;
+import org.renjin.gcc.codegen.type.primitive.PrimitiveType;
+import org.renjin.gcc.codegen.type.record.ProvidedPtrExpr;
+import org.renjin.gcc.codegen.type.record.RecordExpr;
+import org.renjin.gcc.codegen.type.voidt.VoidPtrExpr;
+import org.renjin.gcc.codegen.var.VarAllocator;
+import org.renjin.gcc.gimple.type.*;
+import org.renjin.gcc.runtime.BytePtr;
+import org.renjin.gcc.runtime.MixedPtr;
+import org.renjin.gcc.runtime.Ptr;
+import org.renjin.repackaged.asm.Type;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A record whose fields are each stored in their own JVM local variable.
+ *
+ * <p>Used for local variables whose address is never taken, so that declaring a small struct does
+ * not cost a {@link MixedPtr} allocation on every call. Whenever the record must be passed
+ * somewhere as a pointer, a copy is materialized in a new {@code MixedPtr}.</p>
+ *
+ * @see org.renjin.gcc.analysis.ScalarReplacementFinder
+ */
+public class ScalarRecordExpr implements RecordExpr {
+
+  private static class Member {
+    private final int offset;
+    private final GimpleType type;
+    private final JLValue local;
+    private final GExpr value;
+
+    Member(int offset, GimpleType type, JLValue local, GExpr value) {
+      this.offset = offset;
+      this.type = type;
+      this.local = local;
+      this.value = value;
+    }
+
+    JExpr defaultValue() {
+      return ScalarRecordExpr.defaultValue(type, local.getType());
+    }
+  }
+
+  private final GimpleRecordType recordType;
+  private final List<Member> members;
+
+  private ScalarRecordExpr(GimpleRecordType recordType, List<Member> members) {
+    this.recordType = recordType;
+    this.members = members;
+  }
+
+  /**
+   * Reserves a local variable for each field of the record, initialized to zero.
+   */
+  public static ScalarRecordExpr variable(GimpleRecordTypeDef recordTypeDef, String name, VarAllocator allocator) {
+    return allocate(recordTypeDef, name, allocator, true);
+  }
+
+  /**
+   * Reserves an uninitialized temporary variable for each field of the record.
+   */
+  public static ScalarRecordExpr temporary(GimpleRecordTypeDef recordTypeDef, VarAllocator allocator) {
+    return allocate(recordTypeDef, null, allocator, false);
+  }
+
+  private static ScalarRecordExpr allocate(GimpleRecordTypeDef recordTypeDef, String name,
+                                           VarAllocator allocator, boolean initialize) {
+    List<Member> members = new ArrayList<>();
+    for (GimpleField field : recordTypeDef.getFields()) {
+      String fieldName = name == null ? null : name + "$" + fieldName(field);
+      GimpleType fieldType = field.getType();
+
+      Type localType;
+      if(fieldType instanceof GimpleIndirectType) {
+        localType = Type.getType(Ptr.class);
+      } else {
+        localType = PrimitiveType.of((GimplePrimitiveType) fieldType).localVariableType();
+      }
+
+      JLValue local;
+      if(initialize) {
+        local = allocator.reserve(fieldName, localType, defaultValue(fieldType, localType));
+      } else {
+        local = allocator.reserve(fieldName, localType);
+      }
+
+      GExpr value;
+      if(fieldType instanceof GimpleIndirectType) {
+        value = new VPtrExpr(local);
+      } else {
+        value = PrimitiveType.of((GimplePrimitiveType) fieldType).fromStackValue(local);
+      }
+      members.add(new Member(field.getOffset(), fieldType, local, value));
+    }
+    return new ScalarRecordExpr(new GimpleRecordType(recordTypeDef), members);
+  }
+
+  private static JExpr defaultValue(GimpleType fieldType, Type localType) {
+    if(fieldType instanceof GimpleIndirectType) {
+      return Expressions.staticField(Type.getType(BytePtr.class), "NULL", Type.getType(BytePtr.class));
+    } else {
+      return Expressions.zero(localType);
+    }
+  }
+
+  private static String fieldName(GimpleField field) {
+    if(field.hasName()) {
+      return field.getName();
+    } else {
+      return "field" + field.getOffset();
+    }
+  }
+
+  private Member findMember(int fieldOffsetBits) {
+    for (Member member : members) {
+      if(member.offset == fieldOffsetBits) {
+        return member;
+      }
+    }
+    throw new InternalCompilerException("No field at offset " + fieldOffsetBits + " in " + recordType);
+  }
+
+  /**
+   * Stores the given value, or zero if {@code null}, in the field at the given offset.
+   */
+  public void initializeField(MethodGenerator mv, int fieldOffsetBits, GExpr value) {
+    Member member = findMember(fieldOffsetBits);
+    if(value == null) {
+      member.local.store(mv, member.defaultValue());
+    } else {
+      member.value.store(mv, value);
+    }
+  }
+
+  @Override
+  public GExpr memberOf(MethodGenerator mv, int fieldOffsetBits, int size, GimpleType type) {
+    return findMember(fieldOffsetBits).value;
+  }
+
+  @Override
+  public void store(MethodGenerator mv, GExpr rhs) {
+    if(rhs == this) {
+      return;
+    }
+    if(rhs instanceof ScalarRecordExpr) {
+      ScalarRecordExpr source = (ScalarRecordExpr) rhs;
+      for (Member member : members) {
+        member.value.store(mv, source.findMember(member.offset).value);
+      }
+      return;
+    }
+
+    // Because of some C++ black magic related to copy constructors, we can end up
+    // with an assignment of a pointer to a value. Deal gracefully.
+    VPtrExpr sourcePtr;
+    if(rhs instanceof PtrExpr) {
+      sourcePtr = rhs.toVPtrExpr();
+    } else {
+      sourcePtr = rhs.toVPtrRecord(recordType).toVPtrExpr();
+    }
+
+    // Evaluate the source pointer only once
+    JExpr sourceRef = mv.getLocalVarAllocator().tempIfNeeded(mv, sourcePtr.getRef());
+    VPtrRecordExpr source = new VPtrRecordExpr(recordType, new VPtrExpr(sourceRef));
+
+    for (Member member : members) {
+      member.value.store(mv, source.memberOf(mv, member.offset, member.type.getSize(), member.type));
+    }
+  }
+
+  /**
+   * Copies the fields of this record into memory.
+   */
+  void storeTo(MethodGenerator mv, VPtrRecordExpr target, boolean clearPadding) {
+
+    JExpr targetRef = mv.getLocalVarAllocator().tempIfNeeded(mv, target.getRef());
+
+    if(clearPadding && hasPadding()) {
+      targetRef.load(mv);
+      mv.iconst(0);
+      mv.iconst(recordType.sizeOf());
+      mv.invokeinterface(Ptr.class, "memset", Type.VOID_TYPE, Type.INT_TYPE, Type.INT_TYPE);
+    }
+
+    VPtrRecordExpr targetRecord = new VPtrRecordExpr(recordType, new VPtrExpr(targetRef));
+    for (Member member : members) {
+      targetRecord.memberOf(mv, member.offset, member.type.getSize(), member.type).store(mv, member.value);
+    }
+  }
+
+  private boolean hasPadding() {
+    int fieldBytes = 0;
+    for (Member member : members) {
+      fieldBytes += member.type.sizeOf();
+    }
+    return fieldBytes < recordType.sizeOf();
+  }
+
+  /**
+   * @return an expression which copies this record into a newly allocated {@link MixedPtr}.
+   */
+  private JExpr materialize() {
+    return new JExpr() {
+      @Nonnull
+      @Override
+      public Type getType() {
+        return Type.getType(Ptr.class);
+      }
+
+      @Override
+      public void load(@Nonnull MethodGenerator mv) {
+        JLValue copy = mv.getLocalVarAllocator().reserve(Type.getType(Ptr.class));
+        copy.store(mv, VPtrStrategy.malloc(Type.getType(MixedPtr.class),
+            Expressions.constantInt(recordType.sizeOf())).getRef());
+
+        // Freshly allocated memory is already zeroed
+        storeTo(mv, new VPtrRecordExpr(recordType, new VPtrExpr(copy)), false);
+
+        copy.load(mv);
+      }
+    };
+  }
+
+  @Override
+  public PtrExpr addressOf() {
+    throw new InternalCompilerException("Cannot take the address of a scalar-replaced record");
+  }
+
+  @Override
+  public FunPtrExpr toFunPtr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public FatArrayExpr toArrayExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public PrimitiveExpr toPrimitiveExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public VoidPtrExpr toVoidPtrExpr() throws UnsupportedCastException {
+    throw new UnsupportedCastException();
+  }
+
+  @Override
+  public VPtrExpr toVPtrExpr() throws UnsupportedCastException {
+    return new VPtrExpr(materialize());
+  }
+
+  /**
+   * Not reachable: only pointer values are converted to provided-type pointers, and a scalar-replaced
+   * record is a value of record type whose address is never taken.
+   */
+  @Override
+  public ProvidedPtrExpr toProvidedPtrExpr(Type jvmType) {
+    throw new InternalCompilerException("Scalar-replaced record of type " + recordType +
+        " cannot be used as a pointer to " + jvmType + ": its address is never taken");
+  }
+
+  /**
+   * Not reachable: only pointer values are converted to fat pointers, and a scalar-replaced
+   * record is a value of record type whose address is never taken.
+   */
+  @Override
+  public FatPtr toFatPtrExpr(ValueFunction valueFunction) {
+    throw new InternalCompilerException("Scalar-replaced record of type " + recordType +
+        " cannot be used as a fat pointer: its address is never taken");
+  }
+
+  @Override
+  public VPtrRecordExpr toVPtrRecord(GimpleRecordType recordType) {
+    return new VPtrRecordExpr(recordType, new VPtrExpr(materialize()));
+  }
+
+  @Override
+  public VArrayExpr toVArray(GimpleArrayType arrayType) {
+    return new VArrayExpr(arrayType, new VPtrExpr(materialize()));
+  }
+
+  /**
+   * Not reachable: GIMPLE only applies arithmetic to operands of numeric type, never to records.
+   */
+  @Override
+  public NumericExpr toNumericExpr() {
+    throw new InternalCompilerException("Scalar-replaced record of type " + recordType +
+        " cannot be used as a number");
+  }
+}
@@ -29,8 +29,17 @@ import org.renjin.repackaged.asm.Type;
 
 public class VPtrFieldStrategy extends SingleFieldStrategy {
 
-  public VPtrFieldStrategy(Type ownerClass, String fieldName) {
+  private final JExpr nullPointer;
+
+  public VPtrFieldStrategy(Type ownerClass, String fieldName, JExpr nullPointer) {
     super(ownerClass, fieldName, Type.getType(Ptr.class));
+    this.nullPointer = nullPointer;
+  }
+
+  @Override
+  public void emitInstanceInit(MethodGenerator mv) {
+    // Null pointers are represented by a NULL Ptr instance, not a null reference
+    Expressions.field(Expressions.thisValue(ownerClass), fieldType, fieldName).store(mv, nullPointer);
   }
 
   @Override
@@ -40,10 +49,7 @@ public class VPtrFieldStrategy extends SingleFieldStrategy {
 
   @Override
   public void memset(MethodGenerator mv, JExpr instance, JExpr byteValue, JExpr byteCount) {
-    instance.load(mv);
-    mv.getfield(ownerClass, fieldName, Type.getType(Ptr.class));
-    byteValue.load(mv);
-    byteCount.load(mv);
-    mv.invokeinterface(Ptr.class, "memset", Type.VOID_TYPE, Type.BYTE_TYPE, Type.INT_TYPE);
+    // Clearing the memory of the record sets this pointer to NULL, it does not touch the memory pointed to
+    Expressions.field(instance, fieldType, fieldName).store(mv, nullPointer);
   }
 }
@@ -55,6 +55,10 @@ public class VPtrRecordExpr implements RecordExpr {
   @Override
   public void store(MethodGenerator mv, GExpr rhs) {
 
+    if(rhs instanceof ScalarRecordExpr) {
+      ((ScalarRecordExpr) rhs).storeTo(mv, this, true);
+      return;
+    }
 
     pointer.getRef().load(mv);                              // destination
 
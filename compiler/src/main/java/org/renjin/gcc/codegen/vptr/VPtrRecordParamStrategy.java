@@ -60,10 +60,15 @@ public class VPtrRecordParamStrategy implements ParamStrategy {
   @Override
   public void loadParameter(MethodGenerator mv, Optional<GExpr> argument) {
     if(argument.isPresent()) {
-      VPtrRecordExpr record = (VPtrRecordExpr) argument.get();
-      record.getRef().load(mv);
-      mv.iconst(recordType.sizeOf());
-      mv.invokeinterface(Ptr.class, "copyOf", Type.getType(Ptr.class), Type.INT_TYPE);
+      if(argument.get() instanceof ScalarRecordExpr) {
+        // Already materialized as a fresh copy
+        argument.get().toVPtrRecord(recordType).getRef().load(mv);
+      } else {
+        VPtrRecordExpr record = argument.get().toVPtrRecord(recordType);
+        record.getRef().load(mv);
+        mv.iconst(recordType.sizeOf());
+        mv.invokeinterface(Ptr.class, "copyOf", Type.getType(Ptr.class), Type.INT_TYPE);
+      }
     } else {
       throw new UnsupportedOperationException("TODO");
     }
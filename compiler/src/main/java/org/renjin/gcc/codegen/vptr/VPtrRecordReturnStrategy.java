@@ -45,11 +45,11 @@ public class VPtrRecordReturnStrategy implements ReturnStrategy {
 
   @Override
   public JExpr marshall(GExpr expr) {
-    return ((VPtrRecordExpr) expr).getRef();
+    return expr.toVPtrRecord(recordType).getRef();
   }
 
   @Override
-  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy lhsTypeStrategy) {
+  public GExpr unmarshall(MethodGenerator mv, JExpr callExpr, TypeStrategy<?> lhsTypeStrategy) {
     return new VPtrRecordExpr(recordType, new VPtrExpr(callExpr));
   }
 
@@ -18,31 +18,49 @@
  */
 package org.renjin.gcc.codegen.vptr;
 
+import org.renjin.gcc.analysis.ScalarReplacementFinder;
 import org.renjin.gcc.codegen.MethodGenerator;
 import org.renjin.gcc.codegen.ResourceWriter;
 import org.renjin.gcc.codegen.expr.*;
 import org.renjin.gcc.codegen.fatptr.ValueFunction;
 import org.renjin.gcc.codegen.type.*;
+import org.renjin.gcc.codegen.type.record.RecordExpr;
 import org.renjin.gcc.codegen.type.record.RecordTypeStrategy;
 import org.renjin.gcc.codegen.var.VarAllocator;
 import org.renjin.gcc.gimple.GimpleVarDecl;
 import org.renjin.gcc.gimple.expr.GimpleConstructor;
 import org.renjin.gcc.gimple.expr.GimpleFieldRef;
 import org.renjin.gcc.gimple.type.GimpleArrayType;
+import org.renjin.gcc.gimple.type.GimpleField;
 import org.renjin.gcc.gimple.type.GimpleRecordType;
 import org.renjin.gcc.gimple.type.GimpleRecordTypeDef;
 import org.renjin.gcc.runtime.MixedPtr;
 import org.renjin.gcc.runtime.Ptr;
 import org.renjin.repackaged.asm.Type;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Represents a record backed by a byte array.
+ *
+ * <p>Local variables whose address is never taken are instead split into one JVM local
+ * per field, see {@link ScalarRecordExpr}.</p>
  */
-public class VPtrRecordTypeStrategy extends RecordTypeStrategy<VPtrRecordExpr> {
+public class VPtrRecordTypeStrategy extends RecordTypeStrategy<RecordExpr> {
 
+  private final boolean scalarReplacementEnabled;
 
   public VPtrRecordTypeStrategy(GimpleRecordTypeDef recordTypeDef) {
+    this(recordTypeDef, false);
+  }
+
+  /**
+   * @param scalarReplacementEnabled true if constructed records may be built in one temporary local per field.
+   */
+  public VPtrRecordTypeStrategy(GimpleRecordTypeDef recordTypeDef, boolean scalarReplacementEnabled) {
     super(recordTypeDef);
+    this.scalarReplacementEnabled = scalarReplacementEnabled;
   }
 
   @Override
@@ -61,7 +79,11 @@ public class VPtrRecordTypeStrategy extends RecordTypeStrategy<VPtrRecordExpr> {
   }
 
   @Override
-  public VPtrRecordExpr variable(GimpleVarDecl decl, VarAllocator allocator) {
+  public RecordExpr variable(GimpleVarDecl decl, VarAllocator allocator) {
+
+    if(decl.isScalarReplaceable()) {
+      return ScalarRecordExpr.variable(recordTypeDef, decl.getNameIfPresent(), allocator);
+    }
 
     // Allocate an array of bytes to store here
     JExpr malloc = Expressions.staticMethodCall(MixedPtr.class, "malloc",
@@ -80,7 +102,12 @@ public class VPtrRecordTypeStrategy extends RecordTypeStrategy<VPtrRecordExpr> {
   }
 
   @Override
-  public VPtrRecordExpr constructorExpr(ExprFactory exprFactory, MethodGenerator mv, ResourceWriter resourceWriter, GimpleConstructor value) {
+  public RecordExpr constructorExpr(ExprFactory exprFactory, MethodGenerator mv, ResourceWriter resourceWriter, GimpleConstructor value) {
+
+    if(scalarReplacementEnabled && ScalarReplacementFinder.isSplittable(recordTypeDef)) {
+      return scalarConstructorExpr(exprFactory, mv, value);
+    }
+
     // Create a temporary variable for this constructed record array.
     Type pointerType = Type.getType(MixedPtr.class);
     VPtrExpr malloc = VPtrStrategy.malloc(pointerType, Expressions.constantInt(this.getRecordType().sizeOf()));
@@ -99,6 +126,24 @@ public class VPtrRecordTypeStrategy extends RecordTypeStrategy<VPtrRecordExpr> {
     return new VPtrRecordExpr(recordType, tempVar);
   }
 
+  /**
+   * Builds the constructed record in temporary locals, rather than allocating memory
+   * that will only be copied into the destination.
+   */
+  private ScalarRecordExpr scalarConstructorExpr(ExprFactory exprFactory, MethodGenerator mv, GimpleConstructor value) {
+    ScalarRecordExpr temp = ScalarRecordExpr.temporary(recordTypeDef, mv.getLocalVarAllocator());
+
+    Map<Integer, GExpr> elements = new HashMap<>();
+    for (GimpleConstructor.Element fieldCtor : value.getElements()) {
+      GimpleFieldRef field = (GimpleFieldRef) fieldCtor.getField();
+      elements.put(field.getOffset(), exprFactory.findGenerator(fieldCtor.getValue(), field.getType()));
+    }
+    for (GimpleField field : recordTypeDef.getFields()) {
+      temp.initializeField(mv, field.getOffset(), elements.get(field.getOffset()));
+    }
+    return temp;
+  }
+
   @Override
   public FieldStrategy fieldGenerator(Type className, String fieldName) {
     throw new UnsupportedOperationException("TODO");
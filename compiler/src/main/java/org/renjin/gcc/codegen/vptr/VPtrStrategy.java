@@ -20,6 +20,7 @@ package org.renjin.gcc.codegen.vptr;
 
 import org.renjin.gcc.codegen.MethodGenerator;
 import org.renjin.gcc.codegen.ResourceWriter;
+import org.renjin.gcc.codegen.StackArenaFrame;
 import org.renjin.gcc.codegen.expr.*;
 import org.renjin.gcc.codegen.fatptr.FatPtrPair;
 import org.renjin.gcc.codegen.fatptr.ValueFunction;
@@ -70,6 +71,14 @@ public class VPtrStrategy implements PointerTypeStrategy {
     return new VPtrExpr(pointer);
   }
 
+  /**
+   * Allocates memory for this pointer's base type from the thread's {@link org.renjin.gcc.runtime.StackArena},
+   * which is released when the function returns.
+   */
+  public VPtrExpr alloca(StackArenaFrame frame, JExpr sizeInBytes) {
+    return new VPtrExpr(frame.alloca(choosePtrImplType(baseType), sizeInBytes));
+  }
+
   private static Type choosePtrImplType(GimpleType baseType) {
     if(baseType instanceof GimplePrimitiveType) {
       return PointerType.ofPrimitiveType(((GimplePrimitiveType) baseType)).alignedImpl();
@@ -172,7 +181,7 @@ public class VPtrStrategy implements PointerTypeStrategy {
 
   @Override
   public FieldStrategy fieldGenerator(Type className, String fieldName) {
-    return new VPtrFieldStrategy(className, fieldName);
+    return new VPtrFieldStrategy(className, fieldName, ((VPtrExpr) nullPointer()).getRef());
   }
 
   @Override
@@ -20,6 +20,7 @@ package org.renjin.gcc.codegen.vptr;
 
 import org.renjin.gcc.annotations.VarArgs;
 import org.renjin.gcc.codegen.MethodGenerator;
+import org.renjin.gcc.codegen.StackArenaFrame;
 import org.renjin.gcc.codegen.expr.ExprFactory;
 import org.renjin.gcc.codegen.expr.Expressions;
 import org.renjin.gcc.codegen.expr.GExpr;
@@ -50,6 +51,9 @@ import static org.renjin.gcc.codegen.expr.Expressions.constantInt;
  * caller to a variadic function is responsible for allocating memory on the heap into which the extra arguments can
  * be copied. A pointer to this memory is passed as a single parameter to the callee, which can then provide this
  * pointer when __builtin_va_start() is called.</p>
+ *
+ * <p>If the caller has a {@link StackArenaFrame}, the block is allocated from the thread's stack arena instead,
+ * and released as soon as the call returns.</p>
  */
 public class VPtrVariadicStrategy implements VariadicStrategy {
   @Override
@@ -66,10 +70,15 @@ public class VPtrVariadicStrategy implements VariadicStrategy {
       varArgsSize += argExpr.getType().sizeOf();
     }
 
-    // Allocate a block of memory for these arguments.
+    // Allocate a block of memory for these arguments, from the stack arena if the function has one
     VPtrExpr vptr = new VPtrExpr(mv.getLocalVarAllocator().reserve(Type.getType(Ptr.class)));
     VPtrStrategy vptrStrategy = new VPtrStrategy(new GimpleVoidType());
-    vptr.store(mv, vptrStrategy.malloc(mv, Expressions.constantInt(varArgsSize)));
+    StackArenaFrame frame = mv.getStackArenaFrame();
+    if(frame != null) {
+      vptr.store(mv, vptrStrategy.alloca(frame, Expressions.constantInt(varArgsSize)));
+    } else {
+      vptr.store(mv, vptrStrategy.malloc(mv, Expressions.constantInt(varArgsSize)));
+    }
 
     // Now copy the arguments to the block
     int offset = 0;
@@ -44,6 +44,7 @@ public class GimpleExprVisitor {
 
   public void visitBitFieldRef(GimpleBitFieldRefExpr bitFieldRef) {
     visit(bitFieldRef);
+    bitFieldRef.getValue().accept(this);
   }
 
   public void visitComplexConstant(GimpleComplexConstant constant) {
@@ -188,6 +188,15 @@ public class GimpleFunction implements GimpleDecl {
     return basicBlocks;
   }
 
+  /**
+   * Discards the basic blocks and local variable declarations of this function once its bytecode
+   * has been written, leaving only its signature.
+   */
+  public void releaseBody() {
+    basicBlocks = Lists.newArrayList();
+    variableDeclarations = Lists.newArrayList();
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
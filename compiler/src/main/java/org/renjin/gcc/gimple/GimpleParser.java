@@ -24,6 +24,7 @@ import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.renjin.gcc.gimple.type.GimpleTypeInterner;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -39,20 +40,37 @@ public class GimpleParser {
 
   private final ObjectMapper mapper;
 
+  private final GimpleTypeInterner typeInterner;
+
   public GimpleParser() {
+    this(new GimpleTypeInterner());
+  }
+
+  /**
+   * Creates a parser which shares types between all the units it parses, and with other
+   * parsers using the same {@code typeInterner}.
+   */
+  public GimpleParser(GimpleTypeInterner typeInterner) {
     super();
 
+    this.typeInterner = typeInterner;
+
     // Prevent Jackson from closing our Reader when parsing zip files
     JsonFactory jsonFactory = new MappingJsonFactory();
     jsonFactory.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
 
     SimpleModule gimpleModule = new SimpleModule("Gimple", Version.unknownVersion())
-        .addDeserializer(GimpleOp.class, new GimpleOpDeserializer());
+        .addDeserializer(GimpleOp.class, new GimpleOpDeserializer())
+        .setDeserializerModifier(new InterningDeserializerModifier(typeInterner));
 
     mapper = new ObjectMapper(jsonFactory);
     mapper.registerModule(gimpleModule);
   }
 
+  public GimpleTypeInterner getTypeInterner() {
+    return typeInterner;
+  }
+
   /**
    * Reads the compilation unit from the given {@code reader}. The {@code reader}
    * is <strong>not</strong> closed.
@@ -55,6 +55,11 @@ public class GimpleVarDecl implements GimpleDecl {
    */
   private boolean addressable;
 
+  /**
+   * True if this local record variable can be split into one JVM local per field
+   */
+  private boolean scalarReplaceable;
+
   public GimpleVarDecl() {
   }
 
@@ -143,6 +148,14 @@ public class GimpleVarDecl implements GimpleDecl {
     this.addressable = addressable;
   }
 
+  public boolean isScalarReplaceable() {
+    return scalarReplaceable;
+  }
+
+  public void setScalarReplaceable(boolean scalarReplaceable) {
+    this.scalarReplaceable = scalarReplaceable;
+  }
+
   public GimpleCompilationUnit getUnit() {
     return unit;
   }
@@ -0,0 +1,82 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.gimple;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.std.DelegatingDeserializer;
+import org.renjin.gcc.gimple.type.GimpleRecordTypeDef;
+import org.renjin.gcc.gimple.type.GimpleType;
+import org.renjin.gcc.gimple.type.GimpleTypeInterner;
+
+import java.io.IOException;
+
+/**
+ * Wraps the deserializers of {@link GimpleType}s and {@link GimpleRecordTypeDef}s so that each
+ * instance is replaced by its canonical instance as soon as it has been read.
+ */
+class InterningDeserializerModifier extends BeanDeserializerModifier {
+
+  private final GimpleTypeInterner interner;
+
+  InterningDeserializerModifier(GimpleTypeInterner interner) {
+    this.interner = interner;
+  }
+
+  @Override
+  public JsonDeserializer<?> modifyDeserializer(DeserializationConfig config, BeanDescription beanDesc,
+                                                JsonDeserializer<?> deserializer) {
+    Class<?> beanClass = beanDesc.getBeanClass();
+    if(GimpleType.class.isAssignableFrom(beanClass) || beanClass == GimpleRecordTypeDef.class) {
+      return new InterningDeserializer(deserializer);
+    }
+    return deserializer;
+  }
+
+  private class InterningDeserializer extends DelegatingDeserializer {
+
+    // DelegatingDeserializer is Serializable, but the parser never serializes its deserializers
+    private static final long serialVersionUID = 1L;
+
+    InterningDeserializer(JsonDeserializer<?> delegate) {
+      super(delegate);
+    }
+
+    @Override
+    protected JsonDeserializer<?> newDelegatingInstance(JsonDeserializer<?> newDelegatee) {
+      return new InterningDeserializer(newDelegatee);
+    }
+
+    @Override
+    public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      Object value = super.deserialize(p, ctxt);
+      if(value instanceof GimpleType) {
+        return interner.intern((GimpleType) value);
+      } else if(value instanceof GimpleRecordTypeDef) {
+        return interner.intern((GimpleRecordTypeDef) value);
+      } else {
+        return value;
+      }
+    }
+  }
+}
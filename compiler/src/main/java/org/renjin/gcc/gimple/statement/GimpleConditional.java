@@ -42,6 +42,13 @@ public class GimpleConditional extends GimpleStatement {
   GimpleConditional() {
   }
 
+  public GimpleConditional(GimpleOp operator, List<GimpleExpr> operands, int trueLabel, int falseLabel) {
+    this.operator = operator;
+    this.operands = operands;
+    this.trueLabel = trueLabel;
+    this.falseLabel = falseLabel;
+  }
+
   void setOperator(GimpleOp op) {
     this.operator = op;
   }
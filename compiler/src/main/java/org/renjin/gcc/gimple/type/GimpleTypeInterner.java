@@ -0,0 +1,186 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.gimple.type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canonicalizes structurally identical types and record definitions, so that compilation units which
+ * include the same headers share a single instance of each type.
+ *
+ * <p>The {@link org.renjin.gcc.gimple.GimpleParser} interns each type as soon as it has been deserialized.
+ * Because component types are deserialized first, the key of a derived type, such as a pointer, can refer
+ * to its already-canonical component types by identity. Keys include every property of a type, rather
+ * than relying on {@code equals()}, which for some types compares only a subset of the properties.</p>
+ *
+ * <p>Interned instances are shared between compilation units and must not be modified after parsing.
+ * Record definitions are only shared if they have the same id and identical fields; the compiler
+ * already treats definitions with the same id as one record.</p>
+ */
+public class GimpleTypeInterner {
+
+  private final ConcurrentMap<List<Object>, GimpleType> types = new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, GimpleRecordTypeDef> recordTypeDefs = new ConcurrentHashMap<>();
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+   * @return the canonical instance of the given type. Types which cannot be safely shared are returned
+   * as is.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends GimpleType> T intern(T type) {
+    List<Object> key = keyOf(type);
+    if(key == null) {
+      return type;
+    }
+    return (T) intern(types, key, type);
+  }
+
+  /**
+   * @return the canonical instance of the given record definition.
+   */
+  public GimpleRecordTypeDef intern(GimpleRecordTypeDef recordTypeDef) {
+    List<Object> key = new ArrayList<>();
+    key.add(recordTypeDef.getId());
+    key.add(recordTypeDef.getName());
+    key.add(recordTypeDef.isUnion());
+    key.add(recordTypeDef.getSize());
+    for (GimpleField field : recordTypeDef.getFields()) {
+      key.add(field.getId());
+      key.add(field.getName());
+      key.add(field.getOffset());
+      key.add(field.getSize());
+      key.add(new Identity(field.getType()));
+      key.add(field.isAddressed());
+      key.add(field.isReferenced());
+    }
+    return intern(recordTypeDefs, key, recordTypeDef);
+  }
+
+  private <T> T intern(ConcurrentMap<List<Object>, T> map, List<Object> key, T value) {
+    lookups.incrementAndGet();
+    T canonical = map.putIfAbsent(key, value);
+    if(canonical == null) {
+      return value;
+    }
+    hits.incrementAndGet();
+    return canonical;
+  }
+
+  private static List<Object> keyOf(GimpleType type) {
+    Class<?> typeClass = type.getClass();
+    int size = type.getSize();
+
+    if(typeClass == GimpleIntegerType.class || typeClass == GimpleEnumeralType.class) {
+      return Arrays.asList(typeClass, size, ((GimpleIntegerType) type).isUnsigned());
+
+    } else if(typeClass == GimpleRealType.class ||
+              typeClass == GimpleBooleanType.class ||
+              typeClass == GimpleComplexType.class ||
+              typeClass == GimpleVoidType.class) {
+      return Arrays.asList(typeClass, size);
+
+    } else if(typeClass == GimplePointerType.class ||
+              typeClass == GimpleNullPointerType.class) {
+      return Arrays.asList(typeClass, size, new Identity(((GimplePointerType) type).getBaseType()));
+
+    } else if(typeClass == GimpleReferenceType.class) {
+      return Arrays.asList(typeClass, size, new Identity(((GimpleReferenceType) type).getBaseType()));
+
+    } else if(typeClass == GimpleOffsetType.class) {
+      GimpleOffsetType offsetType = (GimpleOffsetType) type;
+      return Arrays.asList(typeClass, size,
+          new Identity(offsetType.getBaseType()),
+          new Identity(offsetType.getOffsetBaseType()));
+
+    } else if(typeClass == GimpleArrayType.class) {
+      GimpleArrayType arrayType = (GimpleArrayType) type;
+      return Arrays.asList(typeClass, size, new Identity(arrayType.getComponentType()),
+          arrayType.getLbound(), arrayType.getUbound());
+
+    } else if(typeClass == GimpleRecordType.class || typeClass == GimpleUnionType.class) {
+      GimpleRecordType recordType = (GimpleRecordType) type;
+      return Arrays.asList(typeClass, size, recordType.getId(), recordType.getName());
+
+    } else if(typeClass == GimpleFunctionType.class || typeClass == GimpleMethodType.class) {
+      GimpleFunctionType functionType = (GimpleFunctionType) type;
+      List<Object> key = new ArrayList<>();
+      key.add(typeClass);
+      key.add(size);
+      key.add(functionType.isVariableArguments());
+      key.add(new Identity(functionType.getReturnType()));
+      for (GimpleType argumentType : functionType.getArgumentTypes()) {
+        key.add(new Identity(argumentType));
+      }
+      return key;
+
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * @return the number of distinct types and record definitions held by this interner.
+   */
+  public int size() {
+    return types.size() + recordTypeDefs.size();
+  }
+
+  /**
+   * @return the number of types and record definitions that have been interned.
+   */
+  public long getLookupCount() {
+    return lookups.get();
+  }
+
+  /**
+   * @return the number of types and record definitions that were replaced by an existing instance.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Compares component types by identity, which is sufficient because they have already been interned.
+   */
+  private static final class Identity {
+    private final Object value;
+
+    private Identity(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Identity && ((Identity) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(value);
+    }
+  }
+}
@@ -19,6 +19,8 @@
 package org.renjin.gcc.link;
 
 import org.renjin.gcc.InternalCompilerException;
+import org.renjin.gcc.codegen.ResourceWriter;
+import org.renjin.gcc.output.DirectoryOutputSink;
 import org.renjin.repackaged.asm.Handle;
 import org.renjin.repackaged.asm.Type;
 import org.renjin.repackaged.guava.base.Charsets;
@@ -43,7 +45,10 @@ import java.util.Properties;
  */
 public class LinkSymbol {
 
-
+  /**
+   * The classpath directory in which the link metadata for each symbol is stored.
+   */
+  public static final String METADATA_PREFIX = "META-INF/org.renjin.gcc.symbols/";
 
   /**
    * The type of Symbol
@@ -145,6 +150,10 @@ public class LinkSymbol {
     return memberName;
   }
 
+  public String getDescriptor() {
+    return descriptor;
+  }
+
 
   /**
    * Loads the {@code java.lang.reflect.Method} object referenced by this 
@@ -156,14 +165,11 @@ public class LinkSymbol {
   public Method loadMethod(ClassLoader classLoader) {
     Class<?> owner = loadClass(classLoader);
 
-    for (java.lang.reflect.Method method : owner.getMethods()) {
-      if(method.getName().equals(memberName) &&
-          Type.getMethodDescriptor(method).equals(descriptor)) {
+    Optional<Method> method = ReferenceClassTable.of(owner).findMethod(memberName, descriptor);
+    if(method.isPresent()) {
+      assertPublicStatic(method.get().getModifiers(), "method " + method.get().toString());
 
-        assertPublicStatic(method.getModifiers(), "method " + method.toString());
-
-        return method;
-      }
+      return method.get();
     }
 
     throw new InternalCompilerException(String.format("Symbol '%s' references non-existant method %s.%s (%s)",
@@ -227,18 +233,15 @@ public class LinkSymbol {
    * @param outputDir the root of a class output 
    */
   public void write(File outputDir) throws IOException {
-    File symbolFile = new File(outputDir, getMetadataName());
-    File symbolDir = symbolFile.getParentFile();
-    if(!symbolDir.exists()) {
-      boolean created = symbolDir.mkdirs();
-      if(!created) {
-        throw new IOException("Failed to create directory " + symbolDir.getAbsolutePath());
-      }
-    }
+    write(new DirectoryOutputSink(outputDir));
+  }
 
-    try(Writer out = new OutputStreamWriter(new FileOutputStream(symbolFile), Charsets.UTF_8)) {
-      out.write(toProperties());
-    }
+  /**
+   * Writes this symbol to the given {@code writer}, using the resource name
+   * {@code META-INF/org.renjin.gcc.symbols/$name}
+   */
+  public void write(ResourceWriter writer) throws IOException {
+    writer.writeResource(getMetadataName(), toProperties().getBytes(Charsets.UTF_8));
   }
 
   public String toProperties() {
@@ -257,7 +260,17 @@ public class LinkSymbol {
   }
 
   public String getMetadataName() {
-    return "META-INF/org.renjin.gcc.symbols/" + name;
+    return METADATA_PREFIX + name;
+  }
+
+  static LinkSymbol create(String name, SymbolType type, String className, String memberName, String descriptor) {
+    LinkSymbol symbol = new LinkSymbol();
+    symbol.name = name;
+    symbol.type = type;
+    symbol.className = className;
+    symbol.memberName = memberName;
+    symbol.descriptor = descriptor;
+    return symbol;
   }
 
   public static LinkSymbol fromDescriptor(String symbolName, Properties properties) {
@@ -284,7 +297,7 @@ public class LinkSymbol {
    * Looks up a LinkSymbol from the classpath.
    */
   public static Optional<LinkSymbol> lookup(ClassLoader classLoader, String name) throws IOException {
-    try(InputStream in = classLoader.getResourceAsStream("META-INF/org.renjin.gcc.symbols/" + name)) {
+    try(InputStream in = classLoader.getResourceAsStream(METADATA_PREFIX + name)) {
       if (in == null) {
         return Optional.empty();
       }
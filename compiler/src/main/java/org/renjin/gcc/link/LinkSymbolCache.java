@@ -0,0 +1,166 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.link;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+/**
+ * Caches the resolution of {@link LinkSymbol}s from each class loader for the lifetime of the process,
+ * including the names which could not be resolved.
+ *
+ * <p>Looking up a name which is not defined by any archive on the classpath requires a search of every
+ * archive, and a build that compiles many packages in one JVM typically looks up the same names again and
+ * again. Each class loader's cache is only kept as long as the class loader is reachable, and only holds
+ * the symbols' names, so it does not keep any class loader alive.</p>
+ *
+ * <p>A package on the classpath may be rebuilt between two compilations, so {@link #forClassLoader(ClassLoader)}
+ * discards a cache when the modification time or size of any jar or directory providing link metadata has
+ * changed. Compiling new code may also define names that were previously unresolved, so the
+ * {@link org.renjin.gcc.GimpleCompiler} {@link #invalidate(Collection) invalidates} every name for which it
+ * writes link metadata.</p>
+ */
+public final class LinkSymbolCache {
+
+  private static final Map<ClassLoader, LinkSymbolCache> CACHES = new WeakHashMap<>();
+
+  /**
+   * The class loader is only weakly referenced, as it is also the key of this cache in {@link #CACHES}.
+   */
+  private final Reference<ClassLoader> classLoader;
+  private List<String> stamps;
+  private LinkSymbolIndex index;
+  private final Map<String, Optional<LinkSymbol>> resolved = new HashMap<>();
+
+  private LinkSymbolCache(ClassLoader classLoader) {
+    this.classLoader = new WeakReference<>(classLoader);
+  }
+
+  /**
+   * @return the cache shared by all compilations linking against {@code classLoader}, emptied if any
+   * jar or directory providing link metadata has changed since the cache was last used.
+   */
+  public static LinkSymbolCache forClassLoader(ClassLoader classLoader) {
+    LinkSymbolCache cache;
+    synchronized (CACHES) {
+      cache = CACHES.computeIfAbsent(classLoader, LinkSymbolCache::new);
+    }
+    cache.validate(classLoader);
+    return cache;
+  }
+
+  private synchronized void validate(ClassLoader loader) {
+    List<String> current;
+    try {
+      current = stamps(loader);
+    } catch (IOException | URISyntaxException e) {
+      current = null;
+    }
+    if(current == null || !current.equals(stamps)) {
+      resolved.clear();
+      index = null;
+    }
+    stamps = current;
+  }
+
+  /**
+   * Looks up a {@code LinkSymbol} from the class loader's symbol indexes, or from its
+   * {@code META-INF/org.renjin.gcc.symbols} resources.
+   */
+  public synchronized Optional<LinkSymbol> lookup(String name) throws IOException {
+    Optional<LinkSymbol> symbol = resolved.get(name);
+    if(symbol == null) {
+      ClassLoader loader = classLoader.get();
+      if(loader == null) {
+        throw new IllegalStateException("Class loader has been garbage collected");
+      }
+      if(index == null) {
+        index = LinkSymbolIndex.load(loader);
+      }
+      symbol = index.lookup(name);
+      if(!symbol.isPresent()) {
+        symbol = LinkSymbol.lookup(loader, name);
+      }
+      resolved.put(name, symbol);
+    }
+    return symbol;
+  }
+
+  /**
+   * Forgets the resolution of the given names, after link metadata has been written for them.
+   */
+  public synchronized void invalidate(Collection<String> names) {
+    for (String name : names) {
+      resolved.remove(name);
+      if(index != null && index.lookup(name).isPresent()) {
+        // The index may list the previous definition
+        index = null;
+      }
+    }
+  }
+
+  /**
+   * @return the modification time and size of the jars and directories from which the class loader may read
+   * link metadata.
+   */
+  private static List<String> stamps(ClassLoader loader) throws IOException, URISyntaxException {
+    Set<File> roots = new LinkedHashSet<>();
+    for (ClassLoader l = loader; l != null; l = l.getParent()) {
+      if(l instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) l).getURLs()) {
+          if(url.getProtocol().equals("file")) {
+            roots.add(new File(url.toURI()));
+          }
+        }
+      }
+    }
+    Enumeration<URL> indexes = loader.getResources(LinkSymbolIndex.INDEX_NAME);
+    while(indexes.hasMoreElements()) {
+      URL url = indexes.nextElement();
+      if(url.getProtocol().equals("jar")) {
+        url = ((JarURLConnection) url.openConnection()).getJarFileURL();
+      }
+      if(url.getProtocol().equals("file")) {
+        roots.add(new File(url.toURI()));
+      }
+    }
+
+    List<String> stamps = new ArrayList<>();
+    for (File root : roots) {
+      if(root.isDirectory()) {
+        stamps.add(stamp(new File(root, LinkSymbol.METADATA_PREFIX)));
+        stamps.add(stamp(new File(root, LinkSymbolIndex.INDEX_NAME)));
+      } else {
+        stamps.add(stamp(root));
+      }
+    }
+    return stamps;
+  }
+
+  private static String stamp(File file) {
+    return file.getPath() + ":" + file.lastModified() + ":" + file.length();
+  }
+}
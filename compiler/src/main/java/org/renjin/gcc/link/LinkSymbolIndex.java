@@ -0,0 +1,128 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.link;
+
+import org.renjin.gcc.codegen.ResourceWriter;
+import org.renjin.repackaged.guava.base.Charsets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * A single resource listing all the {@link LinkSymbol}s written by one compilation, so that
+ * they can be resolved at startup without opening a resource for each symbol.
+ *
+ * <p>The index is written to {@code META-INF/org.renjin.gcc.symbols.index}, one symbol per line,
+ * with the symbol's name, type, class, member and descriptor separated by tabs. If several
+ * archives on the classpath contain an index, the first entry for a name wins, as it would
+ * for the individual symbol resources. Symbols which are not found in any index should still be
+ * looked up with {@link LinkSymbol#lookup(ClassLoader, String)}, as older archives, or a directory
+ * to which several compilations have written, may not list all of their symbols.</p>
+ */
+public class LinkSymbolIndex {
+
+  /**
+   * The classpath resource in which the index is stored.
+   */
+  public static final String INDEX_NAME = "META-INF/org.renjin.gcc.symbols.index";
+
+  private static final String SEPARATOR = "\t";
+
+  private final Map<String, LinkSymbol> symbols = new HashMap<>();
+
+  private LinkSymbolIndex() {
+  }
+
+  /**
+   * Reads and merges all the indexes visible from {@code classLoader}.
+   */
+  public static LinkSymbolIndex load(ClassLoader classLoader) throws IOException {
+    LinkSymbolIndex index = new LinkSymbolIndex();
+    Enumeration<URL> resources = classLoader.getResources(INDEX_NAME);
+    while (resources.hasMoreElements()) {
+      try(InputStream in = resources.nextElement().openStream()) {
+        index.read(in);
+      }
+    }
+    return index;
+  }
+
+  private void read(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+    String line;
+    while((line = reader.readLine()) != null) {
+      if(line.isEmpty()) {
+        continue;
+      }
+      String[] columns = line.split(SEPARATOR, -1);
+      if(columns.length != 5) {
+        throw new IOException("Malformed symbol index entry: " + line);
+      }
+      String name = columns[0];
+      if(!symbols.containsKey(name)) {
+        symbols.put(name, LinkSymbol.create(name,
+            LinkSymbol.SymbolType.valueOf(columns[1]),
+            columns[2],
+            emptyToNull(columns[3]),
+            emptyToNull(columns[4])));
+      }
+    }
+  }
+
+  private static String emptyToNull(String column) {
+    return column.isEmpty() ? null : column;
+  }
+
+  private static String nullToEmpty(String column) {
+    return column == null ? "" : column;
+  }
+
+  /**
+   * @return the symbol with the given name, or {@code Optional.empty()} if it is not listed in any index.
+   */
+  public Optional<LinkSymbol> lookup(String name) {
+    return Optional.ofNullable(symbols.get(name));
+  }
+
+  public int size() {
+    return symbols.size();
+  }
+
+  /**
+   * Writes an index of the given symbols, sorted by name, to {@link #INDEX_NAME}.
+   */
+  public static void write(ResourceWriter writer, Collection<LinkSymbol> symbols) throws IOException {
+    List<LinkSymbol> sorted = new ArrayList<>(symbols);
+    sorted.sort(Comparator.comparing(LinkSymbol::getName));
+
+    StringBuilder index = new StringBuilder();
+    for (LinkSymbol symbol : sorted) {
+      index.append(symbol.getName()).append(SEPARATOR)
+          .append(symbol.getType().name()).append(SEPARATOR)
+          .append(symbol.getClassName()).append(SEPARATOR)
+          .append(nullToEmpty(symbol.getMemberName())).append(SEPARATOR)
+          .append(nullToEmpty(symbol.getDescriptor())).append("\n");
+    }
+    writer.writeResource(INDEX_NAME, index.toString().getBytes(Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.link;
+
+import org.renjin.gcc.annotations.GlobalVar;
+import org.renjin.gcc.annotations.Noop;
+import org.renjin.repackaged.asm.Type;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * The members of a class that can be linked to compiled code, computed once per class.
+ *
+ * <p>Reflecting over a class with many methods, and reading their annotations, is costly enough to
+ * matter when a process constructs many {@link org.renjin.gcc.GimpleCompiler}s, each of which adds the same
+ * runtime reference classes. Tables are kept in a {@link ClassValue}, so they are shared by all compilers but
+ * do not prevent a class from being unloaded.</p>
+ */
+public final class ReferenceClassTable {
+
+  private static final ClassValue<ReferenceClassTable> TABLES = new ClassValue<ReferenceClassTable>() {
+    @Override
+    protected ReferenceClassTable computeValue(Class<?> type) {
+      return new ReferenceClassTable(type);
+    }
+  };
+
+  /**
+   * A public static method which can be called from compiled code.
+   */
+  public static final class FunctionEntry {
+    private final Method method;
+    private final boolean noop;
+    private volatile String descriptor;
+
+    private FunctionEntry(Method method) {
+      this.method = method;
+      this.noop = method.isAnnotationPresent(Noop.class);
+    }
+
+    public String getName() {
+      return method.getName();
+    }
+
+    public Method getMethod() {
+      return method;
+    }
+
+    /**
+     * @return the method's JVM descriptor
+     */
+    public String getDescriptor() {
+      if(descriptor == null) {
+        descriptor = Type.getMethodDescriptor(method);
+      }
+      return descriptor;
+    }
+
+    /**
+     * @return true if the method is annotated with {@link Noop}
+     */
+    public boolean isNoop() {
+      return noop;
+    }
+  }
+
+  private final List<FunctionEntry> functions = new ArrayList<>();
+  private final List<Method> globalVarGetters = new ArrayList<>();
+  private final List<Field> fields = new ArrayList<>();
+  private final Method[] methods;
+  private final Map<String, Method> methodsByName = new HashMap<>();
+
+  /**
+   * The methods by name and descriptor, constructed lazily as descriptors are only needed for linking.
+   */
+  private volatile Map<String, Method> methodsBySignature;
+
+  private ReferenceClassTable(Class<?> clazz) {
+    methods = clazz.getMethods();
+    for (Method method : methods) {
+      methodsByName.putIfAbsent(method.getName(), method);
+
+      if(method.isAnnotationPresent(GlobalVar.class)) {
+        globalVarGetters.add(method);
+
+      } else if(Modifier.isPublic(method.getModifiers()) && Modifier.isStatic(method.getModifiers()) &&
+          !method.isAnnotationPresent(Deprecated.class)) {
+        functions.add(new FunctionEntry(method));
+      }
+    }
+
+    for (Field field : clazz.getFields()) {
+      if(Modifier.isStatic(field.getModifiers()) && Modifier.isPublic(field.getModifiers()) &&
+          !field.isAnnotationPresent(Deprecated.class)) {
+        fields.add(field);
+      }
+    }
+  }
+
+  public static ReferenceClassTable of(Class<?> clazz) {
+    return TABLES.get(clazz);
+  }
+
+  /**
+   * @return the public static methods which are neither {@code @Deprecated} nor {@code @GlobalVar} getters.
+   */
+  public List<FunctionEntry> getFunctions() {
+    return Collections.unmodifiableList(functions);
+  }
+
+  /**
+   * @return the public methods annotated with {@link GlobalVar}.
+   */
+  public List<Method> getGlobalVarGetters() {
+    return Collections.unmodifiableList(globalVarGetters);
+  }
+
+  /**
+   * @return the public static fields which are not {@code @Deprecated}
+   */
+  public List<Field> getFields() {
+    return Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * @return the first public method with the given name, as ordered by {@link Class#getMethods()}
+   */
+  public Optional<Method> findMethod(String name) {
+    return Optional.ofNullable(methodsByName.get(name));
+  }
+
+  /**
+   * @return the public method with the given name and JVM descriptor
+   */
+  public Optional<Method> findMethod(String name, String descriptor) {
+    Map<String, Method> signatures = methodsBySignature;
+    if(signatures == null) {
+      signatures = new HashMap<>();
+      for (Method method : methods) {
+        signatures.putIfAbsent(method.getName() + Type.getMethodDescriptor(method), method);
+      }
+      methodsBySignature = signatures;
+    }
+    return Optional.ofNullable(signatures.get(name + descriptor));
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.logging;
+
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes log files on a background thread, so that the compiler does not wait for the
+ * many small per-function files to be written.
+ *
+ * <p>Log content is always rendered by the caller, so that the compiler's data structures are
+ * only ever read from the compilation thread. The queue is bounded, so if the disk cannot keep
+ * up, the compiler is eventually slowed down rather than running out of memory.</p>
+ */
+class AsyncLogWriter {
+
+  private static final int QUEUE_CAPACITY = 512;
+  private static final int BATCH_SIZE = 64;
+
+  private static class PendingWrite {
+    private final File file;
+    private final String content;
+
+    PendingWrite(File file, String content) {
+      this.file = file;
+      this.content = content;
+    }
+  }
+
+  /**
+   * Queued by {@link #close()} to stop the background thread once the preceding writes are done.
+   */
+  private static final PendingWrite STOP = new PendingWrite(null, null);
+
+  private final BlockingQueue<PendingWrite> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final PrintStream warningStream;
+  private Thread thread;
+
+  AsyncLogWriter(PrintStream warningStream) {
+    this.warningStream = warningStream;
+  }
+
+  public void write(File file, String content) throws IOException {
+    if(thread == null) {
+      thread = new Thread(this::run, "gcc-bridge-log-writer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    try {
+      queue.put(new PendingWrite(file, content));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Waits until all files queued so far have been written, and stops the background thread.
+   * A later call to {@link #write(File, String)} starts a new thread.
+   */
+  public void close() throws IOException {
+    if(thread == null) {
+      return;
+    }
+    try {
+      queue.put(STOP);
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } finally {
+      thread = null;
+    }
+  }
+
+  private void run() {
+    List<PendingWrite> batch = new ArrayList<>(BATCH_SIZE);
+    boolean stopped = false;
+    while(!stopped) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, BATCH_SIZE - 1);
+
+      for (PendingWrite write : batch) {
+        if(write == STOP) {
+          stopped = true;
+        } else {
+          try {
+            Files.asCharSink(write.file, Charsets.UTF_8).write(write.content);
+          } catch (IOException e) {
+            warningStream.println("WARNING: Exception dumping to " + write.file.getAbsolutePath());
+          }
+        }
+      }
+      batch.clear();
+    }
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.logging;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.renjin.gcc.gimple.GimpleFunction;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Collects the time and memory spent in each phase of compilation, and for each function,
+ * so that regressions in compiler performance can be tracked across releases.
+ *
+ * <p>Allocated bytes are measured with the HotSpot-specific
+ * {@code com.sun.management.ThreadMXBean}, and are reported as -1 on other JVMs. A {@link Mark} only
+ * measures the allocations of the thread which created it; work done by other threads is added to a
+ * phase with {@link #addAllocatedBytes(String, long)}.</p>
+ */
+public class CompilationMetrics {
+
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+  /**
+   * A point in time from which elapsed time and allocation is measured.
+   */
+  public static final class Mark {
+    private final long nanos;
+    private final long bytes;
+
+    private Mark() {
+      this.nanos = System.nanoTime();
+      this.bytes = allocatedBytes();
+    }
+
+    public long elapsedNanos() {
+      return System.nanoTime() - nanos;
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread since this mark was created, which must be the
+     * thread that created the mark, or -1 if not available.
+     */
+    public long allocatedBytesSince() {
+      if(bytes < 0) {
+        return -1;
+      }
+      return allocatedBytes() - bytes;
+    }
+  }
+
+  public static final class PhaseMetrics {
+    private final String name;
+    private long wallNanos;
+    private long allocatedBytes;
+
+    private PhaseMetrics(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getWallNanos() {
+      return wallNanos;
+    }
+
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+  }
+
+  public static final class FunctionMetrics {
+    private final String unit;
+    private final String function;
+    private int transformRounds;
+    private long transformNanos;
+    private long codegenNanos;
+    private long peepholeNanos;
+    private int peepholeIterations;
+    private long allocatedBytes;
+    private int bytecodeSize;
+    private int maxLocals;
+
+    private FunctionMetrics(String unit, String function) {
+      this.unit = unit;
+      this.function = function;
+    }
+
+    public String getUnit() {
+      return unit;
+    }
+
+    public String getFunction() {
+      return function;
+    }
+
+    /**
+     * @return the number of rounds needed for the function body transformers to reach a fixpoint.
+     */
+    public int getTransformRounds() {
+      return transformRounds;
+    }
+
+    public long getTransformNanos() {
+      return transformNanos;
+    }
+
+    /**
+     * @return the wall time spent generating bytecode for this function, including peephole optimization.
+     */
+    public long getCodegenNanos() {
+      return codegenNanos;
+    }
+
+    public long getPeepholeNanos() {
+      return peepholeNanos;
+    }
+
+    public int getPeepholeIterations() {
+      return peepholeIterations;
+    }
+
+    /**
+     * @return the bytes allocated while transforming and generating this function, or -1 if not available.
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+
+    /**
+     * @return the estimated size of the function's optimized bytecode
+     */
+    public int getBytecodeSize() {
+      return bytecodeSize;
+    }
+
+    /**
+     * @return the number of local variable slots used by the function's bytecode
+     */
+    public int getMaxLocals() {
+      return maxLocals;
+    }
+
+    public long getTotalNanos() {
+      return transformNanos + codegenNanos;
+    }
+  }
+
+  private final Map<String, PhaseMetrics> phases = new LinkedHashMap<>();
+  private final Map<String, FunctionMetrics> functions = new LinkedHashMap<>();
+
+  public static Mark mark() {
+    return new Mark();
+  }
+
+  private static long allocatedBytes() {
+    if(THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+      if(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds the time and allocation since {@code mark} to the named phase.
+   */
+  public void phase(String name, Mark mark) {
+    PhaseMetrics phase = phases.computeIfAbsent(name, PhaseMetrics::new);
+    phase.wallNanos += mark.elapsedNanos();
+    phase.allocatedBytes = sum(phase.allocatedBytes, mark.allocatedBytesSince());
+  }
+
+  /**
+   * Adds bytes allocated by other threads to the named phase, whose time is measured by the thread
+   * that waited for them.
+   */
+  public void addAllocatedBytes(String name, long bytes) {
+    PhaseMetrics phase = phases.computeIfAbsent(name, PhaseMetrics::new);
+    phase.allocatedBytes = sum(phase.allocatedBytes, bytes);
+  }
+
+  public void functionTransformed(GimpleFunction function, Mark mark, int rounds) {
+    FunctionMetrics metrics = get(function);
+    metrics.transformNanos += mark.elapsedNanos();
+    metrics.transformRounds += rounds;
+    metrics.allocatedBytes = sum(metrics.allocatedBytes, mark.allocatedBytesSince());
+  }
+
+  public void functionGenerated(GimpleFunction function, Mark mark,
+                                long peepholeNanos, long peepholeBytes, int peepholeIterations, int bytecodeSize,
+                                int maxLocals) {
+    FunctionMetrics metrics = get(function);
+    metrics.codegenNanos += mark.elapsedNanos();
+    metrics.allocatedBytes = sum(metrics.allocatedBytes, mark.allocatedBytesSince());
+    metrics.peepholeNanos += peepholeNanos;
+    metrics.peepholeIterations += peepholeIterations;
+    metrics.bytecodeSize = bytecodeSize;
+    metrics.maxLocals = maxLocals;
+
+    // Peephole optimization is also reported as a separate phase, though
+    // its time is included in the enclosing "codegen" phase
+    PhaseMetrics peephole = phases.computeIfAbsent("peephole", PhaseMetrics::new);
+    peephole.wallNanos += peepholeNanos;
+    peephole.allocatedBytes = sum(peephole.allocatedBytes, peepholeBytes);
+  }
+
+  private FunctionMetrics get(GimpleFunction function) {
+    String unit = function.getUnit().getSourceName();
+    return functions.computeIfAbsent(unit + "/" + function.getMangledName(),
+        key -> new FunctionMetrics(unit, function.getMangledName()));
+  }
+
+  /**
+   * @return the sum of two allocated byte counts, or -1 if either is not available.
+   */
+  public static long sum(long total, long bytes) {
+    if(total < 0 || bytes < 0) {
+      return -1;
+    }
+    return total + bytes;
+  }
+
+  public Collection<PhaseMetrics> getPhases() {
+    return phases.values();
+  }
+
+  public Collection<FunctionMetrics> getFunctions() {
+    return functions.values();
+  }
+
+  /**
+   * @return the {@code count} functions which took the longest to transform and compile, slowest first.
+   */
+  public List<FunctionMetrics> getSlowestFunctions(int count) {
+    List<FunctionMetrics> sorted = new ArrayList<>(functions.values());
+    sorted.sort(Comparator.comparingLong(FunctionMetrics::getTotalNanos).reversed());
+    return sorted.subList(0, Math.min(count, sorted.size()));
+  }
+
+  /**
+   * Writes the metrics to the given file, as CSV with one row per function if the file name
+   * ends with ".csv", or otherwise as a JSON document including the phases.
+   */
+  public void write(File file) throws IOException {
+    try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      if(file.getName().endsWith(".csv")) {
+        writeCsv(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      } else {
+        writeJson(out);
+      }
+    }
+  }
+
+  public void writeCsv(Writer writer) throws IOException {
+    PrintWriter out = new PrintWriter(writer);
+    out.println("unit,function,transform_rounds,transform_ns,codegen_ns,peephole_ns,peephole_iterations," +
+        "allocated_bytes,bytecode_size,max_locals");
+    for (FunctionMetrics f : functions.values()) {
+      out.println(csvField(f.unit) + "," + csvField(f.function) + "," + f.transformRounds + "," +
+          f.transformNanos + "," + f.codegenNanos + "," + f.peepholeNanos + "," + f.peepholeIterations + "," +
+          f.allocatedBytes + "," + f.bytecodeSize + "," + f.maxLocals);
+    }
+    out.flush();
+  }
+
+  /**
+   * Quotes a field containing a separator, quote or line break, as described by RFC 4180.
+   */
+  static String csvField(String value) {
+    if(value.indexOf(',') == -1 && value.indexOf('"') == -1 &&
+        value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+      return value;
+    }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  public void writeJson(OutputStream out) throws IOException {
+    JsonGenerator json = new JsonFactory().createGenerator(out, JsonEncoding.UTF8);
+    json.useDefaultPrettyPrinter();
+    json.writeStartObject();
+
+    json.writeArrayFieldStart("phases");
+    for (PhaseMetrics phase : phases.values()) {
+      json.writeStartObject();
+      json.writeStringField("name", phase.name);
+      json.writeNumberField("wallNanos", phase.wallNanos);
+      json.writeNumberField("allocatedBytes", phase.allocatedBytes);
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+
+    json.writeArrayFieldStart("functions");
+    for (FunctionMetrics f : functions.values()) {
+      writeJson(json, f);
+    }
+    json.writeEndArray();
+
+    json.writeArrayFieldStart("slowestFunctions");
+    for (FunctionMetrics f : getSlowestFunctions(20)) {
+      json.writeStartObject();
+      json.writeStringField("unit", f.unit);
+      json.writeStringField("function", f.function);
+      json.writeNumberField("totalNanos", f.getTotalNanos());
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+
+    json.writeEndObject();
+    json.flush();
+  }
+
+  private void writeJson(JsonGenerator json, FunctionMetrics f) throws IOException {
+    json.writeStartObject();
+    json.writeStringField("unit", f.unit);
+    json.writeStringField("function", f.function);
+    json.writeNumberField("transformRounds", f.transformRounds);
+    json.writeNumberField("transformNanos", f.transformNanos);
+    json.writeNumberField("codegenNanos", f.codegenNanos);
+    json.writeNumberField("peepholeNanos", f.peepholeNanos);
+    json.writeNumberField("peepholeIterations", f.peepholeIterations);
+    json.writeNumberField("allocatedBytes", f.allocatedBytes);
+    json.writeNumberField("bytecodeSize", f.bytecodeSize);
+    json.writeNumberField("maxLocals", f.maxLocals);
+    json.writeEndObject();
+  }
+
+  /**
+   * Prints a short summary of the phases and the slowest functions.
+   */
+  public void printSummary(PrintStream out, int slowestCount) {
+    out.println("Compilation phases:");
+    for (PhaseMetrics phase : phases.values()) {
+      out.printf("  %-24s %10.1f ms %12s%n", phase.name, phase.wallNanos / 1e6, formatBytes(phase.allocatedBytes));
+    }
+    out.println("Slowest functions:");
+    for (FunctionMetrics f : getSlowestFunctions(slowestCount)) {
+      out.printf("  %-40s %10.1f ms %12s  %d bytes of bytecode%n", f.unit + ":" + f.function,
+          f.getTotalNanos() / 1e6, formatBytes(f.allocatedBytes), f.bytecodeSize);
+    }
+  }
+
+  private static String formatBytes(long bytes) {
+    if(bytes < 0) {
+      return "n/a";
+    }
+    return String.format("%.1f MB", bytes / (1024d * 1024d));
+  }
+}
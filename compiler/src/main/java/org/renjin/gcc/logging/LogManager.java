@@ -24,14 +24,15 @@ import org.renjin.gcc.gimple.GimpleFunction;
 import org.renjin.gcc.symbols.SymbolTable;
 import org.renjin.gcc.symbols.UnitSymbolTable;
 import org.renjin.repackaged.asm.tree.MethodNode;
-import org.renjin.repackaged.guava.base.Charsets;
-import org.renjin.repackaged.guava.io.Files;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Supports detailed logging of the compilation process.
@@ -41,6 +42,9 @@ import java.util.Map;
  *
  * <p>Rather than write to one large log file, the idea is to write out short logs on a mostly per-function basis
  * that are easy to find and review.</p>
+ *
+ * <p>When logging is disabled, nothing is rendered: callers should pass a {@link Supplier} for
+ * anything that is expensive to stringify. When enabled, the files are written on a background thread.</p>
  */
 public class LogManager {
 
@@ -50,8 +54,13 @@ public class LogManager {
 
   private final PrintStream warningStream;
 
+  private final AsyncLogWriter writer;
+
+  private final Set<File> createdDirectories = new HashSet<>();
+
   public LogManager(PrintStream stream) {
     warningStream = stream;
+    writer = new AsyncLogWriter(stream);
   }
 
   public File getLoggingDirectory() {
@@ -111,11 +120,23 @@ public class LogManager {
     if(!isEnabled()) {
       return;
     }
+    write(logFile(function, logType), object.toString());
+  }
 
-    File logFile = logFile(function, logType);
+  /**
+   * Logs an object related to a specific function, which is only computed if
+   * logging is enabled.
+   */
+  public void log(GimpleFunction function, String logType, Supplier<?> supplier) {
+    if(!isEnabled()) {
+      return;
+    }
+    write(logFile(function, logType), String.valueOf(supplier.get()));
+  }
 
+  private void write(File logFile, String content) {
     try {
-      Files.write(object.toString(), logFile, Charsets.UTF_8);
+      writer.write(logFile, content);
     } catch (IOException e) {
       warning("Exception dumping to " + logFile.getAbsolutePath());
     }
@@ -144,11 +165,13 @@ public class LogManager {
       return;
     }
     File logFile = logFile(unit.getSourceName(), "records", "html");
+    String html;
     try {
-      Files.write(new HtmlRecordRenderer(symbolTable, unit).render(), logFile, Charsets.UTF_8);
+      html = new HtmlRecordRenderer(symbolTable, unit).render();
     } catch (Exception e) {
       throw new InternalCompilerException(e);
     }
+    write(logFile, html);
   }
 
   private File logFile(GimpleFunction gimpleFunction, String suffix) {
@@ -157,7 +180,7 @@ public class LogManager {
 
   private File logFile(String dir, String file, String ext) {
     File dumpDir = new File(loggingDirectory.getAbsolutePath() + File.separator + dir);
-    if(!dumpDir.exists()) {
+    if(createdDirectories.add(dumpDir) && !dumpDir.exists()) {
       dumpDir.mkdirs();
     }
     return new File(dumpDir, file + "." + ext);
@@ -177,6 +200,7 @@ public class LogManager {
       logger.close();
     }
     openLoggers.clear();
+    writer.close();
   }
 
   public void warning(String message) {
@@ -21,6 +21,7 @@ package org.renjin.gcc.logging;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.function.Supplier;
 
 /**
  * Simple logger for compilation diagnostics
@@ -41,6 +42,19 @@ public class Logger {
     this.file = file;
   }
 
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  /**
+   * Logs the message computed by {@code message}, only if this logger is enabled.
+   */
+  public void log(Supplier<String> message) {
+    if(file != null) {
+      log(message.get());
+    }
+  }
+
   public void log(String message) {
     if(file == null) {
       return;
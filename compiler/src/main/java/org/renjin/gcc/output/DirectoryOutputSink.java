@@ -0,0 +1,65 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.output;
+
+import org.renjin.repackaged.guava.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes each resource as a separate file below a root output directory.
+ */
+public class DirectoryOutputSink implements OutputSink {
+
+  private final File outputDirectory;
+
+  /**
+   * Directories which we know to exist, so that we don't have to check
+   * the file system again for every class in the same package.
+   */
+  private final Set<File> createdDirectories = new HashSet<>();
+
+  public DirectoryOutputSink(File outputDirectory) {
+    this.outputDirectory = outputDirectory;
+  }
+
+  public File getOutputDirectory() {
+    return outputDirectory;
+  }
+
+  @Override
+  public void writeResource(String resourceName, byte[] content) throws IOException {
+    File file = new File(outputDirectory.getAbsolutePath() + File.separator + resourceName);
+    File parent = file.getParentFile();
+    if(createdDirectories.add(parent) && !parent.exists()) {
+      boolean created = parent.mkdirs();
+      if(!created) {
+        throw new IOException("Failed to create directory for resource: " + parent);
+      }
+    }
+    Files.write(content, file);
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.output;
+
+import org.renjin.gcc.link.LinkSymbol;
+import org.renjin.repackaged.guava.base.Charsets;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Streams compiled classes and resources directly into a JAR file, instead of writing
+ * many thousands of small files to disk and jarring them in a separate step.
+ *
+ * <p>Entries are deflated in parallel on a pool of worker threads, but are always written to
+ * the archive in the order in which they were submitted, with a fixed timestamp, so that
+ * compiling the same sources twice produces byte-for-byte identical archives.</p>
+ *
+ * <p>Optionally, the link metadata under {@code META-INF/org.renjin.gcc.symbols} can be stored
+ * without compression so that the entries can be read directly from a memory-mapped archive.</p>
+ *
+ * <p>The archive is written to a temporary file next to the target and only renamed to the target
+ * once it has been closed successfully, so a failed compilation never leaves behind a truncated
+ * archive that looks valid.</p>
+ */
+public class JarOutputSink implements OutputSink {
+
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+  private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIR = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIR = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIR_LOCATOR = 0x07064b50;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private static final int VERSION = 20;
+  private static final int VERSION_ZIP64 = 45;
+
+  /**
+   * General purpose flag indicating that entry names are encoded as UTF-8
+   */
+  private static final int FLAG_UTF8 = 0x800;
+
+  /**
+   * MS-DOS encoding of 1980-01-01 00:00, the earliest representable time. We use a fixed
+   * time for all entries so that the output is reproducible.
+   */
+  private static final int DOS_TIME = 0;
+  private static final int DOS_DATE = (1 << 5) | 1;
+
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+  private final File jarFile;
+  private final File tempFile;
+  private final CountingOutputStream out;
+  private final ExecutorService executor;
+  private final int maxPending;
+
+  private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+  private final List<Entry> written = new ArrayList<>();
+  private final Set<String> names = new HashSet<>();
+
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private boolean storeLinkMetadata = false;
+  private boolean closed = false;
+
+  /**
+   * Creates a new {@code JarOutputSink} which compresses entries using one thread per available processor.
+   */
+  public JarOutputSink(File jarFile) throws IOException {
+    this(jarFile, Runtime.getRuntime().availableProcessors());
+  }
+
+  public JarOutputSink(File jarFile, int compressionThreads) throws IOException {
+    if(compressionThreads < 1) {
+      throw new IllegalArgumentException("compressionThreads: " + compressionThreads);
+    }
+    File parent = jarFile.getAbsoluteFile().getParentFile();
+    if(!parent.exists()) {
+      boolean created = parent.mkdirs();
+      if(!created) {
+        throw new IOException("Failed to create directory for jar file: " + parent);
+      }
+    }
+    this.jarFile = jarFile;
+    this.tempFile = File.createTempFile(jarFile.getName(), ".tmp", parent);
+    this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+    this.executor = Executors.newFixedThreadPool(compressionThreads, runnable -> {
+      Thread thread = new Thread(runnable, "gcc-bridge-jar-deflater");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maxPending = compressionThreads * 4;
+
+    writeResource(MANIFEST_NAME, "Manifest-Version: 1.0\r\nCreated-By: gcc-bridge\r\n\r\n".getBytes(Charsets.UTF_8));
+  }
+
+  public File getJarFile() {
+    return jarFile;
+  }
+
+  /**
+   * Sets the deflate compression level, from 0 (no compression) to 9 (best compression).
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    if(compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("compressionLevel: " + compressionLevel);
+    }
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * If {@code true}, the link symbol metadata files are stored in the archive
+   * without compression.
+   */
+  public void setStoreLinkMetadataUncompressed(boolean store) {
+    this.storeLinkMetadata = store;
+  }
+
+  @Override
+  public void writeResource(String name, byte[] bytes) throws IOException {
+    if(closed) {
+      throw new IOException("JarOutputSink is already closed");
+    }
+    if(!names.add(name)) {
+      throw new ZipException("duplicate entry: " + name);
+    }
+
+    boolean stored = storeLinkMetadata && name.startsWith(LinkSymbol.METADATA_PREFIX);
+    int level = compressionLevel;
+
+    pending.add(executor.submit(() -> Entry.create(name, bytes, stored, level)));
+
+    // Write out any entries at the head of the queue that are ready, blocking
+    // only if too many entries are waiting, so that memory use remains bounded.
+    while(!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+      writeEntry(await(pending.poll()));
+    }
+  }
+
+  private Entry await(Future<Entry> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing jar entry");
+    } catch (ExecutionException e) {
+      throw new IOException("Exception compressing jar entry", e.getCause());
+    }
+  }
+
+  private void writeEntry(Entry entry) throws IOException {
+    entry.offset = out.getCount();
+
+    out.writeInt(LOCAL_FILE_HEADER);
+    out.writeShort(VERSION);
+    out.writeShort(FLAG_UTF8);
+    out.writeShort(entry.method);
+    out.writeShort(DOS_TIME);
+    out.writeShort(DOS_DATE);
+    out.writeInt((int) entry.crc);
+    out.writeInt(entry.data.length);
+    out.writeInt(entry.size);
+    out.writeShort(entry.name.length);
+    out.writeShort(0);
+    out.write(entry.name);
+    out.write(entry.data);
+
+    // Release the entry's data, we only need the header for the central directory
+    entry.data = null;
+    written.add(entry);
+  }
+
+  /**
+   * Writes any pending entries and the central directory, and then moves the completed archive
+   * into place. If this fails, no archive is left at the target location.
+   */
+  @Override
+  public void close() throws IOException {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    boolean succeeded = false;
+    try {
+      while (!pending.isEmpty()) {
+        writeEntry(await(pending.poll()));
+      }
+      writeCentralDirectory();
+      out.close();
+      moveIntoPlace();
+      succeeded = true;
+    } finally {
+      executor.shutdownNow();
+      if(!succeeded) {
+        discard();
+      }
+    }
+  }
+
+  /**
+   * Discards the archive without writing it to the target location.
+   */
+  @Override
+  public void abort() {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdownNow();
+    discard();
+  }
+
+  private void moveIntoPlace() throws IOException {
+    try {
+      Files.move(tempFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void discard() {
+    try {
+      out.close();
+    } catch (IOException ignored) {
+      // We are throwing the archive away anyway
+    }
+    tempFile.delete();
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    long centralDirOffset = out.getCount();
+
+    for (Entry entry : written) {
+      boolean zip64 = entry.offset >= ZIP64_MAGIC;
+
+      out.writeInt(CENTRAL_FILE_HEADER);
+      out.writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+      out.writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+      out.writeShort(FLAG_UTF8);
+      out.writeShort(entry.method);
+      out.writeShort(DOS_TIME);
+      out.writeShort(DOS_DATE);
+      out.writeInt((int) entry.crc);
+      out.writeInt(entry.compressedSize);
+      out.writeInt(entry.size);
+      out.writeShort(entry.name.length);
+      out.writeShort(zip64 ? 12 : 0);
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeInt(0);
+      out.writeInt(zip64 ? (int) ZIP64_MAGIC : (int) entry.offset);
+      out.write(entry.name);
+      if(zip64) {
+        out.writeShort(0x0001);
+        out.writeShort(8);
+        out.writeLong(entry.offset);
+      }
+    }
+
+    long centralDirEnd = out.getCount();
+    long centralDirSize = centralDirEnd - centralDirOffset;
+    int count = written.size();
+
+    boolean zip64 = count >= 0xFFFF || centralDirOffset >= ZIP64_MAGIC || centralDirSize >= ZIP64_MAGIC;
+    if(zip64) {
+      out.writeInt(ZIP64_END_OF_CENTRAL_DIR);
+      out.writeLong(44);
+      out.writeShort(VERSION_ZIP64);
+      out.writeShort(VERSION_ZIP64);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeLong(count);
+      out.writeLong(count);
+      out.writeLong(centralDirSize);
+      out.writeLong(centralDirOffset);
+
+      out.writeInt(ZIP64_END_OF_CENTRAL_DIR_LOCATOR);
+      out.writeInt(0);
+      out.writeLong(centralDirEnd);
+      out.writeInt(1);
+    }
+
+    out.writeInt(END_OF_CENTRAL_DIR);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(zip64 ? 0xFFFF : count);
+    out.writeShort(zip64 ? 0xFFFF : count);
+    out.writeInt(zip64 ? (int) ZIP64_MAGIC : (int) centralDirSize);
+    out.writeInt(zip64 ? (int) ZIP64_MAGIC : (int) centralDirOffset);
+    out.writeShort(0);
+  }
+
+  private static class Entry {
+    private byte[] name;
+    private int method;
+    private long crc;
+    private int size;
+    private int compressedSize;
+    private byte[] data;
+    private long offset;
+
+    static Entry create(String name, byte[] bytes, boolean stored, int level) {
+      Entry entry = new Entry();
+      entry.name = name.getBytes(Charsets.UTF_8);
+      entry.size = bytes.length;
+
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      entry.crc = crc.getValue();
+
+      if(stored) {
+        entry.method = STORED;
+        entry.data = bytes;
+      } else {
+        entry.method = DEFLATED;
+        entry.data = deflate(bytes, level);
+      }
+      entry.compressedSize = entry.data.length;
+      return entry;
+    }
+
+    private static byte[] deflate(byte[] bytes, int level) {
+      Deflater deflater = new Deflater(level, true);
+      try {
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+          int length = deflater.deflate(buffer);
+          compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+  }
+
+  /**
+   * Writes little-endian integers, as required by the ZIP format, and keeps track of the current offset.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    void writeShort(int value) throws IOException {
+      write(value & 0xFF);
+      write((value >>> 8) & 0xFF);
+    }
+
+    void writeInt(int value) throws IOException {
+      writeShort(value & 0xFFFF);
+      writeShort((value >>> 16) & 0xFFFF);
+    }
+
+    void writeLong(long value) throws IOException {
+      writeInt((int) value);
+      writeInt((int) (value >>> 32));
+    }
+  }
+}
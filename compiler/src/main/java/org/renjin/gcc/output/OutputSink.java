@@ -0,0 +1,56 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.output;
+
+import org.renjin.gcc.codegen.ResourceWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the class files, constant resources and link metadata produced by the
+ * {@link org.renjin.gcc.GimpleCompiler}.
+ *
+ * <p>Resource names are always '/'-separated paths relative to the root of the classpath,
+ * for example {@code org/renjin/test/foo.class} or {@code META-INF/org.renjin.gcc.symbols/foo}.</p>
+ */
+public interface OutputSink extends ResourceWriter, Closeable {
+
+  /**
+   * Writes the class file for the class with the given internal name, for example
+   * {@code org/renjin/test/foo}
+   */
+  default void writeClass(String internalName, byte[] classFile) throws IOException {
+    writeResource(internalName + ".class", classFile);
+  }
+
+  /**
+   * Completes any pending writes. No further resources may be written after the sink is closed.
+   */
+  @Override
+  void close() throws IOException;
+
+  /**
+   * Called instead of {@link #close()} if compilation fails. Sinks which can discard
+   * incomplete output should do so; by default, the sink is simply closed.
+   */
+  default void abort() throws IOException {
+    close();
+  }
+}
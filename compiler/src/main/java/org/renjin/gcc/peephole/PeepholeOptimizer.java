@@ -21,8 +21,6 @@ package org.renjin.gcc.peephole;
 import org.renjin.repackaged.asm.Label;
 import org.renjin.repackaged.asm.Type;
 import org.renjin.repackaged.asm.tree.*;
-import org.renjin.repackaged.asm.util.Textifier;
-import org.renjin.repackaged.asm.util.TraceMethodVisitor;
 import org.renjin.repackaged.guava.collect.Lists;
 import org.renjin.repackaged.guava.collect.Sets;
 
@@ -52,14 +50,19 @@ public class PeepholeOptimizer {
     optimizations.add(new PointerAccess());
   }
 
-  public void optimize(MethodNode methodNode) {
-
-    methodNode.accept(new TraceMethodVisitor(new Textifier()));
+  /**
+   * Applies optimizations to {@code methodNode} until no further changes can be made.
+   *
+   * @return the number of passes made over the method's instructions
+   */
+  public int optimize(MethodNode methodNode) {
 
     Set<Label> jumpTargets = findJumpTargets(methodNode);
 
+    int iterations = 0;
     boolean changing;
     do {
+      iterations++;
       NodeIt it = new NodeIt(methodNode.instructions, jumpTargets);
       changing = false;
       do {
@@ -74,6 +77,8 @@ public class PeepholeOptimizer {
         changing = true;
       }
     } while (changing);
+
+    return iterations;
   }
 
 
@@ -19,7 +19,6 @@
 package org.renjin.gcc.symbols;
 
 import org.renjin.gcc.*;
-import org.renjin.gcc.annotations.GlobalVar;
 import org.renjin.gcc.annotations.Noop;
 import org.renjin.gcc.codegen.call.*;
 import org.renjin.gcc.codegen.cpp.*;
@@ -36,6 +35,8 @@ import org.renjin.gcc.gimple.expr.GimpleFunctionRef;
 import org.renjin.gcc.gimple.expr.GimpleSymbolRef;
 import org.renjin.gcc.gimple.type.GimpleVoidType;
 import org.renjin.gcc.link.LinkSymbol;
+import org.renjin.gcc.link.LinkSymbolCache;
+import org.renjin.gcc.link.ReferenceClassTable;
 import org.renjin.gcc.runtime.Builtins;
 import org.renjin.repackaged.guava.base.Preconditions;
 import org.renjin.repackaged.guava.collect.Maps;
@@ -43,6 +44,7 @@ import org.renjin.repackaged.guava.collect.Maps;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -58,6 +60,7 @@ import static java.lang.String.format;
 public class GlobalSymbolTable implements SymbolTable {
 
   private ClassLoader linkClassLoader = getClass().getClassLoader();
+  private LinkSymbolCache linkSymbols = LinkSymbolCache.forClassLoader(linkClassLoader);
   private TypeOracle typeOracle;
   private Map<String, CallGenerator> functions = Maps.newHashMap();
   private final Map<String, ProvidedGlobalVar> providedVariables;
@@ -70,6 +73,7 @@ public class GlobalSymbolTable implements SymbolTable {
 
   public void setLinkClassLoader(ClassLoader linkClassLoader) {
     this.linkClassLoader = linkClassLoader;
+    this.linkSymbols = LinkSymbolCache.forClassLoader(linkClassLoader);
   }
 
   @Override
@@ -133,7 +137,8 @@ public class GlobalSymbolTable implements SymbolTable {
   public void addDefaults() {
 
     addFunction("malloc", new MallocCallGenerator(typeOracle));
-    addFunction("alloca", new MallocCallGenerator(typeOracle));
+    addFunction("alloca", new AllocaCallGenerator(typeOracle));
+    addFunction("__builtin_alloca", new AllocaCallGenerator(typeOracle));
     addFunction("free", new FreeCallGenerator());
     addFunction("realloc", new ReallocCallGenerator(typeOracle));
     addFunction("calloc", new CallocGenerator(typeOracle));
@@ -145,7 +150,7 @@ public class GlobalSymbolTable implements SymbolTable {
 
 
     addFunction("__builtin_malloc__", new MallocCallGenerator(typeOracle));
-    addFunction("__builtin_free__", new MallocCallGenerator(typeOracle));
+    addFunction("__builtin_free__", new FreeCallGenerator());
     addFunction("__builtin_memcpy", new MemCopyCallGenerator(false));
     addFunction("__builtin_memcpy__", new MemCopyCallGenerator(false));
     addFunction("__builtin_memset__", new MemSetGenerator(typeOracle));
@@ -210,8 +215,12 @@ public class GlobalSymbolTable implements SymbolTable {
   public void addFunction(String functionName, Method method) {
     Preconditions.checkArgument(Modifier.isStatic(method.getModifiers()), "Method '%s' must be static", method);
 
-    FunctionCallGenerator callGenerator = new FunctionCallGenerator(new StaticMethodStrategy(typeOracle, method));
-    if(method.isAnnotationPresent(Noop.class)) {
+    addFunction(functionName, new FunctionCallGenerator(new StaticMethodStrategy(typeOracle, method)),
+        method, method.isAnnotationPresent(Noop.class));
+  }
+
+  private void addFunction(String functionName, FunctionCallGenerator callGenerator, Method method, boolean noop) {
+    if(noop) {
       if(!method.getReturnType().equals(void.class)) {
         throw new IllegalStateException("Method " + method + " is annotated with @" + Noop.class.getSimpleName() +
           " but does not have a void return type.");
@@ -222,32 +231,23 @@ public class GlobalSymbolTable implements SymbolTable {
     }
   }
 
+  /**
+   * Adds all public static methods of {@code clazz}, except those which are {@code @Deprecated} or
+   * are to be treated as global variables.
+   */
   public void addMethods(Class<?> clazz) {
-    for (Method method : clazz.getMethods()) {
-      if(Modifier.isPublic(method.getModifiers()) && Modifier.isStatic(method.getModifiers())) {
-        
-        // skip methods that have been @Deprecated
-        if(method.getAnnotation(Deprecated.class) != null) {
-          continue;
-        }
-
-        // Skip methods that are to be treated as global variables
-        if(method.getAnnotation(GlobalVar.class) != null) {
-          continue;
-        }
-
-        addFunction(method.getName(), method);
-      }
+    for (ReferenceClassTable.FunctionEntry function : ReferenceClassTable.of(clazz).getFunctions()) {
+      addFunction(function.getName(), new FunctionCallGenerator(new StaticMethodStrategy(typeOracle, function)),
+          function.getMethod(), function.isNoop());
     }
   }
 
   private Method findMethod(Class<?> declaringClass, String methodName) {
-    for (Method method : declaringClass.getMethods()) {
-      if(method.getName().equals(methodName)) {
-        return method;
-      }
+    Optional<Method> method = ReferenceClassTable.of(declaringClass).findMethod(methodName);
+    if(!method.isPresent()) {
+      throw new IllegalArgumentException(format("No method named '%s' in %s", methodName, declaringClass.getName()));
     }
-    throw new IllegalArgumentException(format("No method named '%s' in %s", methodName, declaringClass.getName()));
+    return method.get();
   }
 
   @Override
@@ -318,10 +318,17 @@ public class GlobalSymbolTable implements SymbolTable {
   }
 
 
+  /**
+   * Forgets earlier lookups of the given names, after link metadata has been written for them.
+   */
+  public void invalidateLinkSymbols(Collection<String> names) {
+    linkSymbols.invalidate(names);
+  }
+
   private Optional<LinkSymbol> findLinkSymbol(String mangledName) {
     Optional<LinkSymbol> linkSymbol = null;
     try {
-      linkSymbol = LinkSymbol.lookup(linkClassLoader, mangledName);
+      linkSymbol = linkSymbols.lookup(mangledName);
     } catch (IOException e) {
       throw new InternalCompilerException("Exception loading link symbol " + mangledName, e);
     }
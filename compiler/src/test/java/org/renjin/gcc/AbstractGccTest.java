@@ -25,6 +25,9 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.rules.TemporaryFolder;
 import org.renjin.gcc.gimple.GimpleCompilationUnit;
+import org.renjin.repackaged.asm.ClassReader;
+import org.renjin.repackaged.asm.tree.ClassNode;
+import org.renjin.repackaged.asm.tree.MethodNode;
 import org.renjin.repackaged.guava.base.Strings;
 import org.renjin.repackaged.guava.collect.Iterables;
 import org.renjin.repackaged.guava.collect.Lists;
@@ -40,6 +43,7 @@ import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 public abstract class AbstractGccTest {
 
@@ -132,8 +136,15 @@ public abstract class AbstractGccTest {
    * Compiles a single source file and loads the resulting class file
    */
   protected final Class<?> compile(String source) throws Exception {
+    return compile(source, compiler -> { });
+  }
+
+  /**
+   * Compiles a single source file with additional compiler options and loads the resulting class file
+   */
+  protected final Class<?> compile(String source, Consumer<GimpleCompiler> options) throws Exception {
     List<GimpleCompilationUnit> units = compileToGimple(Lists.newArrayList(source));
-    compileGimple(units);
+    compileGimple(units, options);
     
     String className = Files.getNameWithoutExtension(source);
     
@@ -141,7 +152,22 @@ public abstract class AbstractGccTest {
   }
   
   protected final Class<?> compileAndTest(String source) throws Exception {
-    Class<?> clazz = compile(source);
+    return compileAndTest(source, compiler -> { });
+  }
+
+  protected final Class<?> compileAndTest(String source, Consumer<GimpleCompiler> options) throws Exception {
+    return compileAndTest(Collections.singletonList(source), options);
+  }
+
+  /**
+   * Compiles the source files together with additional compiler options, and invokes the
+   * {@code test} methods of the first source file's class.
+   */
+  protected final Class<?> compileAndTest(List<String> sources, Consumer<GimpleCompiler> options) throws Exception {
+    compile(sources, options);
+
+    String className = Files.getNameWithoutExtension(sources.get(0));
+    Class<?> clazz = testClassLoader.loadClass(PACKAGE_NAME + "." + className);
 
     List<Method> methods = new ArrayList<>();
     
@@ -167,8 +193,12 @@ public abstract class AbstractGccTest {
   
 
   protected void compile(List<String> sources) throws Exception {
+    compile(sources, compiler -> { });
+  }
+
+  protected void compile(List<String> sources, Consumer<GimpleCompiler> options) throws Exception {
     List<GimpleCompilationUnit> units = compileToGimple(sources);
-    compileGimple(units);
+    compileGimple(units, options);
   }
   
   public GimpleCompilationUnit compileToGimple(String source) throws IOException {
@@ -193,7 +223,18 @@ public abstract class AbstractGccTest {
     return units;
   }
 
+  /**
+   * @return the Gimple file written for the given source by the last call to {@link #compileToGimple(List)}
+   */
+  protected File gimpleFile(String source) {
+    return new File(gcc.getGimpleOutputDir(), new File(AbstractGccTest.class.getResource(source).getFile()).getName() + ".gimple");
+  }
+
   protected void compileGimple(List<GimpleCompilationUnit> units) throws Exception {
+    compileGimple(units, compiler -> { });
+  }
+
+  protected void compileGimple(List<GimpleCompilationUnit> units, Consumer<GimpleCompiler> options) throws Exception {
 
     GimpleCompiler compiler = new GimpleCompiler();
     compiler.setOutputDirectory(outputDir);
@@ -204,7 +245,31 @@ public abstract class AbstractGccTest {
     compiler.addReferenceClass(RStubs.class);
     compiler.addReferenceClass(GimpleAssert.class);
     compiler.addMathLibrary();
+    options.accept(compiler);
     compiler.compile(units);
   }
 
+  /**
+   * Reads a class written to the output directory by the last compilation, without loading it.
+   */
+  protected ClassNode readClass(String className) throws IOException {
+    File classFile = new File(outputDir, (PACKAGE_NAME + "." + className).replace('.', File.separatorChar) + ".class");
+    ClassNode classNode = new ClassNode();
+    new ClassReader(Files.toByteArray(classFile)).accept(classNode, 0);
+    return classNode;
+  }
+
+  /**
+   * Finds the method with the given name in a class read by {@link #readClass(String)}
+   */
+  protected MethodNode findMethod(ClassNode classNode, String name) {
+    for (Object method : classNode.methods) {
+      MethodNode methodNode = (MethodNode) method;
+      if(methodNode.name.equals(name)) {
+        return methodNode;
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
+
 }
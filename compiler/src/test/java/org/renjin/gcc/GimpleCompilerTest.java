@@ -18,21 +18,42 @@
  */
 package org.renjin.gcc;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.renjin.gcc.gimple.GimpleCompilationUnit;
+import org.renjin.gcc.gimple.GimpleFunction;
+import org.renjin.gcc.gimple.GimpleParser;
 import org.renjin.gcc.runtime.*;
+import org.renjin.repackaged.asm.Opcodes;
+import org.renjin.repackaged.asm.tree.AbstractInsnNode;
+import org.renjin.repackaged.asm.tree.ClassNode;
+import org.renjin.repackaged.asm.tree.JumpInsnNode;
+import org.renjin.repackaged.asm.tree.MethodInsnNode;
+import org.renjin.repackaged.asm.tree.MethodNode;
 import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.Files;
 import org.renjin.repackaged.guava.primitives.UnsignedBytes;
 
+import java.io.File;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static java.lang.Double.NaN;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.renjin.repackaged.guava.primitives.UnsignedBytes.checkedCast;
 
 @SuppressWarnings("unchecked")
@@ -166,6 +187,11 @@ public class GimpleCompilerTest extends AbstractGccTest {
     compileAndTest("structs.c");
   }
 
+  @Test
+  public void structLocals() throws Exception {
+    compileAndTest("struct_locals.c", compiler -> compiler.setScalarReplacementEnabled(true));
+  }
+
   @Test
   public void static_init() throws Exception {
     Class clazz = compile("static_init.c");
@@ -613,6 +639,18 @@ public class GimpleCompilerTest extends AbstractGccTest {
     compileAndTest("complex_div.c");
   }
 
+  @Test
+  public void complexReturnValues() throws Exception {
+    compileAndTest("complex_return.c");
+    assertThat(invokedMethods(findMethod(readClass("complex_return"), "cmul")), not(hasItem("ComplexReturnSlot.of")));
+  }
+
+  @Test
+  public void complexReturnSlot() throws Exception {
+    compileAndTest("complex_return.c", compiler -> compiler.setComplexReturnSlotEnabled(true));
+    assertThat(invokedMethods(findMethod(readClass("complex_return"), "cmul")), hasItem("ComplexReturnSlot.of"));
+  }
+
   @Test
   public void doubleComplex() throws Exception {
     Class clazz = compile("double_complex.f");
@@ -1287,5 +1325,437 @@ public class GimpleCompilerTest extends AbstractGccTest {
   public void signbit() throws Exception {
     compileAndTest("signbit.c");
   }
-}
 
+  @Test
+  public void treeShaking() throws Exception {
+    Class<?> clazz = compileAndTest("tree_shaking.c", compiler -> {
+      compiler.setTreeShakingEnabled(true);
+      compiler.addEntryPoint("test_reachable");
+    });
+
+    Set<String> methods = declaredMethodNames(clazz);
+    assertThat(methods, hasItems("test_reachable", "apply", "twice", "negate"));
+    assertThat(methods, not(hasItem("never_called")));
+    assertThat(methods, not(hasItem("unreachable_export")));
+
+    for (Field field : clazz.getDeclaredFields()) {
+      assertThat(field.getName(), not(containsString("unused_table")));
+    }
+  }
+
+  @Test
+  public void profiling() throws Exception {
+    Class<?> clazz = compileAndTest("profiling.c", compiler -> compiler.setProfilingEnabled(true));
+
+    FunctionProfile sumSquares = profile(clazz, "sum_squares");
+    FunctionProfile square = profile(clazz, "square");
+    FunctionProfile checked = profile(clazz, "checked");
+
+    assertThat(sumSquares.getSourceFile(), equalTo("profiling.c"));
+    assertThat(sumSquares.getCallCount(), equalTo(1L));
+    assertThat(square.getCallCount(), equalTo(3L));
+    assertThat(checked.getCallCount(), equalTo(1L));
+    assertTrue(sumSquares.getInclusiveNanos() >= square.getInclusiveNanos());
+
+    // The exit is also recorded when the function throws...
+    try {
+      call(clazz, "checked", -1);
+      fail("Expected abort() to throw");
+    } catch (InvocationTargetException e) {
+      assertThat(e.getCause().getMessage(), containsString("abort"));
+    }
+    assertThat(checked.getCallCount(), equalTo(2L));
+
+    // ...so later calls are not attributed to it
+    assertThat(call(clazz, "sum_squares", 2), equalTo(5));
+    assertThat(sumSquares.getCallCount(), equalTo(2L));
+
+    StringWriter stacks = new StringWriter();
+    Profiler.writeCollapsedStacks(stacks);
+    assertThat(stacks.toString(), containsString("profiling.c:sum_squares;profiling.c:square "));
+    assertThat(stacks.toString(), not(containsString("profiling.c:checked;")));
+  }
+
+  /**
+   * @return the profile of the function registered by the static initializer of {@code clazz}
+   */
+  private static FunctionProfile profile(Class<?> clazz, String functionName) throws Exception {
+    int id = clazz.getField("$profile$" + functionName).getInt(null);
+    FunctionProfile profile = Profiler.getFunctions().get(id);
+    assertThat(profile.getFunctionName(), equalTo(functionName));
+    return profile;
+  }
+
+  @Test
+  public void allocationTracking() throws Exception {
+    Class<?> clazz = compileAndTest("allocation_tracking.c", compiler -> compiler.setAllocationTrackingEnabled(true));
+
+    AllocationSite mallocSite = allocationSite(clazz, "make_buffer");
+    AllocationSite reallocSite = allocationSite(clazz, "grow_buffer");
+
+    assertThat(mallocSite.getSourceFile(), equalTo("allocation_tracking.c"));
+    assertThat(mallocSite.getAllocationCount(), equalTo(1L));
+    assertThat(mallocSite.getAllocatedBytes(), equalTo(32L));
+    assertThat(mallocSite.getFreedBytes(), equalTo(32L));
+    assertThat(reallocSite.getAllocationCount(), equalTo(1L));
+    assertThat(reallocSite.getAllocatedBytes(), equalTo(64L));
+    assertThat(reallocSite.getFreedBytes(), equalTo(64L));
+    assertThat(reallocSite.getLiveBytes(), equalTo(0L));
+
+    Method allocateInts = findMethod(clazz, "allocate_ints");
+    AllocationQuota quota = new AllocationQuota(100);
+    AllocationQuota previous = AllocationTracker.setQuota(quota);
+    try {
+      Object block = allocateInts.invoke(null, 40);
+      assertThat(quota.getUsedBytes(), equalTo(40L));
+
+      // A request which would exceed the quota fails before allocating
+      try {
+        allocateInts.invoke(null, 80);
+        fail("Expected the quota to be exceeded");
+      } catch (InvocationTargetException e) {
+        assertThat(e.getCause(), instanceOf(AllocationQuotaExceededException.class));
+      }
+      assertThat(quota.getUsedBytes(), equalTo(40L));
+
+      // If the allocation itself throws, the reserved bytes are returned to the quota
+      try {
+        allocateInts.invoke(null, -8);
+        fail("Expected a negative allocation to throw");
+      } catch (InvocationTargetException e) {
+        assertThat(e.getCause(), not(instanceOf(AllocationQuotaExceededException.class)));
+      }
+      assertThat(quota.getUsedBytes(), equalTo(40L));
+
+      findMethod(clazz, "release_ints").invoke(null, block);
+      assertThat(quota.getUsedBytes(), equalTo(0L));
+    } finally {
+      AllocationTracker.setQuota(previous);
+    }
+  }
+
+  /**
+   * @return the first allocation site of {@code functionName}, registered by the static initializer of {@code clazz}
+   */
+  private static AllocationSite allocationSite(Class<?> clazz, String functionName) throws Exception {
+    AllocationSite site = (AllocationSite) clazz.getField("$alloc$" + functionName + "$0").get(null);
+    assertThat(site.getFunctionName(), equalTo(functionName));
+    return site;
+  }
+
+  @Test
+  public void compilationMetrics() throws Exception {
+    File jsonFile = new File(outputDir, "metrics.json");
+    compileAndTest("tree_shaking.c", compiler -> compiler.setMetricsFile(jsonFile));
+
+    JsonNode json = new ObjectMapper().readTree(jsonFile);
+    List<String> phases = new ArrayList<>();
+    for (JsonNode phase : json.get("phases")) {
+      phases.add(phase.get("name").asText());
+    }
+    assertThat(phases, hasItems("transform", "codegen", "peephole", "write", "link"));
+
+    JsonNode apply = null;
+    for (JsonNode function : json.get("functions")) {
+      if(function.get("function").asText().equals("apply")) {
+        apply = function;
+      }
+    }
+    assertThat(apply, notNullValue());
+    assertThat(apply.get("unit").asText(), equalTo("tree_shaking.c"));
+    assertThat(apply.get("transformRounds").asInt(), greaterThanOrEqualTo(1));
+    assertThat(apply.get("bytecodeSize").asInt(), greaterThan(0));
+    assertThat(apply.get("maxLocals").asInt(), greaterThanOrEqualTo(2));
+    assertThat(json.get("slowestFunctions").size(), equalTo(json.get("functions").size()));
+
+    File csvFile = new File(outputDir, "metrics.csv");
+    compileAndTest("tree_shaking.c", compiler -> compiler.setMetricsFile(csvFile));
+
+    List<String> lines = Files.readLines(csvFile, Charsets.UTF_8);
+    assertThat(lines.get(0), startsWith("unit,function,"));
+    assertThat(lines, hasItem(startsWith("tree_shaking.c,apply,")));
+  }
+
+  @Test
+  public void treeShakingKeepsCppStaticInitializers() throws Exception {
+    Class<?> clazz = compileAndTest("tree_shaking_init.cpp", compiler -> {
+      compiler.setTreeShakingEnabled(true);
+      compiler.addEntryPoint("test_cpp_reachable");
+    });
+
+    Set<String> methods = declaredMethodNames(clazz);
+    assertThat(methods, hasItem(startsWith("_GLOBAL__sub_I")));
+    assertThat(methods, hasItem(containsString("__static_initialization_and_destruction")));
+    assertThat(methods, hasItem(containsString("mangled_helper")));
+    assertThat(methods, not(hasItem(containsString("unused_helper"))));
+    assertThat(methods, not(hasItem("unreachable_export")));
+  }
+
+  @Test
+  public void treeShakingKeepsTargetsOfPublicAliases() throws Exception {
+    Class<?> clazz = compileAndTest("tree_shaking_alias.c", compiler -> {
+      compiler.setTreeShakingEnabled(true);
+      compiler.addEntryPoint("test_alias");
+      compiler.addEntryPoint("scale");
+    });
+    assertThat(declaredMethodNames(clazz), hasItem("scale_impl"));
+
+    // Without entry points, every public function and alias is a root
+    clazz = compileAndTest("tree_shaking_alias.c", compiler -> compiler.setTreeShakingEnabled(true));
+    assertThat(declaredMethodNames(clazz), hasItem("scale_impl"));
+  }
+
+  @Test
+  public void allocationSinking() throws Exception {
+    compileAndTest("allocation_sinking.c", compiler -> compiler.setAllocationSinkingEnabled(true));
+
+    // The scratch buffer is only allocated once the error branch has been taken
+    MethodNode sunk = findMethod(readClass("allocation_sinking"), "checked_sum");
+    assertThat(indexOf(sunk, Opcodes.NEWARRAY), greaterThan(indexOf(sunk, JumpInsnNode.class)));
+
+    compile("allocation_sinking.c");
+
+    MethodNode eager = findMethod(readClass("allocation_sinking"), "checked_sum");
+    assertThat(indexOf(eager, Opcodes.NEWARRAY), lessThan(indexOf(eager, JumpInsnNode.class)));
+  }
+
+  @Test
+  public void localSlotSharing() throws Exception {
+    compileAndTest("local_slots.c", compiler -> compiler.setLocalSlotSharingEnabled(true));
+    int sharedLocals = findMethod(readClass("local_slots"), "blocks").maxLocals;
+
+    compile("local_slots.c");
+    int separateLocals = findMethod(readClass("local_slots"), "blocks").maxLocals;
+
+    // The temporaries of the three blocks reuse each other's slots
+    assertThat(sharedLocals, lessThan(separateLocals));
+  }
+
+  @Test
+  public void recordClasses() throws Exception {
+    compileAndTest("record_classes.c", compiler -> {
+      compiler.setRecordClassPrefix("record_classes");
+      compiler.setRecordClassesEnabled(true);
+    });
+
+    // struct cell is compiled to its own class, with one typed field per member
+    Class<?> recordClass = testClassLoader.loadClass(PACKAGE_NAME + ".record_classes$cell");
+    Set<Class<?>> fieldTypes = new HashSet<>();
+    for (Field field : recordClass.getDeclaredFields()) {
+      fieldTypes.add(field.getType());
+    }
+    assertThat(recordClass.getDeclaredFields().length, equalTo(3));
+    assertThat(fieldTypes, hasItems(int.class, double.class, recordClass));
+  }
+
+  @Test
+  public void loopVectorization() throws Exception {
+    compileAndTest("loop_vectorization.c", compiler -> compiler.setLoopVectorizationEnabled(true));
+
+    // The loop first checks that the pointers are backed by double[] and then indexes the arrays
+    // directly, but keeps the original loop through the Ptr interface for other pointers
+    MethodNode daxpy = findMethod(readClass("loop_vectorization"), "daxpy");
+    int guard = indexOf(daxpy, Opcodes.INSTANCEOF);
+    assertThat(indexOf(daxpy, Opcodes.DALOAD), greaterThan(guard));
+    assertThat(indexOf(daxpy, Opcodes.DASTORE), greaterThan(guard));
+    assertThat(invokedMethods(daxpy), hasItems("Ptr.getDouble", "Ptr.setDouble"));
+  }
+
+  @Test
+  public void ptrDevirtualization() throws Exception {
+    compileAndTest("ptr_devirtualization.c", compiler -> compiler.setPtrDevirtualizationEnabled(true));
+
+    // Each load and store is guarded separately, with the Ptr interface call as the fallback
+    MethodNode scale = findMethod(readClass("ptr_devirtualization"), "scale");
+    assertThat(count(scale, Opcodes.INSTANCEOF), equalTo(2));
+    assertThat(count(scale, Opcodes.DALOAD), equalTo(1));
+    assertThat(count(scale, Opcodes.DASTORE), equalTo(1));
+    assertThat(invokedMethods(scale), hasItems("Ptr.getDouble", "Ptr.setDouble"));
+  }
+
+  @Test
+  public void stackArena() throws Exception {
+    compileAndTest("stack_arena.c", compiler -> compiler.setStackArenaEnabled(true));
+    ClassNode classNode = readClass("stack_arena");
+
+    // The alloca() buffer and the variadic arguments to sum_ints() come from the arena...
+    Set<String> scoped = invokedMethods(findMethod(classNode, "fill_and_sum"));
+    assertThat(scoped, hasItems("StackArena.current", "StackArena.allocaMixed", "StackArena.release"));
+    assertThat(scoped, not(hasItem(endsWith(".malloc"))));
+
+    // ...but a buffer which escapes the function is still allocated on the heap
+    Set<String> escaping = invokedMethods(findMethod(classNode, "escaping"));
+    assertThat(escaping, hasItem(endsWith(".malloc")));
+    assertThat(escaping, not(hasItem(startsWith("StackArena."))));
+  }
+
+  @Test
+  public void inlining() throws Exception {
+    List<String> sources = Arrays.asList("inlining.c", "inlining_lib.c");
+
+    compile(sources);
+    assertThat(invokedMethods(findMethod(readClass("inlining"), "kernel")),
+        hasItems("inlining.bump", "inlining.kind", "inlining_lib.clamp"));
+
+    compileAndTest(sources, compiler -> compiler.setInliningEnabled(true));
+    ClassNode classNode = readClass("inlining");
+
+    // The small helpers called by kernel() are inlined, including clamp() from the other unit...
+    Set<String> inlined = invokedMethods(findMethod(classNode, "kernel"));
+    assertThat(inlined, not(hasItem("inlining.bump")));
+    assertThat(inlined, not(hasItem("inlining.kind")));
+    assertThat(inlined, not(hasItem("inlining_lib.clamp")));
+
+    // ...but a function with a static local is always called
+    assertThat(invokedMethods(findMethod(classNode, "test_static_locals")), hasItem("inlining.counter"));
+
+    // Locals with initial values are reset on every call inlined in a loop, checked by test_initial_values()
+    assertThat(invokedMethods(findMethod(classNode, "test_initial_values")), not(hasItem("inlining.sum_below")));
+  }
+
+  @Test
+  public void classSplitting() throws Exception {
+    Class<?> clazz = compileAndTest("class_splitting.c", compiler -> compiler.setMaxClassSize(60));
+
+    // The functions and global variables are split between several classes...
+    File packageDir = new File(outputDir, PACKAGE_NAME.replace('.', File.separatorChar));
+    List<String> classFiles = Arrays.asList(packageDir.list());
+    assertThat(classFiles, hasItem(startsWith("class_splitting$Functions")));
+    assertThat(classFiles, hasItem(startsWith("class_splitting$Globals")));
+
+    // ...but all the exported functions can still be called through the unit's class
+    assertThat(declaredMethodNames(clazz), hasItems("parse_number", "format_number", "scaled", "test_class_splitting"));
+  }
+
+  @Test
+  public void classSplittingRunsCppStaticInitializers() throws Exception {
+    // Every function is moved to a class of its own
+    compile("class_splitting_init.cpp", compiler -> {
+      compiler.setMaxClassSize(1);
+      compiler.setCppStaticInitializersEnabled(true);
+    });
+
+    // Call initial_value() through the class to which it was moved, without initializing the unit's class first
+    File packageDir = new File(outputDir, PACKAGE_NAME.replace('.', File.separatorChar));
+    Method initialValue = null;
+    for (String classFile : packageDir.list()) {
+      if(classFile.startsWith("class_splitting_init$Functions")) {
+        String className = PACKAGE_NAME + "." + Files.getNameWithoutExtension(classFile);
+        for (Method method : Class.forName(className, false, testClassLoader).getDeclaredMethods()) {
+          if(method.getName().equals("initial_value")) {
+            initialValue = method;
+          }
+        }
+      }
+    }
+    assertThat(initialValue, notNullValue());
+    assertThat(initialValue.invoke(null), equalTo((Object) 13));
+  }
+
+  /**
+   * @return the methods invoked by the given method, as {@code SimpleClassName.methodName}
+   */
+  private static Set<String> invokedMethods(MethodNode method) {
+    Set<String> invoked = new HashSet<>();
+    for (int i = 0; i < method.instructions.size(); i++) {
+      if(method.instructions.get(i) instanceof MethodInsnNode) {
+        MethodInsnNode call = (MethodInsnNode) method.instructions.get(i);
+        invoked.add(call.owner.substring(call.owner.lastIndexOf('/') + 1) + "." + call.name);
+      }
+    }
+    return invoked;
+  }
+
+  private static int indexOf(MethodNode method, int opcode) {
+    for (int i = 0; i < method.instructions.size(); i++) {
+      if(method.instructions.get(i).getOpcode() == opcode) {
+        return i;
+      }
+    }
+    throw new AssertionError("No instruction with opcode " + opcode + " in " + method.name);
+  }
+
+  private static int indexOf(MethodNode method, Class<? extends AbstractInsnNode> instructionClass) {
+    for (int i = 0; i < method.instructions.size(); i++) {
+      if(instructionClass.isInstance(method.instructions.get(i))) {
+        return i;
+      }
+    }
+    throw new AssertionError("No " + instructionClass.getSimpleName() + " in " + method.name);
+  }
+
+  private static int count(MethodNode method, int opcode) {
+    int count = 0;
+    for (int i = 0; i < method.instructions.size(); i++) {
+      if(method.instructions.get(i).getOpcode() == opcode) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void compileKeepsCallerUnits() throws Exception {
+    List<GimpleCompilationUnit> units = compileToGimple(Collections.singletonList("area.c"));
+    compileGimple(units);
+
+    for (GimpleFunction function : units.get(0).getFunctions()) {
+      assertThat(function.getName(), function.getBasicBlocks(), not(empty()));
+    }
+  }
+
+  @Test
+  public void compileReleasesOwnUnits() throws Exception {
+    List<GimpleCompilationUnit> units = compileToGimple(Collections.singletonList("area.c"));
+
+    GimpleCompiler compiler = new GimpleCompiler();
+    compiler.setOutputDirectory(outputDir);
+    compiler.setPackageName(PACKAGE_NAME);
+    compiler.addMathLibrary();
+    compiler.compile(units, true);
+
+    for (GimpleFunction function : units.get(0).getFunctions()) {
+      assertThat(function.getName(), function.getBasicBlocks(), empty());
+      assertThat(function.getVariableDeclarations(), empty());
+    }
+
+    // The class written before the bodies were released is complete
+    Class<?> clazz = testClassLoader.loadClass(PACKAGE_NAME + ".area");
+    assertThat((Double) clazz.getMethod("circle_area", double.class).invoke(null, 2d), closeTo(12.56, 0.01));
+  }
+
+  @Test
+  public void parallelParse() throws Exception {
+    List<String> sources = Arrays.asList("area.c", "crc.c", "pointers.c", "structs.c", "unions.c");
+    compileToGimple(sources);
+
+    List<File> gimpleFiles = new ArrayList<>();
+    for (String source : sources) {
+      gimpleFiles.add(gimpleFile(source));
+    }
+
+    GimpleCompiler sequentialCompiler = new GimpleCompiler();
+    sequentialCompiler.setParseThreads(1);
+    List<GimpleCompilationUnit> sequential = sequentialCompiler.parse(new GimpleParser(), gimpleFiles);
+
+    GimpleCompiler parallelCompiler = new GimpleCompiler();
+    parallelCompiler.setParseThreads(4);
+    List<GimpleCompilationUnit> parallel = parallelCompiler.parse(new GimpleParser(), gimpleFiles);
+
+    // Units are returned in input order, whichever thread parsed them
+    assertThat(parallel.size(), equalTo(sources.size()));
+    for (int i = 0; i < sources.size(); i++) {
+      assertThat(parallel.get(i).getSourceName(), equalTo(sources.get(i)));
+      assertThat(parallel.get(i).getFunctions().size(), equalTo(sequential.get(i).getFunctions().size()));
+      assertThat(parallel.get(i).getRecordTypes().size(), equalTo(sequential.get(i).getRecordTypes().size()));
+    }
+  }
+
+  private static Set<String> declaredMethodNames(Class<?> clazz) {
+    Set<String> names = new HashSet<>();
+    for (Method method : clazz.getDeclaredMethods()) {
+      names.add(method.getName());
+    }
+    return names;
+  }
+}
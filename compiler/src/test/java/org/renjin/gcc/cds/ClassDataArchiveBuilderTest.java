@@ -0,0 +1,110 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.cds;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.gcc.GimpleCompiler;
+import org.renjin.gcc.gimple.GimpleParser;
+import org.renjin.gcc.output.JarOutputSink;
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.ByteStreams;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ClassDataArchiveBuilderTest {
+
+  private static final String INT = "{'type': 'integer_type', 'size': 32, 'unsigned': false}";
+
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(dir.toPath());
+  }
+
+  @Test
+  public void classListFormat() throws Exception {
+    File gimpleFile = new File(dir, "answer.c.gimple");
+    Files.asCharSink(gimpleFile, Charsets.UTF_8).write(("{'mainInputFilename': 'answer.c', 'functions': [" +
+        "{'id': 1, 'name': 'answer', 'mangledName': 'answer', 'public': true, 'returnType': " + INT + ", " +
+        "'parameters': [], 'variableDeclarations': [], 'basicBlocks': [{'index': 2, 'statements': [" +
+        "{'type': 'return', 'line': 1, 'value': {'code': 'integer_cst', 'value': 42, 'type': " + INT + "}}]}]}], " +
+        "'recordTypes': [], 'globalVariables': []}").replace('\'', '"'));
+
+    File jar = new File(dir, "answer.jar");
+    GimpleCompiler compiler = new GimpleCompiler();
+    compiler.setOutputJar(jar);
+    compiler.setPackageName("org.renjin.test");
+    compiler.compile(Collections.singletonList(new GimpleParser().parse(gimpleFile)));
+
+    // One internal class name per line, as expected by -XX:SharedClassListFile
+    List<String> lines = new ArrayList<>();
+    try(ZipFile zipFile = new ZipFile(jar)) {
+      try(InputStream in = zipFile.getInputStream(zipFile.getEntry(GimpleCompiler.CLASS_LIST_NAME))) {
+        lines.addAll(Arrays.asList(new String(ByteStreams.toByteArray(in), Charsets.UTF_8).split("\n")));
+      }
+      assertThat(lines, hasItem("org/renjin/test/answer"));
+      for (String line : lines) {
+        assertThat(line, not(endsWith(".class")));
+        assertThat(line, zipFile.getEntry(line + ".class"), notNullValue());
+      }
+    }
+
+    Set<String> classList = new LinkedHashSet<>();
+    ClassDataArchiveBuilder.readClassList(jar, classList);
+    assertThat(new ArrayList<>(classList), equalTo(lines));
+  }
+
+  @Test
+  public void classListIncludesRuntimeClasses() throws IOException {
+    File jar = new File(dir, "runtime.jar");
+    try(JarOutputSink sink = new JarOutputSink(jar, 1)) {
+      sink.writeResource(GimpleCompiler.CLASS_LIST_NAME, "org/renjin/test/a\n\norg/renjin/test/b\n".getBytes(Charsets.UTF_8));
+      sink.writeClass("org/renjin/gcc/runtime/Stub", new byte[0]);
+      sink.writeClass("org/other/Stub", new byte[0]);
+      sink.writeResource("org/renjin/gcc/runtime/stub.txt", new byte[0]);
+    }
+
+    Set<String> classList = new LinkedHashSet<>();
+    ClassDataArchiveBuilder.readClassList(jar, classList);
+    assertThat(classList, contains("org/renjin/test/a", "org/renjin/test/b", "org/renjin/gcc/runtime/Stub"));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.gimple.type;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.gcc.analysis.PmfRewriter;
+import org.renjin.gcc.gimple.GimpleCompilationUnit;
+import org.renjin.gcc.gimple.GimpleParser;
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class GimpleTypeInternerTest {
+
+  private static final String INT = "{'type': 'integer_type', 'size': 32, 'unsigned': false}";
+
+  private static final String POINT = "{'id': 'pt', 'name': 'point', 'size': 64, 'fields': [" +
+      field(1, "x", 0, INT) + ", " +
+      field(2, "y", 32, INT) + "]}";
+
+  private static final String POINT3 = "{'id': 'pt', 'name': 'point', 'size': 96, 'fields': [" +
+      field(1, "x", 0, INT) + ", " +
+      field(2, "y", 32, INT) + ", " +
+      field(3, "z", 64, INT) + "]}";
+
+  private static final String POINT_PTR = "{'type': 'pointer_type', 'size': 32, " +
+      "'baseType': {'type': 'record_type', 'id': 'pt', 'name': 'point', 'size': 64}}";
+
+  private static final String PMF = "{'id': 'pmf', 'size': 64, 'fields': [" +
+      field(1, "__pfn", 0, "{'type': 'pointer_type', 'size': 32, 'baseType': " +
+          "{'type': 'function_type', 'returnType': {'type': 'void_type'}, 'argumentTypes': []}}") + ", " +
+      field(2, "__delta", 32, INT) + "]}";
+
+  private File dir;
+  private GimpleParser parser;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+    parser = new GimpleParser();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(dir.toPath());
+  }
+
+  @Test
+  public void typesAreSharedBetweenUnits() throws IOException {
+    GimpleCompilationUnit a = parse("a.c", POINT, POINT_PTR);
+    GimpleCompilationUnit b = parse("b.c", POINT, POINT_PTR);
+
+    assertThat(b.getRecordTypes().get(0), sameInstance(a.getRecordTypes().get(0)));
+    assertThat(b.getGlobalVariables().get(0).getType(), sameInstance(a.getGlobalVariables().get(0).getType()));
+    assertThat(parser.getTypeInterner().getHitCount(), greaterThan(0L));
+  }
+
+  @Test
+  public void recordsWithDifferentFieldsAreNotMerged() throws IOException {
+    GimpleCompilationUnit a = parse("a.c", POINT, POINT_PTR);
+    GimpleCompilationUnit b = parse("b.c", POINT3, POINT_PTR);
+
+    GimpleRecordTypeDef point = a.getRecordTypes().get(0);
+    GimpleRecordTypeDef point3 = b.getRecordTypes().get(0);
+    assertThat(point3, not(sameInstance(point)));
+    assertThat(point.getFields(), hasSize(2));
+    assertThat(point3.getFields(), hasSize(3));
+  }
+
+  @Test
+  public void sharedPmfRecordIsRewrittenOnce() throws IOException {
+    GimpleCompilationUnit a = parse("a.cpp", PMF, INT);
+    GimpleCompilationUnit b = parse("b.cpp", PMF, INT);
+    GimpleRecordTypeDef pmf = a.getRecordTypes().get(0);
+    assertThat(b.getRecordTypes().get(0), sameInstance(pmf));
+
+    // The second unit finds the flag field already added for the first
+    PmfRewriter.rewrite(Arrays.asList(a, b));
+    assertThat(pmf.getFields(), hasSize(3));
+    assertThat(pmf.getFields().get(2).getName(), equalTo("__pfn$flag"));
+    assertThat(pmf.getSize(), equalTo(96));
+
+    PmfRewriter.rewrite(b);
+    assertThat(pmf.getFields(), hasSize(3));
+    assertThat(pmf.getSize(), equalTo(96));
+  }
+
+  private GimpleCompilationUnit parse(String sourceName, String recordType, String globalType) throws IOException {
+    String json = "{'mainInputFilename': '" + sourceName + "', 'functions': [], " +
+        "'recordTypes': [" + recordType + "], " +
+        "'globalVariables': [{'id': 100, 'name': 'g', 'mangledName': 'g', 'type': " + globalType + "}]}";
+
+    File file = new File(dir, sourceName + ".gimple");
+    Files.asCharSink(file, Charsets.UTF_8).write(json.replace('\'', '"'));
+    return parser.parse(file);
+  }
+
+  private static String field(int id, String name, int offset, String type) {
+    return "{'id': " + id + ", 'name': '" + name + "', 'offset': " + offset + ", 'size': 32, 'type': " + type + "}";
+  }
+}
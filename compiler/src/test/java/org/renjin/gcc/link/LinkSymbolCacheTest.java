@@ -0,0 +1,124 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.link;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.gcc.output.DirectoryOutputSink;
+import org.renjin.repackaged.asm.Type;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LinkSymbolCacheTest {
+
+  private File dir;
+  private URLClassLoader classLoader;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDir();
+    classLoader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, null);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    classLoader.close();
+    MoreFiles.deleteRecursively(dir.toPath());
+  }
+
+  @Test
+  public void cacheIsSharedBetweenCompilations() throws IOException {
+    LinkSymbolCache cache = LinkSymbolCache.forClassLoader(classLoader);
+    assertFalse(cache.lookup("bar").isPresent());
+
+    assertThat(LinkSymbolCache.forClassLoader(classLoader), sameInstance(cache));
+
+    // A different class loader has its own cache
+    try(URLClassLoader other = new URLClassLoader(new URL[] { dir.toURI().toURL() }, null)) {
+      assertThat(LinkSymbolCache.forClassLoader(other), not(sameInstance(cache)));
+    }
+  }
+
+  @Test
+  public void rebuiltPackageIsSeenByLaterCompilation() throws IOException {
+    write(LinkSymbol.forGlobalVariable("foo", Type.getObjectType("pkg/A")));
+
+    assertTrue(LinkSymbolCache.forClassLoader(classLoader).lookup("foo").isPresent());
+
+    // The package is rebuilt without foo
+    new File(dir, LinkSymbol.METADATA_PREFIX + "foo").delete();
+    LinkSymbolIndex.write(new DirectoryOutputSink(dir), Collections.emptyList());
+
+    assertFalse(LinkSymbolCache.forClassLoader(classLoader).lookup("foo").isPresent());
+  }
+
+  @Test
+  public void invalidateForgetsUnresolvedName() throws IOException {
+    LinkSymbolCache cache = LinkSymbolCache.forClassLoader(classLoader);
+    assertFalse(cache.lookup("bar").isPresent());
+
+    write(LinkSymbol.forGlobalVariable("bar", Type.getObjectType("pkg/A")));
+
+    // Still cached as unresolved until invalidated
+    assertFalse(cache.lookup("bar").isPresent());
+
+    cache.invalidate(Collections.singleton("bar"));
+    assertTrue(cache.lookup("bar").isPresent());
+  }
+
+  @Test
+  public void invalidateReloadsIndexWithPreviousDefinition() throws IOException {
+    write(LinkSymbol.forGlobalVariable("baz", Type.getObjectType("pkg/A")),
+          LinkSymbol.forGlobalVariable("other", Type.getObjectType("pkg/A")));
+
+    LinkSymbolCache cache = LinkSymbolCache.forClassLoader(classLoader);
+    assertThat(cache.lookup("baz").get().getClassName(), equalTo("pkg/A"));
+
+    write(LinkSymbol.forGlobalVariable("baz", Type.getObjectType("pkg/B")),
+          LinkSymbol.forGlobalVariable("other", Type.getObjectType("pkg/A")));
+    cache.invalidate(Collections.singleton("baz"));
+
+    Optional<LinkSymbol> baz = cache.lookup("baz");
+    assertThat(baz.get().getClassName(), equalTo("pkg/B"));
+  }
+
+  private void write(LinkSymbol... symbols) throws IOException {
+    DirectoryOutputSink sink = new DirectoryOutputSink(dir);
+    for (LinkSymbol symbol : symbols) {
+      symbol.write(sink);
+    }
+    LinkSymbolIndex.write(sink, Arrays.asList(symbols));
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.link;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.gcc.output.DirectoryOutputSink;
+import org.renjin.repackaged.asm.Handle;
+import org.renjin.repackaged.asm.Opcodes;
+import org.renjin.repackaged.asm.Type;
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class LinkSymbolIndexTest {
+
+  private File dir;
+  private File otherDir;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+    otherDir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(dir.toPath());
+    MoreFiles.deleteRecursively(otherDir.toPath());
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    LinkSymbol function = LinkSymbol.forFunction("f", new Handle(Opcodes.H_INVOKESTATIC, "pkg/A", "f$impl", "(I)I"));
+    LinkSymbol variable = LinkSymbol.forGlobalVariable("g", Type.getObjectType("pkg/B"));
+    LinkSymbol getter = LinkSymbol.forGetter(Type.getObjectType("pkg/A"), "h", "get_h", Type.DOUBLE_TYPE);
+    LinkSymbolIndex.write(new DirectoryOutputSink(dir), Arrays.asList(variable, getter, function));
+
+    LinkSymbolIndex index = load(dir);
+    assertThat(index.size(), equalTo(3));
+    assertSameSymbol(index.lookup("f").get(), function);
+    assertSameSymbol(index.lookup("g").get(), variable);
+    assertSameSymbol(index.lookup("h").get(), getter);
+    assertFalse(index.lookup("missing").isPresent());
+  }
+
+  @Test
+  public void indexFormat() throws IOException {
+    LinkSymbolIndex.write(new DirectoryOutputSink(dir), Arrays.asList(
+        LinkSymbol.forGlobalVariable("z", Type.getObjectType("pkg/B")),
+        LinkSymbol.forFunction("a", new Handle(Opcodes.H_INVOKESTATIC, "pkg/A", "a", "()V"))));
+
+    // One tab-separated line per symbol, sorted by name, with empty columns for missing members
+    List<String> lines = Files.readLines(new File(dir, LinkSymbolIndex.INDEX_NAME), Charsets.UTF_8);
+    assertThat(lines, equalTo(Arrays.asList(
+        "a\tMETHOD\tpkg/A\ta\t()V",
+        "z\tFIELD\tpkg/B\tz\t")));
+  }
+
+  @Test
+  public void indexTakesPrecedenceOverSymbolResources() throws IOException {
+    LinkSymbol.forGlobalVariable("foo", Type.getObjectType("pkg/Old")).write(new DirectoryOutputSink(dir));
+    LinkSymbolIndex.write(new DirectoryOutputSink(dir),
+        Collections.singletonList(LinkSymbol.forGlobalVariable("foo", Type.getObjectType("pkg/New"))));
+
+    try(URLClassLoader classLoader = classLoader(dir)) {
+      assertThat(LinkSymbol.lookup(classLoader, "foo").get().getClassName(), equalTo("pkg/Old"));
+      assertThat(LinkSymbolCache.forClassLoader(classLoader).lookup("foo").get().getClassName(), equalTo("pkg/New"));
+    }
+  }
+
+  @Test
+  public void firstIndexOnClasspathWins() throws IOException {
+    LinkSymbolIndex.write(new DirectoryOutputSink(dir),
+        Collections.singletonList(LinkSymbol.forGlobalVariable("foo", Type.getObjectType("pkg/First"))));
+    LinkSymbolIndex.write(new DirectoryOutputSink(otherDir), Arrays.asList(
+        LinkSymbol.forGlobalVariable("foo", Type.getObjectType("pkg/Second")),
+        LinkSymbol.forGlobalVariable("bar", Type.getObjectType("pkg/Second"))));
+
+    LinkSymbolIndex index = load(dir, otherDir);
+    assertThat(index.lookup("foo").get().getClassName(), equalTo("pkg/First"));
+    assertThat(index.lookup("bar").get().getClassName(), equalTo("pkg/Second"));
+  }
+
+  @Test(expected = IOException.class)
+  public void malformedIndex() throws IOException {
+    File indexFile = new File(dir, LinkSymbolIndex.INDEX_NAME);
+    Files.createParentDirs(indexFile);
+    Files.asCharSink(indexFile, Charsets.UTF_8).write("foo\tFIELD\tpkg/A\n");
+
+    load(dir);
+  }
+
+  private static void assertSameSymbol(LinkSymbol actual, LinkSymbol expected) {
+    assertThat(actual.getName(), equalTo(expected.getName()));
+    assertThat(actual.getType(), equalTo(expected.getType()));
+    assertThat(actual.getClassName(), equalTo(expected.getClassName()));
+    assertThat(actual.getMemberName(), equalTo(expected.getMemberName()));
+    if(expected.getDescriptor() == null) {
+      assertThat(actual.getDescriptor(), nullValue());
+    } else {
+      assertThat(actual.getDescriptor(), equalTo(expected.getDescriptor()));
+    }
+  }
+
+  private static LinkSymbolIndex load(File... dirs) throws IOException {
+    try(URLClassLoader classLoader = classLoader(dirs)) {
+      return LinkSymbolIndex.load(classLoader);
+    }
+  }
+
+  private static URLClassLoader classLoader(File... dirs) throws IOException {
+    URL[] urls = new URL[dirs.length];
+    for (int i = 0; i < dirs.length; i++) {
+      urls[i] = dirs[i].toURI().toURL();
+    }
+    return new URLClassLoader(urls, null);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AsyncLogWriterTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(dir.toPath());
+  }
+
+  @Test
+  public void closeWritesEverythingAndStopsThread() throws IOException {
+    AsyncLogWriter writer = new AsyncLogWriter(System.err);
+    for (int i = 0; i < 1000; i++) {
+      writer.write(new File(dir, i + ".log"), "entry " + i);
+    }
+    writer.close();
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(Files.asCharSource(new File(dir, i + ".log"), Charsets.UTF_8).read(), equalTo("entry " + i));
+    }
+    assertThat(writerThreadCount(), equalTo(0));
+  }
+
+  @Test
+  public void writeAfterClose() throws IOException {
+    AsyncLogWriter writer = new AsyncLogWriter(System.err);
+    writer.write(new File(dir, "first.log"), "first");
+    writer.close();
+    writer.write(new File(dir, "second.log"), "second");
+    writer.close();
+
+    assertThat(Files.asCharSource(new File(dir, "second.log"), Charsets.UTF_8).read(), equalTo("second"));
+    assertThat(writerThreadCount(), equalTo(0));
+  }
+
+  @Test
+  public void closeWithoutWrites() throws IOException {
+    new AsyncLogWriter(System.err).close();
+  }
+
+  private static int writerThreadCount() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if(thread.getName().equals("gcc-bridge-log-writer") && thread.isAlive()) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
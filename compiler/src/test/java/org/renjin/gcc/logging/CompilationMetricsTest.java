@@ -0,0 +1,186 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.logging;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.renjin.gcc.gimple.GimpleCompilationUnit;
+import org.renjin.gcc.gimple.GimpleFunction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CompilationMetricsTest {
+
+  private final GimpleCompilationUnit unit = unit("/src/lib.c");
+
+  @Test
+  public void phasesAccumulate() throws InterruptedException {
+    CompilationMetrics metrics = new CompilationMetrics();
+
+    CompilationMetrics.Mark mark = CompilationMetrics.mark();
+    Thread.sleep(5);
+    metrics.phase("parse", mark);
+    long firstNanos = metrics.getPhases().iterator().next().getWallNanos();
+
+    metrics.phase("transform", CompilationMetrics.mark());
+    metrics.phase("parse", CompilationMetrics.mark());
+
+    List<String> names = new ArrayList<>();
+    for (CompilationMetrics.PhaseMetrics phase : metrics.getPhases()) {
+      names.add(phase.getName());
+    }
+    assertThat(names, contains("parse", "transform"));
+
+    CompilationMetrics.PhaseMetrics parse = metrics.getPhases().iterator().next();
+    assertThat(firstNanos, greaterThanOrEqualTo(5_000_000L));
+    assertThat(parse.getWallNanos(), greaterThanOrEqualTo(firstNanos));
+  }
+
+  @Test
+  public void allocationsOfOtherThreads() {
+    CompilationMetrics metrics = new CompilationMetrics();
+    metrics.phase("parse", CompilationMetrics.mark());
+    long ownBytes = metrics.getPhases().iterator().next().getAllocatedBytes();
+
+    metrics.addAllocatedBytes("parse", 1000);
+    if(ownBytes >= 0) {
+      assertThat(metrics.getPhases().iterator().next().getAllocatedBytes(), equalTo(ownBytes + 1000));
+    }
+
+    // Once any measurement is unavailable, so is the total
+    metrics.addAllocatedBytes("parse", -1);
+    assertThat(metrics.getPhases().iterator().next().getAllocatedBytes(), equalTo(-1L));
+  }
+
+  @Test
+  public void functionMetrics() {
+    CompilationMetrics metrics = new CompilationMetrics();
+    GimpleFunction function = function("sum");
+
+    metrics.functionTransformed(function, CompilationMetrics.mark(), 2);
+    metrics.functionTransformed(function, CompilationMetrics.mark(), 1);
+    metrics.functionGenerated(function, CompilationMetrics.mark(), 300, 64, 4, 120, 7);
+
+    CompilationMetrics.FunctionMetrics f = metrics.getFunctions().iterator().next();
+    assertThat(metrics.getFunctions(), hasSize(1));
+    assertThat(f.getUnit(), equalTo("lib.c"));
+    assertThat(f.getFunction(), equalTo("sum"));
+    assertThat(f.getTransformRounds(), equalTo(3));
+    assertThat(f.getPeepholeNanos(), equalTo(300L));
+    assertThat(f.getPeepholeIterations(), equalTo(4));
+    assertThat(f.getBytecodeSize(), equalTo(120));
+    assertThat(f.getMaxLocals(), equalTo(7));
+    assertThat(f.getTotalNanos(), equalTo(f.getTransformNanos() + f.getCodegenNanos()));
+
+    // Peephole optimization is also reported as a phase of its own
+    CompilationMetrics.PhaseMetrics peephole = metrics.getPhases().iterator().next();
+    assertThat(peephole.getName(), equalTo("peephole"));
+    assertThat(peephole.getWallNanos(), equalTo(300L));
+  }
+
+  @Test
+  public void slowestFunctions() throws InterruptedException {
+    CompilationMetrics metrics = new CompilationMetrics();
+    metrics.functionTransformed(function("fast"), CompilationMetrics.mark(), 1);
+
+    CompilationMetrics.Mark mark = CompilationMetrics.mark();
+    Thread.sleep(20);
+    metrics.functionTransformed(function("slow"), mark, 1);
+
+    mark = CompilationMetrics.mark();
+    Thread.sleep(10);
+    metrics.functionTransformed(function("medium"), mark, 1);
+
+    assertThat(functionNames(metrics.getSlowestFunctions(10)), contains("slow", "medium", "fast"));
+    assertThat(functionNames(metrics.getSlowestFunctions(1)), contains("slow"));
+  }
+
+  @Test
+  public void csvQuotesFields() throws IOException {
+    CompilationMetrics metrics = new CompilationMetrics();
+    metrics.functionGenerated(function("plain"), CompilationMetrics.mark(), 0, 0, 1, 10, 2);
+    metrics.functionGenerated(function("operator,\"x\""), CompilationMetrics.mark(), 0, 0, 1, 20, 3);
+
+    StringWriter writer = new StringWriter();
+    metrics.writeCsv(writer);
+    String[] lines = writer.toString().split("\\r?\\n");
+
+    assertThat(lines.length, equalTo(3));
+    assertThat(lines[0], startsWith("unit,function,transform_rounds,"));
+    assertThat(lines[1], startsWith("lib.c,plain,0,"));
+    assertThat(lines[1], endsWith(",10,2"));
+    assertThat(lines[2], startsWith("lib.c,\"operator,\"\"x\"\"\",0,"));
+    assertThat(lines[2], endsWith(",20,3"));
+  }
+
+  @Test
+  public void json() throws IOException {
+    CompilationMetrics metrics = new CompilationMetrics();
+    metrics.phase("transform", CompilationMetrics.mark());
+    metrics.functionTransformed(function("sum"), CompilationMetrics.mark(), 2);
+    metrics.functionGenerated(function("sum"), CompilationMetrics.mark(), 0, 0, 1, 42, 5);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    metrics.writeJson(out);
+    JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+
+    assertThat(json.get("phases").get(0).get("name").asText(), equalTo("transform"));
+    assertThat(json.get("phases").get(1).get("name").asText(), equalTo("peephole"));
+
+    JsonNode function = json.get("functions").get(0);
+    assertThat(function.get("unit").asText(), equalTo("lib.c"));
+    assertThat(function.get("function").asText(), equalTo("sum"));
+    assertThat(function.get("transformRounds").asInt(), equalTo(2));
+    assertThat(function.get("bytecodeSize").asInt(), equalTo(42));
+    assertThat(function.get("maxLocals").asInt(), equalTo(5));
+
+    assertThat(json.get("slowestFunctions").size(), equalTo(1));
+    assertThat(json.get("slowestFunctions").get(0).get("function").asText(), equalTo("sum"));
+  }
+
+  private GimpleFunction function(String name) {
+    GimpleFunction function = new GimpleFunction();
+    function.setName(name);
+    function.setMangledName(name);
+    function.setUnit(unit);
+    return function;
+  }
+
+  private static GimpleCompilationUnit unit(String source) {
+    GimpleCompilationUnit unit = new GimpleCompilationUnit();
+    unit.setMainInputFilename(source);
+    return unit;
+  }
+
+  private static List<String> functionNames(List<CompilationMetrics.FunctionMetrics> functions) {
+    List<String> names = new ArrayList<>();
+    for (CompilationMetrics.FunctionMetrics function : functions) {
+      names.add(function.getFunction());
+    }
+    return names;
+  }
+}
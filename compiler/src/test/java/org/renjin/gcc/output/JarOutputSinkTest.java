@@ -0,0 +1,182 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.output;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.renjin.repackaged.guava.base.Charsets;
+import org.renjin.repackaged.guava.io.ByteStreams;
+import org.renjin.repackaged.guava.io.Files;
+import org.renjin.repackaged.guava.io.MoreFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JarOutputSinkTest {
+
+  private File dir;
+  private File jarFile;
+
+  @Before
+  public void setUp() {
+    dir = Files.createTempDir();
+    jarFile = new File(dir, "out.jar");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(dir.toPath());
+  }
+
+  @Test
+  public void entriesAreWrittenInSubmissionOrder() throws IOException {
+    List<String> expected = new ArrayList<>();
+    expected.add("META-INF/MANIFEST.MF");
+
+    try(JarOutputSink sink = new JarOutputSink(jarFile, 4)) {
+      for (int i = 0; i < 100; i++) {
+        // Vary the size so that the entries finish compressing out of order
+        String name = "org/renjin/test/c" + (99 - i) + ".class";
+        sink.writeResource(name, content(name, (i % 7) * 10000));
+        expected.add(name);
+      }
+    }
+
+    try(ZipFile zip = new ZipFile(jarFile)) {
+      assertThat(entryNames(zip), equalTo(expected));
+      for (String name : expected.subList(1, expected.size())) {
+        assertTrue(Arrays.equals(read(zip, name), content(name, (99 - index(name)) % 7 * 10000)));
+      }
+    }
+  }
+
+  @Test
+  public void duplicateEntriesAreRejected() throws IOException {
+    try(JarOutputSink sink = new JarOutputSink(jarFile, 1)) {
+      sink.writeResource("a.txt", content("a", 1));
+      try {
+        sink.writeResource("a.txt", content("b", 1));
+        fail("expected ZipException");
+      } catch (ZipException expected) {
+        // ok
+      }
+    }
+
+    try(ZipFile zip = new ZipFile(jarFile)) {
+      assertThat(entryNames(zip), equalTo(Arrays.asList("META-INF/MANIFEST.MF", "a.txt")));
+      assertTrue(Arrays.equals(read(zip, "a.txt"), content("a", 1)));
+    }
+  }
+
+  @Test
+  public void zip64EntryCount() throws IOException {
+    int count = 0x10000;
+    try(JarOutputSink sink = new JarOutputSink(jarFile, 2)) {
+      sink.setCompressionLevel(0);
+      for (int i = 0; i < count; i++) {
+        sink.writeResource("e" + i, new byte[] { (byte) i });
+      }
+    }
+
+    try(ZipFile zip = new ZipFile(jarFile)) {
+      // Includes the manifest
+      assertThat(zip.size(), equalTo(count + 1));
+      assertThat(read(zip, "e65535")[0], equalTo((byte) 0xFF));
+    }
+  }
+
+  @Test
+  public void nothingIsWrittenUntilClosed() throws IOException {
+    JarOutputSink sink = new JarOutputSink(jarFile, 1);
+    sink.writeResource("a.txt", content("a", 1));
+    assertFalse(jarFile.exists());
+
+    sink.close();
+    assertTrue(jarFile.exists());
+    assertThat(dir.listFiles(), arrayWithSize(1));
+  }
+
+  @Test
+  public void abortLeavesNoArchive() throws IOException {
+    JarOutputSink sink = new JarOutputSink(jarFile, 1);
+    sink.writeResource("a.txt", content("a", 1000));
+    sink.abort();
+
+    assertThat(dir.listFiles(), arrayWithSize(0));
+  }
+
+  @Test
+  public void abortKeepsPreviousArchive() throws IOException {
+    try(JarOutputSink sink = new JarOutputSink(jarFile, 1)) {
+      sink.writeResource("old.txt", content("old", 1));
+    }
+
+    JarOutputSink sink = new JarOutputSink(jarFile, 1);
+    sink.writeResource("new.txt", content("new", 1));
+    sink.abort();
+
+    try(ZipFile zip = new ZipFile(jarFile)) {
+      assertThat(entryNames(zip), equalTo(Arrays.asList("META-INF/MANIFEST.MF", "old.txt")));
+    }
+    assertThat(dir.listFiles(), arrayWithSize(1));
+  }
+
+  private static int index(String name) {
+    return Integer.parseInt(name.substring("org/renjin/test/c".length(), name.length() - ".class".length()));
+  }
+
+  private static byte[] content(String name, int padding) {
+    StringBuilder sb = new StringBuilder(name);
+    for (int i = 0; i < padding; i++) {
+      sb.append((char)('a' + (i * 31 + name.length()) % 26));
+    }
+    return sb.toString().getBytes(Charsets.UTF_8);
+  }
+
+  private static List<String> entryNames(ZipFile zip) {
+    List<String> names = new ArrayList<>();
+    Enumeration<? extends ZipEntry> entries = zip.entries();
+    while (entries.hasMoreElements()) {
+      names.add(entries.nextElement().getName());
+    }
+    return names;
+  }
+
+  private static byte[] read(ZipFile zip, String name) throws IOException {
+    try(InputStream in = zip.getInputStream(zip.getEntry(name))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+#include <stdlib.h>
+#include <string.h>
+
+#include "assert.h"
+
+struct error_info {
+  int code;
+  double value;
+};
+
+static int last_code = 0;
+
+static void report(struct error_info *info) {
+  last_code = info->code;
+}
+
+/* The scratch buffer and record are only needed on the error path */
+static double checked_sum(const double *x, int n) {
+  double scratch[1024];
+  struct error_info info;
+  double total = 0;
+  int i;
+
+  if(n < 0 || n > 1024) {
+    memset(scratch, 0, sizeof(scratch));
+    scratch[0] = n;
+    info.code = 42;
+    info.value = scratch[0];
+    report(&info);
+    return info.value;
+  }
+  for(i = 0; i < n; ++i) {
+    total += x[i];
+  }
+  return total;
+}
+
+/* A buffer which is first used within a loop keeps its contents between iterations */
+static int carried(int n) {
+  int buf[4];
+  int i;
+  for(i = 0; i < n; ++i) {
+    if(i == 0) {
+      buf[1] = 0;
+    }
+    buf[1] += i;
+  }
+  return n > 0 ? buf[1] : -1;
+}
+
+/* A buffer used on two paths is allocated in the block which dominates both */
+static int two_paths(int err) {
+  int codes[16];
+  if(err) {
+    codes[0] = err;
+    if(err > 1) {
+      return codes[0] * 2;
+    } else {
+      return codes[0];
+    }
+  }
+  return 0;
+}
+
+void test_checked_sum() {
+  double x[] = { 1, 2, 3 };
+  ASSERT(checked_sum(x, 3) == 6);
+  ASSERT(last_code == 0);
+  ASSERT(checked_sum(x, -5) == -5);
+  ASSERT(last_code == 42);
+}
+
+void test_carried() {
+  ASSERT(carried(10) == 45);
+  ASSERT(carried(0) == -1);
+}
+
+void test_two_paths() {
+  ASSERT(two_paths(0) == 0);
+  ASSERT(two_paths(1) == 1);
+  ASSERT(two_paths(3) == 6);
+}
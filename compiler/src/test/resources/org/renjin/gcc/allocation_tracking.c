@@ -0,0 +1,31 @@
+
+#include <stdlib.h>
+#include "assert.h"
+
+double *make_buffer(int n) {
+  return malloc(sizeof(double) * n);
+}
+
+double *grow_buffer(double *p, int n) {
+  return realloc(p, sizeof(double) * n);
+}
+
+void release_buffer(double *p) {
+  free(p);
+}
+
+int *allocate_ints(int bytes) {
+  return malloc(bytes);
+}
+
+void release_ints(int *p) {
+  free(p);
+}
+
+void test_allocation_tracking() {
+  double *p = make_buffer(4);
+  p[3] = 1.5;
+  p = grow_buffer(p, 8);
+  ASSERT(p[3] == 1.5);
+  release_buffer(p);
+}
@@ -0,0 +1,65 @@
+
+#include "assert.h"
+
+static int parse_count;
+static int format_count;
+
+static int scale = 3;
+
+static int parse_digit(char c) {
+  parse_count++;
+  if(c >= '0' && c <= '9') {
+    return c - '0';
+  }
+  return -1;
+}
+
+int parse_number(const char *s) {
+  int value = 0;
+  while(*s) {
+    int digit = parse_digit(*s);
+    if(digit < 0) {
+      break;
+    }
+    value = value * 10 + digit;
+    s++;
+  }
+  return value;
+}
+
+static char format_digit(int digit) {
+  format_count++;
+  return (char)('0' + digit);
+}
+
+int format_number(int value, char *buffer) {
+  char digits[16];
+  int n = 0;
+  int i;
+  do {
+    digits[n++] = format_digit(value % 10);
+    value /= 10;
+  } while(value > 0);
+  for(i = 0; i < n; ++i) {
+    buffer[i] = digits[n - i - 1];
+  }
+  buffer[n] = 0;
+  return n;
+}
+
+int scaled(int x) {
+  return x * scale;
+}
+
+static int (*transform)(int) = scaled;
+
+void test_class_splitting() {
+  char buffer[16];
+
+  ASSERT(parse_number("421") == 421);
+  ASSERT(format_number(1234, buffer) == 4);
+  ASSERT(parse_number(buffer) == 1234);
+  ASSERT(transform(parse_number("14")) == 42);
+  ASSERT(parse_count == 11);
+  ASSERT(format_count == 4);
+}
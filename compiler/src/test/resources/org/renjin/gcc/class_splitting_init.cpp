@@ -0,0 +1,28 @@
+
+#include "assert.h"
+
+static int compute_initial() {
+  return 13;
+}
+
+/* Set by a C++ static initializer */
+int initial = compute_initial();
+
+extern "C" int initial_value() {
+  return initial;
+}
+
+extern "C" int sum_digits(int value) {
+  int sum = 0;
+  while(value > 0) {
+    sum += value % 10;
+    value /= 10;
+  }
+  return sum;
+}
+
+extern "C" void test_class_splitting_init() {
+  ASSERT(initial_value() == 13);
+  ASSERT(sum_digits(1234) == 10);
+  ASSERT(sum_digits(initial) == 4);
+}
@@ -0,0 +1,61 @@
+#include <complex.h>
+#include <math.h>
+
+#include "assert.h"
+
+static double complex cmul(double complex a, double complex b) {
+  return a * b;
+}
+
+static double complex twiddle(double c, double s) {
+  return c + s * I;
+}
+
+static float complex fconj(float complex z) {
+  return conj(z);
+}
+
+static void scale(double complex *p, double k) {
+  *p = *p * k;
+}
+
+void test_nested_returns() {
+  double complex z = 1.0;
+  double complex w = twiddle(0.6, 0.8);
+  int i;
+
+  for(i = 0; i < 4; ++i) {
+    z = cmul(z, w);
+  }
+
+  // Both arguments are themselves complex return values
+  double complex p = cmul(twiddle(1, 2), twiddle(3, 4));
+
+  ASSERT(fabs(creal(z) + 0.8432) < 1e-9);
+  ASSERT(fabs(cimag(z) + 0.5376) < 1e-9);
+  ASSERT(creal(p) == -5);
+  ASSERT(cimag(p) == 10);
+}
+
+void test_float_returns() {
+  float complex z = fconj(1.5f + 2.5f * I);
+
+  ASSERT(crealf(z) == 1.5f);
+  ASSERT(cimagf(z) == -2.5f);
+}
+
+void test_addressable_local() {
+  double complex z = 3.0 + 4.0 * I;
+  double complex *pz = &z;
+
+  scale(&z, 2.0);
+  scale(pz, 0.5);
+
+  ASSERT(creal(z) == 3);
+  ASSERT(cimag(z) == 4);
+
+  *pz = twiddle(5, 6);
+
+  ASSERT(creal(z) == 5);
+  ASSERT(cimag(z) == 6);
+}
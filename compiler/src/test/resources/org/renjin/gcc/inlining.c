@@ -0,0 +1,114 @@
+
+#include "assert.h"
+
+struct point {
+  int x;
+  int y;
+};
+
+extern int inlining_scale;
+
+int clamp(int x, int lo, int hi);
+int scaled(int x);
+int make_id(int x);
+
+static inline void bump(int *p, int by) {
+  *p += by;
+}
+
+static int kind(int v) {
+  switch(v) {
+  case 0:
+    return 10;
+  case 1:
+  case 2:
+  case 3:
+    return 20;
+  default:
+    return 30;
+  }
+}
+
+static int manhattan(struct point p) {
+  return p.x + p.y;
+}
+
+static void move(struct point *p, int dx) {
+  p->x += dx;
+}
+
+/* Static locals are shared by all calls, so must not be inlined */
+static int counter() {
+  static int count = 0;
+  return ++count;
+}
+
+static int fact(int n) {
+  if(n <= 1) {
+    return 1;
+  }
+  return n * fact(n - 1);
+}
+
+/* sum is read before it is assigned, so the compiler gives it an initial value,
+   which must be assigned again each time the function is inlined */
+static inline int sum_below(int n) {
+  int sum;
+  int i;
+  for(i = 0; i < n; ++i) {
+    sum += i;
+  }
+  return sum;
+}
+
+static int kernel(int n) {
+  int acc = 0;
+  int i;
+  for(i = 0; i < n; ++i) {
+    bump(&acc, clamp(i, 2, 7));
+    acc += kind(i & 7);
+  }
+  return acc;
+}
+
+void test_helpers() {
+  ASSERT(kind(0) == 10);
+  ASSERT(kind(2) == 20);
+  ASSERT(kind(9) == 30);
+  ASSERT(fact(5) == 120);
+}
+
+void test_static_locals() {
+  int a = counter();
+  int b = counter();
+  ASSERT(b == a + 1);
+}
+
+void test_records() {
+  struct point p = { 3, 4 };
+  move(&p, 2);
+  ASSERT(manhattan(p) == 9);
+  ASSERT(p.x == 5);
+}
+
+void test_cross_unit() {
+  ASSERT(clamp(9, 0, 4) == 4);
+  ASSERT(clamp(-1, 0, 4) == 0);
+  ASSERT(scaled(2) == 6);
+  inlining_scale = 5;
+  ASSERT(scaled(2) == 10);
+  ASSERT(make_id(41) == 42);
+}
+
+void test_loop() {
+  ASSERT(kernel(8) == 221);
+}
+
+void test_initial_values() {
+  int total = 0;
+  int i;
+  for(i = 0; i < 4; ++i) {
+    total += sum_below(i);
+  }
+  ASSERT(total == 4);
+}
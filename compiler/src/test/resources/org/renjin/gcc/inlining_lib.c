@@ -0,0 +1,24 @@
+
+int inlining_scale = 3;
+
+static int next_id(int x) {
+  return x + 1;
+}
+
+int clamp(int x, int lo, int hi) {
+  if(x < lo) {
+    return lo;
+  }
+  if(x > hi) {
+    return hi;
+  }
+  return x;
+}
+
+int scaled(int x) {
+  return x * inlining_scale;
+}
+
+int make_id(int x) {
+  return next_id(x);
+}
@@ -0,0 +1,59 @@
+#include <stdlib.h>
+
+#include "assert.h"
+
+/* Each block declares its own temporaries, which can share slots once their live ranges end */
+static double blocks(const double *x, int n) {
+  double total = 0;
+  {
+    double a = x[0] * 2;
+    double b = a + x[1];
+    total += b;
+  }
+  {
+    int i;
+    long sum = 0;
+    for(i = 0; i < n; ++i) {
+      sum += i;
+    }
+    total += sum;
+  }
+  {
+    double c = x[2];
+    int k = (int)c;
+    switch(k) {
+    case 1:
+      total += 1;
+      break;
+    case 3:
+      total += 30;
+      break;
+    default:
+      total += 100;
+    }
+  }
+  return total;
+}
+
+/* A variable which is only assigned on some paths keeps its value across the loop */
+static int carried(int n) {
+  int last = -1;
+  int i;
+  for(i = 0; i < n; ++i) {
+    int square = i * i;
+    if(square % 3 == 0) {
+      last = square;
+    }
+  }
+  return last;
+}
+
+void test_blocks() {
+  double x[] = { 1, 2, 3 };
+  ASSERT(blocks(x, 5) == 4 + 10 + 30);
+}
+
+void test_carried() {
+  ASSERT(carried(10) == 81);
+  ASSERT(carried(0) == -1);
+}
@@ -0,0 +1,89 @@
+#include <stdlib.h>
+
+#include "assert.h"
+
+static void daxpy(int n, double a, const double *x, double *y) {
+  int i;
+  for(i = 0; i < n; ++i) {
+    y[i] += a * x[i];
+  }
+}
+
+static double dot(int n, const double *x, const double *y) {
+  double sum = 0;
+  int i;
+  for(i = 0; i < n; ++i) {
+    sum += x[i] * y[i];
+  }
+  return sum;
+}
+
+static int shifted_sum(int n, const int *v) {
+  int total = 0;
+  int i;
+  for(i = 0; i < n; ++i) {
+    total += v[i + 1];
+  }
+  return total;
+}
+
+static double *sequence(int n) {
+  double *x = malloc(sizeof(double) * n);
+  int i;
+  for(i = 0; i < n; ++i) {
+    x[i] = i;
+  }
+  return x;
+}
+
+void test_daxpy() {
+  double *x = sequence(100);
+  double *y = sequence(100);
+  int i;
+
+  daxpy(100, 2.0, x, y);
+  for(i = 0; i < 100; ++i) {
+    ASSERT(y[i] == 3 * i);
+  }
+
+  daxpy(10, 1.0, x + 5, y + 20);
+  ASSERT(y[19] == 57);
+  ASSERT(y[20] == 65);
+  ASSERT(y[29] == 101);
+  ASSERT(y[30] == 90);
+}
+
+void test_dot() {
+  double *x = sequence(10);
+
+  ASSERT(dot(10, x, x) == 285);
+  ASSERT(dot(3, x + 7, x) == 7 * 0 + 8 * 1 + 9 * 2);
+  ASSERT(dot(0, x, x) == 0);
+}
+
+void test_ints() {
+  int *v = malloc(sizeof(int) * 8);
+  int i;
+  for(i = 0; i < 8; ++i) {
+    v[i] = i * i;
+  }
+  ASSERT(shifted_sum(4, v) == 1 + 4 + 9 + 16);
+  ASSERT(shifted_sum(3, v + 4) == 25 + 36 + 49);
+}
+
+void test_fallback() {
+  // Memory first used as chars is not backed by a double[], so
+  // the loops must take the original path
+  char *buffer = malloc(sizeof(double) * 10);
+  double *x = (double*) buffer;
+  int i;
+
+  buffer[0] = 0;
+  for(i = 0; i < 10; ++i) {
+    x[i] = i;
+  }
+  ASSERT(dot(10, x, x) == 285);
+
+  daxpy(10, 1.0, x, x);
+  ASSERT(x[9] == 18);
+}
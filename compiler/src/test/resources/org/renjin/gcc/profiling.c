@@ -0,0 +1,27 @@
+
+#include "assert.h"
+
+static int square(int x) {
+  return x * x;
+}
+
+int sum_squares(int n) {
+  int i;
+  int sum = 0;
+  for(i = 1; i <= n; ++i) {
+    sum += square(i);
+  }
+  return sum;
+}
+
+int checked(int x) {
+  if(x < 0) {
+    abort();
+  }
+  return x;
+}
+
+void test_profiling() {
+  ASSERT(sum_squares(3) == 14);
+  ASSERT(checked(2) == 2);
+}
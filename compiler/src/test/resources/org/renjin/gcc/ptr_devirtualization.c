@@ -0,0 +1,94 @@
+#include <stdlib.h>
+#include <string.h>
+
+#include "assert.h"
+
+static double sum(int n, const double *x) {
+  double total = 0;
+  int i;
+  for(i = 0; i < n; ++i) {
+    total += x[i];
+  }
+  return total;
+}
+
+static void scale(int n, double a, double *x) {
+  int i;
+  for(i = 0; i < n; ++i) {
+    x[i] *= a;
+  }
+}
+
+void test_doubles() {
+  double *x = malloc(sizeof(double) * 10);
+  int i;
+  for(i = 0; i < 10; ++i) {
+    x[i] = i;
+  }
+  *x = 100;
+
+  ASSERT(sum(10, x) == 145);
+  ASSERT(sum(3, x + 7) == 24);
+
+  scale(2, 2.0, x + 8);
+  ASSERT(x[7] == 7);
+  ASSERT(x[8] == 16);
+  ASSERT(x[9] == 18);
+}
+
+void test_integers() {
+  int *v = malloc(sizeof(int) * 4);
+  short *s = malloc(sizeof(short) * 4);
+  long long *l = malloc(sizeof(long long) * 4);
+  char *c = malloc(4);
+  int i;
+
+  for(i = 0; i < 4; ++i) {
+    v[i] = i * 3;
+    s[i] = i * 5;
+    l[i] = i * 7;
+    c[i] = 'a' + i;
+  }
+  ASSERT(v[3] == 9);
+  ASSERT(s[2] == 10);
+  ASSERT(l[1] == 7);
+  ASSERT(c[3] == 'd');
+}
+
+struct point {
+  int id;
+  double x;
+};
+
+void test_mixed() {
+  // Memory first used as a record is not backed by a double[],
+  // so the accesses must fall back to the Ptr interface
+  struct point *p = malloc(sizeof(struct point) * 4);
+  double *x;
+  int i;
+
+  p[0].id = 1;
+  x = (double*) p;
+  for(i = 0; i < 8; ++i) {
+    x[i] = i;
+  }
+  ASSERT(sum(8, x) == 28);
+  scale(8, 0.5, x);
+  ASSERT(x[7] == 3.5);
+}
+
+void test_unaligned() {
+  double *x = malloc(sizeof(double) * 4);
+  double *y;
+  x[0] = 1;
+  x[1] = 2;
+  x[2] = 3;
+  x[3] = 4;
+
+  // A double read at an offset which is not a multiple of eight
+  // bytes must take the interface path
+  y = (double*)(((char*)x) + 4);
+  memcpy(y, x + 1, sizeof(double));
+  ASSERT(*y == 2);
+  ASSERT(x[3] == 4);
+}
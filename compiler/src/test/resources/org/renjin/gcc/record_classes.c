@@ -0,0 +1,64 @@
+#include <stdlib.h>
+#include <string.h>
+
+#include "assert.h"
+
+struct cell {
+  int value;
+  double weight;
+  struct cell *next;
+};
+
+static struct cell *push(struct cell *head, int value, double weight) {
+  struct cell *c = malloc(sizeof(struct cell));
+  c->value = value;
+  c->weight = weight;
+  c->next = head;
+  return c;
+}
+
+static struct cell first(struct cell *list) {
+  return *list;
+}
+
+static int sum(struct cell *list) {
+  int total = 0;
+  while(list != NULL) {
+    total += list->value;
+    list = list->next;
+  }
+  return total;
+}
+
+void test_list() {
+  struct cell *list = NULL;
+  int i;
+  for(i = 1; i <= 10; ++i) {
+    list = push(list, i, i * 0.5);
+  }
+  ASSERT(sum(list) == 55);
+  ASSERT(list->weight == 5.0);
+  ASSERT(list->next->next->value == 8);
+}
+
+void test_copy() {
+  struct cell *list = push(push(NULL, 1, 1.0), 2, 2.0);
+  struct cell copy = first(list);
+
+  list->value = 42;
+
+  ASSERT(copy.value == 2);
+  ASSERT(copy.weight == 2.0);
+  ASSERT(copy.next == list->next);
+}
+
+void test_memset() {
+  struct cell *c = push(NULL, 3, 4.0);
+  struct cell *d = malloc(sizeof(struct cell));
+  memset(c, 0, sizeof(struct cell));
+  memcpy(d, c, sizeof(struct cell));
+
+  ASSERT(d->value == 0);
+  ASSERT(d->weight == 0);
+  ASSERT(d->next == NULL);
+}
@@ -0,0 +1,67 @@
+#include <stdarg.h>
+#include <stdlib.h>
+#include <string.h>
+#include <alloca.h>
+
+#include "assert.h"
+
+static int sum_ints(int n, ...) {
+  va_list ap;
+  int total = 0;
+  int i;
+  va_start(ap, n);
+  for(i = 0; i < n; ++i) {
+    total += va_arg(ap, int);
+  }
+  va_end(ap);
+  return total;
+}
+
+static double fill_and_sum(int n) {
+  double *x = alloca(sizeof(double) * n);
+  double total = 0;
+  int i;
+  for(i = 0; i < n; ++i) {
+    ASSERT(x[i] == 0);
+    x[i] = i;
+  }
+  for(i = 0; i < n; ++i) {
+    total += x[i];
+  }
+  return total + sum_ints(2, n, n);
+}
+
+static char *copy(const char *s) {
+  char *buffer = alloca(strlen(s) + 1);
+  strcpy(buffer, s);
+  return strdup(buffer);
+}
+
+/* The buffer outlives the function, so it must be allocated on the heap */
+static char *escaping(void) {
+  char *buffer = alloca(16);
+  strcpy(buffer, "escaped");
+  return buffer;
+}
+
+void test_varargs() {
+  int i;
+  for(i = 0; i < 100000; ++i) {
+    ASSERT(sum_ints(3, i, 1, 2) == i + 3);
+  }
+}
+
+void test_alloca() {
+  int i;
+  for(i = 0; i < 1000; ++i) {
+    ASSERT(fill_and_sum(10) == 65);
+  }
+  ASSERT(strcmp(copy("hello"), "hello") == 0);
+}
+
+void test_escaping() {
+  char *a = escaping();
+  char *b = escaping();
+  ASSERT(a != b);
+  ASSERT(strcmp(a, "escaped") == 0);
+}
@@ -0,0 +1,85 @@
+#include <stdlib.h>
+
+#include "assert.h"
+
+struct point {
+  double x;
+  double y;
+  int tag;
+};
+
+static struct point midpoint(struct point a, struct point b) {
+  struct point m;
+  m.x = (a.x + b.x) / 2;
+  m.y = (a.y + b.y) / 2;
+  m.tag = b.tag;
+  return m;
+}
+
+static void store_point(struct point *out, double x) {
+  struct point t = { x };
+  t.tag = 3;
+  *out = t;
+}
+
+void test_copy_and_call() {
+  struct point p = { 1, 2 };
+  struct point q;
+  struct point r;
+  struct point s;
+
+  q.x = 3;
+  q.y = 4;
+  q.tag = 7;
+
+  r = midpoint(p, q);
+  s = r;
+  r.x = 100;
+
+  ASSERT(s.x == 2);
+  ASSERT(s.y == 3);
+  ASSERT(s.tag == 7);
+  ASSERT(p.tag == 0);
+}
+
+void test_store_to_memory() {
+  struct point *p = malloc(sizeof(struct point));
+  p->y = 42;
+  store_point(p, 9);
+
+  ASSERT(p->x == 9);
+  ASSERT(p->y == 0);
+  ASSERT(p->tag == 3);
+}
+
+void test_load_from_memory() {
+  struct point *p = malloc(sizeof(struct point));
+  struct point local;
+  p->x = 5;
+  p->y = 6;
+  p->tag = 1;
+  local = *p;
+  p->x = 0;
+
+  ASSERT(local.x == 5);
+  ASSERT(local.y == 6);
+  ASSERT(local.tag == 1);
+}
+
+struct node {
+  struct node *next;
+  int value;
+};
+
+void test_pointer_fields() {
+  struct node tail = { NULL, 2 };
+  struct node *heap = malloc(sizeof(struct node));
+  struct node head;
+
+  *heap = tail;
+  head.next = heap;
+  head.value = 1;
+
+  ASSERT(head.next->value == 2);
+  ASSERT(head.next->next == NULL);
+}
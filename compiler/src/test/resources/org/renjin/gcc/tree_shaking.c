@@ -0,0 +1,39 @@
+
+#include "assert.h"
+
+typedef int (*op_t)(int);
+
+static int unused_table[16];
+
+static int used_counter = 0;
+
+static int twice(int x) {
+  return x * 2;
+}
+
+/* Only ever called through a pointer */
+static int negate(int x) {
+  return -x;
+}
+
+static int never_called(int x) {
+  unused_table[0] = x;
+  return x + 1;
+}
+
+static op_t ops[] = { twice, negate };
+
+int apply(int i, int x) {
+  used_counter++;
+  return ops[i](x);
+}
+
+int unreachable_export(int x) {
+  return never_called(x);
+}
+
+void test_reachable() {
+  ASSERT(apply(0, 21) == 42);
+  ASSERT(apply(1, 5) == -5);
+  ASSERT(used_counter == 2);
+}
@@ -0,0 +1,14 @@
+
+#include "assert.h"
+
+/* Only exported through the public alias below */
+static int scale_impl(int x) {
+  return x * 3;
+}
+
+int scale(int x) __attribute__((alias("scale_impl")));
+
+void test_alias() {
+  int x = 2;
+  ASSERT(x * 3 == 6);
+}
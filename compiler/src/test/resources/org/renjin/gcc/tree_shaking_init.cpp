@@ -0,0 +1,23 @@
+
+#include "assert.h"
+
+/* Initialized by a C++ static initializer, which nothing calls directly */
+static int *initial_state = new int(13);
+
+static int unused_helper(int x) {
+  return x + 1;
+}
+
+extern "C" int unreachable_export(int x) {
+  return unused_helper(x);
+}
+
+/* Not extern "C", so only referenced by its mangled name */
+int mangled_helper(int x) {
+  return x * 2;
+}
+
+extern "C" void test_cpp_reachable() {
+  ASSERT(sizeof(initial_state) == sizeof(int*));
+  ASSERT(mangled_helper(21) == 42);
+}
@@ -0,0 +1,92 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures untyped allocation through {@link MallocThunk} and growth through {@link Realloc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AllocationBenchmark {
+
+  @Param({"64", "4096", "65536"})
+  public int size;
+
+  @Benchmark
+  public DoublePtr mallocThunkThenDouble() {
+    MallocThunk thunk = (MallocThunk) MallocThunk.malloc(size);
+    DoublePtr ptr = thunk.doublePtr();
+    ptr.setAlignedDouble(0, 1);
+    return ptr;
+  }
+
+  @Benchmark
+  public Ptr mallocThunkRealloc() {
+    MallocThunk thunk = (MallocThunk) MallocThunk.malloc(size);
+    thunk.doublePtr();
+    return thunk.realloc(size * 2);
+  }
+
+  /**
+   * Appends one element at a time, growing the buffer with each append as a naive
+   * C vector would.
+   */
+  @Benchmark
+  public double[] reallocGrowByOne() {
+    double[] array = null;
+    for (int i = 0; i < size / 8; i++) {
+      array = Realloc.realloc(array, 0, i + 1);
+      array[i] = i;
+    }
+    return array;
+  }
+
+  /**
+   * Builds a string one character at a time, as a naive C string builder would,
+   * reallocating for each character and its terminating null.
+   */
+  @Benchmark
+  public BytePtr bytePtrAppendChar() {
+    BytePtr ptr = BytePtr.malloc(1);
+    for (int i = 0; i < size; i++) {
+      ptr = ptr.realloc(i + 2);
+      ptr.array[i] = 'x';
+      ptr.array[i + 1] = 0;
+    }
+    return ptr;
+  }
+
+  @Benchmark
+  public DoublePtr doublePtrGrowByOne() {
+    DoublePtr ptr = DoublePtr.malloc(8);
+    for (int i = 1; i < size / 8; i++) {
+      ptr = ptr.realloc((i + 1) * 8);
+      ptr.setAlignedDouble(i, i);
+    }
+    return ptr;
+  }
+}
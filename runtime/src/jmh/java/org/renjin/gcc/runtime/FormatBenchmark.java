@@ -0,0 +1,78 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@code printf} family and {@code sscanf}. The {@code printf} path is measured
+ * through {@code snprintf} so that console output does not dominate the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FormatBenchmark {
+
+  private BytePtr buffer;
+  private BytePtr intFormat;
+  private BytePtr mixedFormat;
+  private BytePtr scanFormat;
+  private BytePtr scanInput;
+  private BytePtr name;
+
+  private IntPtr scannedInt;
+  private BytePtr scannedString;
+
+  @Setup
+  public void setup() {
+    buffer = BytePtr.malloc(256);
+    intFormat = ascii("%d");
+    mixedFormat = ascii("%s: %5d %8.3f %x\n");
+    scanFormat = ascii("%d %s");
+    scanInput = ascii("12345 value");
+    name = ascii("value");
+    scannedInt = new IntPtr(0);
+    scannedString = BytePtr.malloc(32);
+  }
+
+  @Benchmark
+  public int snprintfInt() {
+    return Stdlib.snprintf((Ptr) buffer, 256, intFormat, 42);
+  }
+
+  @Benchmark
+  public int snprintfMixed() {
+    return Stdlib.snprintf((Ptr) buffer, 256, mixedFormat, name, 42, Math.PI, 0xCAFE);
+  }
+
+  @Benchmark
+  public int sscanf() {
+    return Stdlib.sscanf(scanInput, scanFormat, scannedInt, scannedString);
+  }
+
+  private static BytePtr ascii(String s) {
+    return BytePtr.nullTerminatedString(s, StandardCharsets.US_ASCII);
+  }
+}
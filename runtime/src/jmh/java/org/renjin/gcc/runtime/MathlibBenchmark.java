@@ -0,0 +1,60 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link Mathlib} functions that are implemented in Java rather than
+ * delegated directly to {@link Math}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MathlibBenchmark {
+
+  public double x = 1234.5678;
+
+  private IntPtr exponent = new IntPtr(0);
+
+  @Benchmark
+  public double frexp() {
+    return Mathlib.frexp(x, exponent);
+  }
+
+  @Benchmark
+  public double ldexp() {
+    return Mathlib.ldexp(x, 7);
+  }
+
+  @Benchmark
+  public double log2() {
+    return Mathlib.log2(x);
+  }
+
+  @Benchmark
+  public double expm1() {
+    return Mathlib.expm1(x / 10000);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code memset}, {@code memcpy}, {@code memmove} and {@code memcmp} on
+ * same-typed and mixed-typed pointers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MemoryBenchmark {
+
+  @Param({"64", "4096"})
+  public int size;
+
+  private BytePtr bytes1;
+  private BytePtr bytes2;
+  private DoublePtr doubles1;
+  private DoublePtr doubles2;
+  private MixedPtr mixed;
+
+  @Setup
+  public void setup() {
+    bytes1 = BytePtr.malloc(size);
+    bytes2 = BytePtr.malloc(size);
+    doubles1 = DoublePtr.malloc(size);
+    doubles2 = DoublePtr.malloc(size);
+    mixed = MixedPtr.malloc(size);
+    for (int i = 0; i < size; i++) {
+      bytes1.setByte(i, (byte) i);
+      bytes2.setByte(i, (byte) i);
+    }
+  }
+
+  @Benchmark
+  public Ptr memsetBytes() {
+    bytes2.memset(0, size);
+    return bytes2;
+  }
+
+  @Benchmark
+  public Ptr memsetDoubles() {
+    doubles1.memset(0, size);
+    return doubles1;
+  }
+
+  @Benchmark
+  public Ptr memcpyBytes() {
+    bytes2.memcpy(bytes1, size);
+    return bytes2;
+  }
+
+  @Benchmark
+  public Ptr memcpyDoubles() {
+    doubles2.memcpy(doubles1, size);
+    return doubles2;
+  }
+
+  @Benchmark
+  public Ptr memcpyBytesToMixed() {
+    mixed.memcpy(bytes1, size);
+    return mixed;
+  }
+
+  @Benchmark
+  public Ptr memmoveOverlapping() {
+    bytes1.pointerPlus(1).memmove(bytes1, size - 1);
+    return bytes1;
+  }
+
+  @Benchmark
+  public int memcmpEqualBytes() {
+    return bytes1.memcmp(bytes2, size);
+  }
+}
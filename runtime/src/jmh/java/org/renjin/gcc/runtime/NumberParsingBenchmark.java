@@ -0,0 +1,108 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of walking a comma-separated buffer of numbers with {@code strtod} and
+ * {@code strtol}, as C code parsing an in-memory CSV file would, against the previous approach of
+ * copying the remainder of the buffer to a {@link String} before parsing each number.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class NumberParsingBenchmark {
+
+  @Param({"100", "10000"})
+  public int count;
+
+  private BytePtr doubles;
+  private BytePtr longs;
+  private PointerPtr end;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    StringBuilder d = new StringBuilder();
+    StringBuilder l = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      d.append(random.nextGaussian() * 1000).append(',');
+      l.append(random.nextInt()).append(',');
+    }
+    doubles = BytePtr.nullTerminatedString(d.toString(), StandardCharsets.US_ASCII);
+    longs = BytePtr.nullTerminatedString(l.toString(), StandardCharsets.US_ASCII);
+    end = PointerPtr.malloc(4);
+  }
+
+  @Benchmark
+  public double strtod() {
+    double sum = 0;
+    Ptr p = doubles;
+    for (int i = 0; i < count; i++) {
+      sum += Stdlib.strtod(p, end);
+      p = end.getPointer().pointerPlus(1);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double strtodCopying() {
+    double sum = 0;
+    Ptr p = doubles;
+    for (int i = 0; i < count; i++) {
+      String s = Stdlib.nullTerminatedString(p);
+      int length = s.indexOf(',');
+      sum += Double.parseDouble(s.substring(0, length));
+      p = p.pointerPlus(length + 1);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long strtol() {
+    long sum = 0;
+    Ptr p = longs;
+    for (int i = 0; i < count; i++) {
+      sum += Stdlib.strtol(p, end, 10);
+      p = end.getPointer().pointerPlus(1);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long strtolCopying() {
+    long sum = 0;
+    Ptr p = longs;
+    for (int i = 0; i < count; i++) {
+      String s = Stdlib.nullTerminatedString(p);
+      int length = s.indexOf(',');
+      sum += Long.parseLong(s.substring(0, length));
+      p = p.pointerPlus(length + 1);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures chains of {@link Ptr#pointerPlus(int)}, as generated for loops that
+ * advance a pointer rather than an index, and dereferencing through a {@link PointerPtr}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PointerArithmeticBenchmark {
+
+  private static final int COUNT = 1024;
+  private static final int POINTER_BYTES = 4;
+
+  private Ptr bytes;
+  private Ptr doubles;
+  private Ptr mixed;
+  private PointerPtr pointers;
+
+  @Setup
+  public void setup() {
+    bytes = BytePtr.malloc(COUNT * 8);
+    doubles = DoublePtr.malloc(COUNT * 8);
+    mixed = MixedPtr.malloc(COUNT * 8);
+
+    Ptr[] array = new Ptr[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      array[i] = new DoublePtr(i);
+    }
+    pointers = new PointerPtr(array);
+  }
+
+  @Benchmark
+  public double walkDoublePtr() {
+    return walk(doubles);
+  }
+
+  @Benchmark
+  public double walkBytePtr() {
+    return walk(bytes);
+  }
+
+  @Benchmark
+  public double walkMixedPtr() {
+    return walk(mixed);
+  }
+
+  @Benchmark
+  public double walkPointerPtr() {
+    double sum = 0;
+    Ptr p = pointers;
+    for (int i = 0; i < COUNT; i++) {
+      sum += p.getPointer().getDouble();
+      p = p.pointerPlus(POINTER_BYTES);
+    }
+    return sum;
+  }
+
+  private static double walk(Ptr start) {
+    double sum = 0;
+    Ptr p = start;
+    for (int i = 0; i < COUNT; i++) {
+      sum += p.getDouble();
+      p = p.pointerPlus(8);
+    }
+    return sum;
+  }
+}
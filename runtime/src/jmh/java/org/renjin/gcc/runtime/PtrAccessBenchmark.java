@@ -0,0 +1,117 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures element access through the {@link Ptr} interface for the main pointer
+ * implementations, both at naturally aligned offsets and at offsets that force the
+ * byte-by-byte slow paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PtrAccessBenchmark {
+
+  private static final int BYTES = 8 * 1024;
+
+  @Param({"BytePtr", "DoublePtr", "MixedPtr", "OffsetPtr"})
+  public String kind;
+
+  private Ptr ptr;
+
+  @Setup
+  public void setup() {
+    switch (kind) {
+      case "BytePtr":
+        ptr = BytePtr.malloc(BYTES);
+        break;
+      case "DoublePtr":
+        ptr = DoublePtr.malloc(BYTES);
+        break;
+      case "MixedPtr":
+        ptr = MixedPtr.malloc(BYTES);
+        break;
+      case "OffsetPtr":
+        ptr = new OffsetPtr(BytePtr.malloc(BYTES + 16), 16);
+        break;
+      default:
+        throw new IllegalArgumentException(kind);
+    }
+    for (int i = 0; i < BYTES / 8; i++) {
+      ptr.setAlignedDouble(i, i);
+    }
+  }
+
+  @Benchmark
+  public double getAlignedDouble() {
+    double sum = 0;
+    for (int i = 0; i < BYTES / 8; i++) {
+      sum += ptr.getAlignedDouble(i);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public void setAlignedDouble() {
+    for (int i = 0; i < BYTES / 8; i++) {
+      ptr.setAlignedDouble(i, i);
+    }
+  }
+
+  @Benchmark
+  public int getAlignedInt() {
+    int sum = 0;
+    for (int i = 0; i < BYTES / 4; i++) {
+      sum += ptr.getAlignedInt(i);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int getUnalignedInt() {
+    int sum = 0;
+    for (int i = 1; i < BYTES - 4; i += 4) {
+      sum += ptr.getInt(i);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public void setUnalignedInt() {
+    for (int i = 1; i < BYTES - 4; i += 4) {
+      ptr.setInt(i, i);
+    }
+  }
+
+  @Benchmark
+  public int getByte() {
+    int sum = 0;
+    for (int i = 0; i < BYTES; i++) {
+      sum += ptr.getByte(i);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+import org.renjin.gcc.format.ByteCharIterator;
+import org.renjin.gcc.format.CharIterator;
+import org.renjin.gcc.format.FileHandleCharIterator;
+import org.renjin.gcc.format.Formatter;
+import org.renjin.gcc.format.ScanFormatCache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures line-oriented numeric ingestion with {@code sscanf} and {@code fscanf}, against the previous
+ * approach of parsing the format on each call and reading files one byte at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ScanBenchmark {
+
+  private static final int LINES = 1000;
+
+  private BytePtr format;
+  private BytePtr[] lines;
+  private File file;
+
+  private IntPtr id = new IntPtr(0);
+  private DoublePtr x = new DoublePtr(0);
+  private DoublePtr y = new DoublePtr(0);
+
+  @Setup
+  public void setup() throws IOException {
+    format = BytePtr.nullTerminatedString("%d %lf %lf\n", StandardCharsets.US_ASCII);
+
+    Random random = new Random(42);
+    lines = new BytePtr[LINES];
+    file = File.createTempFile("scan", ".txt");
+    file.deleteOnExit();
+    try(Writer writer = new FileWriter(file)) {
+      for (int i = 0; i < LINES; i++) {
+        String line = i + " " + random.nextGaussian() + " " + random.nextDouble() * 1000 + "\n";
+        lines[i] = BytePtr.nullTerminatedString(line, StandardCharsets.US_ASCII);
+        writer.write(line);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public double sscanf() {
+    double sum = 0;
+    for (BytePtr line : lines) {
+      Stdlib.sscanf(line, format, id, x, y);
+      sum += x.getDouble() + y.getDouble();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double sscanfUncached() {
+    double sum = 0;
+    for (BytePtr line : lines) {
+      Formatter formatter = new Formatter(Stdlib.nullTerminatedString(format), Formatter.Mode.SCAN);
+      formatter.scan(new ByteCharIterator(line), new Object[] { id, x, y });
+      sum += x.getDouble() + y.getDouble();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double fscanf() throws IOException {
+    double sum = 0;
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileHandle handle = new FileHandleImpl(raf);
+      for (int i = 0; i < LINES; i++) {
+        try(FileHandleCharIterator it = new FileHandleCharIterator(handle)) {
+          Formatter formatter = ScanFormatCache.get(format);
+          formatter.scan(it, new Object[] { id, x, y });
+        }
+        sum += x.getDouble() + y.getDouble();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double fscanfUnbuffered() throws IOException {
+    double sum = 0;
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileHandle handle = new FileHandleImpl(raf);
+      for (int i = 0; i < LINES; i++) {
+        try(UnbufferedCharIterator it = new UnbufferedCharIterator(handle)) {
+          Formatter formatter = new Formatter(Stdlib.nullTerminatedString(format), Formatter.Mode.SCAN);
+          formatter.scan(it, new Object[] { id, x, y });
+        }
+        sum += x.getDouble() + y.getDouble();
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Reads one byte from the file per character, as fscanf did previously.
+   */
+  private static class UnbufferedCharIterator implements CharIterator, AutoCloseable {
+    private final FileHandle fileHandle;
+    private int next;
+
+    UnbufferedCharIterator(FileHandle fileHandle) throws IOException {
+      this.fileHandle = fileHandle;
+      this.next = fileHandle.read();
+    }
+
+    @Override
+    public boolean hasMore() {
+      return next != -1;
+    }
+
+    @Override
+    public char peek() {
+      return (char) next;
+    }
+
+    @Override
+    public char next() {
+      char c = (char) next;
+      try {
+        next = fileHandle.read();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(next != -1) {
+        fileHandle.seekCurrent(-1);
+      }
+    }
+  }
+}
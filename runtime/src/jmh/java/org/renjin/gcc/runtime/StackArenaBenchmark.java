@@ -0,0 +1,93 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the short-lived allocations made by a call to a variadic function and by a small {@code alloca()}
+ * buffer, when served from the heap and from the {@link StackArena}. Run with {@code -prof gc} to compare
+ * allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StackArenaBenchmark {
+
+  private static final int VARARGS_BYTES = 16;
+  private static final int BUFFER_BYTES = 32 * DoublePtr.BYTES;
+
+  private int counter;
+
+  @Benchmark
+  public double varArgsHeap() {
+    return callVariadic(MixedPtr.malloc(VARARGS_BYTES));
+  }
+
+  @Benchmark
+  public double varArgsArena() {
+    StackArena arena = StackArena.current();
+    int mark = arena.mark();
+    try {
+      return callVariadic(arena.allocaMixed(VARARGS_BYTES));
+    } finally {
+      arena.release(mark);
+    }
+  }
+
+  @Benchmark
+  public double allocaHeap() {
+    return fillAndSum(DoublePtr.malloc(BUFFER_BYTES));
+  }
+
+  @Benchmark
+  public double allocaArena() {
+    StackArena arena = StackArena.current();
+    int mark = arena.mark();
+    try {
+      return fillAndSum(arena.allocaDouble(BUFFER_BYTES));
+    } finally {
+      arena.release(mark);
+    }
+  }
+
+  private double callVariadic(Ptr varArgs) {
+    varArgs.setInt(0, counter++);
+    varArgs.setDouble(8, 1.5);
+    return varArgs.getInt(0) + varArgs.getDouble(8);
+  }
+
+  private double fillAndSum(DoublePtr buffer) {
+    int n = BUFFER_BYTES / DoublePtr.BYTES;
+    for (int i = 0; i < n; i++) {
+      buffer.setAlignedDouble(i, i + counter);
+    }
+    counter++;
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += buffer.getAlignedDouble(i);
+    }
+    return sum;
+  }
+}
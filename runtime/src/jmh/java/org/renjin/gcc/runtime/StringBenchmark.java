@@ -0,0 +1,127 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the null-terminated string functions in {@link Stdlib}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StringBenchmark {
+
+  @Param({"8", "256", "65536"})
+  public int length;
+
+  private BytePtr string;
+  private BytePtr sameString;
+  private BytePtr needle;
+  private BytePtr upperString;
+  private BytePtr periodicString;
+  private BytePtr periodicNeedle;
+  private BytePtr alphabet;
+  private BytePtr buffer;
+  private Ptr mixedString;
+
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      sb.append((char) ('a' + (i % 26)));
+    }
+    String s = sb.toString();
+    string = BytePtr.nullTerminatedString(s, StandardCharsets.US_ASCII);
+    sameString = BytePtr.nullTerminatedString(s, StandardCharsets.US_ASCII);
+    needle = BytePtr.nullTerminatedString(s.substring(Math.max(0, length - 4)),
+        StandardCharsets.US_ASCII);
+    upperString = BytePtr.nullTerminatedString(s.toUpperCase(), StandardCharsets.US_ASCII);
+    alphabet = BytePtr.nullTerminatedString("abcdefghijklmnopqrstuvwxyz", StandardCharsets.US_ASCII);
+    buffer = BytePtr.malloc(length + 1);
+
+    // Worst case for naive search: "aaa...a" searching for "aa...ab"
+    StringBuilder periodic = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      periodic.append('a');
+    }
+    periodicString = BytePtr.nullTerminatedString(periodic.toString(), StandardCharsets.US_ASCII);
+    periodicNeedle = BytePtr.nullTerminatedString(
+        periodic.substring(0, Math.min(length, 32) - 1) + "b", StandardCharsets.US_ASCII);
+
+    mixedString = MixedPtr.malloc(length + 1);
+    mixedString.memcpy(string, length + 1);
+  }
+
+  @Benchmark
+  public int strlen() {
+    return Stdlib.strlen((Ptr) string);
+  }
+
+  @Benchmark
+  public int strlenMixed() {
+    return Stdlib.strlen(mixedString);
+  }
+
+  @Benchmark
+  public int strcmpEqual() {
+    return Stdlib.strcmp((Ptr) string, (Ptr) sameString);
+  }
+
+  @Benchmark
+  public int strcasecmpEqual() {
+    return Stdlib.strcasecmp(string, upperString);
+  }
+
+  @Benchmark
+  public int strspnAll() {
+    return Stdlib.strspn(string, alphabet);
+  }
+
+  @Benchmark
+  public Ptr strcpy() {
+    return Stdlib.strcpy((Ptr) buffer, (Ptr) string);
+  }
+
+  @Benchmark
+  public Ptr strchrMissing() {
+    return Stdlib.strchr(string, '!');
+  }
+
+  @Benchmark
+  public Ptr strrchrFirst() {
+    return Stdlib.strrchr(string, 'a');
+  }
+
+  @Benchmark
+  public Ptr strstrAtEnd() {
+    return Stdlib.strstr(string, needle);
+  }
+
+  @Benchmark
+  public Ptr strstrPeriodicMissing() {
+    return Stdlib.strstr(periodicString, periodicNeedle);
+  }
+}
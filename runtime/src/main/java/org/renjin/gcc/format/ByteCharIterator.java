@@ -1,28 +1,50 @@
 package org.renjin.gcc.format;
 
+import org.renjin.gcc.runtime.BytePtr;
 import org.renjin.gcc.runtime.Ptr;
 
+/**
+ * Iterates over the characters of a null-terminated string. Strings backed by a {@link BytePtr}
+ * are read directly from the underlying array.
+ */
 public class ByteCharIterator implements CharIterator {
 
   private final Ptr input;
+  private final byte[] array;
   private int index;
 
   public ByteCharIterator(Ptr input) {
-    this.input = input;
+    if(input instanceof BytePtr) {
+      this.input = null;
+      this.array = ((BytePtr) input).array;
+      this.index = ((BytePtr) input).offset;
+    } else {
+      this.input = input;
+      this.array = null;
+    }
   }
 
   @Override
   public boolean hasMore() {
+    if(array != null) {
+      return index < array.length && array[index] != 0;
+    }
     return input.getByte(index) != 0;
   }
 
   @Override
   public char peek() {
+    if(array != null) {
+      return (char)array[index];
+    }
     return (char)input.getByte(index);
   }
 
   @Override
   public char next() {
+    if(array != null) {
+      return (char)array[index++];
+    }
     return (char)input.getByte(index++);
   }
 }
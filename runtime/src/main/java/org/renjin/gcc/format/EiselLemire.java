@@ -0,0 +1,164 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.format;
+
+import java.math.BigInteger;
+
+/**
+ * Converts a decimal significand and exponent to the nearest double using the algorithm of
+ * Eisel and Lemire, "Number Parsing at a Gigabyte per Second" (2021), which needs only one or two
+ * 64x128-bit multiplications in the common case.
+ */
+final class EiselLemire {
+
+  private static final int SMALLEST_POWER_OF_FIVE = -342;
+  private static final int LARGEST_POWER_OF_FIVE = 308;
+
+  /**
+   * The most significant 128 bits of each power of five from 5^-342 to 5^308, as pairs of high and low
+   * 64-bit words.
+   */
+  private static final long[] POWERS_OF_FIVE = computePowersOfFive();
+
+  private EiselLemire() {
+  }
+
+  /**
+   * @param w the decimal significand, as an unsigned 64-bit integer
+   * @param q the decimal exponent
+   * @return the double nearest to {@code w * 10^q}, or {@code NaN} if this could not be determined
+   * without falling back to arbitrary-precision arithmetic.
+   */
+  static double compute(long w, int q, boolean negative) {
+    if(w == 0 || q < SMALLEST_POWER_OF_FIVE) {
+      return negative ? -0d : 0d;
+    }
+    if(q > LARGEST_POWER_OF_FIVE) {
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    }
+
+    // Normalize the significand so that its most significant bit is set
+    int lz = Long.numberOfLeadingZeros(w);
+    w <<= lz;
+
+    // Compute the product with the truncated power of five, refining it with the next
+    // 64 bits if the 55 significant bits we need might be affected by the truncation
+    int index = 2 * (q - SMALLEST_POWER_OF_FIVE);
+    long high = multiplyHigh(w, POWERS_OF_FIVE[index]);
+    long low = w * POWERS_OF_FIVE[index];
+    if((high & 0x1FFL) == 0x1FFL) {
+      long high2 = multiplyHigh(w, POWERS_OF_FIVE[index + 1]);
+      long sum = low + high2;
+      if(Long.compareUnsigned(high2, sum) > 0) {
+        high++;
+      }
+      low = sum;
+    }
+    if(low == -1L && (q < -27 || q > 55)) {
+      return Double.NaN;
+    }
+
+    int upperBit = (int) (high >>> 63);
+    long mantissa = high >>> (upperBit + 9);
+    int power2 = (((152170 + 65536) * q) >> 16) + 63 + upperBit - lz + 1023;
+
+    if(power2 <= 0) {
+      // Subnormal
+      if(-power2 + 1 >= 64) {
+        return negative ? -0d : 0d;
+      }
+      mantissa >>>= -power2 + 1;
+      mantissa += (mantissa & 1);
+      mantissa >>>= 1;
+      power2 = (mantissa < (1L << 52)) ? 0 : 1;
+      return toDouble(mantissa, power2, negative);
+    }
+
+    // Ties are rounded to even only if the product is exact, which can only be the case for
+    // small exponents
+    if(Long.compareUnsigned(low, 1) <= 0 && q >= -4 && q <= 23 && (mantissa & 3) == 1) {
+      if((mantissa << (upperBit + 9)) == high) {
+        mantissa &= ~1L;
+      }
+    }
+    mantissa += (mantissa & 1);
+    mantissa >>>= 1;
+    if(mantissa >= (2L << 52)) {
+      mantissa = (1L << 52);
+      power2++;
+    }
+    mantissa &= ~(1L << 52);
+
+    if(power2 >= 0x7FF) {
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    }
+    return toDouble(mantissa, power2, negative);
+  }
+
+  private static double toDouble(long mantissa, int power2, boolean negative) {
+    long bits = mantissa | ((long) power2 << 52);
+    if(negative) {
+      bits |= Long.MIN_VALUE;
+    }
+    return Double.longBitsToDouble(bits);
+  }
+
+  /**
+   * @return the high 64 bits of the unsigned 128-bit product of {@code x} and {@code y}
+   */
+  private static long multiplyHigh(long x, long y) {
+    long x0 = x & 0xFFFFFFFFL;
+    long x1 = x >>> 32;
+    long y0 = y & 0xFFFFFFFFL;
+    long y1 = y >>> 32;
+    long p00 = x0 * y0;
+    long p01 = x0 * y1;
+    long p10 = x1 * y0;
+    long p11 = x1 * y1;
+    long middle = (p00 >>> 32) + (p10 & 0xFFFFFFFFL) + p01;
+    return p11 + (p10 >>> 32) + (middle >>> 32);
+  }
+
+  private static long[] computePowersOfFive() {
+    BigInteger mask64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    long[] table = new long[2 * (LARGEST_POWER_OF_FIVE - SMALLEST_POWER_OF_FIVE + 1)];
+    BigInteger five = BigInteger.valueOf(5);
+
+    for (int q = SMALLEST_POWER_OF_FIVE; q <= LARGEST_POWER_OF_FIVE; q++) {
+      BigInteger value;
+      if(q >= 0) {
+        value = five.pow(q);
+        value = value.bitLength() < 128 ? value.shiftLeft(128 - value.bitLength()) : value.shiftRight(value.bitLength() - 128);
+      } else {
+        // For negative exponents, store the reciprocal, rounded up
+        BigInteger power5 = five.pow(-q);
+        int z = power5.bitLength();
+        int b = q >= -27 ? z + 127 : 2 * z + 128;
+        value = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+        if(value.bitLength() > 128) {
+          value = value.shiftRight(value.bitLength() - 128);
+        }
+      }
+      int index = 2 * (q - SMALLEST_POWER_OF_FIVE);
+      table[index] = value.shiftRight(64).longValue();
+      table[index + 1] = value.and(mask64).longValue();
+    }
+    return table;
+  }
+}
@@ -4,11 +4,20 @@ import org.renjin.gcc.runtime.FileHandle;
 
 import java.io.IOException;
 
+/**
+ * Iterates over the bytes of a file, reading them from the {@link FileHandle} in blocks. When closed,
+ * any bytes read but not consumed are returned to the file by seeking backwards.
+ */
 public class FileHandleCharIterator implements CharIterator, AutoCloseable {
 
+    private static final int INITIAL_BLOCK_SIZE = 128;
+    private static final int MAX_BLOCK_SIZE = 8192;
+
     private FileHandle fileHandle;
     private boolean eof;
-    private char nextChar;
+    private byte[] buffer = new byte[INITIAL_BLOCK_SIZE];
+    private int position;
+    private int limit;
 
     public FileHandleCharIterator(FileHandle fileHandle) {
         this.fileHandle = fileHandle;
@@ -16,17 +25,25 @@ public class FileHandleCharIterator implements CharIterator, AutoCloseable {
     }
 
     private void readNext() {
-        int b = 0;
+        // Start with small blocks, as a call to fscanf often consumes only a line,
+        // and grow them if more of the file is read
+        if(limit == buffer.length && buffer.length < MAX_BLOCK_SIZE) {
+            buffer = new byte[buffer.length * 2];
+        }
+        position = 0;
+        limit = 0;
+        int n;
         try {
-            b = fileHandle.read();
+            n = fileHandle.read(buffer, 0, buffer.length);
         } catch (IOException e) {
             eof = true;
             fileHandle.setError(e);
+            return;
         }
-        if(b == -1) {
+        if(n <= 0) {
             eof = true;
         } else {
-            nextChar = (char) b;
+            limit = n;
         }
     }
 
@@ -37,13 +54,15 @@ public class FileHandleCharIterator implements CharIterator, AutoCloseable {
 
     @Override
     public char peek() {
-        return nextChar;
+        return (char) (buffer[position] & 0xFF);
     }
 
     @Override
     public char next() {
-        char c = nextChar;
-        readNext();
+        char c = (char) (buffer[position++] & 0xFF);
+        if(position == limit) {
+            readNext();
+        }
         return c;
     }
 
@@ -51,7 +70,7 @@ public class FileHandleCharIterator implements CharIterator, AutoCloseable {
     public void close() {
         if(!eof) {
             try {
-                fileHandle.seekCurrent(-1L);
+                fileHandle.seekCurrent(-(limit - position));
             } catch (IOException e) {
                 fileHandle.setError(e);
             }
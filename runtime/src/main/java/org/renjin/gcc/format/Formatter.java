@@ -23,7 +23,6 @@ package org.renjin.gcc.format;
 
 import org.renjin.gcc.runtime.Ptr;
 
-import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.List;
@@ -505,119 +504,125 @@ public class Formatter {
     return new Formatter(formatString).format(new FormatArrayInput(arguments));
   }
 
+  /**
+   * Scans input according to this format, storing each converted value directly into the corresponding
+   * {@link Ptr} in {@code output}.
+   *
+   * <p>Formatters in {@link Mode#SCAN} mode are not modified while scanning, and so can be shared between
+   * threads and reused, as by {@link ScanFormatCache}.</p>
+   *
+   * @return the number of conversions matched, or -1 if the input was empty
+   */
   public int scan(CharIterator it, Object[] output) {
 
     if(!it.hasMore()) {
       return -1;
     }
 
+    NumberScanner numberScanner = null;
     int matchCount = 0;
     for (FormatSpec conversion : conversions) {
       if(!it.hasMore()) {
         break;
       }
-      Ptr outputPtr = (Ptr) output[conversion.argumentPosition];
-      if(scan(conversion, it, outputPtr)) {
-        if(conversion.conversionCharacter != 0) {
-          matchCount++;
-        }
-      } else {
+      boolean matched;
+      switch (conversion.conversionCharacter) {
+        case 0:
+          matched = scanLiteral(conversion, it);
+          break;
+        case 's':
+          matched = scanString(conversion, it, (Ptr) output[conversion.argumentPosition]);
+          break;
+        case 'd':
+        case 'e':
+        case 'E':
+        case 'f':
+        case 'g':
+        case 'G':
+          if(numberScanner == null) {
+            numberScanner = new NumberScanner();
+          }
+          if(conversion.conversionCharacter == 'd') {
+            matched = scanInteger(conversion, it, (Ptr) output[conversion.argumentPosition], numberScanner);
+          } else {
+            matched = scanDouble(conversion, it, (Ptr) output[conversion.argumentPosition], numberScanner);
+          }
+          break;
+        default:
+          throw new UnsupportedOperationException("TODO: " + conversion.conversionCharacter);
+      }
+      if(!matched) {
         break;
       }
+      if(conversion.conversionCharacter != 0) {
+        matchCount++;
+      }
     }
 
     return matchCount;
   }
 
-  private boolean scan(FormatSpec conversion, CharIterator it, Ptr outputPtr) {
-    switch (conversion.conversionCharacter) {
-      case 0:
-        return scanLiteral(conversion, it);
-      case 's':
-        return scanString(conversion, it, outputPtr);
-      case 'd':
-        return scanInteger(conversion, it, outputPtr);
-      default:
-        throw new UnsupportedOperationException("TODO: " + conversion.conversionCharacter);
-    }
-  }
-
   private boolean scanLiteral(FormatSpec conversion, CharIterator it) {
     for (int i = 0; i < conversion.literal.length(); i++) {
-      if(!it.hasMore()) {
-        return false;
-      }
-      char c = it.next();
-      if(c != conversion.literal.charAt(i)) {
-        return false;
+      char expected = conversion.literal.charAt(i);
+      if(Character.isWhitespace(expected)) {
+        // Whitespace in the format matches any amount of whitespace, including none
+        while(it.hasMore() && Character.isWhitespace(it.peek())) {
+          it.next();
+        }
+      } else {
+        if(!it.hasMore()) {
+          return false;
+        }
+        char c = it.next();
+        if(c != expected) {
+          return false;
+        }
       }
     }
     return true;
   }
 
   private boolean scanString(FormatSpec conversion, CharIterator it, Ptr outputPtr) {
-    StringBuilder s = new StringBuilder();
     CharPredicator predicate;
     if(conversion.characterClass == null) {
       predicate = c -> !Character.isWhitespace(c);
+
+      // %s, unlike %[, skips leading whitespace
+      while(it.hasMore() && Character.isWhitespace(it.peek())) {
+        it.next();
+      }
     } else if(conversion.inverseCharacterClass) {
       predicate = c -> conversion.characterClass.indexOf(c) == -1;
     } else {
       predicate = c -> conversion.characterClass.indexOf(c) != -1;
     }
 
+    int length = 0;
     while(it.hasMore()) {
       char c = it.peek();
       if(!predicate.test(c)) {
         break;
       }
-      s.append(c);
+      outputPtr.setByte(length++, (byte) c);
       it.next();
     }
 
-    if(s.length() == 0) {
+    if(length == 0) {
       return false;
     }
 
-    byte[] bytes = s.toString().getBytes(StandardCharsets.UTF_8);
-    for (int i = 0; i < bytes.length; i++) {
-      outputPtr.setByte(i, bytes[i]);
-    }
-    outputPtr.setByte(bytes.length, (byte) 0);
+    outputPtr.setByte(length, (byte) 0);
 
     return true;
   }
 
-
-  private boolean scanInteger(FormatSpec conversion, CharIterator it, Ptr outputPtr) {
-
-    int sign = 1;
-    char firstChar = it.peek();
-    if(firstChar == '+') {
-      it.next();
-    } else if(firstChar == '-') {
-      sign = -1;
-      it.next();
-    }
-
-    StringBuilder s = new StringBuilder();
-    while(it.hasMore()) {
-      char c = it.peek();
-      if(!(c >= '0' && c <= '9')) {
-        break;
-      }
-      s.append(c);
-      it.next();
-    }
-
-    if(s.length() == 0) {
+  private boolean scanInteger(FormatSpec conversion, CharIterator it, Ptr outputPtr,
+                              NumberScanner numberScanner) {
+    long value = numberScanner.scanLong(it, 10, true);
+    if(!numberScanner.isMatched()) {
       return false;
     }
-
-    long value = Long.parseLong(s.toString());
-    if(sign < 0) {
-      value = -value;
-    }
     if(conversion.optionall) {
       outputPtr.setLong(value);
     } else if(conversion.optionalh) {
@@ -628,4 +633,18 @@ public class Formatter {
     return true;
   }
 
+  private boolean scanDouble(FormatSpec conversion, CharIterator it, Ptr outputPtr,
+                             NumberScanner numberScanner) {
+    double value = numberScanner.scanDouble(it);
+    if(!numberScanner.isMatched()) {
+      return false;
+    }
+    if(conversion.optionall || conversion.optionalL) {
+      outputPtr.setDouble(value);
+    } else {
+      outputPtr.setFloat((float) value);
+    }
+    return true;
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,440 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.format;
+
+import java.util.Arrays;
+
+/**
+ * Parses integers and floating point numbers in the syntax accepted by the C library's {@code strtol},
+ * {@code strtoul} and {@code strtod}, reading only the characters that make up the number.
+ *
+ * <p>After each call, {@link #getLength()} gives the number of characters, including leading whitespace,
+ * that form the longest valid number, which is what C's {@code endptr} must skip. Depending on the input,
+ * a character or two beyond this may have been consumed from the iterator.</p>
+ *
+ * <p>Instances keep a small buffer between calls, and so are not thread-safe.</p>
+ */
+public final class NumberScanner {
+
+  private static final int MAX_SIGNIFICANT_DIGITS = 19;
+
+  /**
+   * The largest magnitude which can be multiplied by any radix up to 36 without overflowing.
+   */
+  private static final long SAFE_MAGNITUDE = Long.MAX_VALUE / 36 - 36;
+
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+      1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private int position;
+  private int length;
+  private boolean overflow;
+
+  /**
+   * The characters consumed since the leading whitespace, used to fall back to
+   * {@link Double#parseDouble(String)}.
+   */
+  private char[] buffer = new char[32];
+  private int bufferLength;
+
+  /**
+   * @return the number of characters, including leading whitespace, matched by the last call to
+   * {@link #scanLong(CharIterator, int, boolean)} or {@link #scanDouble(CharIterator)}, or zero if no
+   * number could be parsed.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return true if the last call matched a number.
+   */
+  public boolean isMatched() {
+    return length > 0;
+  }
+
+  /**
+   * @return true if the last integer parsed was out of range, in which case the value returned was clamped
+   * as by {@code strtol} or {@code strtoul}.
+   */
+  public boolean isOverflow() {
+    return overflow;
+  }
+
+  /**
+   * Parses an integer as {@code strtol} or {@code strtoul} would.
+   *
+   * @param radix the base between 2 and 36, or zero to determine the base from the prefix
+   * @param signed true to clamp the result to the range of {@code long}, or false to treat it as
+   *               an {@code unsigned long}, negated if preceded by a minus sign.
+   */
+  public long scanLong(CharIterator it, int radix, boolean signed) {
+    reset();
+    skipWhitespace(it);
+
+    boolean negative = false;
+    int c = peek(it);
+    if(c == '-' || c == '+') {
+      negative = (c == '-');
+      next(it);
+      c = peek(it);
+    }
+
+    long magnitude = 0;
+    boolean digits = false;
+
+    if(c == '0' && (radix == 0 || radix == 16)) {
+      // Either a prefix or a zero
+      next(it);
+      digits = true;
+      length = position;
+      c = peek(it);
+      if(c == 'x' || c == 'X') {
+        next(it);
+        if(digitValue(peek(it)) >= 16) {
+          // "0x" without hex digits is parsed as a zero
+          return 0;
+        }
+        radix = 16;
+      } else if(radix == 0) {
+        radix = 8;
+      }
+    }
+    if(radix == 0) {
+      radix = 10;
+    }
+
+    while(true) {
+      int digit = digitValue(peek(it));
+      if(digit >= radix) {
+        break;
+      }
+      next(it);
+      digits = true;
+      if(Long.compareUnsigned(magnitude, SAFE_MAGNITUDE) <= 0) {
+        magnitude = magnitude * radix + digit;
+      } else if(!overflow) {
+        if(Long.compareUnsigned(magnitude, divideUnsigned(-1L - digit, radix)) > 0) {
+          overflow = true;
+        } else {
+          magnitude = magnitude * radix + digit;
+        }
+      }
+    }
+
+    if(!digits) {
+      return 0;
+    }
+    length = position;
+
+    if(signed) {
+      long limit = negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+      if(overflow || Long.compareUnsigned(magnitude, limit) > 0) {
+        overflow = true;
+        return limit;
+      }
+      return negative ? -magnitude : magnitude;
+    } else {
+      if(overflow) {
+        return -1L;
+      }
+      return negative ? -magnitude : magnitude;
+    }
+  }
+
+  /**
+   * Parses a floating point number as {@code strtod} would, including hexadecimal numbers,
+   * infinities and NaNs.
+   */
+  public double scanDouble(CharIterator it) {
+    reset();
+    skipWhitespace(it);
+
+    boolean negative = false;
+    int c = peek(it);
+    if(c == '-' || c == '+') {
+      negative = (c == '-');
+      next(it);
+      c = peek(it);
+    }
+
+    if(c == 'i' || c == 'I' || c == 'n' || c == 'N') {
+      return scanSpecial(it, negative);
+    }
+
+    long w = 0;
+    int exponent = 0;
+    int significantDigits = 0;
+    boolean truncated = false;
+    boolean digits = false;
+
+    if(c == '0') {
+      next(it);
+      digits = true;
+      length = position;
+      c = peek(it);
+      if(c == 'x' || c == 'X') {
+        next(it);
+        return scanHex(it, negative);
+      }
+    }
+
+    // Integer part
+    while(c >= '0' && c <= '9') {
+      next(it);
+      digits = true;
+      if(significantDigits < MAX_SIGNIFICANT_DIGITS) {
+        w = w * 10 + (c - '0');
+        if(w != 0) {
+          significantDigits++;
+        }
+      } else {
+        exponent++;
+        truncated |= (c != '0');
+      }
+      c = peek(it);
+    }
+
+    // Fractional part
+    if(c == '.') {
+      next(it);
+      c = peek(it);
+      while(c >= '0' && c <= '9') {
+        next(it);
+        digits = true;
+        if(significantDigits < MAX_SIGNIFICANT_DIGITS) {
+          w = w * 10 + (c - '0');
+          exponent--;
+          if(w != 0) {
+            significantDigits++;
+          }
+        } else {
+          truncated |= (c != '0');
+        }
+        c = peek(it);
+      }
+    }
+
+    if(!digits) {
+      return 0;
+    }
+    length = position;
+    int significandLength = bufferLength;
+
+    // Exponent, which is only part of the number if followed by at least one digit
+    if(c == 'e' || c == 'E') {
+      next(it);
+      c = peek(it);
+      boolean negativeExponent = false;
+      if(c == '-' || c == '+') {
+        negativeExponent = (c == '-');
+        next(it);
+        c = peek(it);
+      }
+      int explicitExponent = 0;
+      boolean exponentDigits = false;
+      while(c >= '0' && c <= '9') {
+        next(it);
+        exponentDigits = true;
+        if(explicitExponent < 100000) {
+          explicitExponent = explicitExponent * 10 + (c - '0');
+        }
+        c = peek(it);
+      }
+      if(exponentDigits) {
+        length = position;
+        significandLength = bufferLength;
+        exponent += negativeExponent ? -explicitExponent : explicitExponent;
+      }
+    }
+
+    if(w == 0) {
+      return negative ? -0d : 0d;
+    }
+
+    if(!truncated) {
+      // Both w and the power of ten are exactly representable, so a single
+      // multiplication or division gives the correctly rounded result
+      if(w >= 0 && w <= (1L << 53) && exponent >= -22 && exponent <= 22) {
+        double value = (double) w;
+        value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+      }
+      double value = EiselLemire.compute(w, exponent, negative);
+      if(!Double.isNaN(value)) {
+        return value;
+      }
+    } else {
+      // The true value lies between w and w + 1 (times 10^exponent): if both round to the same double,
+      // then so does the number.
+      double lower = EiselLemire.compute(w, exponent, negative);
+      double upper = EiselLemire.compute(w + 1, exponent, negative);
+      if(!Double.isNaN(lower) && lower == upper) {
+        return lower;
+      }
+    }
+
+    return Double.parseDouble(new String(buffer, 0, significandLength));
+  }
+
+  private double scanSpecial(CharIterator it, boolean negative) {
+    int c = peek(it);
+    if(c == 'i' || c == 'I') {
+      if(matchIgnoringCase(it, "inf")) {
+        length = position;
+        if(matchIgnoringCase(it, "inity")) {
+          length = position;
+        }
+        return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+      }
+    } else {
+      if(matchIgnoringCase(it, "nan")) {
+        length = position;
+        return Double.NaN;
+      }
+    }
+    return 0;
+  }
+
+  private boolean matchIgnoringCase(CharIterator it, String word) {
+    for (int i = 0; i < word.length(); i++) {
+      if(Character.toLowerCase(peek(it)) != word.charAt(i)) {
+        return false;
+      }
+      next(it);
+    }
+    return true;
+  }
+
+  /**
+   * Parses the remainder of a hexadecimal floating point number, such as {@code 0x1.8p3}, after the prefix.
+   */
+  private double scanHex(CharIterator it, boolean negative) {
+    StringBuilder s = new StringBuilder();
+    if(negative) {
+      s.append('-');
+    }
+    s.append("0x");
+
+    boolean digits = false;
+    boolean point = false;
+    int c = peek(it);
+    while(digitValue(c) < 16 || (c == '.' && !point)) {
+      next(it);
+      if(c == '.') {
+        point = true;
+      } else {
+        digits = true;
+      }
+      s.append((char) c);
+      c = peek(it);
+    }
+    if(!digits) {
+      // "0x" without hex digits is parsed as a zero
+      return negative ? -0d : 0d;
+    }
+    length = position;
+
+    int significandLength = s.length();
+    if(c == 'p' || c == 'P') {
+      next(it);
+      s.append('p');
+      c = peek(it);
+      if(c == '-' || c == '+') {
+        next(it);
+        s.append((char) c);
+        c = peek(it);
+      }
+      boolean exponentDigits = false;
+      while(c >= '0' && c <= '9') {
+        next(it);
+        exponentDigits = true;
+        s.append((char) c);
+        c = peek(it);
+      }
+      if(exponentDigits) {
+        length = position;
+        return Double.parseDouble(s.toString());
+      }
+      s.setLength(significandLength);
+    }
+    // Java requires a binary exponent, C does not
+    s.append("p0");
+    return Double.parseDouble(s.toString());
+  }
+
+  private void reset() {
+    position = 0;
+    length = 0;
+    overflow = false;
+    bufferLength = 0;
+  }
+
+  private void skipWhitespace(CharIterator it) {
+    while(isSpace(peek(it))) {
+      it.next();
+      position++;
+    }
+  }
+
+  private static boolean isSpace(int c) {
+    return c == ' ' || (c >= '\t' && c <= '\r');
+  }
+
+  private static int peek(CharIterator it) {
+    return it.hasMore() ? it.peek() : -1;
+  }
+
+  private void next(CharIterator it) {
+    char c = it.next();
+    position++;
+    if(bufferLength == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    buffer[bufferLength++] = c;
+  }
+
+  /**
+   * Divides an unsigned dividend by a small positive divisor, without the {@code BigInteger} arithmetic
+   * that {@link Long#divideUnsigned(long, long)} uses for large dividends in Java 8.
+   */
+  private static long divideUnsigned(long dividend, int divisor) {
+    long quotient = ((dividend >>> 1) / divisor) << 1;
+    long remainder = dividend - quotient * divisor;
+    return quotient + (Long.compareUnsigned(remainder, divisor) >= 0 ? 1 : 0);
+  }
+
+  /**
+   * @return the value of {@code c} as a digit in bases up to 36, or {@code Integer.MAX_VALUE} if
+   * {@code c} is not a digit or letter
+   */
+  private static int digitValue(int c) {
+    if(c >= '0' && c <= '9') {
+      return c - '0';
+    } else if(c >= 'a' && c <= 'z') {
+      return c - 'a' + 10;
+    } else if(c >= 'A' && c <= 'Z') {
+      return c - 'A' + 10;
+    } else {
+      return Integer.MAX_VALUE;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.format;
+
+import org.renjin.gcc.runtime.BytePtr;
+import org.renjin.gcc.runtime.Ptr;
+import org.renjin.gcc.runtime.Stdlib;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Caches the parsed {@link Formatter}s used by {@code sscanf} and {@code fscanf}, so that a format
+ * string, usually a literal in the compiled code, is parsed only once rather than on each call.
+ *
+ * <p>The cache is a small direct-mapped table keyed on the identity of the format string's array and its
+ * offset. Because C code may reuse a buffer for different format strings, each entry also keeps a
+ * copy of the bytes it was parsed from, which are compared with the format on each lookup. The array
+ * itself is only weakly referenced, so that the cache does not keep caller buffers alive.</p>
+ */
+public final class ScanFormatCache {
+
+  private static final int SIZE = 256;
+
+  private static final Entry[] ENTRIES = new Entry[SIZE];
+
+  private static class Entry extends WeakReference<byte[]> {
+    private final int offset;
+    private final byte[] format;
+    private final Formatter formatter;
+
+    Entry(byte[] array, int offset, byte[] format, Formatter formatter) {
+      super(array);
+      this.offset = offset;
+      this.format = format;
+      this.formatter = formatter;
+    }
+
+    boolean matches(byte[] array, int offset) {
+      if(get() != array || this.offset != offset) {
+        return false;
+      }
+      // Compare the format, including its terminating null
+      if(offset + format.length > array.length) {
+        return false;
+      }
+      for (int i = 0; i < format.length; i++) {
+        if(array[offset + i] != format[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private ScanFormatCache() {
+  }
+
+  /**
+   * @return a {@link Formatter} in {@link Formatter.Mode#SCAN} mode for the given null-terminated format.
+   */
+  public static Formatter get(Ptr format) {
+    if(!(format instanceof BytePtr)) {
+      return new Formatter(Stdlib.nullTerminatedString(format), Formatter.Mode.SCAN);
+    }
+    BytePtr bytes = (BytePtr) format;
+    int slot = (System.identityHashCode(bytes.array) * 31 + bytes.offset) & (SIZE - 1);
+
+    // Entries are immutable, so a racy read sees either a complete entry or none at all
+    Entry entry = ENTRIES[slot];
+    if(entry != null && entry.matches(bytes.array, bytes.offset)) {
+      return entry.formatter;
+    }
+
+    int length = 0;
+    while(bytes.array[bytes.offset + length] != 0) {
+      length++;
+    }
+    byte[] copy = new byte[length + 1];
+    System.arraycopy(bytes.array, bytes.offset, copy, 0, length);
+
+    Formatter formatter = new Formatter(Stdlib.nullTerminatedString(format), Formatter.Mode.SCAN);
+    ENTRIES[slot] = new Entry(bytes.array, bytes.offset, copy, formatter);
+    return formatter;
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of bytes which C code compiled with allocation tracking enabled may hold
+ * at any one time.
+ *
+ * <p>A quota is bound to a thread using {@link AllocationTracker#setQuota(AllocationQuota)}. The same
+ * quota may be bound to several threads to limit a whole context, such as a session or a request.
+ * Blocks are charged to the quota of the allocating thread, and released back to that quota
+ * when they are freed or garbage collected, whichever thread frees them.</p>
+ */
+public final class AllocationQuota {
+
+  private final long limitBytes;
+  private final AtomicLong usedBytes = new AtomicLong();
+
+  public AllocationQuota(long limitBytes) {
+    if(limitBytes < 0) {
+      throw new IllegalArgumentException("limitBytes: " + limitBytes);
+    }
+    this.limitBytes = limitBytes;
+  }
+
+  public long getLimitBytes() {
+    return limitBytes;
+  }
+
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  /**
+   * Charges {@code bytes} to this quota.
+   *
+   * @throws AllocationQuotaExceededException if the charge would exceed the limit, in which case
+   * the quota is left unchanged.
+   */
+  void charge(long bytes) {
+    long used;
+    long updated;
+    do {
+      used = usedBytes.get();
+      updated = used + bytes;
+      if(updated > limitBytes) {
+        throw new AllocationQuotaExceededException(this, bytes);
+      }
+    } while(!usedBytes.compareAndSet(used, updated));
+  }
+
+  void release(long bytes) {
+    usedBytes.addAndGet(-bytes);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+/**
+ * Thrown when C code tries to allocate more memory than is permitted by the
+ * {@link AllocationQuota} bound to the current thread.
+ */
+public class AllocationQuotaExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long requestedBytes;
+  private final long limitBytes;
+
+  public AllocationQuotaExceededException(AllocationQuota quota, long requestedBytes) {
+    super("Allocation of " + requestedBytes + " bytes would exceed quota of " + quota.getLimitBytes() +
+        " bytes (" + quota.getUsedBytes() + " bytes in use)");
+    this.requestedBytes = requestedBytes;
+    this.limitBytes = quota.getLimitBytes();
+  }
+
+  public long getRequestedBytes() {
+    return requestedBytes;
+  }
+
+  public long getLimitBytes() {
+    return limitBytes;
+  }
+}
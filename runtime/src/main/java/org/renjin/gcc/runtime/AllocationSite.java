@@ -0,0 +1,112 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Describes a call to {@code malloc}, {@code calloc} or {@code realloc} in code compiled with allocation
+ * tracking enabled, and provides access to the statistics collected so far.
+ *
+ * <p>All counters are striped so that they can be updated concurrently without contention.</p>
+ */
+public final class AllocationSite {
+
+  private final int id;
+  private final String sourceFile;
+  private final String functionName;
+  private final int line;
+
+  final LongAdder allocations = new LongAdder();
+  final LongAdder allocatedBytes = new LongAdder();
+  final LongAdder frees = new LongAdder();
+  final LongAdder freedBytes = new LongAdder();
+  final LongAdder leaks = new LongAdder();
+  final LongAdder leakedBytes = new LongAdder();
+
+  AllocationSite(int id, String sourceFile, String functionName, int line) {
+    this.id = id;
+    this.sourceFile = sourceFile;
+    this.functionName = functionName;
+    this.line = line;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getSourceFile() {
+    return sourceFile;
+  }
+
+  public String getFunctionName() {
+    return functionName;
+  }
+
+  /**
+   * @return the source line number of the call, or zero if there was no line number information.
+   */
+  public int getLine() {
+    return line;
+  }
+
+  public long getAllocationCount() {
+    return allocations.sum();
+  }
+
+  public long getAllocatedBytes() {
+    return allocatedBytes.sum();
+  }
+
+  /**
+   * @return the number of blocks allocated at this site which were later released by
+   * {@code free} or {@code realloc}.
+   */
+  public long getFreeCount() {
+    return frees.sum();
+  }
+
+  public long getFreedBytes() {
+    return freedBytes.sum();
+  }
+
+  /**
+   * @return the number of blocks allocated at this site which were reclaimed by the garbage collector
+   * without ever being passed to {@code free}.
+   */
+  public long getLeakCount() {
+    return leaks.sum();
+  }
+
+  public long getLeakedBytes() {
+    return leakedBytes.sum();
+  }
+
+  /**
+   * @return the number of bytes allocated at this site which are still reachable and have not been freed.
+   */
+  public long getLiveBytes() {
+    return allocatedBytes.sum() - freedBytes.sum() - leakedBytes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return sourceFile + ":" + line + " (" + functionName + ")";
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Accounts for the memory allocated by C code compiled with allocation tracking enabled.
+ *
+ * <p>When allocation tracking is enabled, the compiler registers each call to {@code malloc},
+ * {@code calloc}, {@code realloc} and the C++ {@code new} operators as an {@link AllocationSite} in the unit
+ * class's static initializer. Around each call, it emits calls to {@link #reserve(int)} and
+ * {@link #allocated(Object, int, AllocationSite)}, and each call to {@code free} or {@code delete}
+ * becomes a call to {@link #freed(Object)}. Code compiled without tracking never references this class.</p>
+ *
+ * <p>Blocks are identified by their backing array, which is held weakly. A block which is reclaimed by the
+ * garbage collector without having been freed is counted as a leak of the site which allocated it.</p>
+ *
+ * <p>The statistics are available through JMX as {@value #OBJECT_NAME}. If the system property
+ * {@code gcc.bridge.allocations} is set, a summary is written to the named file on JVM shutdown, and also
+ * every {@code gcc.bridge.allocations.interval} seconds if that property is set.</p>
+ */
+public final class AllocationTracker {
+
+  public static final String OUTPUT_PROPERTY = "gcc.bridge.allocations";
+
+  public static final String INTERVAL_PROPERTY = "gcc.bridge.allocations.interval";
+
+  public static final String OBJECT_NAME = "org.renjin.gcc:type=AllocationTracker";
+
+  private static final List<AllocationSite> SITES = new CopyOnWriteArrayList<>();
+
+  private static final BlockTable BLOCKS = new BlockTable();
+
+  private static final ThreadLocal<AllocationQuota> QUOTA = new ThreadLocal<>();
+
+  static {
+    registerMBean();
+
+    String output = System.getProperty(OUTPUT_PROPERTY);
+    if(output != null && !output.isEmpty()) {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> dumpQuietly(output), "gcc-bridge-allocations-dump"));
+
+      long interval = Long.getLong(INTERVAL_PROPERTY, 0L);
+      if(interval > 0) {
+        Thread dumper = new Thread(() -> {
+          try {
+            while(true) {
+              Thread.sleep(interval * 1000L);
+              dumpQuietly(output);
+            }
+          } catch (InterruptedException e) {
+            // Exit
+          }
+        }, "gcc-bridge-allocations-periodic-dump");
+        dumper.setDaemon(true);
+        dumper.start();
+      }
+    }
+  }
+
+  private AllocationTracker() {
+  }
+
+  private static void registerMBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new Management(), new ObjectName(OBJECT_NAME));
+    } catch (Exception | LinkageError e) {
+      // JMX is not available or the tracker was loaded by more than one class loader:
+      // the statistics remain available through this class.
+    }
+  }
+
+  /**
+   * Registers an allocation site.
+   *
+   * @param sourceFile the name of the source file containing the call
+   * @param functionName the name of the function containing the call
+   * @param line the source line of the call, or zero if unknown
+   */
+  public static AllocationSite site(String sourceFile, String functionName, int line) {
+    synchronized (SITES) {
+      AllocationSite site = new AllocationSite(SITES.size(), sourceFile, functionName, line);
+      SITES.add(site);
+      return site;
+    }
+  }
+
+  /**
+   * Binds the given quota to the current thread, or removes the current thread's quota if
+   * {@code quota} is {@code null}.
+   *
+   * @return the quota previously bound to the current thread, if any.
+   */
+  public static AllocationQuota setQuota(AllocationQuota quota) {
+    AllocationQuota previous = QUOTA.get();
+    if(quota == null) {
+      QUOTA.remove();
+    } else {
+      QUOTA.set(quota);
+    }
+    return previous;
+  }
+
+  public static AllocationQuota getQuota() {
+    return QUOTA.get();
+  }
+
+  /**
+   * Called before an allocation of {@code bytes} bytes, so that a request which would exceed the
+   * current thread's quota fails before the memory is allocated.
+   *
+   * @throws AllocationQuotaExceededException if the allocation would exceed the current thread's quota.
+   */
+  public static void reserve(int bytes) {
+    AllocationQuota quota = QUOTA.get();
+    if(quota != null) {
+      quota.charge(bytes);
+    }
+  }
+
+  /**
+   * Returns a reservation made by {@link #reserve(int)} to the current thread's quota when the
+   * allocation which followed it failed.
+   */
+  public static void unreserve(int bytes) {
+    release(QUOTA.get(), bytes);
+  }
+
+  /**
+   * Records a block allocated at the given site, which has already been charged to the current thread's
+   * quota by {@link #reserve(int)}.
+   */
+  public static void allocated(Object pointer, int bytes, AllocationSite site) {
+    site.allocations.increment();
+    site.allocatedBytes.add(bytes);
+
+    Object block = blockOf(pointer);
+    if(block != null) {
+      BLOCKS.put(block, site, bytes, QUOTA.get());
+    } else {
+      release(QUOTA.get(), bytes);
+    }
+  }
+
+  /**
+   * Records a call to {@code free}. Pointers to blocks which were not allocated by tracked code, or which
+   * have already been freed, are ignored.
+   */
+  public static void freed(Object pointer) {
+    Object block = blockOf(pointer);
+    if(block != null) {
+      BlockTable.Block entry = BLOCKS.remove(block);
+      if(entry != null) {
+        entry.site.frees.increment();
+        entry.site.freedBytes.add(entry.bytes);
+        release(entry.quota, entry.bytes);
+      }
+    }
+  }
+
+  /**
+   * Records a call to {@code realloc}, which frees {@code oldPointer}'s block and allocates a new
+   * block of {@code bytes} bytes at the given site. The two blocks may be the same if the block was
+   * resized in place.
+   */
+  public static void reallocated(Object oldPointer, Object newPointer, int bytes, AllocationSite site) {
+    freed(oldPointer);
+    allocated(newPointer, bytes, site);
+  }
+
+  static void leaked(BlockTable.Block block) {
+    block.site.leaks.increment();
+    block.site.leakedBytes.add(block.bytes);
+    release(block.quota, block.bytes);
+  }
+
+  private static void release(AllocationQuota quota, long bytes) {
+    if(quota != null) {
+      quota.release(bytes);
+    }
+  }
+
+  /**
+   * Finds the object which identifies the block of memory to which {@code pointer} points.
+   */
+  private static Object blockOf(Object pointer) {
+    if(pointer instanceof Ptr) {
+      if(((Ptr) pointer).isNull()) {
+        return null;
+      }
+      Object array = ((Ptr) pointer).getArray();
+      if(array != null) {
+        return array;
+      }
+    }
+    return pointer;
+  }
+
+  /**
+   * @return all registered sites, in order of registration.
+   */
+  public static List<AllocationSite> getSites() {
+    BLOCKS.expungeStaleBlocks();
+    return Collections.unmodifiableList(SITES);
+  }
+
+  /**
+   * @return the number of blocks which have been allocated but neither freed nor garbage collected.
+   */
+  public static int getLiveBlockCount() {
+    BLOCKS.expungeStaleBlocks();
+    return BLOCKS.size();
+  }
+
+  /**
+   * Writes a CSV summary with one row per site which has allocated at least once, ordered by
+   * descending live bytes.
+   */
+  public static void writeSiteSummary(Writer writer) throws IOException {
+    PrintWriter out = new PrintWriter(writer);
+    out.println("source,function,line,allocations,allocated_bytes,frees,freed_bytes,leaks,leaked_bytes,live_bytes");
+    for (AllocationSite site : sitesByLiveBytes()) {
+      out.println(site.getSourceFile() + "," + site.getFunctionName() + "," + site.getLine() + "," +
+          site.getAllocationCount() + "," + site.getAllocatedBytes() + "," +
+          site.getFreeCount() + "," + site.getFreedBytes() + "," +
+          site.getLeakCount() + "," + site.getLeakedBytes() + "," +
+          site.getLiveBytes());
+    }
+    out.flush();
+  }
+
+  private static List<AllocationSite> sitesByLiveBytes() {
+    List<AllocationSite> sites = new ArrayList<>();
+    Map<AllocationSite, Long> live = new HashMap<>();
+    for (AllocationSite site : getSites()) {
+      if(site.getAllocationCount() > 0) {
+        sites.add(site);
+        live.put(site, site.getLiveBytes());
+      }
+    }
+    sites.sort(Comparator.comparing((AllocationSite s) -> live.get(s)).reversed());
+    return sites;
+  }
+
+  /**
+   * Writes the site summary to the given file.
+   */
+  public static void dump(String fileName) throws IOException {
+    try(Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName),
+        StandardCharsets.UTF_8))) {
+      writeSiteSummary(writer);
+    }
+  }
+
+  private static void dumpQuietly(String fileName) {
+    try {
+      dump(fileName);
+    } catch (IOException e) {
+      System.err.println("Failed to write gcc-bridge allocation summary: " + e.getMessage());
+    }
+  }
+
+  private static final class Management implements AllocationTrackerMXBean {
+
+    @Override
+    public int getSiteCount() {
+      return SITES.size();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+      long total = 0;
+      for (AllocationSite site : getSites()) {
+        total += site.getAllocatedBytes();
+      }
+      return total;
+    }
+
+    @Override
+    public long getFreedBytes() {
+      long total = 0;
+      for (AllocationSite site : getSites()) {
+        total += site.getFreedBytes();
+      }
+      return total;
+    }
+
+    @Override
+    public long getLeakedBytes() {
+      long total = 0;
+      for (AllocationSite site : getSites()) {
+        total += site.getLeakedBytes();
+      }
+      return total;
+    }
+
+    @Override
+    public long getLiveBytes() {
+      long total = 0;
+      for (AllocationSite site : getSites()) {
+        total += site.getLiveBytes();
+      }
+      return total;
+    }
+
+    @Override
+    public int getLiveBlockCount() {
+      return AllocationTracker.getLiveBlockCount();
+    }
+
+    @Override
+    public String[] getTopSites(int count) {
+      List<AllocationSite> sites = sitesByLiveBytes();
+      String[] top = new String[Math.min(count, sites.size())];
+      for (int i = 0; i < top.length; i++) {
+        AllocationSite site = sites.get(i);
+        top[i] = site + ": " + site.getLiveBytes() + " live bytes in " +
+            (site.getAllocationCount() - site.getFreeCount() - site.getLeakCount()) + " blocks";
+      }
+      return top;
+    }
+
+    @Override
+    public void dump(String fileName) throws IOException {
+      AllocationTracker.dump(fileName);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+/**
+ * Management interface for the {@link AllocationTracker}, registered as
+ * {@value AllocationTracker#OBJECT_NAME}.
+ */
+public interface AllocationTrackerMXBean {
+
+  int getSiteCount();
+
+  long getAllocatedBytes();
+
+  long getFreedBytes();
+
+  long getLeakedBytes();
+
+  long getLiveBytes();
+
+  /**
+   * @return the number of blocks which have been allocated but neither freed nor garbage collected.
+   */
+  int getLiveBlockCount();
+
+  /**
+   * @return a description of the sites holding the most live bytes, one per element, in descending order.
+   */
+  String[] getTopSites(int count);
+
+  /**
+   * Writes the per-site summary to the given file.
+   */
+  void dump(String fileName) throws java.io.IOException;
+}
@@ -0,0 +1,189 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Maps live memory blocks to the site which allocated them, using the identity of the block's
+ * backing array and holding it only weakly.
+ *
+ * <p>The table is split into independently locked segments so that threads allocating and freeing
+ * different blocks rarely contend. Blocks which are reclaimed by the garbage collector while still in
+ * the table were never freed, and are reported as leaks to their allocation site.</p>
+ */
+final class BlockTable {
+
+  private static final int SEGMENT_BITS = 4;
+  private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+  static final class Block extends WeakReference<Object> {
+    final int hash;
+    final AllocationSite site;
+    final long bytes;
+    final AllocationQuota quota;
+    Block next;
+
+    Block(Object key, int hash, AllocationSite site, long bytes, AllocationQuota quota,
+          ReferenceQueue<Object> queue, Block next) {
+      super(key, queue);
+      this.hash = hash;
+      this.site = site;
+      this.bytes = bytes;
+      this.quota = quota;
+      this.next = next;
+    }
+  }
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+  BlockTable() {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = System.identityHashCode(key);
+    return h ^ (h >>> 16);
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[hash & (SEGMENT_COUNT - 1)];
+  }
+
+  void put(Object key, AllocationSite site, long bytes, AllocationQuota quota) {
+    int hash = hash(key);
+    segmentFor(hash).put(key, hash, site, bytes, quota);
+  }
+
+  /**
+   * Removes the given block from the table.
+   *
+   * @return the removed entry, or {@code null} if the block was not allocated by tracked code, or has
+   * already been freed.
+   */
+  Block remove(Object key) {
+    int hash = hash(key);
+    return segmentFor(hash).remove(key, hash);
+  }
+
+  /**
+   * Removes the entries of all blocks which have been reclaimed by the garbage collector.
+   */
+  void expungeStaleBlocks() {
+    for (Segment segment : segments) {
+      segment.expunge();
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  private static final class Segment {
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private Block[] table = new Block[16];
+    private int count;
+
+    private int indexFor(int hash, int length) {
+      return (hash >>> SEGMENT_BITS) & (length - 1);
+    }
+
+    synchronized void put(Object key, int hash, AllocationSite site, long bytes, AllocationQuota quota) {
+      expungeLocked();
+      if(count >= table.length - (table.length >> 2)) {
+        resize();
+      }
+      int index = indexFor(hash, table.length);
+      table[index] = new Block(key, hash, site, bytes, quota, queue, table[index]);
+      count++;
+    }
+
+    synchronized Block remove(Object key, int hash) {
+      expungeLocked();
+      int index = indexFor(hash, table.length);
+      Block previous = null;
+      for (Block block = table[index]; block != null; block = block.next) {
+        if(block.hash == hash && block.get() == key) {
+          unlink(index, previous, block);
+          block.clear();
+          return block;
+        }
+        previous = block;
+      }
+      return null;
+    }
+
+    synchronized void expunge() {
+      expungeLocked();
+    }
+
+    synchronized int size() {
+      return count;
+    }
+
+    private void expungeLocked() {
+      Object stale;
+      while((stale = queue.poll()) != null) {
+        Block collected = (Block) stale;
+        int index = indexFor(collected.hash, table.length);
+        Block previous = null;
+        for (Block block = table[index]; block != null; block = block.next) {
+          if(block == collected) {
+            unlink(index, previous, block);
+            AllocationTracker.leaked(block);
+            break;
+          }
+          previous = block;
+        }
+      }
+    }
+
+    private void unlink(int index, Block previous, Block block) {
+      if(previous == null) {
+        table[index] = block.next;
+      } else {
+        previous.next = block.next;
+      }
+      block.next = null;
+      count--;
+    }
+
+    private void resize() {
+      Block[] newTable = new Block[table.length * 2];
+      for (Block head : table) {
+        Block block = head;
+        while(block != null) {
+          Block next = block.next;
+          int index = indexFor(block.hash, newTable.length);
+          block.next = newTable[index];
+          newTable[index] = block;
+          block = next;
+        }
+      }
+      table = newTable;
+    }
+  }
+}
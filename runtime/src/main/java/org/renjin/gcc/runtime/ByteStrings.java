@@ -0,0 +1,429 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Null-terminated string primitives operating directly on the {@code byte[]} behind a
+ * {@link BytePtr}, used by {@link Stdlib} as fast paths.
+ *
+ * <p>Where possible, strings are scanned eight bytes at a time: each aligned group of eight bytes is read
+ * as a single {@code long} and tested for zero (or matching) bytes with the usual SWAR bit tricks, using a
+ * byte loop up to the first aligned word and for the final, partial word. Not every platform supports
+ * unaligned reads, so two strings are only compared a word at a time if they are equally aligned. Java 8 has
+ * no {@code VarHandle} long views of a {@code byte[]}, so words are read with {@code sun.misc.Unsafe.getLong};
+ * if it is not available, all scans use plain byte loops. Word reads are only ever made when all eight bytes
+ * lie within the array.</p>
+ *
+ * <p>{@code Unsafe} is looked up reflectively and called through a constant {@link MethodHandle}, which the JIT
+ * inlines to a plain load, rather than referenced directly: javac reports every use of the internal API
+ * with a warning that neither {@code @SuppressWarnings} nor {@code -nowarn} silences.</p>
+ */
+final class ByteStrings {
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+  private static final long BYTE_ARRAY_BASE;
+
+  /**
+   * {@code Unsafe.getLong(Object, long)}, bound to the {@code Unsafe} instance, or {@code null} if
+   * it is not available.
+   */
+  private static final MethodHandle GET_LONG;
+
+  private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  static {
+    long base = 0;
+    MethodHandle getLong = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      int scale = (Integer) unsafeClass.getMethod("arrayIndexScale", Class.class).invoke(unsafe, byte[].class);
+      if(scale == 1) {
+        base = (Integer) unsafeClass.getMethod("arrayBaseOffset", Class.class).invoke(unsafe, byte[].class);
+        getLong = MethodHandles.lookup()
+            .findVirtual(unsafeClass, "getLong", MethodType.methodType(long.class, Object.class, long.class))
+            .bindTo(unsafe);
+      }
+    } catch (Throwable e) {
+      getLong = null;
+    }
+    BYTE_ARRAY_BASE = base;
+    GET_LONG = getLong;
+  }
+
+  private ByteStrings() {
+  }
+
+  /**
+   * Reads the eight bytes starting at {@code array[index]} in native byte order. The caller must
+   * ensure that {@code index + 8 <= array.length}.
+   */
+  private static long word(byte[] array, int index) {
+    try {
+      return (long) GET_LONG.invokeExact((Object) array, BYTE_ARRAY_BASE + index);
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * @return the number of bytes from {@code array[index]} to the next multiple of eight bytes in memory
+   */
+  private static int bytesToAlignment(int index) {
+    return (int) (-(BYTE_ARRAY_BASE + index) & 7);
+  }
+
+  /**
+   * @return a word with the high bit set in exactly those bytes of {@code word} which are zero.
+   */
+  private static long zeroBytes(long word) {
+    return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+  }
+
+  /**
+   * @return the position in memory, from 0 to 7, of the first byte flagged by {@link #zeroBytes(long)}
+   */
+  private static int firstFlagged(long flags) {
+    if(LITTLE_ENDIAN) {
+      return Long.numberOfTrailingZeros(flags) >>> 3;
+    } else {
+      return Long.numberOfLeadingZeros(flags) >>> 3;
+    }
+  }
+
+  /**
+   * @return the number of bytes before the first zero byte at or after {@code start}
+   */
+  static int strlen(byte[] array, int start) {
+    int i = start;
+    if(GET_LONG != null) {
+      int aligned = start + bytesToAlignment(start);
+      while(i < aligned) {
+        if(array[i] == 0) {
+          return i - start;
+        }
+        i++;
+      }
+      int lastWord = array.length - 8;
+      while(i <= lastWord) {
+        long zeros = zeroBytes(word(array, i));
+        if(zeros != 0) {
+          return i + firstFlagged(zeros) - start;
+        }
+        i += 8;
+      }
+    }
+    while(array[i] != 0) {
+      i++;
+    }
+    return i - start;
+  }
+
+  /**
+   * @return the index of the first byte at or after {@code start} which is either equal to {@code ch} or zero.
+   */
+  static int indexOfByteOrZero(byte[] array, int start, byte ch) {
+    int i = start;
+    if(GET_LONG != null) {
+      int aligned = start + bytesToAlignment(start);
+      while(i < aligned) {
+        byte b = array[i];
+        if(b == ch || b == 0) {
+          return i;
+        }
+        i++;
+      }
+      long pattern = (ch & 0xffL) * ONES;
+      int lastWord = array.length - 8;
+      while(i <= lastWord) {
+        long word = word(array, i);
+        long flags = zeroBytes(word) | zeroBytes(word ^ pattern);
+        if(flags != 0) {
+          return i + firstFlagged(flags);
+        }
+        i += 8;
+      }
+    }
+    while(true) {
+      byte b = array[i];
+      if(b == ch || b == 0) {
+        return i;
+      }
+      i++;
+    }
+  }
+
+  /**
+   * Skips a common prefix of the two strings which contains no zero byte, a word at a time if the two
+   * strings are equally aligned.
+   *
+   * @return the number of bytes which are known to be equal and non-zero, no greater than {@code n}
+   */
+  private static int skipEqualWords(byte[] x, int xi, byte[] y, int yi, int n) {
+    int i = 0;
+    if(GET_LONG != null && bytesToAlignment(xi) == bytesToAlignment(yi)) {
+      int limit = Math.min(n, Math.min(x.length - xi, y.length - yi));
+      int head = Math.min(bytesToAlignment(xi), limit);
+      while(i < head) {
+        if(x[xi + i] != y[yi + i] || x[xi + i] == 0) {
+          return i;
+        }
+        i++;
+      }
+      while(limit - i >= 8) {
+        long word = word(x, xi + i);
+        if(word != word(y, yi + i) || zeroBytes(word) != 0) {
+          break;
+        }
+        i += 8;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Compares at most {@code n} bytes of two null-terminated strings, with the same
+   * semantics as {@link Stdlib#strncmp(Ptr, Ptr, int)}
+   */
+  static int strncmp(byte[] x, int xi, byte[] y, int yi, int n) {
+    for(int i = skipEqualWords(x, xi, y, yi, n); i < n; ++i) {
+      byte bx = x[xi + i];
+      byte by = y[yi + i];
+      if(bx < by) {
+        return -1;
+      } else if(bx > by) {
+        return 1;
+      }
+      if(bx == 0) {
+        break;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Compares at most {@code n} bytes of two null-terminated strings, ignoring case, with the same
+   * semantics as {@link Stdlib#strncasecmp(Ptr, Ptr, int)}
+   */
+  static int strncasecmp(byte[] x, int xi, byte[] y, int yi, int n) {
+    for(int i = skipEqualWords(x, xi, y, yi, n); i < n; ++i) {
+      int bx = toLowerCase(x[xi + i]);
+      int by = toLowerCase(y[yi + i]);
+      if(bx < by) {
+        return -1;
+      } else if(bx > by) {
+        return 1;
+      }
+      if(bx == 0) {
+        break;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Equivalent to {@code Character.toLowerCase(b)} for all byte values, as only the ASCII letters
+   * have a lowercase mapping in the range -128 to 127.
+   */
+  private static int toLowerCase(byte b) {
+    if(b >= 'A' && b <= 'Z') {
+      return b + ('a' - 'A');
+    }
+    return b;
+  }
+
+  /**
+   * @return the index of the last occurrence of {@code ch} in the null-terminated string starting at {@code start},
+   * including its terminating zero, or -1 if there is none.
+   */
+  static int lastIndexOf(byte[] array, int start, byte ch) {
+    int end = start + strlen(array, start);
+    if(ch == 0) {
+      return end;
+    }
+    for(int i = end - 1; i >= start; i--) {
+      if(array[i] == ch) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the length of the initial run of {@code string} whose bytes are all in ({@code accept = true})
+   * or all absent from ({@code accept = false}) the null-terminated set of bytes {@code set}.
+   */
+  static int span(byte[] string, int stringStart, byte[] set, int setStart, boolean accept) {
+    // The terminating null is never part of the span
+    boolean[] inSpan = new boolean[256];
+    if(!accept) {
+      Arrays.fill(inSpan, true);
+    }
+    for(int j = setStart; set[j] != 0; j++) {
+      inSpan[set[j] & 0xff] = accept;
+    }
+    inSpan[0] = false;
+
+    int i = stringStart;
+    while(inSpan[string[i] & 0xff]) {
+      i++;
+    }
+    return i - stringStart;
+  }
+
+  /**
+   * Finds the first occurrence of the needle {@code needle[needleStart, needleStart + m)} within
+   * {@code haystack[haystackStart, haystackStart + n)} using the Two-Way algorithm of Crochemore and Perrin,
+   * which runs in O(n + m) time and constant space.
+   *
+   * @return the index of the match relative to {@code haystackStart}, or -1 if there is none.
+   */
+  static int indexOf(byte[] haystack, int haystackStart, int n, byte[] needle, int needleStart, int m) {
+    if(m == 0) {
+      return 0;
+    }
+    if(m > n) {
+      return -1;
+    }
+    if(m == 1) {
+      byte first = needle[needleStart];
+      for(int j = 0; j < n; j++) {
+        if(haystack[haystackStart + j] == first) {
+          return j;
+        }
+      }
+      return -1;
+    }
+
+    // Critical factorization: the larger of the two maximal suffixes, for each of the two
+    // orderings of the alphabet, and its period
+    long forward = maximalSuffix(needle, needleStart, m, false);
+    long reverse = maximalSuffix(needle, needleStart, m, true);
+    int suffix;
+    int period;
+    if((int) (forward >>> 32) > (int) (reverse >>> 32)) {
+      suffix = (int) (forward >>> 32);
+      period = (int) forward;
+    } else {
+      suffix = (int) (reverse >>> 32);
+      period = (int) reverse;
+    }
+
+    if(suffix + period <= m && regionMatches(needle, needleStart, needleStart + period, suffix)) {
+      // The needle is periodic: remember how much of its prefix is already known to match
+      // after a shift by the period
+      int memory = 0;
+      int j = 0;
+      while(j <= n - m) {
+        int i = Math.max(suffix, memory);
+        while(i < m && needle[needleStart + i] == haystack[haystackStart + i + j]) {
+          i++;
+        }
+        if(i >= m) {
+          i = suffix - 1;
+          while(i >= memory && needle[needleStart + i] == haystack[haystackStart + i + j]) {
+            i--;
+          }
+          if(i < memory) {
+            return j;
+          }
+          j += period;
+          memory = m - period;
+        } else {
+          j += i - suffix + 1;
+          memory = 0;
+        }
+      }
+    } else {
+      period = Math.max(suffix, m - suffix) + 1;
+      int j = 0;
+      while(j <= n - m) {
+        int i = suffix;
+        while(i < m && needle[needleStart + i] == haystack[haystackStart + i + j]) {
+          i++;
+        }
+        if(i >= m) {
+          i = suffix - 1;
+          while(i >= 0 && needle[needleStart + i] == haystack[haystackStart + i + j]) {
+            i--;
+          }
+          if(i < 0) {
+            return j;
+          }
+          j += period;
+        } else {
+          j += i - suffix + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Computes the maximal suffix of the needle under the byte ordering, or its reverse.
+   *
+   * @return the start of the suffix in the high 32 bits and its period in the low 32 bits.
+   */
+  private static long maximalSuffix(byte[] needle, int start, int m, boolean reversed) {
+    int maxSuffix = -1;
+    int j = 0;
+    int k = 1;
+    int period = 1;
+    while(j + k < m) {
+      int a = needle[start + j + k] & 0xff;
+      int b = needle[start + maxSuffix + k] & 0xff;
+      if(reversed ? a > b : a < b) {
+        j += k;
+        k = 1;
+        period = j - maxSuffix;
+      } else if(a == b) {
+        if(k != period) {
+          k++;
+        } else {
+          j += period;
+          k = 1;
+        }
+      } else {
+        maxSuffix = j++;
+        k = period = 1;
+      }
+    }
+    return ((long) (maxSuffix + 1) << 32) | period;
+  }
+
+  private static boolean regionMatches(byte[] array, int a, int b, int length) {
+    for(int i = 0; i < length; i++) {
+      if(array[a + i] != array[b + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Per-thread buffers used to return complex values from compiled functions without allocating.
+ *
+ * <p>The JVM can only return a single value, so functions returning a C {@code _Complex} or
+ * Fortran {@code COMPLEX} value return a two-element array holding the real and imaginary parts.
+ * Rather than allocating a new array on every call, compiled functions fill and return the
+ * calling thread's slot. Callers must therefore read both parts before calling any other
+ * function returning a complex value on the same thread.</p>
+ *
+ * <p>The slot of the most recent thread to return a value is cached in a plain static field, which
+ * makes the common single-threaded case a field read and a reference comparison, falling back to a
+ * {@link ThreadLocal} lookup when another thread last used it. The cached slot only refers weakly to
+ * its thread, so it does not keep a finished thread reachable.</p>
+ */
+public final class ComplexReturnSlot {
+
+  private static final class Slot {
+    private final WeakReference<Thread> owner;
+    private final double[] doubleValue = new double[2];
+    private final float[] floatValue = new float[2];
+
+    private Slot(Thread owner) {
+      this.owner = new WeakReference<>(owner);
+    }
+  }
+
+  private static final ThreadLocal<Slot> SLOTS = ThreadLocal.withInitial(() -> new Slot(Thread.currentThread()));
+
+  /**
+   * The slot of the last thread to return a value. All of the fields of {@link Slot} are final, so
+   * any other thread reading this field sees a fully initialized slot, and only ever uses it if
+   * it is its own.
+   */
+  private static Slot last = new Slot(null);
+
+  private ComplexReturnSlot() {
+  }
+
+  private static Slot current() {
+    Slot slot = last;
+    if(slot.owner.get() != Thread.currentThread()) {
+      slot = SLOTS.get();
+      last = slot;
+    }
+    return slot;
+  }
+
+  /**
+   * Stores the real and imaginary parts of a {@code double complex} value in this thread's slot.
+   *
+   * @return this thread's {@code double[2]} slot, valid until the next call on this thread
+   */
+  public static double[] of(double real, double imaginary) {
+    double[] value = current().doubleValue;
+    value[0] = real;
+    value[1] = imaginary;
+    return value;
+  }
+
+  /**
+   * Stores the real and imaginary parts of a {@code float complex} value in this thread's slot.
+   *
+   * @return this thread's {@code float[2]} slot, valid until the next call on this thread
+   */
+  public static float[] of(float real, float imaginary) {
+    float[] value = current().floatValue;
+    value[0] = real;
+    value[1] = imaginary;
+    return value;
+  }
+}
@@ -39,6 +39,26 @@ public interface FileHandle {
 
   int read() throws IOException;
 
+  /**
+   * Reads up to {@code length} bytes into {@code buffer}.
+   *
+   * <p>Callers may return unused bytes to the handle with {@link #seekCurrent(long)}, so handles which cannot
+   * seek backwards should read no more than one byte at a time, as this default implementation does.</p>
+   *
+   * @return the number of bytes read, or -1 at the end of the file.
+   */
+  default int read(byte[] buffer, int offset, int length) throws IOException {
+    if(length == 0) {
+      return 0;
+    }
+    int b = read();
+    if(b == -1) {
+      return -1;
+    }
+    buffer[offset] = (byte) b;
+    return 1;
+  }
+
   /**
    * Checks if the error indicator associated with stream is set, returning a value different from zero if it is.
    */
@@ -37,6 +37,11 @@ public class FileHandleImpl extends AbstractFileHandle {
     return file.read();
   }
 
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    return file.read(buffer, offset, length);
+  }
+
   @Override
   public void write(int b) throws IOException {
     file.write(b);
@@ -0,0 +1,118 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Describes a compiled C function which has been registered with the {@link Profiler},
+ * and provides access to the statistics collected so far.
+ */
+public final class FunctionProfile {
+
+  private final int id;
+  private final String sourceFile;
+  private final String functionName;
+  private final int[] blockLines;
+
+  /**
+   * Total number of calls across all threads. This is striped so that it can be
+   * incremented concurrently without contention.
+   */
+  final LongAdder calls = new LongAdder();
+
+  FunctionProfile(int id, String sourceFile, String functionName, int[] blockLines) {
+    this.id = id;
+    this.sourceFile = sourceFile;
+    this.functionName = functionName;
+    this.blockLines = blockLines;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getSourceFile() {
+    return sourceFile;
+  }
+
+  public String getFunctionName() {
+    return functionName;
+  }
+
+  public int getBlockCount() {
+    return blockLines.length;
+  }
+
+  /**
+   * @return the source line number of the first statement in the basic block at the given index, or
+   * zero if the block has no line number information.
+   */
+  public int getBlockLine(int blockIndex) {
+    return blockLines[blockIndex];
+  }
+
+  public long getCallCount() {
+    return calls.sum();
+  }
+
+  /**
+   * @return the total wall time spent in this function and its callees, in nanoseconds. Time spent
+   * in recursive calls is only counted once.
+   */
+  public long getInclusiveNanos() {
+    long total = 0;
+    for (ProfileBuffer buffer : Profiler.buffers()) {
+      total += buffer.inclusiveNanos(id);
+    }
+    return total;
+  }
+
+  /**
+   * @return the total wall time spent in this function, excluding time spent in callees
+   * that are also instrumented, in nanoseconds.
+   */
+  public long getExclusiveNanos() {
+    long total = 0;
+    for (ProfileBuffer buffer : Profiler.buffers()) {
+      total += buffer.exclusiveNanos(id);
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of times each of this function's basic blocks was entered.
+   */
+  public long[] getBlockHits() {
+    long[] hits = new long[blockLines.length];
+    for (ProfileBuffer buffer : Profiler.buffers()) {
+      buffer.addBlockHits(id, hits);
+    }
+    return hits;
+  }
+
+  String getFrameName() {
+    return sourceFile + ":" + functionName;
+  }
+
+  @Override
+  public String toString() {
+    return getFrameName();
+  }
+}
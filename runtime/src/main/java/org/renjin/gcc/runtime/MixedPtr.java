@@ -91,6 +91,22 @@ public class MixedPtr extends AbstractPtr {
     return ptr;
   }
 
+  /**
+   * Zeroes the primitives, and clears the references, between the given absolute byte offsets.
+   */
+  void clear(int fromByte, int toByte) {
+    int i = fromByte;
+    while(i + 8 <= toByte) {
+      primitives.putLong(i, 0L);
+      i += 8;
+    }
+    while(i < toByte) {
+      primitives.put(i, (byte) 0);
+      i++;
+    }
+    Arrays.fill(references, fromByte / POINTER_BYTES, mallocSize(toByte, POINTER_BYTES), null);
+  }
+
   @Override
   public Ptr pointerPlus(int bytes) {
     if(bytes == 0) {
@@ -0,0 +1,197 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Per-thread buffer of profiling data.
+ *
+ * <p>Each thread records calls into its own buffer without any synchronization. Instrumented
+ * functions obtain the buffer once, from {@link Profiler#enter(int)}, and keep it in a local
+ * variable for the duration of the call.</p>
+ *
+ * <p>Statistics are read from other threads without synchronization, so figures for threads
+ * which are still running may be slightly stale.</p>
+ */
+public final class ProfileBuffer {
+
+  /**
+   * A node in this thread's call tree, used to produce collapsed stacks.
+   */
+  static final class CallNode {
+    final int functionId;
+    final CallNode parent;
+    long selfNanos;
+    long calls;
+    private CallNode[] children = new CallNode[0];
+
+    CallNode(int functionId, CallNode parent) {
+      this.functionId = functionId;
+      this.parent = parent;
+    }
+
+    CallNode child(int functionId) {
+      for (CallNode child : children) {
+        if(child.functionId == functionId) {
+          return child;
+        }
+      }
+      CallNode child = new CallNode(functionId, this);
+      children = Arrays.copyOf(children, children.length + 1);
+      children[children.length - 1] = child;
+      return child;
+    }
+
+    CallNode[] getChildren() {
+      return children;
+    }
+  }
+
+  private final CallNode root = new CallNode(-1, null);
+
+  // The current call stack
+  private int depth = 0;
+  private int[] stack = new int[64];
+  private long[] startTimes = new long[64];
+  private long[] childTimes = new long[64];
+  private CallNode[] nodes = new CallNode[64];
+
+  // Totals, indexed by function id
+  private int[] active = new int[0];
+  private long[] inclusive = new long[0];
+  private long[] exclusive = new long[0];
+  private long[][] blockHits = new long[0][];
+
+  ProfileBuffer() {
+  }
+
+  void enter(int functionId) {
+    if(functionId >= active.length) {
+      growFunctions(functionId + 1);
+    }
+    if(depth == stack.length) {
+      growStack();
+    }
+    CallNode parent = depth == 0 ? root : nodes[depth - 1];
+    CallNode node = parent.child(functionId);
+    node.calls++;
+
+    stack[depth] = functionId;
+    nodes[depth] = node;
+    childTimes[depth] = 0;
+    active[functionId]++;
+    startTimes[depth] = System.nanoTime();
+    depth++;
+  }
+
+  /**
+   * Records entry into the basic block with the given index in the currently executing function.
+   */
+  public void block(int blockIndex) {
+    int functionId = stack[depth - 1];
+    long[] hits = blockHits[functionId];
+    if(hits == null) {
+      hits = new long[Profiler.function(functionId).getBlockCount()];
+      blockHits[functionId] = hits;
+    }
+    hits[blockIndex]++;
+  }
+
+  /**
+   * Records exit from the currently executing function, either by returning normally
+   * or by throwing an exception.
+   */
+  public void exit() {
+    long now = System.nanoTime();
+    depth--;
+    int functionId = stack[depth];
+    long elapsed = now - startTimes[depth];
+    long self = elapsed - childTimes[depth];
+
+    exclusive[functionId] += self;
+    nodes[depth].selfNanos += self;
+    nodes[depth] = null;
+
+    // Only count the outermost activation of recursive functions
+    if(--active[functionId] == 0) {
+      inclusive[functionId] += elapsed;
+    }
+    if(depth > 0) {
+      childTimes[depth - 1] += elapsed;
+    }
+  }
+
+  long inclusiveNanos(int functionId) {
+    long[] totals = inclusive;
+    return functionId < totals.length ? totals[functionId] : 0;
+  }
+
+  long exclusiveNanos(int functionId) {
+    long[] totals = exclusive;
+    return functionId < totals.length ? totals[functionId] : 0;
+  }
+
+  void addBlockHits(int functionId, long[] sum) {
+    long[][] all = blockHits;
+    if(functionId < all.length && all[functionId] != null) {
+      long[] hits = all[functionId];
+      for (int i = 0; i < hits.length; i++) {
+        sum[i] += hits[i];
+      }
+    }
+  }
+
+  /**
+   * Adds the self time of each distinct call stack in this thread to {@code stacks}, keyed
+   * by the semicolon-separated frame names, root first.
+   */
+  void collapseStacks(Map<String, Long> stacks) {
+    for (CallNode child : root.getChildren()) {
+      collapse(child, "", stacks);
+    }
+  }
+
+  private void collapse(CallNode node, String prefix, Map<String, Long> stacks) {
+    String path = prefix + Profiler.function(node.functionId).getFrameName();
+    if(node.selfNanos > 0) {
+      stacks.merge(path, node.selfNanos, Long::sum);
+    }
+    for (CallNode child : node.getChildren()) {
+      collapse(child, path + ";", stacks);
+    }
+  }
+
+  private void growFunctions(int count) {
+    int newLength = Math.max(count, Profiler.functionCount());
+    active = Arrays.copyOf(active, newLength);
+    inclusive = Arrays.copyOf(inclusive, newLength);
+    exclusive = Arrays.copyOf(exclusive, newLength);
+    blockHits = Arrays.copyOf(blockHits, newLength);
+  }
+
+  private void growStack() {
+    int newLength = stack.length * 2;
+    stack = Arrays.copyOf(stack, newLength);
+    startTimes = Arrays.copyOf(startTimes, newLength);
+    childTimes = Arrays.copyOf(childTimes, newLength);
+    nodes = Arrays.copyOf(nodes, newLength);
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records call counts, timings and basic block hits for C functions compiled with
+ * profiling enabled.
+ *
+ * <p>When profiling is enabled, the compiler registers each function in the unit class's static
+ * initializer, and emits calls to {@link #enter(int)}, {@link ProfileBuffer#block(int)}
+ * and {@link ProfileBuffer#exit()} in the function body. Functions compiled without profiling
+ * never reference this class.</p>
+ *
+ * <p>If the system property {@code gcc.bridge.profile} is set, the collected profile is written on
+ * JVM shutdown to files using the property's value as a prefix. See {@link #dump(String)}.</p>
+ */
+public final class Profiler {
+
+  public static final String OUTPUT_PROPERTY = "gcc.bridge.profile";
+
+  private static volatile FunctionProfile[] functions = new FunctionProfile[0];
+
+  private static final List<ProfileBuffer> BUFFERS = new CopyOnWriteArrayList<>();
+
+  private static final ThreadLocal<ProfileBuffer> CURRENT = ThreadLocal.withInitial(() -> {
+    ProfileBuffer buffer = new ProfileBuffer();
+    BUFFERS.add(buffer);
+    return buffer;
+  });
+
+  static {
+    String output = System.getProperty(OUTPUT_PROPERTY);
+    if(output != null && !output.isEmpty()) {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          dump(output);
+        } catch (IOException e) {
+          System.err.println("Failed to write gcc-bridge profile: " + e.getMessage());
+        }
+      }, "gcc-bridge-profile-dump"));
+    }
+  }
+
+  private Profiler() {
+  }
+
+  /**
+   * Registers a compiled function.
+   *
+   * @param sourceFile the name of the source file in which the function is defined
+   * @param functionName the name of the function
+   * @param blockLines the comma-separated source line number of each of the function's basic blocks. This is
+   *                   passed as a string constant to keep the static initializer small.
+   * @return the function's id, to be passed to {@link #enter(int)}
+   */
+  public static synchronized int register(String sourceFile, String functionName, String blockLines) {
+    FunctionProfile[] current = functions;
+    int id = current.length;
+    FunctionProfile[] updated = Arrays.copyOf(current, id + 1);
+    updated[id] = new FunctionProfile(id, sourceFile, functionName, parseLines(blockLines));
+    functions = updated;
+    return id;
+  }
+
+  private static int[] parseLines(String blockLines) {
+    if(blockLines.isEmpty()) {
+      return new int[0];
+    }
+    String[] parts = blockLines.split(",");
+    int[] lines = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      lines[i] = Integer.parseInt(parts[i]);
+    }
+    return lines;
+  }
+
+  /**
+   * Records entry into a function.
+   *
+   * @return the current thread's buffer, on which {@link ProfileBuffer#exit()} must be called when the function
+   * exits.
+   */
+  public static ProfileBuffer enter(int functionId) {
+    functions[functionId].calls.increment();
+    ProfileBuffer buffer = CURRENT.get();
+    buffer.enter(functionId);
+    return buffer;
+  }
+
+  static FunctionProfile function(int functionId) {
+    return functions[functionId];
+  }
+
+  static int functionCount() {
+    return functions.length;
+  }
+
+  static List<ProfileBuffer> buffers() {
+    return BUFFERS;
+  }
+
+  /**
+   * @return all registered functions, in order of registration.
+   */
+  public static List<FunctionProfile> getFunctions() {
+    return Collections.unmodifiableList(Arrays.asList(functions));
+  }
+
+  /**
+   * Writes a CSV summary with one row per function that has been called at least once,
+   * ordered by descending exclusive time.
+   */
+  public static void writeFunctionSummary(Writer writer) throws IOException {
+    List<FunctionProfile> called = new ArrayList<>();
+    Map<FunctionProfile, Long> exclusive = new HashMap<>();
+    for (FunctionProfile function : functions) {
+      if(function.getCallCount() > 0) {
+        called.add(function);
+        exclusive.put(function, function.getExclusiveNanos());
+      }
+    }
+    called.sort(Comparator.comparing((FunctionProfile f) -> exclusive.get(f)).reversed());
+
+    PrintWriter out = new PrintWriter(writer);
+    out.println("source,function,calls,inclusive_ns,exclusive_ns");
+    for (FunctionProfile function : called) {
+      out.println(function.getSourceFile() + "," + function.getFunctionName() + "," +
+          function.getCallCount() + "," +
+          function.getInclusiveNanos() + "," +
+          exclusive.get(function));
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes a CSV file with the number of times each basic block was entered, together with
+   * the source line of the block's first statement.
+   */
+  public static void writeBlockHits(Writer writer) throws IOException {
+    PrintWriter out = new PrintWriter(writer);
+    out.println("source,function,block,line,hits");
+    for (FunctionProfile function : functions) {
+      long[] hits = function.getBlockHits();
+      for (int i = 0; i < hits.length; i++) {
+        if(hits[i] > 0) {
+          out.println(function.getSourceFile() + "," + function.getFunctionName() + "," +
+              i + "," + function.getBlockLine(i) + "," + hits[i]);
+        }
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes the exclusive time of each distinct call stack in the "collapsed stack" format
+   * understood by flame graph tools, with one line per stack, in microseconds.
+   */
+  public static void writeCollapsedStacks(Writer writer) throws IOException {
+    Map<String, Long> stacks = new TreeMap<>();
+    for (ProfileBuffer buffer : BUFFERS) {
+      buffer.collapseStacks(stacks);
+    }
+    PrintWriter out = new PrintWriter(writer);
+    for (Map.Entry<String, Long> entry : stacks.entrySet()) {
+      long micros = entry.getValue() / 1000L;
+      if(micros > 0) {
+        out.println(entry.getKey() + " " + micros);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes the profile to {@code prefix.functions.csv}, {@code prefix.blocks.csv} and
+   * {@code prefix.collapsed}.
+   */
+  public static void dump(String prefix) throws IOException {
+    try(Writer writer = open(prefix + ".functions.csv")) {
+      writeFunctionSummary(writer);
+    }
+    try(Writer writer = open(prefix + ".blocks.csv")) {
+      writeBlockHits(writer);
+    }
+    try(Writer writer = open(prefix + ".collapsed")) {
+      writeCollapsedStacks(writer);
+    }
+  }
+
+  private static Writer open(String fileName) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+  }
+}
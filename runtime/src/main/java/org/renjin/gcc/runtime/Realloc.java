@@ -20,83 +20,161 @@ package org.renjin.gcc.runtime;
 
 /**
  * Implementation of type-specific Realloc calls
+ *
+ * <p>C code often grows a buffer by a few elements at a time, which would mean copying the whole
+ * buffer on each call if we always allocated an array of exactly the requested size. Instead:</p>
+ * <ul>
+ *   <li>When a block must be moved to grow, the new array is given geometric slack: at least half
+ *   as many elements again as the old block. Callers which already grow their buffers geometrically
+ *   get exactly what they asked for.</li>
+ *   <li>When the pointer is at the start of its array, and so owns all of it, and the array is large
+ *   enough, the same array is returned and the block is resized in place. Shrinking to less than a quarter
+ *   of the array still allocates a new, smaller array so that memory can be released.</li>
+ * </ul>
+ *
+ * <p>The length of the returned array is therefore the capacity of the block, which may be larger than
+ * the size requested. As with C's realloc, the contents of the block beyond the previously requested
+ * size are unspecified: they are zero unless the block was earlier shrunk in place.</p>
  */
 public class Realloc {
 
+  /**
+   * @return true if an array of length {@code length}, pointed to at {@code offset}, can be resized
+   * in place to {@code newCount} elements.
+   */
+  private static boolean fitsInPlace(int length, int offset, int newCount) {
+    return offset == 0 && newCount <= length && newCount >= (length >> 2);
+  }
+
+  /**
+   * @return the length of the array to allocate when a block with {@code oldCount} elements must be
+   * moved in order to hold {@code newCount} elements.
+   */
+  static int newCapacity(int oldCount, int newCount) {
+    int geometric = oldCount + (oldCount >> 1);
+    if(newCount <= oldCount || geometric < 0 || newCount >= geometric) {
+      return newCount;
+    }
+    return geometric;
+  }
 
   public static double[] realloc(double[] p, int offset, int newCount) {
-    double[] np = new double[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new double[newCount];
+    }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
     }
+    int oldCount = p.length - offset;
+    double[] np = new double[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
-
   public static char[] realloc(char[] p, int offset, int newCount) {
-    char[] np = new char[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new char[newCount];
+    }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
     }
+    int oldCount = p.length - offset;
+    char[] np = new char[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static int[] realloc(int[] p, int offset, int newCount) {
-    int[] np = new int[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new int[newCount];
     }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
+    }
+    int oldCount = p.length - offset;
+    int[] np = new int[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static long[] realloc(long[] p, int offset, int newCount) {
-    long[] np = new long[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new long[newCount];
+    }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
     }
+    int oldCount = p.length - offset;
+    long[] np = new long[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static boolean[] realloc(boolean[] p, int offset, int newCount) {
-    boolean[] np = new boolean[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new boolean[newCount];
     }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
+    }
+    int oldCount = p.length - offset;
+    boolean[] np = new boolean[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static float[] realloc(float[] p, int offset, int newCount) {
-    float[] np = new float[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new float[newCount];
+    }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
     }
+    int oldCount = p.length - offset;
+    float[] np = new float[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static short[] realloc(short[] p, int offset, int newCount) {
-    short[] np = new short[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new short[newCount];
     }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
+    }
+    int oldCount = p.length - offset;
+    short[] np = new short[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static byte[] realloc(byte[] p, int offset, int newCount) {
-    byte[] np = new byte[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new byte[newCount];
+    }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
     }
+    int oldCount = p.length - offset;
+    byte[] np = new byte[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
 
   public static Object[] realloc(Object[] p, int offset, int newCount) {
-    Object[] np = new Object[newCount];
-    if(p != null) {
-      System.arraycopy(p, offset, np, 0, Math.min(p.length - offset, newCount));
+    if(p == null) {
+      return new Object[newCount];
     }
+    if(fitsInPlace(p.length, offset, newCount)) {
+      return p;
+    }
+    int oldCount = p.length - offset;
+    Object[] np = new Object[newCapacity(oldCount, newCount)];
+    System.arraycopy(p, offset, np, 0, Math.min(oldCount, newCount));
     return np;
   }
-  
+
   public static Object realloc(Object p, int newSize) {
     if(p instanceof Ptr) {
       return ((Ptr) p).realloc(newSize);
@@ -0,0 +1,274 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread arena which serves short-lived allocations: memory obtained from {@code alloca()}, and the
+ * blocks into which variadic arguments are copied before a call.
+ *
+ * <p>The arena keeps one region for each pointer implementation, and allocates from a region by bumping
+ * its top. A function which uses the arena calls {@link #mark()} on entry and {@link #release(int)} before
+ * it returns, or when an exception unwinds it, which makes all memory allocated in the meantime available
+ * again. Released memory is cleared, so that allocations are zero-filled just like {@code malloc()}.</p>
+ *
+ * <p>Regions are created on first use and have a fixed capacity. An allocation which does not fit in the
+ * remainder of its region falls back to the heap.</p>
+ */
+public final class StackArena {
+
+  /**
+   * The capacity of each region, in bytes.
+   */
+  static final int REGION_BYTES = 64 * 1024;
+
+  private static final int BYTE = 0;
+  private static final int SHORT = 1;
+  private static final int CHAR = 2;
+  private static final int INT = 3;
+  private static final int LONG = 4;
+  private static final int FLOAT = 5;
+  private static final int DOUBLE = 6;
+  private static final int POINTER = 7;
+  private static final int MIXED = 8;
+  private static final int KINDS = 9;
+
+  /**
+   * Size, in bytes, of the elements of each region.
+   */
+  private static final int[] ELEMENT_BYTES = { 1, 2, 2, 4, 8, 4, 8, 4, 1 };
+
+  private static final ThreadLocal<StackArena> CURRENT = ThreadLocal.withInitial(StackArena::new);
+
+  private final Object[] regions = new Object[KINDS];
+
+  /**
+   * The index of the first free element of each region.
+   */
+  private final int[] tops = new int[KINDS];
+
+  /**
+   * The tops of all regions at each outstanding mark.
+   */
+  private int[] marks = new int[KINDS * 16];
+  private int depth;
+
+  private StackArena() {
+  }
+
+  /**
+   * @return the current thread's arena.
+   */
+  public static StackArena current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Records the current top of each region.
+   *
+   * @return the mark, which must later be passed to {@link #release(int)}
+   */
+  public int mark() {
+    int start = depth * KINDS;
+    if(start + KINDS > marks.length) {
+      marks = Arrays.copyOf(marks, marks.length * 2);
+    }
+    System.arraycopy(tops, 0, marks, start, KINDS);
+    return depth++;
+  }
+
+  /**
+   * Frees all memory allocated since the given {@code mark} was taken, along with any marks taken since.
+   */
+  public void release(int mark) {
+    int start = mark * KINDS;
+    for (int kind = 0; kind < KINDS; kind++) {
+      int top = marks[start + kind];
+      if(tops[kind] > top) {
+        clear(kind, top, tops[kind]);
+        tops[kind] = top;
+      }
+    }
+    depth = mark;
+  }
+
+  /**
+   * @return the number of outstanding marks.
+   */
+  int getDepth() {
+    return depth;
+  }
+
+  public BytePtr allocaByte(int bytes) {
+    int index = reserve(BYTE, bytes);
+    if(index < 0) {
+      return BytePtr.malloc(bytes);
+    }
+    return new BytePtr((byte[]) regions[BYTE], index);
+  }
+
+  public ShortPtr allocaShort(int bytes) {
+    int index = reserve(SHORT, bytes);
+    if(index < 0) {
+      return ShortPtr.malloc(bytes);
+    }
+    return new ShortPtr((short[]) regions[SHORT], index);
+  }
+
+  public CharPtr allocaChar(int bytes) {
+    int index = reserve(CHAR, bytes);
+    if(index < 0) {
+      return CharPtr.malloc(bytes);
+    }
+    return new CharPtr((char[]) regions[CHAR], index);
+  }
+
+  public IntPtr allocaInt(int bytes) {
+    int index = reserve(INT, bytes);
+    if(index < 0) {
+      return IntPtr.malloc(bytes);
+    }
+    return new IntPtr((int[]) regions[INT], index);
+  }
+
+  public LongPtr allocaLong(int bytes) {
+    int index = reserve(LONG, bytes);
+    if(index < 0) {
+      return LongPtr.malloc(bytes);
+    }
+    return new LongPtr((long[]) regions[LONG], index);
+  }
+
+  public FloatPtr allocaFloat(int bytes) {
+    int index = reserve(FLOAT, bytes);
+    if(index < 0) {
+      return FloatPtr.malloc(bytes);
+    }
+    return new FloatPtr((float[]) regions[FLOAT], index);
+  }
+
+  public DoublePtr allocaDouble(int bytes) {
+    int index = reserve(DOUBLE, bytes);
+    if(index < 0) {
+      return DoublePtr.malloc(bytes);
+    }
+    return new DoublePtr((double[]) regions[DOUBLE], index);
+  }
+
+  public PointerPtr allocaPointer(int bytes) {
+    int index = reserve(POINTER, bytes);
+    if(index < 0) {
+      return PointerPtr.malloc(bytes);
+    }
+    return new PointerPtr((Ptr[]) regions[POINTER], index);
+  }
+
+  public MixedPtr allocaMixed(int bytes) {
+    int index = reserve(MIXED, bytes);
+    if(index < 0) {
+      return MixedPtr.malloc(bytes);
+    }
+    return (MixedPtr) ((MixedPtr) regions[MIXED]).pointerPlus(index);
+  }
+
+  /**
+   * Reserves space for {@code bytes} in the region of the given kind.
+   *
+   * @return the index of the first element reserved, or -1 if the region is full.
+   */
+  private int reserve(int kind, int bytes) {
+    int elementBytes = ELEMENT_BYTES[kind];
+    int count = AbstractPtr.mallocSize(bytes, elementBytes);
+    if(kind == MIXED) {
+      // Keep mixed allocations aligned so that pointers can be stored in the reference array
+      count = (count + 7) & ~7;
+    }
+    int top = tops[kind];
+    if(bytes < 0 || count > REGION_BYTES / elementBytes - top) {
+      return -1;
+    }
+    if(regions[kind] == null) {
+      regions[kind] = newRegion(kind);
+    }
+    tops[kind] = top + count;
+    return top;
+  }
+
+  private static Object newRegion(int kind) {
+    int length = REGION_BYTES / ELEMENT_BYTES[kind];
+    switch (kind) {
+      case BYTE:
+        return new byte[length];
+      case SHORT:
+        return new short[length];
+      case CHAR:
+        return new char[length];
+      case INT:
+        return new int[length];
+      case LONG:
+        return new long[length];
+      case FLOAT:
+        return new float[length];
+      case DOUBLE:
+        return new double[length];
+      case POINTER:
+        Ptr[] pointers = new Ptr[length];
+        Arrays.fill(pointers, PointerPtr.NULL);
+        return pointers;
+      case MIXED:
+        return MixedPtr.malloc(REGION_BYTES);
+      default:
+        throw new IllegalArgumentException("kind: " + kind);
+    }
+  }
+
+  private void clear(int kind, int from, int to) {
+    Object region = regions[kind];
+    switch (kind) {
+      case BYTE:
+        Arrays.fill((byte[]) region, from, to, (byte) 0);
+        break;
+      case SHORT:
+        Arrays.fill((short[]) region, from, to, (short) 0);
+        break;
+      case CHAR:
+        Arrays.fill((char[]) region, from, to, (char) 0);
+        break;
+      case INT:
+        Arrays.fill((int[]) region, from, to, 0);
+        break;
+      case LONG:
+        Arrays.fill((long[]) region, from, to, 0L);
+        break;
+      case FLOAT:
+        Arrays.fill((float[]) region, from, to, 0f);
+        break;
+      case DOUBLE:
+        Arrays.fill((double[]) region, from, to, 0d);
+        break;
+      case POINTER:
+        Arrays.fill((Ptr[]) region, from, to, PointerPtr.NULL);
+        break;
+      case MIXED:
+        ((MixedPtr) region).clear(from, to);
+        break;
+    }
+  }
+}
@@ -42,6 +42,11 @@ public class Stdlib {
 
   public static final int CLOCKS_PER_SEC = 4;
 
+  /**
+   * The value of errno on Linux when the result of a conversion is out of range.
+   */
+  private static final int ERANGE = 34;
+
   private static long PROGRAM_START = System.currentTimeMillis();
 
   public static BytePtr tzname;
@@ -60,6 +65,11 @@ public class Stdlib {
   }
 
   public static int strncmp(Ptr x, Ptr y, int n) {
+    if(x instanceof BytePtr && y instanceof BytePtr) {
+      BytePtr bx = (BytePtr) x;
+      BytePtr by = (BytePtr) y;
+      return ByteStrings.strncmp(bx.array, bx.offset, by.array, by.offset, n);
+    }
     for(int i=0;i<n;++i) {
       byte bx = x.getByte(i);
       byte by = y.getByte(i);
@@ -121,6 +131,11 @@ public class Stdlib {
   }
 
   public static int strncasecmp(Ptr x, Ptr y, int len) {
+    if(x instanceof BytePtr && y instanceof BytePtr) {
+      BytePtr bx = (BytePtr) x;
+      BytePtr by = (BytePtr) y;
+      return ByteStrings.strncasecmp(bx.array, bx.offset, by.array, by.offset, len);
+    }
     for (int i = 0; i < len; ++i) {
       int bx = Character.toLowerCase(x.getByte(i));
       int by = Character.toLowerCase(y.getByte(i));
@@ -152,10 +167,18 @@ public class Stdlib {
    *    If the character is not found, the function returns a null pointer.
    */
   public static Ptr strchr(Ptr string, int ch) {
+    if(string instanceof BytePtr) {
+      BytePtr bs = (BytePtr) string;
+      int pos = ByteStrings.indexOfByteOrZero(bs.array, bs.offset, (byte) ch);
+      if(bs.array[pos] == (byte) ch) {
+        return new BytePtr(bs.array, pos);
+      }
+      return BytePtr.NULL;
+    }
     int pos = 0;
     while(true) {
       int pc = string.getByte(pos);
-      if(pc == ch) {
+      if(pc == (byte) ch) {
         return string.pointerPlus(pos);
       }
       if(pc == 0) {
@@ -166,15 +189,28 @@ public class Stdlib {
     return BytePtr.NULL;
   }
 
+  /**
+   * Returns a pointer to the last occurrence of character in the C string str.
+   *
+   * <p>As with {@link #strchr(Ptr, int)}, the terminating null-character is considered part of the string.</p>
+   */
   public static Ptr strrchr(Ptr string, int ch) {
-    int len = 0;
-    while(string.getByte(len) != 0) {
-      len++;
+    if(string instanceof BytePtr) {
+      BytePtr bs = (BytePtr) string;
+      int pos = ByteStrings.lastIndexOf(bs.array, bs.offset, (byte) ch);
+      if(pos == -1) {
+        return BytePtr.NULL;
+      }
+      return new BytePtr(bs.array, pos);
+    }
+    int len = strlen(string);
+    if((byte) ch == 0) {
+      return string.pointerPlus(len);
     }
     int pos = len - 1;
-    while(pos > 0) {
+    while(pos >= 0) {
       int pc = string.getByte(pos);
-      if(pc == ch) {
+      if(pc == (byte) ch) {
         return string.pointerPlus(pos);
       }
       pos--;
@@ -182,9 +218,45 @@ public class Stdlib {
     return BytePtr.NULL;
   }
 
+  /**
+   * Returns a pointer to the first occurrence of the C string {@code searched} in {@code string}, or a null
+   * pointer if it does not occur.
+   *
+   * <p>Uses the linear-time Two-Way algorithm. Strings not backed by a {@code BytePtr} are first
+   * copied into byte arrays.</p>
+   */
   public static Ptr strstr(Ptr string, Ptr searched) {
-    final int offset = nullTerminatedString(string).indexOf(nullTerminatedString(searched));
-    return new OffsetPtr(string, offset);
+    BytePtr haystack = toBytePtr(string);
+    BytePtr needle = toBytePtr(searched);
+
+    int needleLength = ByteStrings.strlen(needle.array, needle.offset);
+    int haystackLength = ByteStrings.strlen(haystack.array, haystack.offset);
+
+    int pos = ByteStrings.indexOf(haystack.array, haystack.offset, haystackLength,
+        needle.array, needle.offset, needleLength);
+
+    if(pos == -1) {
+      return BytePtr.NULL;
+    }
+    if(haystack == string) {
+      return new BytePtr(haystack.array, haystack.offset + pos);
+    }
+    return string.pointerPlus(pos);
+  }
+
+  /**
+   * @return {@code string} itself if it is a {@code BytePtr}, or otherwise a copy of the null-terminated string.
+   */
+  private static BytePtr toBytePtr(Ptr string) {
+    if(string instanceof BytePtr) {
+      return (BytePtr) string;
+    }
+    int length = strlen(string);
+    byte[] copy = new byte[length + 1];
+    for (int i = 0; i < length; i++) {
+      copy[i] = string.getByte(i);
+    }
+    return new BytePtr(copy, 0);
   }
 
   /**
@@ -195,6 +267,11 @@ public class Stdlib {
    * length of str1 if none of the characters of str2 are found in str1.
    */
   public static int strcspn(Ptr str1, Ptr str2) {
+    if(str1 instanceof BytePtr && str2 instanceof BytePtr) {
+      BytePtr b1 = (BytePtr) str1;
+      BytePtr b2 = (BytePtr) str2;
+      return ByteStrings.span(b1.array, b1.offset, b2.array, b2.offset, false);
+    }
     int i = 0;
     byte c, d;
     while(true) {
@@ -240,84 +317,57 @@ public class Stdlib {
     return strtol(str, endptr, radix, false);
   }
 
+  @Deprecated
   public static double strtold(Ptr string) {
-    return strtod(string);
+    return strtod(string, BytePtr.NULL);
   }
 
-  public static double strtod(Ptr string) {
-    return Double.parseDouble(nullTerminatedString(string));
+  public static double strtold(Ptr str, Ptr endptr) {
+    return strtod(str, endptr);
   }
 
-  static long strtol(Ptr str, Ptr endptr, int radix, boolean signed) {
-
-    String s = nullTerminatedString(str);
-
-    // Find the start of the number
-    int start = 0;
-
-    // Skip beginning whitespace
-    while (start < s.length() && Character.isWhitespace(s.charAt(start))) {
-      start++;
-    }
-
-    int pos = start;
-
-    // Check for +/- prefix
-    if(pos < s.length() && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
-      pos++;
-    }
-
-    // Check for hex prefix 0x/0X if the radix is 16 or unspecified
-    else if( (radix == 0 || radix == 16) &&
-        pos + 1 < s.length() && s.charAt(pos) == '0' &&
-        (s.charAt(pos+1) == 'x' || s.charAt(pos+1) == 'X')) {
-      start+=2;
-      pos = start;
-      radix = 16;
-
-    }
+  @Deprecated
+  public static double strtod(Ptr string) {
+    return strtod(string, BytePtr.NULL);
+  }
 
-    // If radix is not specified, then check for octal prefix
-    else if(radix == 0 &&  pos < s.length() && s.charAt(pos) == '0') {
-      radix = 8;
-    }
+  /**
+   * Parses the C-string str, interpreting its content as a floating point number, which is returned as a
+   * value of type double.
+   *
+   * <p>Only the characters that make up the number are read, so that calling {@code strtod} repeatedly
+   * to walk through a large buffer takes time proportional to the size of the buffer.</p>
+   *
+   * @param str C-string beginning with the representation of a floating-point number.
+   * @param endptr Reference to an already allocated object of type char*, whose value is set by the function to
+   *               the next character in str after the numerical value. This parameter can also be a null pointer,
+   *               in which case it is not used.
+   * @return On success, the function returns the converted floating point number as a value of type double.
+   * If no valid conversion could be performed, the function returns zero (0.0) and sets endptr to str.
+   */
+  public static double strtod(Ptr str, Ptr endptr) {
+    NumberScanner scanner = new NumberScanner();
+    double value = scanner.scanDouble(new ByteCharIterator(str));
 
-    // Otherwise if radix is not specified, and there is no prefix,
-    // assume decimal
-    if(radix == 0) {
-      radix = 10;
+    if(!endptr.isNull()) {
+      endptr.setPointer(str.pointerPlus(scanner.getLength()));
     }
+    return value;
+  }
 
-    // Advance until we run out of digits
-    while(pos < s.length() && Character.digit(s.charAt(pos), radix) != -1) {
-      pos++;
-    }
+  static long strtol(Ptr str, Ptr endptr, int radix, boolean signed) {
+    NumberScanner scanner = new NumberScanner();
+    long value = scanner.scanLong(new ByteCharIterator(str), radix, signed);
 
     // If requested, update the endptr
     if(!endptr.isNull()) {
-      endptr.setPointer(str.pointerPlus(pos));
-    }
-
-    // If empty, return 0 and exit
-    if(start == pos) {
-      return 0;
+      endptr.setPointer(str.pointerPlus(scanner.getLength()));
     }
 
-    s = s.substring(start, pos);
-
-    if(signed) {
-      try {
-        return Long.parseLong(s, radix);
-      } catch (NumberFormatException e) {
-        return Long.MAX_VALUE;
-      }
-    } else {
-      try {
-        return Long.parseUnsignedLong(s, radix);
-      } catch (NumberFormatException e) {
-        return -1;
-      }
+    if(scanner.isOverflow()) {
+      Builtins.__errno_location().setInt(ERANGE);
     }
+    return value;
   }
 
   public static Ptr strdup(Ptr s) {
@@ -392,11 +442,7 @@ public class Stdlib {
    * @return the converted integral number as an int value. If no valid conversion could be performed, it returns zero.
    */
   public static int atoi(Ptr str) {
-    try {
-      return Integer.parseInt(nullTerminatedString(str));
-    } catch (NumberFormatException e) {
-      return 0;
-    }
+    return (int) new NumberScanner().scanLong(new ByteCharIterator(str), 10, true);
   }
 
   public static double asinh(double x) {
@@ -430,6 +476,10 @@ public class Stdlib {
   }
 
   public static int strlen(Ptr x) {
+    if(x instanceof BytePtr) {
+      BytePtr bx = (BytePtr) x;
+      return ByteStrings.strlen(bx.array, bx.offset);
+    }
     int len = 0;
     while(true) {
       if(x.getByte(len) == 0) {
@@ -474,20 +524,10 @@ public class Stdlib {
    *
    * The search does not include the terminating null-characters of either strings, but ends there.
    */
-  public static int strspn ( Ptr str1, Ptr str2 ) {
-    int len = 0;
-    while(true) {
-      byte c1 = str1.getByte(len);
-      byte c2 = str2.getByte(len);
-      if(c1 != c2) {
-        break;
-      }
-      if(c1 == 0) {
-        break;
-      }
-      len++;
-    }
-    return len;
+  public static int strspn(Ptr str1, Ptr str2) {
+    BytePtr b1 = toBytePtr(str1);
+    BytePtr b2 = toBytePtr(str2);
+    return ByteStrings.span(b1.array, b1.offset, b2.array, b2.offset, true);
   }
 
 
@@ -587,7 +627,7 @@ public class Stdlib {
   }
 
   public static int sscanf(Ptr str, Ptr format, Object... arguments) {
-    Formatter formatter = new Formatter(nullTerminatedString(format), Formatter.Mode.SCAN);
+    Formatter formatter = ScanFormatCache.get(format);
     return formatter.scan(new ByteCharIterator(str), arguments);
   }
 
@@ -597,7 +637,7 @@ public class Stdlib {
 
   public static int fscanf(Ptr fileHandle, Ptr format, Object... args) {
     FileHandle h = (FileHandle) fileHandle.getArray();
-    Formatter formatter = new Formatter(nullTerminatedString(format), Formatter.Mode.SCAN);
+    Formatter formatter = ScanFormatCache.get(format);
     try(FileHandleCharIterator it = new FileHandleCharIterator(h)) {
       return formatter.scan(it, args);
     }
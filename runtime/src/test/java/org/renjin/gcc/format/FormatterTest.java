@@ -22,10 +22,25 @@ import org.hamcrest.Matchers;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.renjin.gcc.runtime.BytePtr;
+import org.renjin.gcc.runtime.DoublePtr;
+import org.renjin.gcc.runtime.FileHandleImpl;
+import org.renjin.gcc.runtime.FloatPtr;
+import org.renjin.gcc.runtime.IntPtr;
 import org.renjin.gcc.runtime.Ptr;
 import org.renjin.gcc.runtime.Stdlib;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.renjin.gcc.format.Formatter.ArgumentType;
 import static org.renjin.gcc.format.Formatter.format;
@@ -151,6 +166,104 @@ public class FormatterTest {
     assertThat(Stdlib.nullTerminatedString(stringOutput), equalTo("Helvetica"));
   }
 
+  @Test
+  public void scanNumbers() {
+    Formatter formatter = new Formatter("%d,%lf,%f", Formatter.Mode.SCAN);
+    IntPtr intOutput = new IntPtr(0);
+    DoublePtr doubleOutput = new DoublePtr(0);
+    FloatPtr floatOutput = new FloatPtr(0);
+
+    int count = formatter.scan(new StringCharIterator(" -17, 2.5e-1,3.25"),
+        new Object[] { intOutput, doubleOutput, floatOutput });
+
+    assertThat(count, equalTo(3));
+    assertThat(intOutput.getInt(), equalTo(-17));
+    assertThat(doubleOutput.getDouble(), equalTo(0.25));
+    assertThat(floatOutput.getFloat(), equalTo(3.25f));
+  }
+
+  @Test
+  public void scanWhitespaceDirectives() {
+    Formatter formatter = new Formatter("%d %s\n", Formatter.Mode.SCAN);
+    IntPtr intOutput = new IntPtr(0);
+    BytePtr stringOutput = new BytePtr(new byte[16]);
+
+    int count = formatter.scan(new StringCharIterator("12\t\t  abc\n"), new Object[] { intOutput, stringOutput });
+
+    assertThat(count, equalTo(2));
+    assertThat(intOutput.getInt(), equalTo(12));
+    assertThat(Stdlib.nullTerminatedString(stringOutput), equalTo("abc"));
+  }
+
+  @Test
+  public void scanFormatCache() {
+    BytePtr format = BytePtr.nullTerminatedString("%d", StandardCharsets.US_ASCII);
+    Formatter formatter = ScanFormatCache.get(format);
+    assertThat(ScanFormatCache.get(format), sameInstance(formatter));
+
+    // The cache must notice that the buffer now holds a different format
+    format.setByte(1, (byte) 's');
+    assertThat(ScanFormatCache.get(format), not(sameInstance(formatter)));
+  }
+
+  @Test
+  public void scanFormatCacheDoesNotRetainFormat() throws InterruptedException {
+    BytePtr format = BytePtr.nullTerminatedString("%d", StandardCharsets.US_ASCII);
+    ScanFormatCache.get(format);
+
+    WeakReference<byte[]> array = new WeakReference<>(format.array);
+    format = null;
+
+    for (int i = 0; i < 50 && array.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(array.get(), nullValue());
+  }
+
+  @Test
+  public void scanFormatCacheDecodesLikeUncachedFormats() {
+    // "%d\xE9%d" as a byte array, and as the same bytes viewed through an IntPtr
+    BytePtr bytes = new BytePtr(new byte[] { '%', 'd', (byte) 0xE9, '%', 'd', 0 });
+    IntPtr ints = new IntPtr(0x25E96425, 0x64);
+    assertThat(Stdlib.nullTerminatedString(ints), equalTo(Stdlib.nullTerminatedString(bytes)));
+
+    BytePtr input = new BytePtr(new byte[] { '1', (byte) 0xE9, '2', 0 });
+    IntPtr x = new IntPtr(0);
+    IntPtr y = new IntPtr(0);
+    assertThat(Stdlib.sscanf(input, bytes, x, y), equalTo(2));
+    assertThat(Stdlib.sscanf(input, ints, x, y), equalTo(2));
+    assertThat(y.getInt(), equalTo(2));
+  }
+
+  @Test
+  public void fscanfLines() throws IOException {
+    File file = File.createTempFile("fscanf", ".txt");
+    file.deleteOnExit();
+    try(Writer writer = new FileWriter(file)) {
+      for (int i = 0; i < 1000; i++) {
+        writer.write(i + " " + (i / 4d) + "\n");
+      }
+    }
+
+    Formatter formatter = new Formatter("%d %lf\n", Formatter.Mode.SCAN);
+    IntPtr intOutput = new IntPtr(0);
+    DoublePtr doubleOutput = new DoublePtr(0);
+
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileHandleImpl handle = new FileHandleImpl(raf);
+      for (int i = 0; i < 1000; i++) {
+        // Each scan reads a block from the file, and must return what it did not consume
+        try(FileHandleCharIterator it = new FileHandleCharIterator(handle)) {
+          assertThat(formatter.scan(it, new Object[] { intOutput, doubleOutput }), equalTo(2));
+        }
+        assertThat(intOutput.getInt(), equalTo(i));
+        assertThat(doubleOutput.getDouble(), equalTo(i / 4d));
+      }
+      assertThat(handle.read(), equalTo(-1));
+    }
+  }
+
   @Test
   public void sscanfWhitespace() {
     Formatter formatter = new Formatter("%39s", Formatter.Mode.SCAN);
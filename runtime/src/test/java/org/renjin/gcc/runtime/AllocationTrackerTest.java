@@ -0,0 +1,144 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+
+public class AllocationTrackerTest {
+
+  @Test
+  public void allocateAndFree() {
+    AllocationSite site = AllocationTracker.site("test.c", "allocateAndFree", 10);
+
+    DoublePtr p = new DoublePtr(new double[4]);
+    AllocationTracker.reserve(32);
+    AllocationTracker.allocated(p, 32, site);
+
+    assertThat(site.getAllocationCount(), equalTo(1L));
+    assertThat(site.getLiveBytes(), equalTo(32L));
+
+    // Freeing a pointer into the middle of the block still identifies the block
+    AllocationTracker.freed(p.pointerPlus(8));
+
+    assertThat(site.getFreeCount(), equalTo(1L));
+    assertThat(site.getFreedBytes(), equalTo(32L));
+    assertThat(site.getLiveBytes(), equalTo(0L));
+
+    // Double frees and frees of untracked memory are ignored
+    AllocationTracker.freed(p);
+    AllocationTracker.freed(new DoublePtr(new double[1]));
+    AllocationTracker.freed(BytePtr.NULL);
+    assertThat(site.getFreeCount(), equalTo(1L));
+  }
+
+  @Test
+  public void realloc() {
+    AllocationSite mallocSite = AllocationTracker.site("test.c", "realloc", 20);
+    AllocationSite reallocSite = AllocationTracker.site("test.c", "realloc", 21);
+
+    BytePtr p = new BytePtr(new byte[10]);
+    AllocationTracker.allocated(p, 10, mallocSite);
+
+    BytePtr q = p.realloc(100);
+    AllocationTracker.reallocated(p, q, 100, reallocSite);
+
+    assertThat(mallocSite.getFreedBytes(), equalTo(10L));
+    assertThat(mallocSite.getLiveBytes(), equalTo(0L));
+    assertThat(reallocSite.getLiveBytes(), equalTo(100L));
+
+    AllocationTracker.freed(q);
+    assertThat(reallocSite.getLiveBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void leaks() throws InterruptedException {
+    AllocationSite site = AllocationTracker.site("test.c", "leaks", 30);
+    for (int i = 0; i < 10; i++) {
+      AllocationTracker.allocated(new IntPtr(new int[256]), 1024, site);
+    }
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while(site.getLeakCount() < 10 && System.currentTimeMillis() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+      AllocationTracker.getSites();
+    }
+    assertThat(site.getLeakCount(), equalTo(10L));
+    assertThat(site.getLeakedBytes(), equalTo(10240L));
+    assertThat(site.getLiveBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void quota() {
+    AllocationSite site = AllocationTracker.site("test.c", "quota", 40);
+    AllocationQuota quota = new AllocationQuota(100);
+    AllocationQuota previous = AllocationTracker.setQuota(quota);
+    try {
+      DoublePtr p = new DoublePtr(new double[10]);
+      AllocationTracker.reserve(80);
+      AllocationTracker.allocated(p, 80, site);
+      assertThat(quota.getUsedBytes(), equalTo(80L));
+
+      try {
+        AllocationTracker.reserve(80);
+        fail("Expected quota to be exceeded");
+      } catch (AllocationQuotaExceededException e) {
+        assertThat(e.getRequestedBytes(), equalTo(80L));
+        assertThat(quota.getUsedBytes(), equalTo(80L));
+      }
+
+      AllocationTracker.freed(p);
+      assertThat(quota.getUsedBytes(), equalTo(0L));
+
+      AllocationTracker.reserve(80);
+      AllocationTracker.unreserve(80);
+      assertThat(quota.getUsedBytes(), equalTo(0L));
+    } finally {
+      AllocationTracker.setQuota(previous);
+    }
+  }
+
+  @Test
+  public void summaryAndMBean() throws Exception {
+    AllocationSite site = AllocationTracker.site("summary.c", "summaryAndMBean", 50);
+    double[] block = new double[16];
+    AllocationTracker.allocated(new DoublePtr(block), 128, site);
+
+    StringWriter writer = new StringWriter();
+    AllocationTracker.writeSiteSummary(writer);
+    assertThat(writer.toString(), containsString("summary.c,summaryAndMBean,50,1,128,0,0,0,0,128"));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    Number live = (Number) server.getAttribute(new ObjectName(AllocationTracker.OBJECT_NAME), "LiveBytes");
+    assertThat(live.longValue() >= 128, equalTo(true));
+
+    AllocationTracker.freed(new DoublePtr(block));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+
+public class ComplexReturnSlotTest {
+
+  @Test
+  public void reusedWithinThread() {
+    double[] x = ComplexReturnSlot.of(1.0, 2.0);
+    assertThat(x[0], equalTo(1.0));
+    assertThat(x[1], equalTo(2.0));
+
+    double[] y = ComplexReturnSlot.of(3.0, 4.0);
+    assertThat(y, sameInstance(x));
+    assertThat(y[0], equalTo(3.0));
+    assertThat(y[1], equalTo(4.0));
+
+    float[] f = ComplexReturnSlot.of(5f, 6f);
+    assertThat(f[0], equalTo(5f));
+    assertThat(f[1], equalTo(6f));
+  }
+
+  @Test
+  public void separateSlotPerThread() throws InterruptedException {
+    double[] mine = ComplexReturnSlot.of(1.0, 2.0);
+
+    AtomicReference<double[]> theirs = new AtomicReference<>();
+    Thread thread = new Thread(() -> theirs.set(ComplexReturnSlot.of(3.0, 4.0)));
+    thread.start();
+    thread.join();
+
+    assertThat(theirs.get(), not(sameInstance(mine)));
+    assertThat(mine[0], equalTo(1.0));
+    assertThat(mine[1], equalTo(2.0));
+
+    // Switching back to this thread must find our own slot again
+    assertThat(ComplexReturnSlot.of(5.0, 6.0), sameInstance(mine));
+  }
+
+  @Test
+  public void doesNotRetainLastThread() throws InterruptedException {
+    Thread thread = new Thread(() -> ComplexReturnSlot.of(1.0, 2.0));
+    thread.start();
+    thread.join();
+
+    WeakReference<Thread> reference = new WeakReference<>(thread);
+    thread = null;
+    for (int i = 0; i < 50 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(reference.get(), nullValue());
+  }
+}
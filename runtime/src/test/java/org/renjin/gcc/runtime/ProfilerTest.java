@@ -0,0 +1,86 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilerTest {
+
+  @Test
+  public void nestedCalls() throws Exception {
+    int outer = Profiler.register("test.c", "outer", "10,12");
+    int inner = Profiler.register("test.c", "inner", "20");
+
+    for (int i = 0; i < 3; i++) {
+      ProfileBuffer buffer = Profiler.enter(outer);
+      buffer.block(0);
+      ProfileBuffer innerBuffer = Profiler.enter(inner);
+      innerBuffer.block(0);
+      spin();
+      innerBuffer.exit();
+      buffer.block(1);
+      buffer.exit();
+    }
+
+    FunctionProfile outerProfile = Profiler.getFunctions().get(outer);
+    FunctionProfile innerProfile = Profiler.getFunctions().get(inner);
+
+    assertThat(outerProfile.getCallCount(), equalTo(3L));
+    assertThat(innerProfile.getCallCount(), equalTo(3L));
+    assertThat(outerProfile.getBlockHits()[1], equalTo(3L));
+    assertThat(outerProfile.getBlockLine(1), equalTo(12));
+
+    assertTrue(outerProfile.getInclusiveNanos() >= innerProfile.getInclusiveNanos());
+    assertThat(outerProfile.getExclusiveNanos() + innerProfile.getExclusiveNanos(),
+        equalTo(outerProfile.getInclusiveNanos()));
+
+    StringWriter stacks = new StringWriter();
+    Profiler.writeCollapsedStacks(stacks);
+    assertThat(stacks.toString(), containsString("test.c:outer;test.c:inner "));
+  }
+
+  @Test
+  public void recursiveCallsAreCountedOnce() {
+    int id = Profiler.register("test.c", "recursive", "");
+
+    ProfileBuffer buffer = Profiler.enter(id);
+    Profiler.enter(id);
+    spin();
+    buffer.exit();
+    buffer.exit();
+
+    FunctionProfile profile = Profiler.getFunctions().get(id);
+    assertThat(profile.getCallCount(), equalTo(2L));
+    assertThat(profile.getInclusiveNanos(), equalTo(profile.getExclusiveNanos()));
+  }
+
+  private static void spin() {
+    long start = System.nanoTime();
+    while(System.nanoTime() - start < 100_000) {
+      // busy wait
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+
+public class ReallocTest {
+
+  @Test
+  public void growsWithSlack() {
+    double[] array = new double[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+    double[] grown = Realloc.realloc(array, 0, 9);
+
+    assertThat(grown, not(sameInstance(array)));
+    assertThat(grown.length, equalTo(12));
+    assertThat(grown[7], equalTo(8d));
+
+    // Further small appends fit in the slack
+    assertThat(Realloc.realloc(grown, 0, 12), sameInstance(grown));
+  }
+
+  @Test
+  public void geometricGrowthIsExact() {
+    int[] array = new int[10];
+    assertThat(Realloc.realloc(array, 0, 20).length, equalTo(20));
+  }
+
+  @Test
+  public void offsetPointersAreCopied() {
+    byte[] array = new byte[] { 1, 2, 3, 4 };
+    byte[] moved = Realloc.realloc(array, 2, 2);
+
+    assertThat(moved, not(sameInstance(array)));
+    assertThat(moved.length, equalTo(2));
+    assertThat(moved[0], equalTo((byte) 3));
+  }
+
+  @Test
+  public void shrinking() {
+    long[] array = new long[100];
+    array[10] = 42;
+
+    assertThat(Realloc.realloc(array, 0, 50), sameInstance(array));
+
+    long[] small = Realloc.realloc(array, 0, 11);
+    assertThat(small.length, equalTo(11));
+    assertThat(small[10], equalTo(42L));
+  }
+
+  @Test
+  public void appendingIsAmortized() {
+    BytePtr ptr = BytePtr.malloc(1);
+    int moves = 0;
+    for (int i = 0; i < 10000; i++) {
+      BytePtr grown = ptr.realloc(i + 2);
+      if(grown.array != ptr.array) {
+        moves++;
+      }
+      ptr = grown;
+      ptr.array[i] = 'x';
+    }
+    assertThat(ptr.array.length, greaterThan(10000));
+    assertThat(Stdlib.strlen((Ptr) ptr), equalTo(10000));
+    assertThat(moves < 30, equalTo(true));
+  }
+}
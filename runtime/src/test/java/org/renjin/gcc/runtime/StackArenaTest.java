@@ -0,0 +1,105 @@
+/*
+ * Renjin : JVM-based interpreter for the R language for the statistical analysis
+ * Copyright © 2010-2019 BeDataDriven Groep B.V. and contributors
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, a copy is available at
+ * https://www.gnu.org/licenses/gpl-2.0.txt
+ */
+package org.renjin.gcc.runtime;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+
+public class StackArenaTest {
+
+  @Test
+  public void releaseReusesAndClearsMemory() {
+    StackArena arena = StackArena.current();
+    int mark = arena.mark();
+    DoublePtr first = arena.allocaDouble(3 * DoublePtr.BYTES);
+    first.setAlignedDouble(2, 42);
+    arena.release(mark);
+
+    mark = arena.mark();
+    DoublePtr second = arena.allocaDouble(3 * DoublePtr.BYTES);
+    assertThat(second.array, sameInstance(first.array));
+    assertThat(second.offset, equalTo(first.offset));
+    assertThat(second.getAlignedDouble(2), equalTo(0d));
+    arena.release(mark);
+  }
+
+  @Test
+  public void nestedMarks() {
+    StackArena arena = StackArena.current();
+    int depth = arena.getDepth();
+    int outer = arena.mark();
+    IntPtr a = arena.allocaInt(8);
+    arena.mark();
+    IntPtr b = arena.allocaInt(4);
+    assertThat(b.offset, equalTo(a.offset + 2));
+
+    // Releasing the outer mark also releases the inner one
+    arena.release(outer);
+    assertThat(arena.getDepth(), equalTo(depth));
+
+    int again = arena.mark();
+    assertThat(arena.allocaInt(4).offset, equalTo(a.offset));
+    arena.release(again);
+  }
+
+  @Test
+  public void mixedMemoryHoldsPointers() {
+    StackArena arena = StackArena.current();
+    int mark = arena.mark();
+    MixedPtr block = arena.allocaMixed(12);
+    MixedPtr next = arena.allocaMixed(8);
+    assertThat(next.getOffsetInBytes() - block.getOffsetInBytes(), equalTo(16));
+
+    DoublePtr value = new DoublePtr(1, 2);
+    block.setPointer(8, value);
+    assertThat(block.getPointer(8), sameInstance((Ptr) value));
+    arena.release(mark);
+
+    mark = arena.mark();
+    block = arena.allocaMixed(12);
+    assertThat(block.getPointer(8).isNull(), equalTo(true));
+    arena.release(mark);
+  }
+
+  @Test
+  public void largeAllocationsUseTheHeap() {
+    StackArena arena = StackArena.current();
+    int mark = arena.mark();
+    BytePtr small = arena.allocaByte(16);
+    BytePtr large = arena.allocaByte(StackArena.REGION_BYTES);
+    assertThat(large.array, not(sameInstance(small.array)));
+    assertThat(large.array.length, equalTo(StackArena.REGION_BYTES));
+    arena.release(mark);
+  }
+
+  @Test
+  public void threadsHaveTheirOwnArena() throws InterruptedException {
+    StackArena[] other = new StackArena[1];
+    Thread thread = new Thread(() -> other[0] = StackArena.current());
+    thread.start();
+    thread.join();
+
+    assertThat(other[0], not(sameInstance(StackArena.current())));
+  }
+}
@@ -73,6 +73,87 @@ public class StdlibTest {
     assertThat(Stdlib.strtoul(cstring("0xfffffffffffffffe"), NULL, 0), equalTo(0xfffffffffffffffeL));
   }
 
+  @Test
+  public void strtolLongInputClamps() {
+    PointerPtr end = PointerPtr.malloc(4);
+    Ptr errno = Builtins.__errno_location();
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtol(cstring("1075689403318259245024"), end, 10), equalTo(Long.MAX_VALUE));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(22));
+    assertThat(errno.getInt(), equalTo(34));
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtol(cstring("-1075689403318259245024"), NULL, 10), equalTo(Long.MIN_VALUE));
+    assertThat(errno.getInt(), equalTo(34));
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtol(cstring("7777777777777777777777777"), NULL, 8), equalTo(Long.MAX_VALUE));
+    assertThat(errno.getInt(), equalTo(34));
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtol(cstring("0x123456789abcdef0123456"), end, 0), equalTo(Long.MAX_VALUE));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(24));
+    assertThat(errno.getInt(), equalTo(34));
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtoul(cstring("123456789012345678901234"), NULL, 10), equalTo(-1L));
+    assertThat(errno.getInt(), equalTo(34));
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtoul(cstring("fffffffffffffffff"), NULL, 16), equalTo(-1L));
+    assertThat(errno.getInt(), equalTo(34));
+
+    errno.setInt(0);
+    assertThat(Stdlib.strtoul(cstring("1777777777777777777777"), NULL, 8), equalTo(-1L));
+    assertThat(errno.getInt(), equalTo(0));
+  }
+
+  @Test
+  public void strtolEndPtr() {
+    BytePtr str = cstring("  -12abc");
+    PointerPtr end = PointerPtr.malloc(4);
+    assertThat(Stdlib.strtol(str, end, 10), equalTo(-12L));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(5));
+
+    // "0x" without hex digits is parsed as a zero
+    assertThat(Stdlib.strtol(cstring("0xg"), end, 0), equalTo(0L));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(1));
+
+    // No conversion leaves endptr at the start of the string
+    assertThat(Stdlib.strtol(cstring("  x"), end, 10), equalTo(0L));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(0));
+
+    assertThat(Stdlib.strtol(cstring("9223372036854775808"), NULL, 10), equalTo(Long.MAX_VALUE));
+    assertThat(Stdlib.strtol(cstring("-9223372036854775809"), NULL, 10), equalTo(Long.MIN_VALUE));
+    assertThat(Stdlib.atoi((Ptr) cstring(" 42 apples")), equalTo(42));
+  }
+
+  @Test
+  public void strtod() {
+    BytePtr csv = cstring("1.5,-2e3, 0.1,inf");
+    PointerPtr end = PointerPtr.malloc(4);
+    double[] values = new double[4];
+    Ptr p = csv;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Stdlib.strtod(p, end);
+      p = end.getPointer().pointerPlus(1);
+    }
+    assertThat(values[0], equalTo(1.5));
+    assertThat(values[1], equalTo(-2000d));
+    assertThat(values[2], equalTo(0.1));
+    assertThat(values[3], equalTo(Double.POSITIVE_INFINITY));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(17));
+
+    // An exponent without digits is not part of the number
+    assertThat(Stdlib.strtod(cstring("1e,"), end), equalTo(1d));
+    assertThat(((BytePtr) end.getPointer()).offset, equalTo(1));
+
+    assertThat(Stdlib.strtod(cstring("2.2250738585072011e-308"), NULL), equalTo(2.2250738585072011e-308));
+    assertThat(Stdlib.strtod(cstring("0x1.8p1"), NULL), equalTo(3d));
+    assertThat(Stdlib.strtod(cstring("123456789012345678901234567890"), NULL), equalTo(123456789012345678901234567890d));
+  }
+
   @Test
   public void strcspn() {
     Ptr x = BytePtr.nullTerminatedString("hello world", StandardCharsets.US_ASCII);
@@ -83,6 +164,114 @@ public class StdlibTest {
     assertThat(Stdlib.strcspn(x, z), equalTo(Stdlib.strlen(x)));
   }
 
+  @Test
+  public void strspn() {
+    Ptr x = cstring("129th street");
+    assertThat(Stdlib.strspn(x, cstring("1234567890")), equalTo(3));
+    assertThat(Stdlib.strspn(x, cstring("")), equalTo(0));
+    assertThat(Stdlib.strspn(x, cstring("9876543210th")), equalTo(5));
+  }
+
+  @Test
+  public void strlenAtEveryAlignment() {
+    byte[] array = new byte[40];
+    Arrays.fill(array, (byte) 'x');
+    for (int end = 0; end < array.length; end++) {
+      array[end] = 0;
+      for (int start = 0; start <= end; start++) {
+        assertThat(Stdlib.strlen((Ptr) new BytePtr(array, start)), equalTo(end - start));
+      }
+      array[end] = 'x';
+    }
+  }
+
+  @Test
+  public void strcmpAtEveryAlignment() {
+    byte[] x = new byte[48];
+    byte[] y = new byte[48];
+    for (int xi = 0; xi < 16; xi++) {
+      for (int yi = 0; yi < 16; yi++) {
+        Arrays.fill(x, (byte) 'x');
+        Arrays.fill(y, (byte) 'x');
+        x[xi + 20] = 0;
+        y[yi + 20] = 0;
+        assertThat(Stdlib.strcmp((Ptr) new BytePtr(x, xi), (Ptr) new BytePtr(y, yi)), equalTo(0));
+        y[yi + 19] = 'y';
+        assertThat(Stdlib.strcmp((Ptr) new BytePtr(x, xi), (Ptr) new BytePtr(y, yi)), equalTo(-1));
+        assertThat(Stdlib.strncmp((Ptr) new BytePtr(x, xi), (Ptr) new BytePtr(y, yi), 19), equalTo(0));
+      }
+    }
+  }
+
+  @Test
+  public void strchr() {
+    BytePtr x = cstring("the quick brown fox jumps over the lazy dog");
+    Ptr found = Stdlib.strchr(x.pointerPlus(1), 'z');
+    assertThat(Stdlib.nullTerminatedString(found), equalTo("zy dog"));
+    assertThat(Stdlib.strchr(x, '!').isNull(), equalTo(true));
+    assertThat(Stdlib.strlen(Stdlib.strchr(x, 0)), equalTo(0));
+    assertThat(Stdlib.strlen(Stdlib.strchr(cstring("caf\u00e9"), 0xA9)), equalTo(1));
+
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strrchr(x, 'o')), equalTo("og"));
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strrchr(x, 't')), equalTo("the lazy dog"));
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strrchr(cstring("abc"), 'a')), equalTo("abc"));
+    assertThat(Stdlib.strrchr(x, '!').isNull(), equalTo(true));
+  }
+
+  @Test
+  public void strcmp() {
+    assertThat(Stdlib.strcmp((Ptr) cstring("abcdefghijklmnop"), (Ptr) cstring("abcdefghijklmnop")), equalTo(0));
+    assertThat(Stdlib.strcmp((Ptr) cstring("abcdefghijklmnop"), (Ptr) cstring("abcdefghijklmnoq")), equalTo(-1));
+    assertThat(Stdlib.strcmp((Ptr) cstring("abcdefghij"), (Ptr) cstring("abcdefgh")), equalTo(1));
+    assertThat(Stdlib.strncmp((Ptr) cstring("abcdefghijklmnop"), (Ptr) cstring("abcdefghijklmnoq"), 15), equalTo(0));
+    assertThat(Stdlib.strcasecmp(cstring("Hello, World! Hello!"), cstring("hello, world! hello!")), equalTo(0));
+    assertThat(Stdlib.strcasecmp(cstring("Hello, World! Hello?"), cstring("hello, world! hello!")), equalTo(1));
+
+    // Strings that are not backed by a byte array must give the same results
+    Ptr mixed = MixedPtr.malloc(17);
+    mixed.memcpy(cstring("abcdefghijklmnop"), 17);
+    assertThat(Stdlib.strcmp(mixed, cstring("abcdefghijklmnop")), equalTo(0));
+    assertThat(Stdlib.strcmp(cstring("abcdefghijklmnoq"), mixed), equalTo(1));
+  }
+
+  @Test
+  public void strstr() {
+    BytePtr haystack = cstring("GCAGAGAGGCAGAGAG");
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strstr(haystack, cstring("GAGAGG"))), equalTo("GAGAGGCAGAGAG"));
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strstr(haystack, cstring("AGAGAG"))), equalTo("AGAGAGGCAGAGAG"));
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strstr(haystack, cstring(""))), equalTo("GCAGAGAGGCAGAGAG"));
+    assertThat(Stdlib.strstr(haystack, cstring("GAGAGAGA")).isNull(), equalTo(true));
+
+    Ptr mixed = MixedPtr.malloc(17);
+    mixed.memcpy(haystack, 17);
+    assertThat(Stdlib.nullTerminatedString(Stdlib.strstr(mixed, cstring("CAGAGAG"))), equalTo("CAGAGAGGCAGAGAG"));
+  }
+
+  @Test
+  public void strstrMatchesIndexOf() {
+    java.util.Random random = new java.util.Random(42);
+    for (int trial = 0; trial < 5000; trial++) {
+      String haystack = randomString(random, random.nextInt(40), 1 + random.nextInt(3));
+      String needle = randomString(random, random.nextInt(8), 1 + random.nextInt(3));
+      int expected = haystack.indexOf(needle);
+
+      Ptr found = Stdlib.strstr(cstring(haystack), cstring(needle));
+      if(expected == -1) {
+        assertThat(haystack + " / " + needle, found.isNull(), equalTo(true));
+      } else {
+        assertThat(haystack + " / " + needle, Stdlib.nullTerminatedString(found), equalTo(haystack.substring(expected)));
+      }
+    }
+  }
+
+  private static String randomString(java.util.Random random, int length, int alphabet) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      sb.append((char) ('a' + random.nextInt(alphabet)));
+    }
+    return sb.toString();
+  }
+
   private BytePtr cstring(String str) {
     return BytePtr.nullTerminatedString(str, StandardCharsets.UTF_8);
   }